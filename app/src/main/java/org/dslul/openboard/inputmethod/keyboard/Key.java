@@ -35,6 +35,9 @@ import org.dslul.openboard.inputmethod.latin.R;
 import org.dslul.openboard.inputmethod.latin.common.Constants;
 import org.dslul.openboard.inputmethod.latin.common.StringUtils;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.util.Arrays;
 import java.util.Locale;
 
@@ -1120,12 +1123,126 @@ public class Key implements Comparable<Key> {
         return background;
     }
 
+    /**
+     * Reads a key written by {@link #writeTo(DataOutputStream)} from the keyboard layout cache.
+     * @param in the stream to read from.
+     * @param visualAttributes the visual attributes of the key, which are cached apart from it.
+     * @return the key, which is a {@link Spacer} if the written key was.
+     */
+    @Nonnull
+    static Key readFrom(@Nonnull final DataInputStream in,
+            @Nullable final KeyVisualAttributes visualAttributes) throws IOException {
+        return in.readBoolean() ? new Spacer(in, visualAttributes) : new Key(in, visualAttributes);
+    }
+
+    private Key(@Nonnull final DataInputStream in,
+            @Nullable final KeyVisualAttributes visualAttributes) throws IOException {
+        mCode = in.readInt();
+        mLabel = KeyboardLayoutCache.readString(in);
+        mHintLabel = KeyboardLayoutCache.readString(in);
+        mLabelFlags = in.readInt();
+        mIconId = in.readInt();
+        mWidth = in.readInt();
+        mHeight = in.readInt();
+        mHorizontalGap = in.readInt();
+        mVerticalGap = in.readInt();
+        mX = in.readInt();
+        mY = in.readInt();
+        final int left = in.readInt();
+        final int top = in.readInt();
+        final int right = in.readInt();
+        final int bottom = in.readInt();
+        mHitBox.set(left, top, right, bottom);
+        final int moreKeysCount = in.readInt();
+        if (moreKeysCount > 0) {
+            mMoreKeys = new MoreKeySpec[moreKeysCount];
+            for (int i = 0; i < moreKeysCount; i++) {
+                final int code = in.readInt();
+                final String label = KeyboardLayoutCache.readString(in);
+                final String outputText = KeyboardLayoutCache.readString(in);
+                final int iconId = in.readInt();
+                mMoreKeys[i] = new MoreKeySpec(code, label, outputText, iconId);
+            }
+        } else {
+            mMoreKeys = null;
+        }
+        mMoreKeysColumnAndFlags = in.readInt();
+        mBackgroundType = in.readInt();
+        mActionFlags = in.readInt();
+        if (in.readBoolean()) {
+            final String outputText = KeyboardLayoutCache.readString(in);
+            final int altCode = in.readInt();
+            final int disabledIconId = in.readInt();
+            final int visualInsetsLeft = in.readInt();
+            final int visualInsetsRight = in.readInt();
+            mOptionalAttributes = new OptionalAttributes(outputText, altCode, disabledIconId,
+                    visualInsetsLeft, visualInsetsRight);
+        } else {
+            mOptionalAttributes = null;
+        }
+        mEnabled = in.readBoolean();
+        mKeyVisualAttributes = visualAttributes;
+        mHashCode = computeHashCode(this);
+    }
+
+    /**
+     * Writes this key to the keyboard layout cache, except for its visual attributes, see
+     * {@link #readFrom(DataInputStream, KeyVisualAttributes)}.
+     */
+    void writeTo(@Nonnull final DataOutputStream out) throws IOException {
+        out.writeBoolean(this instanceof Spacer);
+        out.writeInt(mCode);
+        KeyboardLayoutCache.writeString(out, mLabel);
+        KeyboardLayoutCache.writeString(out, mHintLabel);
+        out.writeInt(mLabelFlags);
+        out.writeInt(mIconId);
+        out.writeInt(mWidth);
+        out.writeInt(mHeight);
+        out.writeInt(mHorizontalGap);
+        out.writeInt(mVerticalGap);
+        out.writeInt(mX);
+        out.writeInt(mY);
+        out.writeInt(mHitBox.left);
+        out.writeInt(mHitBox.top);
+        out.writeInt(mHitBox.right);
+        out.writeInt(mHitBox.bottom);
+        if (mMoreKeys == null) {
+            out.writeInt(0);
+        } else {
+            out.writeInt(mMoreKeys.length);
+            for (final MoreKeySpec moreKey : mMoreKeys) {
+                out.writeInt(moreKey.mCode);
+                KeyboardLayoutCache.writeString(out, moreKey.mLabel);
+                KeyboardLayoutCache.writeString(out, moreKey.mOutputText);
+                out.writeInt(moreKey.mIconId);
+            }
+        }
+        out.writeInt(mMoreKeysColumnAndFlags);
+        out.writeInt(mBackgroundType);
+        out.writeInt(mActionFlags);
+        final OptionalAttributes attrs = mOptionalAttributes;
+        out.writeBoolean(attrs != null);
+        if (attrs != null) {
+            KeyboardLayoutCache.writeString(out, attrs.mOutputText);
+            out.writeInt(attrs.mAltCode);
+            out.writeInt(attrs.mDisabledIconId);
+            out.writeInt(attrs.mVisualInsetsLeft);
+            out.writeInt(attrs.mVisualInsetsRight);
+        }
+        out.writeBoolean(mEnabled);
+    }
+
     public static class Spacer extends Key {
         public Spacer(final TypedArray keyAttr, final KeyStyle keyStyle,
                 final KeyboardParams params, final KeyboardRow row) {
             super(null /* keySpec */, keyAttr, keyStyle, params, row);
         }
 
+        Spacer(@Nonnull final DataInputStream in,
+                @Nullable final KeyVisualAttributes visualAttributes) throws IOException {
+            super(in, visualAttributes);
+        }
+
         /**
          * This constructor is being used only for divider in more keys keyboard.
          */
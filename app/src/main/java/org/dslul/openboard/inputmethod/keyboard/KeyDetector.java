@@ -94,23 +94,49 @@ public class KeyDetector {
 
         int minDistance = Integer.MAX_VALUE;
         Key primaryKey = null;
-        for (final Key key: mKeyboard.getNearestKeys(touchX, touchY)) {
-            // An edge key always has its enlarged hitbox to respond to an event that occurred in
-            // the empty area around the key. (@see Key#markAsLeftEdge(KeyboardParams)} etc.)
+        final int cellIndex = mKeyboard.getNearestKeysCellIndex(touchX, touchY);
+        if (cellIndex == ProximityInfo.NOT_A_CELL) {
+            for (final Key key: mKeyboard.getNearestKeys(touchX, touchY)) {
+                // An edge key always has its enlarged hitbox to respond to an event that occurred
+                // in the empty area around the key. (@see Key#markAsLeftEdge(KeyboardParams)} etc.)
+                if (!key.isOnKey(touchX, touchY)) {
+                    continue;
+                }
+                final int distance = key.squaredDistanceToEdge(touchX, touchY);
+                if (isBetterHit(key, distance, primaryKey, minDistance)) {
+                    minDistance = distance;
+                    primaryKey = key;
+                }
+            }
+            return primaryKey;
+        }
+        // Walk the packed grid directly, this runs for every move event.
+        final ProximityInfo proximityInfo = mKeyboard.getProximityInfo();
+        final Key[] keys = proximityInfo.getKeys();
+        final int[] keyIndices = proximityInfo.getGridKeyIndices();
+        final int[] cellOffsets = proximityInfo.getGridCellOffsets();
+        final int end = cellOffsets[cellIndex + 1];
+        for (int i = cellOffsets[cellIndex]; i < end; i++) {
+            final Key key = keys[keyIndices[i]];
             if (!key.isOnKey(touchX, touchY)) {
                 continue;
             }
             final int distance = key.squaredDistanceToEdge(touchX, touchY);
-            if (distance > minDistance) {
-                continue;
-            }
-            // To take care of hitbox overlaps, we compare key's code here too.
-            if (primaryKey == null || distance < minDistance
-                    || key.getCode() > primaryKey.getCode()) {
+            if (isBetterHit(key, distance, primaryKey, minDistance)) {
                 minDistance = distance;
                 primaryKey = key;
             }
         }
         return primaryKey;
     }
+
+    private static boolean isBetterHit(final Key key, final int distance, final Key primaryKey,
+            final int minDistance) {
+        if (distance > minDistance) {
+            return false;
+        }
+        // To take care of hitbox overlaps, we compare key's code here too.
+        return primaryKey == null || distance < minDistance
+                || key.getCode() > primaryKey.getCode();
+    }
 }
@@ -242,6 +242,19 @@ public class Keyboard {
         return mProximityInfo.getNearestKeys(adjustedX, adjustedY);
     }
 
+    /**
+     * Returns the cell of the proximity grid that has the keys closest to the given point, see
+     * {@link ProximityInfo#getCellIndex(int, int)}. Keyboards whose keys are not in the grid
+     * return {@link ProximityInfo#NOT_A_CELL}, and {@link #getNearestKeys(int, int)} is to be
+     * used for them.
+     */
+    public int getNearestKeysCellIndex(final int x, final int y) {
+        // Avoid dead pixels at edges of the keyboard
+        final int adjustedX = Math.max(0, Math.min(x, mOccupiedWidth - 1));
+        final int adjustedY = Math.max(0, Math.min(y, mOccupiedHeight - 1));
+        return mProximityInfo.getCellIndex(adjustedX, adjustedY);
+    }
+
     @Nonnull
     public int[] getCoordinates(@Nonnull final int[] codePoints) {
         final int length = codePoints.length;
@@ -0,0 +1,411 @@
+package org.dslul.openboard.inputmethod.keyboard;
+
+import android.content.Context;
+import android.content.res.Configuration;
+import android.content.res.TypedArray;
+import android.os.Build;
+import android.util.Log;
+import android.util.TypedValue;
+
+import org.dslul.openboard.inputmethod.annotations.UsedForTesting;
+import org.dslul.openboard.inputmethod.keyboard.internal.KeyVisualAttributes;
+import org.dslul.openboard.inputmethod.keyboard.internal.KeyboardParams;
+import org.dslul.openboard.inputmethod.keyboard.internal.UniqueKeysCache;
+import org.dslul.openboard.inputmethod.latin.R;
+import org.dslul.openboard.inputmethod.latin.utils.ApplicationUtils;
+import org.dslul.openboard.inputmethod.latin.utils.ExecutorUtils;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * Stores built {@link Keyboard}s in the cache directory, so that the keyboards of a freshly
+ * started IME process can be read back instead of being parsed from their XML resources again.
+ *
+ * Each file holds one keyboard and starts with a description of everything the parsed keyboard
+ * depends on: the app and platform versions, the resources configuration, the keyboard theme and
+ * the {@link KeyboardId}. A file is only used when its description matches exactly, so nothing
+ * ever needs to be invalidated explicitly. Unreadable files are deleted and the keyboard is
+ * parsed as usual.
+ */
+final class KeyboardLayoutCache {
+    private static final String TAG = KeyboardLayoutCache.class.getSimpleName();
+    private static final boolean DEBUG = false;
+
+    // Must be incremented whenever the format of the files changes.
+    @UsedForTesting
+    static final int FORMAT_VERSION = 1;
+
+    private static final String CACHE_DIRECTORY_NAME = "keyboard_layouts";
+    private static final String FILE_SUFFIX = ".kbd";
+    private static final String TEMP_FILE_SUFFIX = ".tmp";
+    // A few dozen keyboards cover the alphabet, symbols and emoji keyboards of several subtypes
+    // in both orientations. Least recently used files beyond this are deleted.
+    private static final int MAX_CACHE_FILES = 64;
+    private static final int INITIAL_BUFFER_SIZE = 16 * 1024;
+
+    private static final Comparator<File> LEAST_RECENTLY_USED_FIRST = new Comparator<File>() {
+        @Override
+        public int compare(final File lhs, final File rhs) {
+            return Long.compare(lhs.lastModified(), rhs.lastModified());
+        }
+    };
+
+    private KeyboardLayoutCache() {
+        // This utility class is not publicly instantiable.
+    }
+
+    /**
+     * Describes everything a keyboard parsed from <code>keyboardXmlId</code> for <code>id</code>
+     * depends on. Two keyboards with the same description are identical.
+     */
+    @Nonnull
+    static String getDescription(@Nonnull final Context context, @Nonnull final KeyboardId id,
+            final int keyboardXmlId, final boolean allowRedundantMoreKeys,
+            final boolean proximityCharsCorrectionEnabled,
+            final boolean touchPositionCorrectionDisabled) {
+        final Configuration config = context.getResources().getConfiguration();
+        final TypedValue keyboardStyle = new TypedValue();
+        context.getTheme().resolveAttribute(R.attr.keyboardStyle, keyboardStyle, true);
+        return FORMAT_VERSION
+                + "|" + ApplicationUtils.getVersionCode(context)
+                + "|" + Build.VERSION.SDK_INT
+                + "|" + Build.FINGERPRINT
+                + "|" + config.densityDpi
+                + "|" + config.fontScale
+                + "|" + config.orientation
+                + "|" + config.screenWidthDp
+                + "|" + config.screenHeightDp
+                + "|" + config.uiMode
+                + "|" + config.getLayoutDirection()
+                + "|" + config.getLocales().toLanguageTags()
+                + "|" + keyboardStyle.resourceId
+                + "|" + keyboardXmlId
+                + "|" + allowRedundantMoreKeys
+                + "|" + proximityCharsCorrectionEnabled
+                + "|" + touchPositionCorrectionDisabled
+                + "|" + id.mSubtype.getKeyboardLayoutSetName()
+                + "|" + id.getLocale()
+                + "|" + id.mElementId
+                + "|" + id.mMode
+                + "|" + id.mWidth
+                + "|" + id.mHeight
+                + "|" + id.passwordInput()
+                + "|" + id.mClobberSettingsKey
+                + "|" + id.mHasShortcutKey
+                + "|" + id.mNumberRowEnabled
+                + "|" + id.mLanguageSwitchKeyEnabled
+                + "|" + id.mEmojiKeyEnabled
+                + "|" + id.isMultiLine()
+                + "|" + id.imeAction()
+                + "|" + id.navigateNext()
+                + "|" + id.navigatePrevious()
+                + "|" + id.mIsSplitLayout
+                + "|" + id.mOneHandedModeEnabled
+                + "|" + id.mCustomActionLabel;
+    }
+
+    /**
+     * Reads back the keyboard stored for <code>description</code>.
+     * @return the keyboard, or null if there is none or it can't be read.
+     */
+    @Nullable
+    static Keyboard load(@Nonnull final Context context, @Nonnull final String description,
+            @Nonnull final KeyboardId id, @Nonnull final UniqueKeysCache keysCache) {
+        final File file = new File(getCacheDirectory(context), getFileName(description));
+        final KeyboardParams params = new KeyboardParams(keysCache);
+        params.mId = id;
+        if (!readFile(file, description, params)) {
+            return null;
+        }
+        try {
+            loadIcons(context, params);
+            final Keyboard keyboard = new Keyboard(params);
+            markAsUsed(file);
+            return keyboard;
+        } catch (final RuntimeException e) {
+            Log.w(TAG, "Can't build cached keyboard " + file.getName() + ", deleting it", e);
+            file.delete();
+            return null;
+        }
+    }
+
+    /**
+     * Reads the params of the keyboard stored in <code>file</code> for <code>description</code>,
+     * except for the icons, which come from the theme.
+     * @return whether the params were read. They are not if there is no such file or it was
+     * written for another description; a file that can't be read is deleted.
+     */
+    @UsedForTesting
+    static boolean readFile(@Nonnull final File file, @Nonnull final String description,
+            @Nonnull final KeyboardParams params) {
+        if (!file.isFile()) {
+            return false;
+        }
+        try (final DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file)))) {
+            if (!description.equals(in.readUTF())) {
+                // Another keyboard whose description has the same hash code.
+                return false;
+            }
+            readParams(in, params);
+            return true;
+        } catch (final IOException | RuntimeException e) {
+            Log.w(TAG, "Can't read cached keyboard " + file.getName() + ", deleting it", e);
+            file.delete();
+            return false;
+        }
+    }
+
+    /**
+     * Stores a keyboard that has just been built from <code>params</code>. The keyboard is
+     * serialized right away, before anything can change the state of its keys, and the file is
+     * written in the background.
+     */
+    static void save(@Nonnull final Context context, @Nonnull final String description,
+            @Nonnull final KeyboardParams params) {
+        final byte[] data;
+        try {
+            data = serialize(description, params);
+        } catch (final IOException e) {
+            Log.w(TAG, "Can't serialize keyboard " + params.mId, e);
+            return;
+        }
+        final File directory = getCacheDirectory(context);
+        final String fileName = getFileName(description);
+        ExecutorUtils.getBackgroundExecutor(ExecutorUtils.KEYBOARD).execute(new Runnable() {
+            @Override
+            public void run() {
+                writeFile(directory, fileName, data);
+                trimCacheDirectory(directory);
+            }
+        });
+    }
+
+    /** The content of the file for <code>description</code>, see {@link #readFile}. */
+    @UsedForTesting
+    @Nonnull
+    static byte[] serialize(@Nonnull final String description,
+            @Nonnull final KeyboardParams params) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(INITIAL_BUFFER_SIZE);
+        final DataOutputStream out = new DataOutputStream(bytes);
+        out.writeUTF(description);
+        writeParams(out, params);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    static void writeString(@Nonnull final DataOutputStream out, @Nullable final String s)
+            throws IOException {
+        out.writeBoolean(s != null);
+        if (s != null) {
+            out.writeUTF(s);
+        }
+    }
+
+    @Nullable
+    static String readString(@Nonnull final DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private static void writeParams(@Nonnull final DataOutputStream out,
+            @Nonnull final KeyboardParams params) throws IOException {
+        out.writeInt(params.mThemeId);
+        out.writeInt(params.mOccupiedHeight);
+        out.writeInt(params.mOccupiedWidth);
+        out.writeInt(params.mBaseHeight);
+        out.writeInt(params.mBaseWidth);
+        out.writeInt(params.mTopPadding);
+        out.writeInt(params.mBottomPadding);
+        out.writeInt(params.mLeftPadding);
+        out.writeInt(params.mRightPadding);
+        out.writeInt(params.mDefaultRowHeight);
+        out.writeInt(params.mDefaultKeyWidth);
+        out.writeInt(params.mHorizontalGap);
+        out.writeInt(params.mVerticalGap);
+        out.writeInt(params.mMoreKeysTemplate);
+        out.writeInt(params.mMaxMoreKeysKeyboardColumn);
+        out.writeInt(params.GRID_WIDTH);
+        out.writeInt(params.GRID_HEIGHT);
+        out.writeInt(params.mMostCommonKeyHeight);
+        out.writeInt(params.mMostCommonKeyWidth);
+        out.writeBoolean(params.mAllowRedundantMoreKeys);
+        out.writeBoolean(params.mProximityCharsCorrectionEnabled);
+        params.mTouchPositionCorrection.writeTo(out);
+
+        // Keys share a handful of visual attributes, which are written once.
+        final IdentityHashMap<KeyVisualAttributes, Integer> visualAttributesIndices =
+                new IdentityHashMap<>();
+        final ArrayList<KeyVisualAttributes> visualAttributes = new ArrayList<>();
+        out.writeInt(indexOfVisualAttributes(params.mKeyVisualAttributes,
+                visualAttributesIndices, visualAttributes));
+        final int[] keyVisualAttributesIndices = new int[params.mSortedKeys.size()];
+        int keyIndex = 0;
+        for (final Key key : params.mSortedKeys) {
+            keyVisualAttributesIndices[keyIndex++] = indexOfVisualAttributes(
+                    key.getVisualAttributes(), visualAttributesIndices, visualAttributes);
+        }
+        out.writeInt(visualAttributes.size());
+        for (final KeyVisualAttributes attrs : visualAttributes) {
+            attrs.writeTo(out);
+        }
+
+        out.writeInt(params.mSortedKeys.size());
+        keyIndex = 0;
+        for (final Key key : params.mSortedKeys) {
+            out.writeInt(keyVisualAttributesIndices[keyIndex++]);
+            key.writeTo(out);
+        }
+    }
+
+    private static int indexOfVisualAttributes(@Nullable final KeyVisualAttributes attrs,
+            @Nonnull final IdentityHashMap<KeyVisualAttributes, Integer> indices,
+            @Nonnull final ArrayList<KeyVisualAttributes> visualAttributes) {
+        if (attrs == null) {
+            return -1;
+        }
+        final Integer index = indices.get(attrs);
+        if (index != null) {
+            return index;
+        }
+        indices.put(attrs, visualAttributes.size());
+        visualAttributes.add(attrs);
+        return visualAttributes.size() - 1;
+    }
+
+    private static void readParams(@Nonnull final DataInputStream in,
+            @Nonnull final KeyboardParams params) throws IOException {
+        params.mThemeId = in.readInt();
+        params.mOccupiedHeight = in.readInt();
+        params.mOccupiedWidth = in.readInt();
+        params.mBaseHeight = in.readInt();
+        params.mBaseWidth = in.readInt();
+        params.mTopPadding = in.readInt();
+        params.mBottomPadding = in.readInt();
+        params.mLeftPadding = in.readInt();
+        params.mRightPadding = in.readInt();
+        params.mDefaultRowHeight = in.readInt();
+        params.mDefaultKeyWidth = in.readInt();
+        params.mHorizontalGap = in.readInt();
+        params.mVerticalGap = in.readInt();
+        params.mMoreKeysTemplate = in.readInt();
+        params.mMaxMoreKeysKeyboardColumn = in.readInt();
+        params.GRID_WIDTH = in.readInt();
+        params.GRID_HEIGHT = in.readInt();
+        final int mostCommonKeyHeight = in.readInt();
+        final int mostCommonKeyWidth = in.readInt();
+        params.mAllowRedundantMoreKeys = in.readBoolean();
+        params.mProximityCharsCorrectionEnabled = in.readBoolean();
+        params.mTouchPositionCorrection.load(in);
+
+        final int keyboardVisualAttributesIndex = in.readInt();
+        final KeyVisualAttributes[] visualAttributes = new KeyVisualAttributes[in.readInt()];
+        for (int i = 0; i < visualAttributes.length; i++) {
+            visualAttributes[i] = KeyVisualAttributes.readFrom(in);
+        }
+        params.mKeyVisualAttributes = getVisualAttributes(
+                visualAttributes, keyboardVisualAttributesIndex);
+
+        final int keyCount = in.readInt();
+        for (int i = 0; i < keyCount; i++) {
+            final KeyVisualAttributes attrs = getVisualAttributes(visualAttributes, in.readInt());
+            params.onAddKey(Key.readFrom(in, attrs));
+        }
+        // The histogram was built from the keys in XML order, which may break ties differently.
+        params.mMostCommonKeyHeight = mostCommonKeyHeight;
+        params.mMostCommonKeyWidth = mostCommonKeyWidth;
+    }
+
+    // Icons are drawables of the keyboard theme, see KeyboardBuilder#parseKeyboardAttributes.
+    private static void loadIcons(@Nonnull final Context context,
+            @Nonnull final KeyboardParams params) {
+        final TypedArray keyboardAttr = context.obtainStyledAttributes(
+                null, R.styleable.Keyboard, R.attr.keyboardStyle, R.style.Keyboard);
+        try {
+            params.mIconsSet.loadIcons(keyboardAttr);
+        } finally {
+            keyboardAttr.recycle();
+        }
+    }
+
+    @Nullable
+    private static KeyVisualAttributes getVisualAttributes(
+            @Nonnull final KeyVisualAttributes[] visualAttributes, final int index)
+            throws IOException {
+        if (index == -1) {
+            return null;
+        }
+        if (index < 0 || index >= visualAttributes.length) {
+            throw new IOException("Invalid visual attributes index " + index);
+        }
+        return visualAttributes[index];
+    }
+
+    @Nonnull
+    private static File getCacheDirectory(@Nonnull final Context context) {
+        return new File(context.getCacheDir(), CACHE_DIRECTORY_NAME);
+    }
+
+    @Nonnull
+    static String getFileName(@Nonnull final String description) {
+        return Integer.toHexString(description.hashCode()) + FILE_SUFFIX;
+    }
+
+    private static void markAsUsed(@Nonnull final File file) {
+        ExecutorUtils.getBackgroundExecutor(ExecutorUtils.KEYBOARD).execute(new Runnable() {
+            @Override
+            public void run() {
+                file.setLastModified(System.currentTimeMillis());
+            }
+        });
+    }
+
+    private static void writeFile(@Nonnull final File directory, @Nonnull final String fileName,
+            @Nonnull final byte[] data) {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            Log.w(TAG, "Can't create " + directory);
+            return;
+        }
+        // Write to a temporary file first so that a crash never leaves a truncated file behind.
+        final File tempFile = new File(directory, fileName + TEMP_FILE_SUFFIX);
+        try (final FileOutputStream out = new FileOutputStream(tempFile)) {
+            out.write(data);
+        } catch (final IOException e) {
+            Log.w(TAG, "Can't write cached keyboard " + fileName, e);
+            tempFile.delete();
+            return;
+        }
+        if (!tempFile.renameTo(new File(directory, fileName))) {
+            Log.w(TAG, "Can't rename cached keyboard " + fileName);
+            tempFile.delete();
+            return;
+        }
+        if (DEBUG) {
+            Log.d(TAG, "Cached keyboard " + fileName + ": " + data.length + " bytes");
+        }
+    }
+
+    private static void trimCacheDirectory(@Nonnull final File directory) {
+        final File[] files = directory.listFiles();
+        if (files == null || files.length <= MAX_CACHE_FILES) {
+            return;
+        }
+        Arrays.sort(files, LEAST_RECENTLY_USED_FIRST);
+        for (int i = 0; i < files.length - MAX_CACHE_FILES; i++) {
+            files[i].delete();
+        }
+    }
+}
@@ -226,17 +226,31 @@ public final class KeyboardLayoutSet {
             return cachedKeyboard;
         }
 
-        final KeyboardBuilder<KeyboardParams> builder =
-                new KeyboardBuilder<>(mContext, new KeyboardParams(sUniqueKeysCache));
         sUniqueKeysCache.setEnabled(id.isAlphabetKeyboard());
-        builder.setAllowRedundantMoreKes(elementParams.mAllowRedundantMoreKeys);
         final int keyboardXmlId = elementParams.mKeyboardXmlId;
-        builder.load(keyboardXmlId, id);
-        if (mParams.mDisableTouchPositionCorrectionDataForTest) {
-            builder.disableTouchPositionCorrectionDataForTest();
+        final String description = KeyboardLayoutCache.getDescription(mContext, id,
+                keyboardXmlId, elementParams.mAllowRedundantMoreKeys,
+                elementParams.mProximityCharsCorrectionEnabled,
+                mParams.mDisableTouchPositionCorrectionDataForTest);
+        final long startNanos = System.nanoTime();
+        Keyboard keyboard = KeyboardLayoutCache.load(mContext, description, id, sUniqueKeysCache);
+        if (keyboard != null) {
+            KeyboardLoadTimings.onKeyboardLoadedFromCache(System.nanoTime() - startNanos);
+        } else {
+            final KeyboardParams params = new KeyboardParams(sUniqueKeysCache);
+            final KeyboardBuilder<KeyboardParams> builder =
+                    new KeyboardBuilder<>(mContext, params);
+            builder.setAllowRedundantMoreKes(elementParams.mAllowRedundantMoreKeys);
+            builder.load(keyboardXmlId, id);
+            if (mParams.mDisableTouchPositionCorrectionDataForTest) {
+                builder.disableTouchPositionCorrectionDataForTest();
+            }
+            builder.setProximityCharsCorrectionEnabled(
+                    elementParams.mProximityCharsCorrectionEnabled);
+            keyboard = builder.build();
+            KeyboardLoadTimings.onKeyboardParsed(System.nanoTime() - startNanos);
+            KeyboardLayoutCache.save(mContext, description, params);
         }
-        builder.setProximityCharsCorrectionEnabled(elementParams.mProximityCharsCorrectionEnabled);
-        final Keyboard keyboard = builder.build();
         sKeyboardCache.put(id, new SoftReference<>(keyboard));
         if ((id.mElementId == KeyboardId.ELEMENT_ALPHABET
                 || id.mElementId == KeyboardId.ELEMENT_ALPHABET_AUTOMATIC_SHIFTED)
@@ -253,6 +267,7 @@ public final class KeyboardLayoutSet {
         if (DEBUG_CACHE) {
             Log.d(TAG, "keyboard cache size=" + sKeyboardCache.size() + ": "
                     + ((ref == null) ? "LOAD" : "GCed") + " id=" + id);
+            Log.d(TAG, KeyboardLoadTimings.dump());
         }
         return keyboard;
     }
@@ -0,0 +1,67 @@
+package org.dslul.openboard.inputmethod.keyboard;
+
+import android.os.Process;
+import android.os.SystemClock;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Timings of getting keyboards ready in this process, for dumpsys and the log.
+ *
+ * Keyboards missing from the memory cache are either parsed from their XML resources or read
+ * back from {@link KeyboardLayoutCache}; both are counted and timed. The time from process start
+ * to the first keyboard being drawn is what the user waits for after the IME was killed. Thread
+ * safe.
+ */
+public final class KeyboardLoadTimings {
+    private static int sParseCount;
+    private static long sParseNanos;
+    private static long sMaxParseNanos;
+    private static int sCacheLoadCount;
+    private static long sCacheLoadNanos;
+    private static long sMaxCacheLoadNanos;
+    private static volatile long sFirstDrawMillisSinceProcessStart = -1;
+
+    private KeyboardLoadTimings() {
+        // This utility class is not publicly instantiable.
+    }
+
+    static synchronized void onKeyboardParsed(final long nanos) {
+        sParseCount++;
+        sParseNanos += nanos;
+        sMaxParseNanos = Math.max(sMaxParseNanos, nanos);
+    }
+
+    static synchronized void onKeyboardLoadedFromCache(final long nanos) {
+        sCacheLoadCount++;
+        sCacheLoadNanos += nanos;
+        sMaxCacheLoadNanos = Math.max(sMaxCacheLoadNanos, nanos);
+    }
+
+    static void onKeyboardDrawn() {
+        if (sFirstDrawMillisSinceProcessStart >= 0) {
+            return;
+        }
+        synchronized (KeyboardLoadTimings.class) {
+            if (sFirstDrawMillisSinceProcessStart < 0) {
+                sFirstDrawMillisSinceProcessStart =
+                        SystemClock.uptimeMillis() - Process.getStartUptimeMillis();
+            }
+        }
+    }
+
+    public static synchronized String dump() {
+        return "Keyboard load timings (ms): parsed=" + sParseCount
+                + " avg=" + average(sParseNanos, sParseCount)
+                + " max=" + TimeUnit.NANOSECONDS.toMillis(sMaxParseNanos)
+                + " cached=" + sCacheLoadCount
+                + " avg=" + average(sCacheLoadNanos, sCacheLoadCount)
+                + " max=" + TimeUnit.NANOSECONDS.toMillis(sMaxCacheLoadNanos)
+                + " firstDraw=" + (sFirstDrawMillisSinceProcessStart < 0 ? "-"
+                        : String.valueOf(sFirstDrawMillisSinceProcessStart));
+    }
+
+    private static String average(final long totalNanos, final int count) {
+        return count == 0 ? "-" : String.valueOf(TimeUnit.NANOSECONDS.toMillis(totalNanos / count));
+    }
+}
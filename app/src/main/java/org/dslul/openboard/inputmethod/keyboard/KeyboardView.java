@@ -25,13 +25,17 @@ import android.graphics.Paint;
 import android.graphics.Paint.Align;
 import android.graphics.PorterDuff;
 import android.graphics.Rect;
+import android.graphics.RenderNode;
 import android.graphics.Typeface;
 import android.graphics.drawable.Drawable;
 import android.graphics.drawable.NinePatchDrawable;
+import android.os.Build;
 import android.text.TextUtils;
 import android.util.AttributeSet;
 import android.view.View;
 
+import androidx.annotation.RequiresApi;
+
 import org.dslul.openboard.inputmethod.keyboard.internal.KeyDrawParams;
 import org.dslul.openboard.inputmethod.keyboard.internal.KeyVisualAttributes;
 import org.dslul.openboard.inputmethod.latin.R;
@@ -39,6 +43,8 @@ import org.dslul.openboard.inputmethod.latin.common.Constants;
 import org.dslul.openboard.inputmethod.latin.settings.Settings;
 import org.dslul.openboard.inputmethod.latin.utils.TypefaceUtils;
 
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
 
 import javax.annotation.Nonnull;
@@ -121,6 +127,11 @@ public class KeyboardView extends View {
     /** The canvas for the above mutable keyboard bitmap */
     @Nonnull
     private final Canvas mOffscreenCanvas = new Canvas();
+    // Where the canvas is hardware accelerated, each key is recorded into its own render node.
+    // Only the nodes of invalidated keys are recorded again, the others are just drawn.
+    private final HashMap<Key, Object> mKeyRenderNodes = new HashMap<>();
+    // Render nodes of keys that are no longer shown, to be reused for other keys.
+    private final ArrayList<Object> mUnusedKeyRenderNodes = new ArrayList<>();
     @Nonnull
     private final Paint mPaint = new Paint();
     private final Paint.FontMetrics mFontMetrics = new Paint.FontMetrics();
@@ -197,6 +208,9 @@ public class KeyboardView extends View {
         final int keyHeight = keyboard.mMostCommonKeyHeight - keyboard.mVerticalGap;
         mKeyDrawParams.updateParams(keyHeight, mKeyVisualAttributes);
         mKeyDrawParams.updateParams(keyHeight, keyboard.mKeyVisualAttributes);
+        // Don't keep the keys of the previous keyboard alive, nor more nodes than this one uses.
+        recycleKeyRenderNodes();
+        trimUnusedKeyRenderNodes(keyboard.getSortedKeys().size());
         invalidateAllKeys();
         requestLayout();
     }
@@ -293,8 +307,15 @@ public class KeyboardView extends View {
         // Calculate clip region and set.
         final boolean drawAllKeys = mInvalidateAllKeys || mInvalidatedKeys.isEmpty();
         final boolean isHardwareAccelerated = canvas.isHardwareAccelerated();
-        // TODO: Confirm if it's really required to draw all keys when hardware acceleration is on.
-        if (drawAllKeys || isHardwareAccelerated) {
+        final boolean usesKeyRenderNodes = isHardwareAccelerated
+                && Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q;
+        if (!usesKeyRenderNodes && !mKeyRenderNodes.isEmpty()) {
+            // The invalidated keys are drawn to another canvas, so the recorded nodes get stale.
+            recycleKeyRenderNodes();
+        }
+        if (usesKeyRenderNodes) {
+            onDrawKeysWithRenderNodes(keyboard, canvas, paint);
+        } else if (drawAllKeys || isHardwareAccelerated) {
             if (!isHardwareAccelerated && background != null) {
                 // Need to draw keyboard background on {@link #mOffscreenBuffer}.
                 canvas.drawColor(Color.BLACK, PorterDuff.Mode.CLEAR);
@@ -328,12 +349,92 @@ public class KeyboardView extends View {
         mInvalidateAllKeys = false;
     }
 
+    @RequiresApi(Build.VERSION_CODES.Q)
+    private void onDrawKeysWithRenderNodes(@Nonnull final Keyboard keyboard,
+            @Nonnull final Canvas canvas, @Nonnull final Paint paint) {
+        if (mInvalidateAllKeys) {
+            recycleKeyRenderNodes();
+        }
+        final int paddingLeft = getPaddingLeft();
+        final int paddingTop = getPaddingTop();
+        for (final Key key : keyboard.getSortedKeys()) {
+            RenderNode renderNode = (RenderNode)mKeyRenderNodes.get(key);
+            if (renderNode == null) {
+                renderNode = obtainKeyRenderNode();
+                mKeyRenderNodes.put(key, renderNode);
+                recordKey(key, renderNode, paint);
+            } else if (mInvalidatedKeys.contains(key)) {
+                recordKey(key, renderNode, paint);
+            }
+            final int keyDrawX = key.getDrawX() + paddingLeft;
+            final int keyDrawY = key.getY() + paddingTop;
+            renderNode.setPosition(keyDrawX, keyDrawY, keyDrawX + key.getDrawWidth(),
+                    keyDrawY + key.getHeight());
+            canvas.drawRenderNode(renderNode);
+        }
+    }
+
+    @RequiresApi(Build.VERSION_CODES.Q)
+    private RenderNode obtainKeyRenderNode() {
+        final int size = mUnusedKeyRenderNodes.size();
+        if (size > 0) {
+            return (RenderNode)mUnusedKeyRenderNodes.remove(size - 1);
+        }
+        final RenderNode renderNode = new RenderNode(null /* name */);
+        // Key backgrounds and hints may be drawn beyond the bounds of the key.
+        renderNode.setClipToBounds(false);
+        return renderNode;
+    }
+
+    @RequiresApi(Build.VERSION_CODES.Q)
+    private void recordKey(@Nonnull final Key key, @Nonnull final RenderNode renderNode,
+            @Nonnull final Paint paint) {
+        final Canvas recordingCanvas = renderNode.beginRecording();
+        onDrawKeyContents(key, recordingCanvas, paint);
+        renderNode.endRecording();
+    }
+
+    private void recycleKeyRenderNodes() {
+        mUnusedKeyRenderNodes.addAll(mKeyRenderNodes.values());
+        mKeyRenderNodes.clear();
+    }
+
+    private void trimUnusedKeyRenderNodes(final int maxSize) {
+        for (int i = mUnusedKeyRenderNodes.size() - 1; i >= maxSize; i--) {
+            final Object renderNode = mUnusedKeyRenderNodes.remove(i);
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+                ((RenderNode)renderNode).discardDisplayList();
+            }
+        }
+    }
+
+    private void discardKeyRenderNodes() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            for (final Object renderNode : mKeyRenderNodes.values()) {
+                ((RenderNode)renderNode).discardDisplayList();
+            }
+            for (final Object renderNode : mUnusedKeyRenderNodes) {
+                ((RenderNode)renderNode).discardDisplayList();
+            }
+        }
+        mKeyRenderNodes.clear();
+        mUnusedKeyRenderNodes.clear();
+        // The keys have to be recorded again on the next draw.
+        mInvalidateAllKeys = true;
+    }
+
     private void onDrawKey(@Nonnull final Key key, @Nonnull final Canvas canvas,
             @Nonnull final Paint paint) {
         final int keyDrawX = key.getDrawX() + getPaddingLeft();
         final int keyDrawY = key.getY() + getPaddingTop();
         canvas.translate(keyDrawX, keyDrawY);
+        onDrawKeyContents(key, canvas, paint);
+        canvas.translate(-keyDrawX, -keyDrawY);
+    }
 
+    // Draw the key with its top-left corner at the origin of the canvas.
+    private void onDrawKeyContents(@Nonnull final Key key, @Nonnull final Canvas canvas,
+            @Nonnull final Paint paint) {
         final KeyVisualAttributes attr = key.getVisualAttributes();
         final KeyDrawParams params = mKeyDrawParams.mayCloneAndUpdateParams(key.getHeight(), attr);
         params.mAnimAlpha = Constants.Color.ALPHA_OPAQUE;
@@ -346,8 +447,6 @@ public class KeyboardView extends View {
             }
         }
         onDrawKeyTopVisuals(key, canvas, paint, params);
-
-        canvas.translate(-keyDrawX, -keyDrawY);
     }
 
     // Draw key background.
@@ -548,8 +647,8 @@ public class KeyboardView extends View {
 
     /**
      * Requests a redraw of the entire keyboard. Calling {@link #invalidate} is not sufficient
-     * because the keyboard renders the keys to an off-screen buffer and an invalidate() only
-     * draws the cached buffer.
+     * because the keyboard renders the keys to an off-screen buffer or to per-key render nodes,
+     * and an invalidate() only draws the cached buffer or nodes.
      * @see #invalidateKey(Key)
      */
     public void invalidateAllKeys() {
@@ -579,9 +678,11 @@ public class KeyboardView extends View {
     protected void onDetachedFromWindow() {
         super.onDetachedFromWindow();
         freeOffscreenBuffer();
+        discardKeyRenderNodes();
     }
 
     public void deallocateMemory() {
         freeOffscreenBuffer();
+        discardKeyRenderNodes();
     }
 }
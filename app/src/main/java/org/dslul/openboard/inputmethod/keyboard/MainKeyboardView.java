@@ -564,6 +564,10 @@ public final class MainKeyboardView extends KeyboardView implements DrawingProxy
         PointerTracker.setMainDictionaryAvailability(mainDictionaryAvailable);
     }
 
+    public String dumpGestureTrailFrameTimes() {
+        return mGestureTrailsDrawingPreview.dumpFrameTimes();
+    }
+
     public void setGestureHandlingEnabledByUser(final boolean isGestureHandlingEnabledByUser,
             final boolean isGestureTrailEnabled,
             final boolean isGestureFloatingPreviewTextEnabled) {
@@ -795,6 +799,14 @@ public final class MainKeyboardView extends KeyboardView implements DrawingProxy
         invalidateKey(mSpaceKey);
     }
 
+    @Override
+    protected void onDraw(final Canvas canvas) {
+        super.onDraw(canvas);
+        if (getKeyboard() != null) {
+            KeyboardLoadTimings.onKeyboardDrawn();
+        }
+    }
+
     @Override
     protected void onDrawKeyTopVisuals(final Key key, final Canvas canvas, final Paint paint,
             final KeyDrawParams params) {
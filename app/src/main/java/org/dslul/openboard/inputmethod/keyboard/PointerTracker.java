@@ -39,6 +39,7 @@ import org.dslul.openboard.inputmethod.latin.R;
 import org.dslul.openboard.inputmethod.latin.common.Constants;
 import org.dslul.openboard.inputmethod.latin.common.CoordinateUtils;
 import org.dslul.openboard.inputmethod.latin.common.InputPointers;
+import org.dslul.openboard.inputmethod.latin.common.ResizableIntArray;
 import org.dslul.openboard.inputmethod.latin.define.DebugFlags;
 import org.dslul.openboard.inputmethod.latin.settings.Settings;
 import org.dslul.openboard.inputmethod.latin.utils.ResourceUtils;
@@ -159,6 +160,19 @@ public final class PointerTracker implements PointerTrackerQueue.Element,
     private final BatchInputArbiter mBatchInputArbiter;
     private final GestureStrokeDrawingPoints mGestureStrokeDrawingPoints;
 
+    // Historical points of the move event being processed, reused for every move event.
+    private static final int HISTORICAL_POINTS_CAPACITY = 16;
+    private final ResizableIntArray mHistoricalXCoordinates =
+            new ResizableIntArray(HISTORICAL_POINTS_CAPACITY);
+    private final ResizableIntArray mHistoricalYCoordinates =
+            new ResizableIntArray(HISTORICAL_POINTS_CAPACITY);
+    private final ResizableIntArray mHistoricalEventTimes =
+            new ResizableIntArray(HISTORICAL_POINTS_CAPACITY);
+    // true while a move event is processed. The gesture trail is then updated once at its end
+    // rather than for each of its points.
+    private boolean mIsInMoveEvent;
+    private boolean mHasPendingGestureTrailUpdate;
+
     // TODO: Add PointerTrackerFactory singleton and move some class static methods into it.
     public static void init(final TypedArray mainKeyboardViewAttr, final TimerProxy timerProxy,
             final DrawingProxy drawingProxy) {
@@ -528,6 +542,10 @@ public final class PointerTracker implements PointerTrackerQueue.Element,
         if (mIsTrackingForActionDisabled) {
             return;
         }
+        if (mIsInMoveEvent) {
+            mHasPendingGestureTrailUpdate = true;
+            return;
+        }
         // A gesture floating preview text will be shown at the oldest pointer/finger on the screen.
         sDrawingProxy.showGestureTrail(
                 this, isOldestTrackerInQueue() /* showsFloatingPreviewText */);
@@ -761,17 +779,9 @@ public final class PointerTracker implements PointerTrackerQueue.Element,
             return;
         }
 
+        mIsInMoveEvent = true;
         if (sGestureEnabler.shouldHandleGesture() && me != null) {
-            // Add historical points to gesture path.
-            final int pointerIndex = me.findPointerIndex(mPointerId);
-            final int historicalSize = me.getHistorySize();
-            for (int h = 0; h < historicalSize; h++) {
-                final int historicalX = (int)me.getHistoricalX(pointerIndex, h);
-                final int historicalY = (int)me.getHistoricalY(pointerIndex, h);
-                final long historicalTime = me.getHistoricalEventTime(h);
-                onGestureMoveEvent(historicalX, historicalY, historicalTime,
-                        false /* isMajorEvent */, null);
-            }
+            onGestureHistoricalMoveEvents(me);
         }
 
         if (isShowingMoreKeysPanel()) {
@@ -782,9 +792,50 @@ public final class PointerTracker implements PointerTrackerQueue.Element,
             if (mIsInSlidingKeyInput) {
                 sDrawingProxy.showSlidingKeyInputPreview(this);
             }
+        } else {
+            onMoveEventInternal(x, y, eventTime);
+        }
+        mIsInMoveEvent = false;
+        // Move events are delivered once per frame, so is the gesture trail.
+        if (mHasPendingGestureTrailUpdate) {
+            mHasPendingGestureTrailUpdate = false;
+            showGestureTrail();
+        }
+    }
+
+    // Adds all the historical points of the move event to the gesture path at once. Keys are not
+    // detected for historical points.
+    private void onGestureHistoricalMoveEvents(final MotionEvent me) {
+        final int historicalSize = me.getHistorySize();
+        if (!mIsDetectingGesture || historicalSize == 0) {
+            return;
+        }
+        final int pointerIndex = me.findPointerIndex(mPointerId);
+        mHistoricalXCoordinates.setLength(0);
+        mHistoricalYCoordinates.setLength(0);
+        mHistoricalEventTimes.setLength(0);
+        for (int h = 0; h < historicalSize; h++) {
+            mHistoricalXCoordinates.add((int)me.getHistoricalX(pointerIndex, h));
+            mHistoricalYCoordinates.add((int)me.getHistoricalY(pointerIndex, h));
+            mHistoricalEventTimes.add(mBatchInputArbiter.getElapsedTimeSinceFirstDown(
+                    me.getHistoricalEventTime(h)));
+        }
+        final int[] xs = mHistoricalXCoordinates.getPrimitiveArray();
+        final int[] ys = mHistoricalYCoordinates.getPrimitiveArray();
+        final int[] times = mHistoricalEventTimes.getPrimitiveArray();
+        final int validCount = mBatchInputArbiter.addHistoricalMoveEventPoints(
+                xs, ys, times, historicalSize, this);
+        mGestureStrokeDrawingPoints.onMoveEvents(xs, ys, times, validCount);
+        // If the move event goes out from valid batch input area, cancel batch input.
+        if (validCount < historicalSize) {
+            cancelBatchInput();
             return;
         }
-        onMoveEventInternal(x, y, eventTime);
+        // If the MoreKeysPanel is showing then do not attempt to enter gesture mode. However,
+        // the gestured touch points are still being recorded in case the panel is dismissed.
+        if (sInGesture && !isShowingMoreKeysPanel()) {
+            showGestureTrail();
+        }
     }
 
     private void processDraggingFingerInToNewKey(final Key newKey, final int x, final int y,
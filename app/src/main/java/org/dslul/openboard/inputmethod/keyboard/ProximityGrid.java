@@ -0,0 +1,183 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dslul.openboard.inputmethod.keyboard;
+
+import javax.annotation.Nonnull;
+
+/**
+ * The nearest keys of each cell of the {@link ProximityInfo} grid, packed: those of cell i are
+ * keys[mKeyIndices[j]] for j in [mCellOffsets[i], mCellOffsets[i + 1]), in the order of the
+ * keys. A key is near a cell when the center of the cell is closer than the threshold to it.
+ * Kept out of ProximityInfo, which needs the native library, so that it can be tested on the JVM.
+ */
+final class ProximityGrid {
+    @Nonnull
+    private final Key[] mKeys;
+    private final int mGridWidth;
+    private final int mGridHeight;
+    private final int mCellWidth;
+    private final int mCellHeight;
+    private final int mThreshold;
+
+    @Nonnull
+    final int[] mCellOffsets;
+    @Nonnull
+    final int[] mKeyIndices;
+
+    ProximityGrid(@Nonnull final Key[] keys, final int gridWidth, final int gridHeight,
+            final int cellWidth, final int cellHeight, final int threshold) {
+        mKeys = keys;
+        mGridWidth = gridWidth;
+        mGridHeight = gridHeight;
+        mCellWidth = cellWidth;
+        mCellHeight = cellHeight;
+        mThreshold = threshold;
+        mCellOffsets = new int[gridWidth * gridHeight + 1];
+        mKeyIndices = computeNearestNeighbors();
+    }
+
+    private int[] computeNearestNeighbors() {
+        final int gridSize = mGridWidth * mGridHeight;
+        // Two passes over the keys: count the keys of each cell, then place them. The offsets are
+        // the running sums of the counts, each pass moving a cursor to the end of its cell.
+        final int[] cellCursors = new int[gridSize];
+        for (int keyIndex = 0; keyIndex < mKeys.length; keyIndex++) {
+            addKeyToNearbyCells(keyIndex, cellCursors, null /* keyIndices */);
+        }
+        int total = 0;
+        for (int i = 0; i < gridSize; ++i) {
+            mCellOffsets[i] = total;
+            total += cellCursors[i];
+            cellCursors[i] = mCellOffsets[i];
+        }
+        mCellOffsets[gridSize] = total;
+        final int[] keyIndices = new int[total];
+        for (int keyIndex = 0; keyIndex < mKeys.length; keyIndex++) {
+            addKeyToNearbyCells(keyIndex, cellCursors, keyIndices);
+        }
+        return keyIndices;
+    }
+
+    /**
+     * Visits the cells whose center is close enough to the key. When keyIndices is null, only
+     * counts the key in cellCursors; otherwise writes keyIndex at the cursor of each cell in
+     * keyIndices and moves the cursor.
+     */
+    private void addKeyToNearbyCells(final int keyIndex, final int[] cellCursors,
+            final int[] keyIndices) {
+        final Key key = mKeys[keyIndex];
+        if (key.isSpacer()) return;
+        final int threshold = mThreshold;
+        final int thresholdSquared = threshold * threshold;
+        // Round-up so we don't have any pixels outside the grid
+        final int lastPixelXCoordinate = mGridWidth * mCellWidth - 1;
+        final int lastPixelYCoordinate = mGridHeight * mCellHeight - 1;
+        final int halfCellWidth = mCellWidth / 2;
+        final int halfCellHeight = mCellHeight / 2;
+
+/* HOW WE PRE-SELECT THE CELLS (iterate over only the relevant cells, instead of all of them)
+
+  We want to compute the distance for keys that are in the cells that are close enough to the
+  key border, as this method is performance-critical. These keys are represented with 'star'
+  background on the diagram below. Let's consider the Y case first.
+
+  We want to select the cells which center falls between the top of the key minus the threshold,
+  and the bottom of the key plus the threshold.
+  topPixelWithinThreshold is key.mY - threshold, and bottomPixelWithinThreshold is
+  key.mY + key.mHeight + threshold.
+
+  Then we need to compute the center of the top row that we need to evaluate, as we'll iterate
+  from there.
+
+(0,0)----> x
+| .-------------------------------------------.
+| |   |   |   |   |   |   |   |   |   |   |   |
+| |---+---+---+---+---+---+---+---+---+---+---|   .- top of top cell (aligned on the grid)
+| |   |   |   |   |   |   |   |   |   |   |   |   |
+| |-----------+---+---+---+---+---+---+---+---|---'                          v
+| |   |   |   |***|***|*_________________________ topPixelWithinThreshold    | yDeltaToGrid
+| |---+---+---+-----^-+-|-+---+---+---+---+---|                              ^
+| |   |   |   |***|*|*|*|*|***|***|   |   |   |           ______________________________________
+v |---+---+--threshold--|-+---+---+---+---+---|          |
+  |   |   |   |***|*|*|*|*|***|***|   |   |   |          | Starting from key.mY, we substract
+y |---+---+---+---+-v-+-|-+---+---+---+---+---|          | thresholdBase and get the top pixel
+  |   |   |   |***|**########------------------- key.mY  | within the threshold. We align that on
+  |---+---+---+---+--#+---+-#-+---+---+---+---|          | the grid by computing the delta to the
+  |   |   |   |***|**#|***|*#*|***|   |   |   |          | grid, and get the top of the top cell.
+  |---+---+---+---+--#+---+-#-+---+---+---+---|          |
+  |   |   |   |***|**########*|***|   |   |   |          | Adding half the cell height to the top
+  |---+---+---+---+---+-|-+---+---+---+---+---|          | of the top cell, we get the middle of
+  |   |   |   |***|***|*|*|***|***|   |   |   |          | the top cell (yMiddleOfTopCell).
+  |---+---+---+---+---+-|-+---+---+---+---+---|          |
+  |   |   |   |***|***|*|*|***|***|   |   |   |          |
+  |---+---+---+---+---+-|________________________ yEnd   | Since we only want to add the key to
+  |   |   |   |   |   |   | (bottomPixelWithinThreshold) | the proximity if it's close enough to
+  |---+---+---+---+---+---+---+---+---+---+---|          | the center of the cell, we only need
+  |   |   |   |   |   |   |   |   |   |   |   |          | to compute for these cells where
+  '---'---'---'---'---'---'---'---'---'---'---'          | topPixelWithinThreshold is above the
+                                        (positive x,y)   | center of the cell. This is the case
+                                                         | when yDeltaToGrid is less than half
+  [Zoomed in diagram]                                    | the height of the cell.
+  +-------+-------+-------+-------+-------+              |
+  |       |       |       |       |       |              | On the zoomed in diagram, on the right
+  |       |       |       |       |       |              | the topPixelWithinThreshold (represented
+  |       |       |       |       |       |      top of  | with an = sign) is below and we can skip
+  +-------+-------+-------+--v----+-------+ .. top cell  | this cell, while on the left it's above
+  |       | = topPixelWT  |  |  yDeltaToGrid             | and we need to compute for this cell.
+  |..yStart.|.....|.......|..|....|.......|... y middle  | Thus, if yDeltaToGrid is more than half
+  |   (left)|     |       |  ^ =  |       | of top cell  | the height of the cell, we start the
+  +-------+-|-----+-------+----|--+-------+              | iteration one cell below the top cell,
+  |       | |     |       |    |  |       |              | else we start it on the top cell. This
+  |.......|.|.....|.......|....|..|.....yStart (right)   | is stored in yStart.
+
+  Since we only want to go up to bottomPixelWithinThreshold, and we only iterate on the center
+  of the keys, we can stop as soon as the y value exceeds bottomPixelThreshold, so we don't
+  have to align this on the center of the key. Hence, we don't need a separate value for
+  bottomPixelWithinThreshold and call this yEnd right away.
+*/
+        final int keyX = key.getX();
+        final int keyY = key.getY();
+        final int topPixelWithinThreshold = keyY - threshold;
+        final int yDeltaToGrid = topPixelWithinThreshold % mCellHeight;
+        final int yMiddleOfTopCell = topPixelWithinThreshold - yDeltaToGrid + halfCellHeight;
+        final int yStart = Math.max(halfCellHeight,
+                yMiddleOfTopCell + (yDeltaToGrid <= halfCellHeight ? 0 : mCellHeight));
+        final int yEnd = Math.min(lastPixelYCoordinate, keyY + key.getHeight() + threshold);
+
+        final int leftPixelWithinThreshold = keyX - threshold;
+        final int xDeltaToGrid = leftPixelWithinThreshold % mCellWidth;
+        final int xMiddleOfLeftCell = leftPixelWithinThreshold - xDeltaToGrid + halfCellWidth;
+        final int xStart = Math.max(halfCellWidth,
+                xMiddleOfLeftCell + (xDeltaToGrid <= halfCellWidth ? 0 : mCellWidth));
+        final int xEnd = Math.min(lastPixelXCoordinate, keyX + key.getWidth() + threshold);
+
+        int baseIndexOfCurrentRow = (yStart / mCellHeight) * mGridWidth + (xStart / mCellWidth);
+        for (int centerY = yStart; centerY <= yEnd; centerY += mCellHeight) {
+            int index = baseIndexOfCurrentRow;
+            for (int centerX = xStart; centerX <= xEnd; centerX += mCellWidth) {
+                if (key.squaredDistanceToEdge(centerX, centerY) < thresholdSquared) {
+                    if (keyIndices != null) {
+                        keyIndices[cellCursors[index]] = keyIndex;
+                    }
+                    ++cellCursors[index];
+                }
+                ++index;
+            }
+            baseIndexOfCurrentRow += mGridWidth;
+        }
+    }
+}
@@ -205,7 +205,14 @@ class ClipboardHistoryView @JvmOverloads constructor(
 
     override fun onKeyUp(clipId: Long) {
         val clipContent = clipboardHistoryManager?.getHistoryEntryContent(clipId)
-        keyboardActionListener?.onTextInput(clipContent?.content.toString())
+        if (clipContent == null) {
+            // The entry was removed since it was pressed: there is nothing to type, but the
+            // press from onKeyDown still needs its release.
+            keyboardActionListener?.onReleaseKey(Constants.CODE_UNSPECIFIED,
+                    false /* withSliding */)
+            return
+        }
+        keyboardActionListener?.onTextInput(clipContent.content.toString())
         keyboardActionListener?.onReleaseKey(Constants.CODE_UNSPECIFIED,
                 false /* withSliding */)
     }
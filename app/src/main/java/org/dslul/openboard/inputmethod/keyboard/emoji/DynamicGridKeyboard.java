@@ -22,6 +22,7 @@ import android.util.Log;
 
 import org.dslul.openboard.inputmethod.keyboard.Key;
 import org.dslul.openboard.inputmethod.keyboard.Keyboard;
+import org.dslul.openboard.inputmethod.keyboard.ProximityInfo;
 import org.dslul.openboard.inputmethod.keyboard.internal.MoreKeySpec;
 import org.dslul.openboard.inputmethod.latin.settings.Settings;
 import org.dslul.openboard.inputmethod.latin.utils.JsonUtils;
@@ -246,6 +247,12 @@ final class DynamicGridKeyboard extends Keyboard {
         return getSortedKeys();
     }
 
+    @Override
+    public int getNearestKeysCellIndex(final int x, final int y) {
+        // The keys move around, so the proximity grid of the template keyboard does not apply.
+        return ProximityInfo.NOT_A_CELL;
+    }
+
     static final class GridKey extends Key {
         private int mCurrentX;
         private int mCurrentY;
@@ -101,6 +101,28 @@ public class BatchInputArbiter {
         return onValidArea;
     }
 
+    /**
+     * Add all the historical points of a move event at once.
+     * @param xs the x-coordinates of the historical points.
+     * @param ys the y-coordinates of the historical points.
+     * @param elapsedTimes the times of the historical points, as returned by
+     *     {@link #getElapsedTimeSinceFirstDown(long)}.
+     * @param count the number of historical points in the arrays.
+     * @param listener {@link BatchInputArbiterListener#onStartUpdateBatchInputTimer()} of this
+     *     <code>listener</code> may be called once if enough move points have been added.
+     * @return the number of leading historical points that occur on the valid gesture area.
+     */
+    public int addHistoricalMoveEventPoints(final int[] xs, final int[] ys,
+            final int[] elapsedTimes, final int count, final BatchInputArbiterListener listener) {
+        final int beforeLength = mRecognitionPoints.getLength();
+        final int validCount = mRecognitionPoints.addHistoricalEventPoints(
+                xs, ys, elapsedTimes, count);
+        if (mRecognitionPoints.getLength() > beforeLength) {
+            listener.onStartUpdateBatchInputTimer();
+        }
+        return validCount;
+    }
+
     /**
      * Determine whether the batch input has started or not.
      * @param listener {@link BatchInputArbiterListener#onStartBatchInput()} of this
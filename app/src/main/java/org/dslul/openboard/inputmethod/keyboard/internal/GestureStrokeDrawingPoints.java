@@ -81,6 +81,13 @@ public final class GestureStrokeDrawingPoints {
         }
     }
 
+    public void onMoveEvents(final int[] xs, final int[] ys, final int[] elapsedTimes,
+            final int count) {
+        for (int i = 0; i < count; i++) {
+            onMoveEvent(xs[i], ys[i], elapsedTimes[i]);
+        }
+    }
+
     /**
      * Append sampled preview points.
      *
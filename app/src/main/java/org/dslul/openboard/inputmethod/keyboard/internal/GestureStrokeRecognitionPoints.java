@@ -289,6 +289,28 @@ public final class GestureStrokeRecognitionPoints {
         return y >= mMinYCoordinate && y < mMaxYCoordinate;
     }
 
+    /**
+     * Add the historical event points of a move event, in order. This is the same as calling
+     * {@link #addEventPoint(int,int,int,boolean)} for each of them as a non-major event, but
+     * stops at the first point that is not on the valid gesture area.
+     * @param xs the x-coordinates of the event points
+     * @param ys the y-coordinates of the event points
+     * @param times the elapsed times in millisecond from the first gesture down
+     * @param count the number of event points in the arrays
+     * @return the number of leading event points that are on the valid gesture area. If it is
+     *     less than <code>count</code>, the point at that index has been added and is off area.
+     */
+    // TODO: Make this package private
+    public int addHistoricalEventPoints(final int[] xs, final int[] ys, final int[] times,
+            final int count) {
+        for (int i = 0; i < count; i++) {
+            if (!addEventPoint(xs[i], ys[i], times[i], false /* isMajorEvent */)) {
+                return i;
+            }
+        }
+        return count;
+    }
+
     private void updateIncrementalRecognitionSize(final int x, final int y, final int time) {
         final int msecs = (int)(time - mLastMajorEventTime);
         if (msecs <= 0) {
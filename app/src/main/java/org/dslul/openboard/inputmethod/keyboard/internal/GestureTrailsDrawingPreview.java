@@ -24,15 +24,24 @@ import android.graphics.Paint;
 import android.graphics.PorterDuff;
 import android.graphics.PorterDuffXfermode;
 import android.graphics.Rect;
+import android.graphics.RenderNode;
+import android.os.Build;
 import android.os.Handler;
+import android.util.Log;
 import android.util.SparseArray;
 
+import androidx.annotation.RequiresApi;
+
 import org.dslul.openboard.inputmethod.keyboard.PointerTracker;
 
+import java.util.concurrent.TimeUnit;
+
 /**
  * Draw preview graphics of multiple gesture trails during gesture input.
  */
 public final class GestureTrailsDrawingPreview extends AbstractDrawingPreview implements Runnable {
+    private static final String TAG = GestureTrailsDrawingPreview.class.getSimpleName();
+
     private final SparseArray<GestureTrailDrawingPoints> mGestureTrails = new SparseArray<>();
     private final GestureTrailDrawingParams mDrawingParams;
     private final Paint mGesturePaint;
@@ -45,8 +54,18 @@ public final class GestureTrailsDrawingPreview extends AbstractDrawingPreview im
     private final Rect mDirtyRect = new Rect();
     private final Rect mGestureTrailBoundsRect = new Rect(); // per trail
 
+    // Where the canvas is hardware accelerated, the trails are recorded into this node rather
+    // than drawn to the offscreen buffer, so that the render thread rasterizes them instead of
+    // the UI thread. The node is composited through its own layer, so that the SRC transfer
+    // mode of the paint behaves as with the offscreen buffer.
+    private Object mRenderNode;
+
     private final Handler mDrawingHandler = new Handler();
 
+    // Frame times of the current gesture trail session, and of the last one that ended.
+    private final FrameTimes mFrameTimes = new FrameTimes();
+    private final FrameTimes mLastSessionFrameTimes = new FrameTimes();
+
     public GestureTrailsDrawingPreview(final TypedArray mainKeyboardViewAttr) {
         mDrawingParams = new GestureTrailDrawingParams(mainKeyboardViewAttr);
         final Paint gesturePaint = new Paint();
@@ -68,6 +87,9 @@ public final class GestureTrailsDrawingPreview extends AbstractDrawingPreview im
     @Override
     public void onDeallocateMemory() {
         freeOffscreenBuffer();
+        if (mRenderNode != null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            ((RenderNode)mRenderNode).discardDisplayList();
+        }
     }
 
     private void freeOffscreenBuffer() {
@@ -131,14 +153,31 @@ public final class GestureTrailsDrawingPreview extends AbstractDrawingPreview im
         if (!isPreviewEnabled()) {
             return;
         }
-        mayAllocateOffscreenBuffer();
-        // Draw gesture trails to offscreen buffer.
-        final boolean needsUpdatingGestureTrail = drawGestureTrails(
-                mOffscreenCanvas, mGesturePaint, mDirtyRect);
+        final long startNanos = System.nanoTime();
+        final boolean needsUpdatingGestureTrail;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q && canvas.isHardwareAccelerated()) {
+            freeOffscreenBuffer();
+            needsUpdatingGestureTrail = drawGestureTrailsWithRenderNode(canvas);
+        } else {
+            needsUpdatingGestureTrail = drawGestureTrailsWithOffscreenBuffer(canvas);
+        }
         if (needsUpdatingGestureTrail) {
             mDrawingHandler.removeCallbacks(this);
             mDrawingHandler.postDelayed(this, mDrawingParams.mUpdateInterval);
         }
+        if (!mDirtyRect.isEmpty() || needsUpdatingGestureTrail) {
+            mFrameTimes.onFrameDrawn(startNanos, System.nanoTime());
+        }
+        if (!needsUpdatingGestureTrail && mFrameTimes.mFrameCount > 0) {
+            onGestureTrailSessionEnded();
+        }
+    }
+
+    private boolean drawGestureTrailsWithOffscreenBuffer(final Canvas canvas) {
+        mayAllocateOffscreenBuffer();
+        // Draw gesture trails to offscreen buffer.
+        final boolean needsUpdatingGestureTrail = drawGestureTrails(
+                mOffscreenCanvas, mGesturePaint, mDirtyRect);
         // Transfer offscreen buffer to screen.
         if (!mDirtyRect.isEmpty()) {
             mOffscreenSrcRect.set(mDirtyRect);
@@ -147,6 +186,103 @@ public final class GestureTrailsDrawingPreview extends AbstractDrawingPreview im
             // Note: Defer clearing the dirty rectangle here because we will get cleared
             // rectangle on the canvas.
         }
+        return needsUpdatingGestureTrail;
+    }
+
+    @RequiresApi(Build.VERSION_CODES.Q)
+    private boolean drawGestureTrailsWithRenderNode(final Canvas canvas) {
+        RenderNode renderNode = (RenderNode)mRenderNode;
+        if (renderNode == null) {
+            renderNode = new RenderNode(TAG);
+            renderNode.setUseCompositingLayer(true, null /* paint */);
+            mRenderNode = renderNode;
+        }
+        // The node covers the same area as the offscreen buffer, including the extra area
+        // above the keyboard.
+        renderNode.setPosition(0, -mOffscreenOffsetY, mOffscreenWidth,
+                mOffscreenHeight - mOffscreenOffsetY);
+        final Canvas recordingCanvas = renderNode.beginRecording();
+        recordingCanvas.translate(0, mOffscreenOffsetY);
+        // The display list is recorded anew, there is nothing to clear.
+        mDirtyRect.setEmpty();
+        final boolean needsUpdatingGestureTrail = drawGestureTrails(
+                recordingCanvas, mGesturePaint, mDirtyRect);
+        renderNode.endRecording();
+        if (!mDirtyRect.isEmpty()) {
+            canvas.drawRenderNode(renderNode);
+        }
+        return needsUpdatingGestureTrail;
+    }
+
+    private void onGestureTrailSessionEnded() {
+        mLastSessionFrameTimes.set(mFrameTimes);
+        mFrameTimes.reset();
+        if (Log.isLoggable(TAG, Log.DEBUG)) {
+            Log.d(TAG, "Gesture trail frame times: " + mLastSessionFrameTimes);
+        }
+    }
+
+    /**
+     * Returns the frame times of the last gesture trail session, from the first frame with a
+     * trail until the trails have faded out, for dumpsys.
+     */
+    public String dumpFrameTimes() {
+        return "Gesture trail frame times: " + mLastSessionFrameTimes;
+    }
+
+    private static final class FrameTimes {
+        // A frame that took longer than this to draw or came later than this after the previous
+        // one is counted as slow.
+        private static final long SLOW_FRAME_NANOS = TimeUnit.MILLISECONDS.toNanos(16);
+
+        int mFrameCount;
+        int mSlowFrameCount;
+        long mTotalDrawNanos;
+        long mMaxDrawNanos;
+        long mMaxFrameIntervalNanos;
+        long mLastFrameStartNanos;
+
+        void onFrameDrawn(final long startNanos, final long endNanos) {
+            final long drawNanos = endNanos - startNanos;
+            final long intervalNanos = mFrameCount > 0 ? startNanos - mLastFrameStartNanos : 0;
+            mFrameCount++;
+            mTotalDrawNanos += drawNanos;
+            mMaxDrawNanos = Math.max(mMaxDrawNanos, drawNanos);
+            mMaxFrameIntervalNanos = Math.max(mMaxFrameIntervalNanos, intervalNanos);
+            if (drawNanos > SLOW_FRAME_NANOS || intervalNanos > SLOW_FRAME_NANOS) {
+                mSlowFrameCount++;
+            }
+            mLastFrameStartNanos = startNanos;
+        }
+
+        void set(final FrameTimes other) {
+            mFrameCount = other.mFrameCount;
+            mSlowFrameCount = other.mSlowFrameCount;
+            mTotalDrawNanos = other.mTotalDrawNanos;
+            mMaxDrawNanos = other.mMaxDrawNanos;
+            mMaxFrameIntervalNanos = other.mMaxFrameIntervalNanos;
+            mLastFrameStartNanos = other.mLastFrameStartNanos;
+        }
+
+        void reset() {
+            mFrameCount = 0;
+            mSlowFrameCount = 0;
+            mTotalDrawNanos = 0;
+            mMaxDrawNanos = 0;
+            mMaxFrameIntervalNanos = 0;
+            mLastFrameStartNanos = 0;
+        }
+
+        @Override
+        public String toString() {
+            if (mFrameCount == 0) {
+                return "none";
+            }
+            return "frames=" + mFrameCount + " slow=" + mSlowFrameCount
+                    + " avgDrawUs=" + TimeUnit.NANOSECONDS.toMicros(mTotalDrawNanos / mFrameCount)
+                    + " maxDrawUs=" + TimeUnit.NANOSECONDS.toMicros(mMaxDrawNanos)
+                    + " maxIntervalMs=" + TimeUnit.NANOSECONDS.toMillis(mMaxFrameIntervalNanos);
+        }
     }
 
     /**
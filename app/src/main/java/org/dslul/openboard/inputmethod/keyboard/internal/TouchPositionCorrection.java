@@ -19,6 +19,10 @@ package org.dslul.openboard.inputmethod.keyboard.internal;
 import org.dslul.openboard.inputmethod.annotations.UsedForTesting;
 import org.dslul.openboard.inputmethod.latin.define.DebugFlags;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
 public final class TouchPositionCorrection {
     private static final int TOUCH_POSITION_CORRECTION_RECORD_SIZE = 3;
 
@@ -67,6 +71,52 @@ public final class TouchPositionCorrection {
         }
     }
 
+    /**
+     * Loads data written by {@link #writeTo(DataOutputStream)}, for the keyboard layout cache.
+     */
+    public void load(final DataInputStream in) throws IOException {
+        final boolean enabled = in.readBoolean();
+        final int length = in.readInt();
+        if (length < 0) {
+            mXs = null;
+            mYs = null;
+            mRadii = null;
+        } else {
+            mXs = readFloats(in, length);
+            mYs = readFloats(in, length);
+            mRadii = readFloats(in, length);
+        }
+        mEnabled = enabled;
+    }
+
+    public void writeTo(final DataOutputStream out) throws IOException {
+        out.writeBoolean(mEnabled);
+        if (mRadii == null) {
+            out.writeInt(-1);
+            return;
+        }
+        out.writeInt(mRadii.length);
+        writeFloats(out, mXs);
+        writeFloats(out, mYs);
+        writeFloats(out, mRadii);
+    }
+
+    private static float[] readFloats(final DataInputStream in, final int length)
+            throws IOException {
+        final float[] values = new float[length];
+        for (int i = 0; i < length; ++i) {
+            values[i] = in.readFloat();
+        }
+        return values;
+    }
+
+    private static void writeFloats(final DataOutputStream out, final float[] values)
+            throws IOException {
+        for (final float value : values) {
+            out.writeFloat(value);
+        }
+    }
+
     @UsedForTesting
     public void setEnabled(final boolean enabled) {
         mEnabled = enabled;
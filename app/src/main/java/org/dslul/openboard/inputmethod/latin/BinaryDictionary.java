@@ -35,6 +35,7 @@ import org.dslul.openboard.inputmethod.latin.makedict.WordProperty;
 import org.dslul.openboard.inputmethod.latin.settings.SettingsValuesForSuggestion;
 import org.dslul.openboard.inputmethod.latin.utils.BinaryDictionaryUtils;
 import org.dslul.openboard.inputmethod.latin.utils.JniUtils;
+import org.dslul.openboard.inputmethod.latin.utils.SuggestionResults;
 import org.dslul.openboard.inputmethod.latin.utils.WordInputEventForPersonalization;
 
 import java.io.File;
@@ -98,6 +99,51 @@ public final class BinaryDictionary extends Dictionary {
 
     private final SparseArray<DicTraverseSession> mDicTraverseSessions = new SparseArray<>();
 
+    /**
+     * Buffers for the lookups below, so that checking a word does not allocate. There is one set
+     * per thread and they are only used within a single call, which never calls another lookup
+     * while it holds them.
+     */
+    private static final class ScratchBuffers {
+        final int[] mWordCodePoints = new int[DICTIONARY_MAX_WORD_LENGTH];
+        final int[][] mPrevWordCodePointArrays = new int[MAX_PREV_WORD_COUNT_FOR_N_GRAM][];
+        final boolean[] mIsBeginningOfSentenceArray =
+                new boolean[MAX_PREV_WORD_COUNT_FOR_N_GRAM];
+        final int[] mOutCodePoints = new int[DICTIONARY_MAX_WORD_LENGTH];
+        final boolean[] mOutFlags = new boolean[FORMAT_WORD_PROPERTY_OUTPUT_FLAG_COUNT];
+        final boolean[] mOutIsBeginningOfSentence = new boolean[1];
+        // For the batched lookups, grown as needed.
+        int[] mBatchCodePoints = new int[0];
+        int[] mBatchWordStarts = new int[1];
+        int[] mBatchWordIndices = new int[0];
+        int[] mBatchProbabilities = new int[0];
+        int[] mBatchFrequencies = new int[0];
+
+        void ensureBatchCapacity(final int wordCount) {
+            if (mBatchWordIndices.length >= wordCount) return;
+            mBatchWordStarts = new int[wordCount + 1];
+            mBatchWordIndices = new int[wordCount];
+            mBatchProbabilities = new int[wordCount];
+            mBatchFrequencies = new int[wordCount];
+        }
+
+        int[] ensureBatchCodePointCapacity(final int codePointCount) {
+            if (mBatchCodePoints.length < codePointCount) {
+                mBatchCodePoints = Arrays.copyOf(mBatchCodePoints,
+                        Math.max(codePointCount, mBatchCodePoints.length * 2));
+            }
+            return mBatchCodePoints;
+        }
+    }
+
+    private static final ThreadLocal<ScratchBuffers> sScratchBuffers =
+            new ThreadLocal<ScratchBuffers>() {
+                @Override
+                protected ScratchBuffers initialValue() {
+                    return new ScratchBuffers();
+                }
+            };
+
     // TODO: There should be a way to remove used DicTraverseSession objects from
     // {@code mDicTraverseSessions}.
     private DicTraverseSession getTraverseSession(final int traverseSessionId) {
@@ -178,10 +224,13 @@ public final class BinaryDictionary extends Dictionary {
     private static native boolean flushWithGCNative(long dict, String filePath);
     private static native void closeNative(long dict);
     private static native int getFormatVersionNative(long dict);
-    private static native int getProbabilityNative(long dict, int[] word);
-    private static native int getMaxProbabilityOfExactMatchesNative(long dict, int[] word);
+    private static native int getProbabilityNative(long dict, int[] word, int wordLength);
+    private static native void getProbabilitiesNative(long dict, int[] codePoints,
+            int[] wordStarts, int wordCount, int[] outProbabilities);
+    private static native int getMaxProbabilityOfExactMatchesNative(long dict, int[] word,
+            int wordLength);
     private static native int getNgramProbabilityNative(long dict, int[][] prevWordCodePointArrays,
-            boolean[] isBeginningOfSentenceArray, int[] word);
+            boolean[] isBeginningOfSentenceArray, int prevWordCount, int[] word, int wordLength);
     private static native void getWordPropertyNative(long dict, int[] word,
             boolean isBeginningOfSentence, int[] outCodePoints, boolean[] outFlags,
             int[] outProbabilityInfo, ArrayList<int[][]> outNgramPrevWordsArray,
@@ -270,6 +319,80 @@ public final class BinaryDictionary extends Dictionary {
             final SettingsValuesForSuggestion settingsValuesForSuggestion,
             final int sessionId, final float weightForLocale,
             final float[] inOutWeightOfLangModelVsSpatialModel) {
+        final DicTraverseSession session = querySuggestions(composedData, ngramContext,
+                proximityInfoHandle, settingsValuesForSuggestion, sessionId, weightForLocale,
+                inOutWeightOfLangModelVsSpatialModel);
+        if (null == session) {
+            return null;
+        }
+        final int count = session.mOutputSuggestionCount[0];
+        final ArrayList<SuggestedWordInfo> suggestions = new ArrayList<>();
+        for (int j = 0; j < count; ++j) {
+            final int start = j * DICTIONARY_MAX_WORD_LENGTH;
+            final int len = getOutputWordLength(session, start);
+            if (len > 0) {
+                suggestions.add(new SuggestedWordInfo(
+                        new String(session.mOutputCodePoints, start, len),
+                        "" /* prevWordsContext */,
+                        (int)(session.mOutputScores[j] * weightForLocale),
+                        session.mOutputTypes[j],
+                        this /* sourceDict */,
+                        session.mSpaceIndices[j] /* indexOfTouchPointOfSecondWord */,
+                        session.mOutputAutoCommitFirstWordConfidence[0]));
+            }
+        }
+        return suggestions;
+    }
+
+    /**
+     * Offers the native output to outResults straight from the session buffers, so only the
+     * candidates it keeps get a {@link SuggestedWordInfo}.
+     */
+    @Override
+    public void addSuggestions(final ComposedData composedData,
+            final NgramContext ngramContext, final long proximityInfoHandle,
+            final SettingsValuesForSuggestion settingsValuesForSuggestion,
+            final int sessionId, final float weightForLocale,
+            final float[] inOutWeightOfLangModelVsSpatialModel,
+            final SuggestionResults outResults) {
+        final DicTraverseSession session = querySuggestions(composedData, ngramContext,
+                proximityInfoHandle, settingsValuesForSuggestion, sessionId, weightForLocale,
+                inOutWeightOfLangModelVsSpatialModel);
+        if (null == session) {
+            return;
+        }
+        final int count = session.mOutputSuggestionCount[0];
+        for (int j = 0; j < count; ++j) {
+            final int start = j * DICTIONARY_MAX_WORD_LENGTH;
+            outResults.addCandidate(session.mOutputCodePoints, start,
+                    getOutputWordLength(session, start),
+                    (int)(session.mOutputScores[j] * weightForLocale),
+                    session.mOutputTypes[j],
+                    this /* sourceDict */,
+                    session.mSpaceIndices[j] /* indexOfTouchPointOfSecondWord */,
+                    session.mOutputAutoCommitFirstWordConfidence[0]);
+        }
+    }
+
+    private static int getOutputWordLength(final DicTraverseSession session, final int start) {
+        int len = 0;
+        while (len < DICTIONARY_MAX_WORD_LENGTH
+                && session.mOutputCodePoints[start + len] != 0) {
+            ++len;
+        }
+        return len;
+    }
+
+    /**
+     * Runs the native lookup, leaving its output in the buffers of the returned session.
+     *
+     * @return the session, or null if there is nothing to look up.
+     */
+    private DicTraverseSession querySuggestions(final ComposedData composedData,
+            final NgramContext ngramContext, final long proximityInfoHandle,
+            final SettingsValuesForSuggestion settingsValuesForSuggestion,
+            final int sessionId, final float weightForLocale,
+            final float[] inOutWeightOfLangModelVsSpatialModel) {
         if (!isValidDictionary()) {
             return null;
         }
@@ -317,27 +440,7 @@ public final class BinaryDictionary extends Dictionary {
             inOutWeightOfLangModelVsSpatialModel[0] =
                     session.mInputOutputWeightOfLangModelVsSpatialModel[0];
         }
-        final int count = session.mOutputSuggestionCount[0];
-        final ArrayList<SuggestedWordInfo> suggestions = new ArrayList<>();
-        for (int j = 0; j < count; ++j) {
-            final int start = j * DICTIONARY_MAX_WORD_LENGTH;
-            int len = 0;
-            while (len < DICTIONARY_MAX_WORD_LENGTH
-                    && session.mOutputCodePoints[start + len] != 0) {
-                ++len;
-            }
-            if (len > 0) {
-                suggestions.add(new SuggestedWordInfo(
-                        new String(session.mOutputCodePoints, start, len),
-                        "" /* prevWordsContext */,
-                        (int)(session.mOutputScores[j] * weightForLocale),
-                        session.mOutputTypes[j],
-                        this /* sourceDict */,
-                        session.mSpaceIndices[j] /* indexOfTouchPointOfSecondWord */,
-                        session.mOutputAutoCommitFirstWordConfidence[0]));
-            }
-        }
-        return suggestions;
+        return session;
     }
 
     public boolean isValidDictionary() {
@@ -358,8 +461,74 @@ public final class BinaryDictionary extends Dictionary {
         if (TextUtils.isEmpty(word)) {
             return NOT_A_PROBABILITY;
         }
-        final int[] codePoints = StringUtils.toCodePointArray(word);
-        return getProbabilityNative(mNativeDict, codePoints);
+        final int[] codePoints = sScratchBuffers.get().mWordCodePoints;
+        final int length = copyCodePoints(word, codePoints);
+        if (length < 0) {
+            final int[] longWord = StringUtils.toCodePointArray(word);
+            return getProbabilityNative(mNativeDict, longWord, longWord.length);
+        }
+        return getProbabilityNative(mNativeDict, codePoints, length);
+    }
+
+    /**
+     * Looks up all the words in a single native call, packing their code points one after the
+     * other. Words too long for the dictionary are looked up on their own.
+     */
+    @Override
+    public void getFrequencies(final String[] words, final int[] outFrequencies) {
+        final ScratchBuffers buffers = sScratchBuffers.get();
+        buffers.ensureBatchCapacity(words.length);
+        final int[] wordStarts = buffers.mBatchWordStarts;
+        final int[] wordIndices = buffers.mBatchWordIndices;
+        int[] codePoints = buffers.mBatchCodePoints;
+        int packedWordCount = 0;
+        int codePointCount = 0;
+        wordStarts[0] = 0;
+        for (int i = 0; i < words.length; i++) {
+            final String word = words[i];
+            if (TextUtils.isEmpty(word)) {
+                outFrequencies[i] = NOT_A_PROBABILITY;
+                continue;
+            }
+            final int length = word.length();
+            if (Character.codePointCount(word, 0, length) > DICTIONARY_MAX_WORD_LENGTH) {
+                outFrequencies[i] = getFrequency(word);
+                continue;
+            }
+            codePoints = buffers.ensureBatchCodePointCapacity(
+                    codePointCount + DICTIONARY_MAX_WORD_LENGTH);
+            for (int index = 0; index < length; ) {
+                final int codePoint = word.codePointAt(index);
+                codePoints[codePointCount++] = codePoint;
+                index += Character.charCount(codePoint);
+            }
+            wordIndices[packedWordCount++] = i;
+            wordStarts[packedWordCount] = codePointCount;
+        }
+        if (packedWordCount == 0) {
+            return;
+        }
+        final int[] probabilities = buffers.mBatchProbabilities;
+        Arrays.fill(probabilities, 0, packedWordCount, NOT_A_PROBABILITY);
+        getProbabilitiesNative(mNativeDict, codePoints, wordStarts, packedWordCount,
+                probabilities);
+        for (int i = 0; i < packedWordCount; i++) {
+            outFrequencies[wordIndices[i]] = probabilities[i];
+        }
+    }
+
+    @Override
+    public void markValidWords(final String[] words, final boolean[] outIsValid) {
+        final ScratchBuffers buffers = sScratchBuffers.get();
+        buffers.ensureBatchCapacity(words.length);
+        // Not used by getFrequencies() itself, so it is free to hold the results.
+        final int[] frequencies = buffers.mBatchFrequencies;
+        getFrequencies(words, frequencies);
+        for (int i = 0; i < words.length; i++) {
+            if (frequencies[i] != NOT_A_PROBABILITY) {
+                outIsValid[i] = true;
+            }
+        }
     }
 
     @Override
@@ -367,8 +536,26 @@ public final class BinaryDictionary extends Dictionary {
         if (TextUtils.isEmpty(word)) {
             return NOT_A_PROBABILITY;
         }
-        final int[] codePoints = StringUtils.toCodePointArray(word);
-        return getMaxProbabilityOfExactMatchesNative(mNativeDict, codePoints);
+        final int[] codePoints = sScratchBuffers.get().mWordCodePoints;
+        final int length = copyCodePoints(word, codePoints);
+        if (length < 0) {
+            final int[] longWord = StringUtils.toCodePointArray(word);
+            return getMaxProbabilityOfExactMatchesNative(mNativeDict, longWord, longWord.length);
+        }
+        return getMaxProbabilityOfExactMatchesNative(mNativeDict, codePoints, length);
+    }
+
+    /**
+     * Copies the code points of word to the start of destination.
+     *
+     * @return the number of code points, or -1 if they do not fit.
+     */
+    private static int copyCodePoints(final String word, final int[] destination) {
+        if (Character.codePointCount(word, 0, word.length()) > destination.length) {
+            return -1;
+        }
+        return StringUtils.copyCodePointsAndReturnCodePointCount(destination, word,
+                0 /* startIndex */, word.length(), false /* downCase */);
     }
 
     @UsedForTesting
@@ -380,21 +567,44 @@ public final class BinaryDictionary extends Dictionary {
         if (!ngramContext.isValid() || TextUtils.isEmpty(word)) {
             return NOT_A_PROBABILITY;
         }
-        final int[][] prevWordCodePointArrays = new int[ngramContext.getPrevWordCount()][];
-        final boolean[] isBeginningOfSentenceArray = new boolean[ngramContext.getPrevWordCount()];
+        final ScratchBuffers buffers = sScratchBuffers.get();
+        final int prevWordCount =
+                Math.min(ngramContext.getPrevWordCount(), MAX_PREV_WORD_COUNT_FOR_N_GRAM);
+        final int[][] prevWordCodePointArrays;
+        final boolean[] isBeginningOfSentenceArray;
+        if (prevWordCount == ngramContext.getPrevWordCount()) {
+            prevWordCodePointArrays = buffers.mPrevWordCodePointArrays;
+            isBeginningOfSentenceArray = buffers.mIsBeginningOfSentenceArray;
+        } else {
+            // Only contexts built with a larger max count get here.
+            prevWordCodePointArrays = new int[ngramContext.getPrevWordCount()][];
+            isBeginningOfSentenceArray = new boolean[ngramContext.getPrevWordCount()];
+        }
         ngramContext.outputToArray(prevWordCodePointArrays, isBeginningOfSentenceArray);
-        final int[] wordCodePoints = StringUtils.toCodePointArray(word);
-        return getNgramProbabilityNative(mNativeDict, prevWordCodePointArrays,
-                isBeginningOfSentenceArray, wordCodePoints);
+        int[] wordCodePoints = buffers.mWordCodePoints;
+        int wordLength = copyCodePoints(word, wordCodePoints);
+        if (wordLength < 0) {
+            wordCodePoints = StringUtils.toCodePointArray(word);
+            wordLength = wordCodePoints.length;
+        }
+        final int probability = getNgramProbabilityNative(mNativeDict, prevWordCodePointArrays,
+                isBeginningOfSentenceArray, prevWordCount, wordCodePoints, wordLength);
+        // Don't keep the previous words alive.
+        Arrays.fill(buffers.mPrevWordCodePointArrays, null);
+        return probability;
     }
 
     public WordProperty getWordProperty(final String word, final boolean isBeginningOfSentence) {
         if (word == null) {
             return null;
         }
+        // Not a scratch buffer: the native side takes the word length from the array length.
         final int[] codePoints = StringUtils.toCodePointArray(word);
-        final int[] outCodePoints = new int[DICTIONARY_MAX_WORD_LENGTH];
-        final boolean[] outFlags = new boolean[FORMAT_WORD_PROPERTY_OUTPUT_FLAG_COUNT];
+        final ScratchBuffers buffers = sScratchBuffers.get();
+        final int[] outCodePoints = buffers.mOutCodePoints;
+        final boolean[] outFlags = buffers.mOutFlags;
+        // Left untouched by the native side when the word can't be looked up.
+        Arrays.fill(outFlags, false);
         final int[] outProbabilityInfo =
                 new int[FORMAT_WORD_PROPERTY_OUTPUT_PROBABILITY_INFO_COUNT];
         final ArrayList<int[][]> outNgramPrevWordsArray = new ArrayList<>();
@@ -434,13 +644,18 @@ public final class BinaryDictionary extends Dictionary {
      * If token is 0, this method newly starts iterating the dictionary.
      */
     public GetNextWordPropertyResult getNextWordProperty(final int token) {
-        final int[] codePoints = new int[DICTIONARY_MAX_WORD_LENGTH];
-        final boolean[] isBeginningOfSentence = new boolean[1];
+        final ScratchBuffers buffers = sScratchBuffers.get();
+        final int[] codePoints = buffers.mOutCodePoints;
+        final boolean[] isBeginningOfSentence = buffers.mOutIsBeginningOfSentence;
+        // The native side doesn't null-terminate, so clear what a longer word left behind.
+        Arrays.fill(codePoints, 0);
         final int nextToken = getNextWordNative(mNativeDict, token, codePoints,
                 isBeginningOfSentence);
+        // Read the buffers before getWordProperty() reuses them.
         final String word = StringUtils.getStringFromNullTerminatedCodePointArray(codePoints);
+        final boolean wordIsBeginningOfSentence = isBeginningOfSentence[0];
         return new GetNextWordPropertyResult(
-                getWordProperty(word, isBeginningOfSentence[0]), nextToken);
+                getWordProperty(word, wordIsBeginningOfSentence), nextToken);
     }
 
     // Add a unigram entry to binary dictionary with unigram attributes in native code.
@@ -555,6 +770,11 @@ public final class BinaryDictionary extends Dictionary {
         return true;
     }
 
+    // Whether the dictionary has changes that are not in its file yet.
+    public boolean hasUpdated() {
+        return mHasUpdated;
+    }
+
     // Run GC and flush to dict file if the dictionary has been updated.
     public boolean flushWithGCIfHasUpdated() {
         if (mHasUpdated) {
@@ -95,7 +95,9 @@ final public class BinaryDictionaryGetter {
         try {
             afd = context.getResources().openRawResourceFd(fallbackResId);
         } catch (RuntimeException e) {
-            Log.e(TAG, "Resource not found: " + fallbackResId);
+            // Also thrown for compressed resources: dictionaries are mapped straight out of the
+            // APK, which is why they are stored uncompressed.
+            Log.e(TAG, "Resource not found or compressed: " + fallbackResId);
             return null;
         }
         if (afd == null) {
@@ -3,25 +3,47 @@ package org.dslul.openboard.inputmethod.latin
 import android.content.ClipboardManager
 import android.content.Context
 import android.text.TextUtils
+import android.util.AtomicFile
 import android.util.Base64
 import android.util.Log
 import org.dslul.openboard.inputmethod.compat.ClipboardManagerCompat
+import org.dslul.openboard.inputmethod.latin.utils.ExecutorUtils
 import org.dslul.openboard.inputmethod.latin.utils.JsonUtils
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.EOFException
 import java.io.File
 import java.lang.Exception
 import java.util.*
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicReference
 
-class ClipboardHistoryManager(
-        private val latinIME: LatinIME
+/**
+ * Clipboard history, kept sorted (pinned first, then newest first) in an array list with a
+ * timestamp index next to it, so inserts are a binary search and lookups by timestamp are O(1).
+ * Unpinned clips are bounded by [maxEntries] and [maxBytes]; the oldest ones go first.
+ *
+ * Pinned clips are persisted as length-prefixed UTF-8 records. Saves are coalesced over
+ * [SAVE_DELAY_MILLIS] and written by the keyboard background executor, the only writer.
+ */
+class ClipboardHistoryManager @JvmOverloads constructor(
+        private val latinIME: LatinIME,
+        private val maxEntries: Int = DEFAULT_MAX_ENTRIES,
+        private val maxBytes: Long = DEFAULT_MAX_BYTES
 ) : ClipboardManager.OnPrimaryClipChangedListener {
 
     private lateinit var pinnedHistoryClipsFile: File
     private lateinit var clipboardManager: ClipboardManager
-    private val historyEntries: MutableList<ClipboardHistoryEntry>
+    private val historyEntries = ArrayList<ClipboardHistoryEntry>()
+    private val entriesByTimeStamp = HashMap<Long, ClipboardHistoryEntry>()
+    private var unpinnedCount = 0
+    private var unpinnedBytes = 0L
     private var onHistoryChangeListener: OnHistoryChangeListener? = null
+    // Latest pinned clips waiting to be written; non-null while a save is scheduled.
+    private val pendingSave = AtomicReference<List<ClipboardHistoryEntry>?>()
 
     fun onCreate() {
-        pinnedHistoryClipsFile = File(latinIME.filesDir, PINNED_CLIPS_DATA_FILE_NAME)
+        pinnedHistoryClipsFile = File(latinIME.filesDir, PINNED_CLIPS_FILE_NAME)
         clipboardManager = latinIME.getSystemService(Context.CLIPBOARD_SERVICE) as ClipboardManager
         fetchPrimaryClip()
         clipboardManager.addPrimaryClipChangedListener(this)
@@ -29,12 +51,11 @@ class ClipboardHistoryManager(
     }
 
     fun onPinnedClipsAvailable(pinnedClips: List<ClipboardHistoryEntry>) {
-        historyEntries.addAll(pinnedClips)
-        sortHistoryEntries()
-        if (onHistoryChangeListener != null) {
-            pinnedClips.forEach {
-                onHistoryChangeListener?.onClipboardHistoryEntryAdded(historyEntries.indexOf(it))
-            }
+        pinnedClips.forEach {
+            if (isKnownClip(it.timeStamp, it.content)) return@forEach
+            it.timeStamp = unusedTimeStamp(it.timeStamp)
+            val at = insertEntry(it)
+            onHistoryChangeListener?.onClipboardHistoryEntryAdded(at)
         }
     }
 
@@ -53,48 +74,101 @@ class ClipboardHistoryManager(
         val clipData = clipboardManager.primaryClip ?: return
         if (clipData.itemCount == 0) return
         clipData.getItemAt(0)?.let { clipItem ->
-            // Starting from API 30, onPrimaryClipChanged() can be called multiple times
-            // for the same clip. We can identify clips with their timestamps since API 26.
-            // We use that to prevent unwanted duplicates.
-            val timeStamp = ClipboardManagerCompat.getClipTimestamp(clipData)?.also { stamp ->
-                if (historyEntries.any { it.timeStamp == stamp }) return
-            } ?: System.currentTimeMillis()
-
             val content = clipItem.coerceToText(latinIME)
             if (TextUtils.isEmpty(content)) return
 
-            val entry = ClipboardHistoryEntry(timeStamp, content)
-            historyEntries.add(entry)
-            sortHistoryEntries()
-            val at = historyEntries.indexOf(entry)
+            // Starting from API 30, onPrimaryClipChanged() can be called multiple times
+            // for the same clip. We can identify clips with their timestamps since API 26.
+            // We use that to prevent unwanted duplicates. Another clip copied within the same
+            // millisecond gets the next free timestamp instead.
+            val clipTimeStamp = ClipboardManagerCompat.getClipTimestamp(clipData)
+            if (clipTimeStamp != null && isKnownClip(clipTimeStamp, content)) return
+            val timeStamp = unusedTimeStamp(clipTimeStamp ?: System.currentTimeMillis())
+
+            val at = insertEntry(ClipboardHistoryEntry(timeStamp, content))
             onHistoryChangeListener?.onClipboardHistoryEntryAdded(at)
+            trimUnpinned()
         }
     }
 
     fun toggleClipPinned(ts: Long) {
-        val from = historyEntries.indexOfFirst { it.timeStamp == ts }
-        val historyEntry = historyEntries[from].apply {
-            timeStamp = System.currentTimeMillis()
+        val historyEntry = entriesByTimeStamp[ts] ?: return
+        val from = removeEntry(historyEntry)
+        historyEntry.apply {
+            timeStamp = unusedTimeStamp(System.currentTimeMillis())
             isPinned = !isPinned
         }
-        sortHistoryEntries()
-        val to = historyEntries.indexOf(historyEntry)
+        val to = insertEntry(historyEntry)
         onHistoryChangeListener?.onClipboardHistoryEntryMoved(from, to)
-        startSavePinnedClipsToDisk()
+        scheduleSavePinnedClipsToDisk()
     }
 
     fun clearHistory() {
         ClipboardManagerCompat.clearPrimaryClip(clipboardManager)
-        val pos = historyEntries.indexOfFirst { !it.isPinned }
-        val count = historyEntries.count { !it.isPinned }
-        historyEntries.removeAll { !it.isPinned }
-        if (onHistoryChangeListener != null) {
-            onHistoryChangeListener?.onClipboardHistoryEntriesRemoved(pos, count)
+        // Unpinned entries are sorted after all pinned ones.
+        val pos = historyEntries.size - unpinnedCount
+        val count = unpinnedCount
+        if (count == 0) return
+        for (i in pos until historyEntries.size) entriesByTimeStamp.remove(historyEntries[i].timeStamp)
+        historyEntries.subList(pos, historyEntries.size).clear()
+        unpinnedCount = 0
+        unpinnedBytes = 0
+        onHistoryChangeListener?.onClipboardHistoryEntriesRemoved(pos, count)
+    }
+
+    /** Inserts [entry] at its sorted position and returns that position. */
+    private fun insertEntry(entry: ClipboardHistoryEntry): Int {
+        val found = Collections.binarySearch(historyEntries, entry)
+        val at = if (found >= 0) found else -found - 1
+        historyEntries.add(at, entry)
+        entriesByTimeStamp[entry.timeStamp] = entry
+        if (!entry.isPinned) {
+            unpinnedCount++
+            unpinnedBytes += sizeOf(entry)
+        }
+        return at
+    }
+
+    /** Removes [entry] and returns the position it was at. */
+    private fun removeEntry(entry: ClipboardHistoryEntry): Int {
+        val at = indexOf(entry)
+        historyEntries.removeAt(at)
+        entriesByTimeStamp.remove(entry.timeStamp)
+        if (!entry.isPinned) {
+            unpinnedCount--
+            unpinnedBytes -= sizeOf(entry)
+        }
+        return at
+    }
+
+    // Timestamps are unique, so the comparator finds exactly this entry.
+    private fun indexOf(entry: ClipboardHistoryEntry) = Collections.binarySearch(historyEntries, entry)
+
+    /**
+     * Whether a clip with [content] is already stored for [timeStamp]: at it, or at one of the
+     * taken timestamps right after it, where [unusedTimeStamp] puts clips that tie.
+     */
+    private fun isKnownClip(timeStamp: Long, content: CharSequence): Boolean {
+        var ts = timeStamp
+        while (true) {
+            val entry = entriesByTimeStamp[ts] ?: return false
+            if (TextUtils.equals(entry.content, content)) return true
+            ts++
         }
     }
 
-    private fun sortHistoryEntries() {
-        historyEntries.sort()
+    private fun unusedTimeStamp(preferred: Long): Long {
+        var ts = preferred
+        while (entriesByTimeStamp.containsKey(ts)) ts++
+        return ts
+    }
+
+    /** Drops the oldest unpinned clips, always keeping the newest one. */
+    private fun trimUnpinned() {
+        while (unpinnedCount > 1 && (unpinnedCount > maxEntries || unpinnedBytes > maxBytes)) {
+            val at = removeEntry(historyEntries[historyEntries.size - 1])
+            onHistoryChangeListener?.onClipboardHistoryEntriesRemoved(at, 1)
+        }
     }
 
     private fun checkClipRetentionElapsed() {
@@ -102,7 +176,12 @@ class ClipboardHistoryManager(
         if (mins <= 0) return // No retention limit
         val maxClipRetentionTime = mins * 60 * 1000L
         val now = System.currentTimeMillis()
-        historyEntries.removeAll { !it.isPinned && (now - it.timeStamp) > maxClipRetentionTime }
+        // Unpinned clips are at the end, oldest last.
+        while (unpinnedCount > 0) {
+            val oldest = historyEntries[historyEntries.size - 1]
+            if (now - oldest.timeStamp <= maxClipRetentionTime) break
+            removeEntry(oldest)
+        }
     }
 
     // We do not want to update history while user is visualizing it, so we check retention only
@@ -113,7 +192,7 @@ class ClipboardHistoryManager(
 
     fun getHistoryEntry(position: Int) = historyEntries[position]
 
-    fun getHistoryEntryContent(timeStamp: Long) = historyEntries.first { it.timeStamp == timeStamp }
+    fun getHistoryEntryContent(timeStamp: Long) = entriesByTimeStamp[timeStamp]
 
     fun setHistoryChangeListener(l: OnHistoryChangeListener?) {
         onHistoryChangeListener = l
@@ -126,23 +205,16 @@ class ClipboardHistoryManager(
     }
 
     private fun startLoadPinnedClipsFromDisk() {
-        object : Thread("$TAG-load") {
-            override fun run() {
-                loadFromDisk()
-            }
-        }.start()
+        ExecutorUtils.getBackgroundExecutor(ExecutorUtils.KEYBOARD).execute { loadFromDisk() }
     }
 
     private fun loadFromDisk() {
-        // Debugging
-        if (pinnedHistoryClipsFile.exists() && !pinnedHistoryClipsFile.canRead()) {
-            Log.w(TAG, "Attempt to read pinned clips file $pinnedHistoryClipsFile without permission")
-        }
         var list = emptyList<ClipboardHistoryEntry>()
         try {
-            if (pinnedHistoryClipsFile.exists()) {
-                val bytes = Base64.decode(pinnedHistoryClipsFile.readText(), Base64.DEFAULT)
-                list = JsonUtils.jsonBytesToHistoryEntryList(bytes)
+            list = if (pinnedHistoryClipsFile.exists()) {
+                readPinnedClips(AtomicFile(pinnedHistoryClipsFile))
+            } else {
+                migrateLegacyPinnedClips()
             }
         } catch (e: Exception) {
             Log.w(TAG, "Couldn't retrieve $pinnedHistoryClipsFile content", e)
@@ -150,31 +222,69 @@ class ClipboardHistoryManager(
         latinIME.mHandler.postUpdateClipboardPinnedClips(list)
     }
 
-    private fun startSavePinnedClipsToDisk() {
-        val localCopy = historyEntries.filter { it.isPinned }.map { it.copy() }
-        object : Thread("$TAG-save") {
-            override fun run() {
-                saveToDisk(localCopy)
+    private fun readPinnedClips(file: AtomicFile): List<ClipboardHistoryEntry> {
+        val list = ArrayList<ClipboardHistoryEntry>()
+        DataInputStream(file.openRead().buffered()).use { input ->
+            if (input.readInt() != FILE_MAGIC || input.readInt() != FILE_VERSION) {
+                Log.w(TAG, "Ignoring pinned clips file with unknown format")
+                return list
             }
-        }.start()
+            while (true) {
+                val timeStamp = try {
+                    input.readLong()
+                } catch (e: EOFException) {
+                    break
+                }
+                val bytes = ByteArray(input.readInt())
+                input.readFully(bytes)
+                list.add(ClipboardHistoryEntry(timeStamp, String(bytes, Charsets.UTF_8), true))
+            }
+        }
+        return list
+    }
+
+    /** Reads the former Base64-wrapped JSON file once, rewrites it in the current format. */
+    private fun migrateLegacyPinnedClips(): List<ClipboardHistoryEntry> {
+        val legacyFile = File(latinIME.filesDir, PINNED_CLIPS_DATA_FILE_NAME)
+        if (!legacyFile.exists()) return emptyList()
+        val bytes = Base64.decode(legacyFile.readText(), Base64.DEFAULT)
+        val list = JsonUtils.jsonBytesToHistoryEntryList(bytes)
+        saveToDisk(list)
+        legacyFile.delete()
+        return list
+    }
+
+    private fun scheduleSavePinnedClipsToDisk() {
+        val localCopy = historyEntries.filter { it.isPinned }.map { it.copy(content = it.content.toString()) }
+        if (pendingSave.getAndSet(localCopy) != null) return // the scheduled save picks it up
+        ExecutorUtils.getBackgroundExecutor(ExecutorUtils.KEYBOARD).schedule({
+            pendingSave.getAndSet(null)?.let { saveToDisk(it) }
+        }, SAVE_DELAY_MILLIS, TimeUnit.MILLISECONDS)
     }
 
     private fun saveToDisk(list: List<ClipboardHistoryEntry>) {
-        // Debugging
-        if (pinnedHistoryClipsFile.exists() && !pinnedHistoryClipsFile.canWrite()) {
-            Log.w(TAG, "Attempt to write pinned clips file $pinnedHistoryClipsFile without permission")
+        val file = AtomicFile(pinnedHistoryClipsFile)
+        val stream = try {
+            file.startWrite()
+        } catch (e: Exception) {
+            Log.w(TAG, "Couldn't write to $pinnedHistoryClipsFile", e)
+            return
         }
         try {
-            pinnedHistoryClipsFile.createNewFile()
-            val jsonStr = JsonUtils.historyEntryListToJsonStr(list)
-            if (!TextUtils.isEmpty(jsonStr)) {
-                val rawText = Base64.encodeToString(jsonStr.encodeToByteArray(), Base64.DEFAULT)
-                pinnedHistoryClipsFile.writeText(rawText)
-            } else {
-                pinnedHistoryClipsFile.writeText("")
+            val out = DataOutputStream(stream.buffered())
+            out.writeInt(FILE_MAGIC)
+            out.writeInt(FILE_VERSION)
+            for (entry in list) {
+                val bytes = entry.content.toString().toByteArray(Charsets.UTF_8)
+                out.writeLong(entry.timeStamp)
+                out.writeInt(bytes.size)
+                out.write(bytes)
             }
+            out.flush()
+            file.finishWrite(stream)
         } catch (e: Exception) {
             Log.w(TAG, "Couldn't write to $pinnedHistoryClipsFile", e)
+            file.failWrite(stream)
         }
     }
 
@@ -185,11 +295,17 @@ class ClipboardHistoryManager(
     }
 
     companion object {
+        // Former Base64 JSON file, only read for migration.
         const val PINNED_CLIPS_DATA_FILE_NAME = "pinned_clips.data"
+        const val PINNED_CLIPS_FILE_NAME = "pinned_clips.bin"
         const val TAG = "ClipboardHistoryManager"
-    }
+        const val DEFAULT_MAX_ENTRIES = 100
+        // In-memory size of clip text (UTF-16), unpinned clips only.
+        const val DEFAULT_MAX_BYTES = 1024L * 1024
+        private const val SAVE_DELAY_MILLIS = 500L
+        private const val FILE_MAGIC = 0x50434c50 // "PCLP"
+        private const val FILE_VERSION = 1
 
-    init {
-        historyEntries = LinkedList()
+        private fun sizeOf(entry: ClipboardHistoryEntry) = entry.content.length * 2L
     }
-}
\ No newline at end of file
+}
@@ -30,8 +30,13 @@ import org.dslul.openboard.inputmethod.latin.permissions.PermissionsUtil;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Locale;
+import java.util.Set;
 
+import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 
 public class ContactsBinaryDictionary extends ExpandableBinaryDictionary
@@ -42,11 +47,19 @@ public class ContactsBinaryDictionary extends ExpandableBinaryDictionary
     private static final boolean DEBUG = false;
     private static final boolean DEBUG_DUMP = false;
 
+    /**
+     * Beyond this many added and removed names, rebuilding is cheaper than updating in place.
+     */
+    private static final int MAX_NAME_CHANGES_FOR_INCREMENTAL_UPDATE =
+            ContactsManager.MAX_CONTACT_NAMES / 4;
+
     /**
      * Whether to use "firstname lastname" in bigram predictions.
      */
     private final boolean mUseFirstLastBigrams;
     private final ContactsManager mContactsManager;
+    // Names of the user's profile, which are also in the dictionary. Written with the lock.
+    private volatile List<String> mProfileNames = Collections.emptyList();
 
     protected ContactsBinaryDictionary(final Context context, final Locale locale,
             final File dictFile, final String name) {
@@ -92,6 +105,7 @@ public class ContactsBinaryDictionary extends ExpandableBinaryDictionary
             Log.i(TAG, "No permission to read contacts. Not loading the Dictionary.");
         }
 
+        final long timestamp = System.currentTimeMillis();
         final ArrayList<String> validNames = mContactsManager.getValidNames(uri);
         for (final String name : validNames) {
             addNameLocked(name);
@@ -99,7 +113,9 @@ public class ContactsBinaryDictionary extends ExpandableBinaryDictionary
         if (uri.equals(Contacts.CONTENT_URI)) {
             // Since we were able to add content successfully, update the local
             // state of the manager.
-            mContactsManager.updateLocalState(validNames);
+            mContactsManager.updateLocalState(validNames, timestamp);
+        } else {
+            mProfileNames = validNames;
         }
     }
 
@@ -108,9 +124,35 @@ public class ContactsBinaryDictionary extends ExpandableBinaryDictionary
      * bigrams depending on locale.
      */
     private void addNameLocked(final String name) {
-        int len = StringUtils.codePointCount(name);
         NgramContext ngramContext = NgramContext.getEmptyPrevWordsContext(
                 BinaryDictionary.MAX_PREV_WORD_COUNT_FOR_N_GRAM);
+        for (final String word : getWordsOfName(name)) {
+            if (DEBUG) {
+                Log.d(TAG, "addName " + name + ", " + word + ", "  + ngramContext);
+            }
+            runGCIfRequiredLocked(true /* mindsBlockByGC */);
+            addUnigramLocked(word, ContactsDictionaryConstants.FREQUENCY_FOR_CONTACTS,
+                    null /* shortcut */, 0 /* shortcutFreq */, false /* isNotAWord */,
+                    false /* isPossiblyOffensive */,
+                    BinaryDictionary.NOT_A_VALID_TIMESTAMP);
+            if (ngramContext.isValid() && mUseFirstLastBigrams) {
+                runGCIfRequiredLocked(true /* mindsBlockByGC */);
+                addNgramEntryLocked(ngramContext,
+                        word,
+                        ContactsDictionaryConstants.FREQUENCY_FOR_CONTACTS_BIGRAM,
+                        BinaryDictionary.NOT_A_VALID_TIMESTAMP);
+            }
+            ngramContext = ngramContext.getNextNgramContext(
+                    new NgramContext.WordInfo(word));
+        }
+    }
+
+    /**
+     * Returns the words of a name that go into the dictionary, in order.
+     */
+    private static ArrayList<String> getWordsOfName(final String name) {
+        final ArrayList<String> words = new ArrayList<>();
+        int len = StringUtils.codePointCount(name);
         // TODO: Better tokenization for non-Latin writing systems
         for (int i = 0; i < len; i++) {
             if (Character.isLetter(name.codePointAt(i))) {
@@ -124,30 +166,72 @@ public class ContactsBinaryDictionary extends ExpandableBinaryDictionary
                 // capitalization of i.
                 final int wordLen = StringUtils.codePointCount(word);
                 if (wordLen <= MAX_WORD_LENGTH && wordLen > 1) {
-                    if (DEBUG) {
-                        Log.d(TAG, "addName " + name + ", " + word + ", "  + ngramContext);
-                    }
-                    runGCIfRequiredLocked(true /* mindsBlockByGC */);
-                    addUnigramLocked(word, ContactsDictionaryConstants.FREQUENCY_FOR_CONTACTS,
-                            null /* shortcut */, 0 /* shortcutFreq */, false /* isNotAWord */,
-                            false /* isPossiblyOffensive */,
-                            BinaryDictionary.NOT_A_VALID_TIMESTAMP);
-                    if (ngramContext.isValid() && mUseFirstLastBigrams) {
-                        runGCIfRequiredLocked(true /* mindsBlockByGC */);
-                        addNgramEntryLocked(ngramContext,
-                                word,
-                                ContactsDictionaryConstants.FREQUENCY_FOR_CONTACTS_BIGRAM,
-                                BinaryDictionary.NOT_A_VALID_TIMESTAMP);
-                    }
-                    ngramContext = ngramContext.getNextNgramContext(
-                            new NgramContext.WordInfo(word));
+                    words.add(word);
                 }
             }
         }
+        return words;
     }
 
+    /**
+     * Applies only the names that were added or removed since the last update, rather than
+     * rebuilding the dictionary from all contacts. Called on the same executor as loading, so a
+     * load that is still pending reads the current contacts anyway.
+     */
     @Override
-    public void onContactsChange() {
-        setNeedsToRecreate();
+    public void onContactsChange(@Nonnull final Set<String> namesAtLastRebuild,
+            @Nonnull final ArrayList<String> validNames) {
+        if (!isLoaded() || isNeededToRecreate()) {
+            return;
+        }
+        final HashSet<String> validNameSet = new HashSet<>(validNames);
+        final ArrayList<String> addedNames = new ArrayList<>();
+        for (final String name : validNames) {
+            if (!namesAtLastRebuild.contains(name)) {
+                addedNames.add(name);
+            }
+        }
+        final ArrayList<String> removedNames = new ArrayList<>();
+        for (final String name : namesAtLastRebuild) {
+            if (!validNameSet.contains(name)) {
+                removedNames.add(name);
+            }
+        }
+        if (addedNames.size() + removedNames.size() > MAX_NAME_CHANGES_FOR_INCREMENTAL_UPDATE) {
+            setNeedsToRecreate();
+            return;
+        }
+        // A word of a removed name stays if another name still has it.
+        final HashSet<String> wordsToKeep = new HashSet<>();
+        for (final String name : validNameSet) {
+            wordsToKeep.addAll(getWordsOfName(name));
+        }
+        for (final String name : mProfileNames) {
+            wordsToKeep.addAll(getWordsOfName(name));
+        }
+        final HashSet<String> wordsToRemove = new HashSet<>();
+        for (final String name : removedNames) {
+            for (final String word : getWordsOfName(name)) {
+                if (!wordsToKeep.contains(word)) {
+                    wordsToRemove.add(word);
+                }
+            }
+        }
+        if (DEBUG) {
+            Log.d(TAG, "onContactsChange() : " + addedNames.size() + " names added, "
+                    + removedNames.size() + " removed, " + wordsToRemove.size()
+                    + " words to remove");
+        }
+        updateDictionaryWithWriteLock(new Runnable() {
+            @Override
+            public void run() {
+                for (final String word : wordsToRemove) {
+                    removeUnigramLocked(word);
+                }
+                for (final String name : addedNames) {
+                    addNameLocked(name);
+                }
+            }
+        });
     }
 }
@@ -30,6 +30,9 @@ import org.dslul.openboard.inputmethod.latin.permissions.PermissionsUtil;
 import org.dslul.openboard.inputmethod.latin.utils.ExecutorUtils;
 
 import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
@@ -38,9 +41,13 @@ import java.util.concurrent.atomic.AtomicBoolean;
 public class ContactsContentObserver implements Runnable {
     private static final String TAG = "ContactsContentObserver";
 
+    // A sync or an edit notifies many times in a row; check once after things settle.
+    private static final long UPDATE_DELAY_MILLIS = TimeUnit.SECONDS.toMillis(2);
+
     private final Context mContext;
     private final ContactsManager mManager;
     private final AtomicBoolean mRunning = new AtomicBoolean(false);
+    private final AtomicBoolean mUpdateScheduled = new AtomicBoolean(false);
 
     private ContentObserver mContentObserver;
     private ContactsChangedListener mContactsChangedListener;
@@ -65,8 +72,11 @@ public class ContactsContentObserver implements Runnable {
         mContentObserver = new ContentObserver(null /* handler */) {
             @Override
             public void onChange(boolean self) {
-                ExecutorUtils.getBackgroundExecutor(ExecutorUtils.KEYBOARD)
-                        .execute(ContactsContentObserver.this);
+                if (mUpdateScheduled.compareAndSet(false /* expect */, true /* update */)) {
+                    ExecutorUtils.getBackgroundExecutor(ExecutorUtils.KEYBOARD).schedule(
+                            ContactsContentObserver.this, UPDATE_DELAY_MILLIS,
+                            TimeUnit.MILLISECONDS);
+                }
             }
         };
         final ContentResolver contentResolver = mContext.getContentResolver();
@@ -75,6 +85,8 @@ public class ContactsContentObserver implements Runnable {
 
     @Override
     public void run() {
+        // Changes from now on need another check.
+        mUpdateScheduled.set(false);
         if (!PermissionsUtil.checkAllPermissionsGranted(
                 mContext, Manifest.permission.READ_CONTACTS)) {
             Log.i(TAG, "No permission to read contacts. Not updating the contacts.");
@@ -88,13 +100,30 @@ public class ContactsContentObserver implements Runnable {
             }
             return;
         }
-        if (haveContentsChanged()) {
+        try {
+            if (haveContentsChanged()) {
+                updateContacts();
+            }
+        } finally {
+            mRunning.set(false);
+        }
+    }
+
+    /**
+     * Reads the valid names and gives the listener the previous and current ones, so that only
+     * the names that were added or removed are applied to the dictionary.
+     */
+    private void updateContacts() {
+        final long timestamp = System.currentTimeMillis();
+        final ArrayList<String> names = mManager.getValidNames(Contacts.CONTENT_URI);
+        final Set<String> namesAtLastRebuild = mManager.getNamesAtLastRebuild();
+        if (!namesAtLastRebuild.equals(new HashSet<>(names))) {
             if (DebugFlags.DEBUG_ENABLED) {
                 Log.d(TAG, "run() : Contacts have changed. Notifying listeners.");
             }
-            mContactsChangedListener.onContactsChange();
+            mContactsChangedListener.onContactsChange(namesAtLastRebuild, names);
         }
-        mRunning.set(false);
+        mManager.updateLocalState(names, timestamp);
     }
 
     boolean haveContentsChanged() {
@@ -119,8 +148,11 @@ public class ContactsContentObserver implements Runnable {
             }
             return true;
         }
-        final ArrayList<String> names = mManager.getValidNames(Contacts.CONTENT_URI);
-        if (names.hashCode() != mManager.getHashCodeAtLastRebuild()) {
+        // Spurious notifications are common, so look for actual changes before reading names.
+        if (mManager.hasChangesSince(mManager.getTimestampAtLastRebuild())) {
+            if (DebugFlags.DEBUG_ENABLED) {
+                Log.d(TAG, "haveContentsChanged() : Contacts updated since the last rebuild");
+            }
             return true;
         }
         if (DebugFlags.DEBUG_ENABLED) {
@@ -18,17 +18,19 @@ package org.dslul.openboard.inputmethod.latin;
 
 import android.provider.BaseColumns;
 import android.provider.ContactsContract.Contacts;
+import android.provider.ContactsContract.DeletedContacts;
 
 /**
  * Constants related to Contacts Content Provider.
  */
 public class ContactsDictionaryConstants {
     /**
-     * Projections for {@link Contacts.CONTENT_URI}
+     * Projections for {@link Contacts.CONTENT_URI} and {@link DeletedContacts.CONTENT_URI}
      */
     public static final String[] PROJECTION = { BaseColumns._ID, Contacts.DISPLAY_NAME,
             Contacts.TIMES_CONTACTED, Contacts.LAST_TIME_CONTACTED, Contacts.IN_VISIBLE_GROUP };
     public static final String[] PROJECTION_ID_ONLY = { BaseColumns._ID };
+    public static final String[] PROJECTION_DELETED_ID_ONLY = { DeletedContacts.CONTACT_ID };
 
     /**
      * Frequency for contacts information into the dictionary
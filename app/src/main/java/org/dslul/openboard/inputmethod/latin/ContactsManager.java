@@ -21,6 +21,7 @@ import android.database.Cursor;
 import android.database.sqlite.SQLiteException;
 import android.net.Uri;
 import android.provider.ContactsContract.Contacts;
+import android.provider.ContactsContract.DeletedContacts;
 import android.text.TextUtils;
 import android.util.Log;
 
@@ -30,8 +31,12 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashSet;
+import java.util.Set;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nonnull;
 
 /**
  * Manages all interactions with Contacts DB.
@@ -104,7 +109,13 @@ public class ContactsManager {
      * to Contacts content provider.
      */
     public interface ContactsChangedListener {
-        void onContactsChange();
+        /**
+         * @param namesAtLastRebuild the valid names at the previous update, see
+         *        {@link #getNamesAtLastRebuild()}.
+         * @param validNames the valid names now, see {@link #getValidNames(Uri)}.
+         */
+        void onContactsChange(@Nonnull Set<String> namesAtLastRebuild,
+                @Nonnull ArrayList<String> validNames);
     }
 
     /**
@@ -114,10 +125,15 @@ public class ContactsManager {
     private AtomicInteger mContactCountAtLastRebuild = new AtomicInteger(0);
 
     /**
-     * The hash code of list of valid contacts names in the most recent dictionary
-     * rebuild.
+     * The valid contacts names in the most recent dictionary rebuild or update.
+     */
+    private volatile Set<String> mNamesAtLastRebuild = Collections.emptySet();
+
+    /**
+     * When the contacts were read for the most recent dictionary rebuild or update, in
+     * milliseconds since the epoch like the timestamps of the contacts provider.
      */
-    private AtomicInteger mHashCodeAtLastRebuild = new AtomicInteger(0);
+    private final AtomicLong mTimestampAtLastRebuild = new AtomicLong(0);
 
     private final Context mContext;
     private final ContactsContentObserver mObserver;
@@ -136,13 +152,18 @@ public class ContactsManager {
         return mContactCountAtLastRebuild.get();
     }
 
-    public int getHashCodeAtLastRebuild() {
-        return mHashCodeAtLastRebuild.get();
+    @Nonnull
+    public Set<String> getNamesAtLastRebuild() {
+        return mNamesAtLastRebuild;
+    }
+
+    public long getTimestampAtLastRebuild() {
+        return mTimestampAtLastRebuild.get();
     }
 
     /**
      * Returns all the valid names in the Contacts DB. Callers should also
-     * call {@link #updateLocalState(ArrayList)} after they are done with result
+     * call {@link #updateLocalState(ArrayList, long)} after they are done with result
      * so that the manager can cache local state for determining updates.
      *
      * These names are sorted by their affinity to the user, with favorite
@@ -195,10 +216,30 @@ public class ContactsManager {
     public int getContactCount() {
         // TODO: consider switching to a rawQuery("select count(*)...") on the database if
         // performance is a bottleneck.
+        return getCount(Contacts.CONTENT_URI, ContactsDictionaryConstants.PROJECTION_ID_ONLY,
+                null /* selection */, null /* selectionArgs */);
+    }
+
+    /**
+     * Returns whether a contact has been added, changed or deleted after the given time in
+     * milliseconds since the epoch. This only reads the ids of the changed contacts, so it is
+     * much cheaper than {@link #getValidNames(Uri)}.
+     */
+    public boolean hasChangesSince(final long timestamp) {
+        final String[] selectionArgs = new String[] { Long.toString(timestamp) };
+        return getCount(Contacts.CONTENT_URI, ContactsDictionaryConstants.PROJECTION_ID_ONLY,
+                Contacts.CONTACT_LAST_UPDATED_TIMESTAMP + " > ?", selectionArgs) > 0
+                || getCount(DeletedContacts.CONTENT_URI,
+                        ContactsDictionaryConstants.PROJECTION_DELETED_ID_ONLY,
+                        DeletedContacts.CONTACT_DELETED_TIMESTAMP + " > ?", selectionArgs) > 0;
+    }
+
+    private int getCount(final Uri uri, final String[] projection, final String selection,
+            final String[] selectionArgs) {
         Cursor cursor = null;
         try {
-            cursor = mContext.getContentResolver().query(Contacts.CONTENT_URI,
-                    ContactsDictionaryConstants.PROJECTION_ID_ONLY, null, null, null);
+            cursor = mContext.getContentResolver().query(uri, projection, selection,
+                    selectionArgs, null);
             if (null == cursor) {
                 return 0;
             }
@@ -229,10 +270,15 @@ public class ContactsManager {
     /**
      * Updates the local state of the manager. This should be called when the callers
      * are done with all the updates of the content provider successfully.
+     *
+     * @param names the valid names now in the dictionary.
+     * @param timestamp when the names were read, in milliseconds since the epoch. Changes made
+     *        after it are picked up by the next update.
      */
-    public void updateLocalState(final ArrayList<String> names) {
+    public void updateLocalState(final ArrayList<String> names, final long timestamp) {
         mContactCountAtLastRebuild.set(getContactCount());
-        mHashCodeAtLastRebuild.set(names.hashCode());
+        mNamesAtLastRebuild = Collections.unmodifiableSet(new HashSet<>(names));
+        mTimestampAtLastRebuild.set(timestamp);
     }
 
     /**
@@ -20,6 +20,7 @@ import org.dslul.openboard.inputmethod.annotations.UsedForTesting;
 import org.dslul.openboard.inputmethod.latin.SuggestedWords.SuggestedWordInfo;
 import org.dslul.openboard.inputmethod.latin.common.ComposedData;
 import org.dslul.openboard.inputmethod.latin.settings.SettingsValuesForSuggestion;
+import org.dslul.openboard.inputmethod.latin.utils.SuggestionResults;
 
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -102,6 +103,27 @@ public abstract class Dictionary {
             final int sessionId, final float weightForLocale,
             final float[] inOutWeightOfLangModelVsSpatialModel);
 
+    /**
+     * Same as {@link #getSuggestions}, but offers the suggestions to outResults instead of
+     * returning them. Dictionaries backed by native code override this so that candidates which
+     * do not make it into outResults are never turned into objects.
+     */
+    public void addSuggestions(final ComposedData composedData,
+            final NgramContext ngramContext, final long proximityInfoHandle,
+            final SettingsValuesForSuggestion settingsValuesForSuggestion,
+            final int sessionId, final float weightForLocale,
+            final float[] inOutWeightOfLangModelVsSpatialModel,
+            final SuggestionResults outResults) {
+        final ArrayList<SuggestedWordInfo> suggestions = getSuggestions(composedData,
+                ngramContext, proximityInfoHandle, settingsValuesForSuggestion, sessionId,
+                weightForLocale, inOutWeightOfLangModelVsSpatialModel);
+        if (null == suggestions) return;
+        outResults.addAll(suggestions);
+        if (null != outResults.mRawSuggestions) {
+            outResults.mRawSuggestions.addAll(suggestions);
+        }
+    }
+
     /**
      * Checks if the given word has to be treated as a valid word. Please note that some
      * dictionaries have entries that should be treated as invalid words.
@@ -133,6 +155,32 @@ public abstract class Dictionary {
         return NOT_A_PROBABILITY;
     }
 
+    /**
+     * Get the frequencies of several words at once.
+     * @param words the words to get the frequencies of.
+     * @param outFrequencies receives the frequency of words[i] at index i.
+     */
+    public void getFrequencies(final String[] words, final int[] outFrequencies) {
+        for (int i = 0; i < words.length; i++) {
+            outFrequencies[i] = getFrequency(words[i]);
+        }
+    }
+
+    /**
+     * Checks several words at once, setting outIsValid[i] to true if words[i] is valid in this
+     * dictionary. Other entries are left as they are, so that one array can collect the results
+     * of several dictionaries.
+     * @param words the words to check.
+     * @param outIsValid receives the validity of words[i] at index i.
+     */
+    public void markValidWords(final String[] words, final boolean[] outIsValid) {
+        for (int i = 0; i < words.length; i++) {
+            if (!outIsValid[i] && isValidWord(words[i])) {
+                outIsValid[i] = true;
+            }
+        }
+    }
+
     /**
      * Compares the contents of the character array with the typed word and returns true if they
      * are the same.
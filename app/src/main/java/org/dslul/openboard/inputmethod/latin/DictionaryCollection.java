@@ -21,8 +21,10 @@ import android.util.Log;
 import org.dslul.openboard.inputmethod.latin.SuggestedWords.SuggestedWordInfo;
 import org.dslul.openboard.inputmethod.latin.common.ComposedData;
 import org.dslul.openboard.inputmethod.latin.settings.SettingsValuesForSuggestion;
+import org.dslul.openboard.inputmethod.latin.utils.SuggestionResults;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Locale;
@@ -82,6 +84,20 @@ public final class DictionaryCollection extends Dictionary {
         return suggestions;
     }
 
+    @Override
+    public void addSuggestions(final ComposedData composedData,
+            final NgramContext ngramContext, final long proximityInfoHandle,
+            final SettingsValuesForSuggestion settingsValuesForSuggestion,
+            final int sessionId, final float weightForLocale,
+            final float[] inOutWeightOfLangModelVsSpatialModel,
+            final SuggestionResults outResults) {
+        for (final Dictionary dictionary : mDictionaries) {
+            dictionary.addSuggestions(composedData, ngramContext, proximityInfoHandle,
+                    settingsValuesForSuggestion, sessionId, weightForLocale,
+                    inOutWeightOfLangModelVsSpatialModel, outResults);
+        }
+    }
+
     @Override
     public boolean isInDictionary(final String word) {
         for (int i = mDictionaries.size() - 1; i >= 0; --i)
@@ -99,6 +115,25 @@ public final class DictionaryCollection extends Dictionary {
         return maxFreq;
     }
 
+    @Override
+    public void getFrequencies(final String[] words, final int[] outFrequencies) {
+        Arrays.fill(outFrequencies, 0, words.length, -1);
+        final int[] frequencies = new int[words.length];
+        for (int i = mDictionaries.size() - 1; i >= 0; --i) {
+            mDictionaries.get(i).getFrequencies(words, frequencies);
+            for (int j = 0; j < words.length; j++) {
+                outFrequencies[j] = Math.max(frequencies[j], outFrequencies[j]);
+            }
+        }
+    }
+
+    @Override
+    public void markValidWords(final String[] words, final boolean[] outIsValid) {
+        for (int i = mDictionaries.size() - 1; i >= 0; --i) {
+            mDictionaries.get(i).markValidWords(words, outIsValid);
+        }
+    }
+
     @Override
     public int getMaxFrequencyOfExactMatches(final String word) {
         int maxFreq = -1;
@@ -31,6 +31,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
 
 import javax.annotation.Nonnull;
@@ -74,6 +75,15 @@ public interface DictionaryFacilitator {
      */
     boolean isForLocale(final Locale locale);
 
+    /**
+     * Returns whether this facilitator is exactly for this locale and these additional locales,
+     * in this order.
+     *
+     * @param locale the locale of the current subtype
+     * @param additionalLocales the other enabled locales, for multilingual typing
+     */
+    boolean isForLocales(final Locale locale, @Nonnull final List<Locale> additionalLocales);
+
     /**
      * Returns whether this facilitator is exactly for this account.
      *
@@ -121,6 +131,21 @@ public interface DictionaryFacilitator {
             final String dictNamePrefix,
             @Nullable final DictionaryInitializationListener listener);
 
+    /**
+     * Same as above, but also loads dictionaries for additionalLocales so that words in these
+     * languages are suggested too. Dictionaries already loaded for one of the locales are reused.
+     */
+    void resetDictionaries(
+            final Context context,
+            final Locale newLocale,
+            @Nonnull final List<Locale> additionalLocales,
+            final boolean useContactsDict,
+            final boolean usePersonalizedDicts,
+            final boolean forceReloadMainDictionary,
+            @Nullable final String account,
+            final String dictNamePrefix,
+            @Nullable final DictionaryInitializationListener listener);
+
     @UsedForTesting
     void resetDictionariesForTesting(
             final Context context,
@@ -144,6 +169,21 @@ public interface DictionaryFacilitator {
     void waitForLoadingMainDictionaries(final long timeout, final TimeUnit unit)
             throws InterruptedException;
 
+    /**
+     * Returns a future completed once the dictionary of this type for this locale has been
+     * loaded, or null if there is no such dictionary. Suggestions are served from the
+     * dictionaries already loaded in the meantime.
+     */
+    @Nullable
+    CompletableFuture<Void> getDictionaryLoadedFuture(final Locale locale, final String dictType);
+
+    /**
+     * Opens the main dictionary for a locale the user is likely to switch to next, in the
+     * background, so that switching to it does not wait for the load. Only the last locale
+     * asked for is kept.
+     */
+    void prewarmDictionaries(final Context context, final Locale locale);
+
     @UsedForTesting
     void waitForLoadingDictionariesForTesting(final long timeout, final TimeUnit unit)
             throws InterruptedException;
@@ -166,6 +206,13 @@ public interface DictionaryFacilitator {
 
     boolean isValidSuggestionWord(final String word);
 
+    /**
+     * Batched {@link #isValidSpellingWord}, for callers checking many words at once such as the
+     * spell checker going through a sentence.
+     * @return the validity of words[i] at index i.
+     */
+    @Nonnull boolean[] areValidSpellingWords(@Nonnull final String[] words);
+
     boolean clearUserHistoryDictionary(final Context context);
 
     String dump(final Context context);
@@ -24,8 +24,8 @@ import android.util.LruCache;
 
 import org.dslul.openboard.inputmethod.annotations.UsedForTesting;
 import org.dslul.openboard.inputmethod.keyboard.Keyboard;
+import org.dslul.openboard.inputmethod.keyboard.ProximityInfo;
 import org.dslul.openboard.inputmethod.latin.NgramContext.WordInfo;
-import org.dslul.openboard.inputmethod.latin.SuggestedWords.SuggestedWordInfo;
 import org.dslul.openboard.inputmethod.latin.common.ComposedData;
 import org.dslul.openboard.inputmethod.latin.common.Constants;
 import org.dslul.openboard.inputmethod.latin.common.StringUtils;
@@ -39,15 +39,29 @@ import java.io.File;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -59,6 +73,11 @@ import javax.annotation.Nullable;
  *
  * Currently AndroidSpellCheckerService and LatinIME both use DictionaryFacilitator as
  * a client for interacting with dictionaries.
+ *
+ * Several languages can be active at once: there is one {@link DictionaryGroup} per locale,
+ * the first one being for the locale of the current subtype. The others are queried
+ * concurrently with it for every keystroke, and their weight follows how confident we are
+ * that the user is currently typing in their language.
  */
 public class DictionaryFacilitatorImpl implements DictionaryFacilitator {
     // TODO: Consolidate dictionaries in native code.
@@ -68,9 +87,12 @@ public class DictionaryFacilitatorImpl implements DictionaryFacilitator {
     // dictionary.
     private static final int CAPITALIZED_FORM_MAX_PROBABILITY_FOR_INSERT = 140;
 
-    private DictionaryGroup mDictionaryGroup = new DictionaryGroup();
+    // The group for the locale of the current subtype comes first.
+    private DictionaryGroup[] mDictionaryGroups = new DictionaryGroup[] { new DictionaryGroup() };
+    // The group of the language the user seems to be typing in. Its weight is the highest.
+    private volatile DictionaryGroup mMostProbableDictionaryGroup = mDictionaryGroups[0];
     private volatile CountDownLatch mLatchForWaitingLoadingMainDictionaries = new CountDownLatch(0);
-    // To synchronize assigning mDictionaryGroup to ensure closing dictionaries.
+    // To synchronize assigning mDictionaryGroups to ensure closing dictionaries.
     private final Object mLock = new Object();
 
     public static final Map<String, Class<? extends ExpandableBinaryDictionary>>
@@ -86,6 +108,46 @@ public class DictionaryFacilitatorImpl implements DictionaryFacilitator {
     private static final Class<?>[] DICT_FACTORY_METHOD_ARG_TYPES =
             new Class[] { Context.class, Locale.class, File.class, String.class, String.class };
 
+    // Per-keystroke deadline for parallel dictionary lookups.
+    private static final long DICTIONARY_QUERY_DEADLINE_MILLIS = 50;
+    // Words in a row, valid in a language but not in the others, that make it the most probable.
+    private static final int CONFIDENCE_TO_SWITCH_LANGUAGE = 2;
+    private static final int MAX_CONFIDENCE = 4;
+
+    private static final int SUGGESTION_RESULTS_CACHE_SIZE = 16;
+
+    private final DictionaryQueryTimings mQueryTimings = new DictionaryQueryTimings();
+    private final DictionaryLoadTimings mLoadTimings =
+            new DictionaryLoadTimings("Main dictionary load timings");
+    // Loads started by prewarmDictionaries(), which may never be used.
+    private final DictionaryLoadTimings mPrewarmLoadTimings =
+            new DictionaryLoadTimings("Prewarmed main dictionary load timings");
+    // Start of the load of the main dictionary of the current subtype, until the first
+    // suggestion lookup after it has been timed; 0 otherwise.
+    private volatile long mFirstSuggestionLoadStartNanos;
+    // Dictionaries currently being queried.
+    private final Set<Dictionary> mRunningQueries =
+            Collections.newSetFromMap(new IdentityHashMap<Dictionary, Boolean>());
+
+    // Results of recent typing lookups, so that deleting and retyping a character or refreshing
+    // the strip does not go through native again. Entries are only valid for the version of the
+    // dictionaries they were computed from, see getDictionariesVersion(), and for the key
+    // geometry of the keyboard they were computed on.
+    private final LruCache<SuggestionResultsCacheKey, SuggestionResults> mSuggestionResultsCache =
+            new LruCache<>(SUGGESTION_RESULTS_CACHE_SIZE);
+    // Guarded by mSuggestionResultsCache.
+    private long mSuggestionResultsCacheVersion;
+    // Guarded by mSuggestionResultsCache.
+    @Nullable
+    private ProximityInfo mSuggestionResultsCacheProximityInfo;
+    // Incremented when dictionaries are replaced or reweighted.
+    private final AtomicInteger mDictionaryGroupsVersion = new AtomicInteger();
+
+    // Main dictionary opened ahead of time for the locale the user is likely to switch to next.
+    // Guarded by mLock.
+    @Nullable private Locale mPrewarmedLocale;
+    @Nullable private CompletableFuture<Dictionary> mPrewarmedMainDict;
+
     private LruCache<String, Boolean> mValidSpellingWordReadCache;
     private LruCache<String, Boolean> mValidSpellingWordWriteCache;
 
@@ -101,7 +163,25 @@ public class DictionaryFacilitatorImpl implements DictionaryFacilitator {
 
     @Override
     public boolean isForLocale(final Locale locale) {
-        return locale != null && locale.equals(mDictionaryGroup.mLocale);
+        return locale != null && locale.equals(mDictionaryGroups[0].mLocale);
+    }
+
+    @Override
+    public boolean isForLocales(final Locale locale, @Nonnull final List<Locale> additionalLocales) {
+        if (!isForLocale(locale)) {
+            return false;
+        }
+        final DictionaryGroup[] dictionaryGroups = mDictionaryGroups;
+        final List<Locale> newLocales = getLocalesToUse(locale, additionalLocales);
+        if (newLocales.size() != dictionaryGroups.length) {
+            return false;
+        }
+        for (int i = 1; i < dictionaryGroups.length; i++) {
+            if (!newLocales.get(i).equals(dictionaryGroups[i].mLocale)) {
+                return false;
+            }
+        }
+        return true;
     }
 
     /**
@@ -110,7 +190,7 @@ public class DictionaryFacilitatorImpl implements DictionaryFacilitator {
      * @param account the account to test against.
      */
     public boolean isForAccount(@Nullable final String account) {
-        return TextUtils.equals(mDictionaryGroup.mAccount, account);
+        return TextUtils.equals(mDictionaryGroups[0].mAccount, account);
     }
 
     /**
@@ -135,13 +215,16 @@ public class DictionaryFacilitatorImpl implements DictionaryFacilitator {
         @Nullable public final String mAccount;
 
         @Nullable private Dictionary mMainDict;
+        // Completed when a main dictionary is first set, which may be long after creation.
+        private final CompletableFuture<Void> mMainDictLoadedFuture = new CompletableFuture<>();
         // Confidence that the most probable language is actually the language the user is
         // typing in. For now, this is simply the number of times a word from this language
-        // has been committed in a row.
-        private int mConfidence = 0;
+        // has been committed in a row. Updated where words are committed and read from other
+        // threads, e.g. by dump().
+        private volatile int mConfidence = 0;
 
-        public float mWeightForTypingInLocale = WEIGHT_FOR_MOST_PROBABLE_LANGUAGE;
-        public float mWeightForGesturingInLocale = WEIGHT_FOR_MOST_PROBABLE_LANGUAGE;
+        public volatile float mWeightForTypingInLocale = WEIGHT_FOR_MOST_PROBABLE_LANGUAGE;
+        public volatile float mWeightForGesturingInLocale = WEIGHT_FOR_MOST_PROBABLE_LANGUAGE;
         public final ConcurrentHashMap<String, ExpandableBinaryDictionary> mSubDictMap =
                 new ConcurrentHashMap<>();
 
@@ -176,6 +259,18 @@ public class DictionaryFacilitatorImpl implements DictionaryFacilitator {
             if (oldDict != null && mainDict != oldDict) {
                 oldDict.close();
             }
+            if (mainDict != null) {
+                mMainDictLoadedFuture.complete(null);
+            }
+        }
+
+        @Nullable
+        public CompletableFuture<Void> getLoadedFuture(final String dictType) {
+            if (Dictionary.TYPE_MAIN.equals(dictType)) {
+                return mMainDictLoadedFuture;
+            }
+            final ExpandableBinaryDictionary subDict = getSubDict(dictType);
+            return subDict == null ? null : subDict.getLoadedFuture();
         }
 
         public Dictionary getDict(final String dictType) {
@@ -214,6 +309,28 @@ public class DictionaryFacilitatorImpl implements DictionaryFacilitator {
                 dict.close();
             }
         }
+
+        public boolean isValidWord(final String word) {
+            for (final String dictType : ALL_DICTIONARY_TYPES) {
+                final Dictionary dictionary = getDict(dictType);
+                // Ideally the passed map would come out of a {@link java.util.concurrent.Future}
+                // and would be immutable once it's finished initializing, but concretely a null
+                // test is probably good enough for the time being.
+                if (null != dictionary && dictionary.isValidWord(word)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        public void markValidWords(final String[] words, final boolean[] outIsValid) {
+            for (final String dictType : ALL_DICTIONARY_TYPES) {
+                final Dictionary dictionary = getDict(dictType);
+                if (null != dictionary) {
+                    dictionary.markValidWords(words, outIsValid);
+                }
+            }
+        }
     }
 
     public DictionaryFacilitatorImpl() {
@@ -225,25 +342,27 @@ public class DictionaryFacilitatorImpl implements DictionaryFacilitator {
 
     @Override
     public void onFinishInput(Context context) {
-        for (final String dictType : ALL_DICTIONARY_TYPES) {
-            Dictionary dict = mDictionaryGroup.getDict(dictType);
-            if (dict != null) dict.onFinishInput();
+        for (final DictionaryGroup dictionaryGroup : mDictionaryGroups) {
+            for (final String dictType : ALL_DICTIONARY_TYPES) {
+                Dictionary dict = dictionaryGroup.getDict(dictType);
+                if (dict != null) dict.onFinishInput();
+            }
         }
     }
 
     @Override
     public boolean isActive() {
-        return mDictionaryGroup.mLocale != null;
+        return mDictionaryGroups[0].mLocale != null;
     }
 
     @Override
     public Locale getLocale() {
-        return mDictionaryGroup.mLocale;
+        return mDictionaryGroups[0].mLocale;
     }
 
     @Override
     public boolean usesContacts() {
-        return mDictionaryGroup.getSubDict(Dictionary.TYPE_CONTACTS) != null;
+        return mDictionaryGroups[0].getSubDict(Dictionary.TYPE_CONTACTS) != null;
     }
 
     @Override
@@ -274,21 +393,56 @@ public class DictionaryFacilitatorImpl implements DictionaryFacilitator {
     }
 
     @Nullable
-    static DictionaryGroup findDictionaryGroupWithLocale(final DictionaryGroup dictionaryGroup,
+    static DictionaryGroup findDictionaryGroupWithLocale(final DictionaryGroup[] dictionaryGroups,
             final Locale locale) {
-        return locale.equals(dictionaryGroup.mLocale) ? dictionaryGroup : null;
+        for (final DictionaryGroup dictionaryGroup : dictionaryGroups) {
+            if (locale.equals(dictionaryGroup.mLocale)) {
+                return dictionaryGroup;
+            }
+        }
+        return null;
+    }
+
+    // The locale of the current subtype first, then the others without duplicates.
+    private static List<Locale> getLocalesToUse(final Locale locale,
+            final List<Locale> additionalLocales) {
+        final ArrayList<Locale> locales = new ArrayList<>();
+        locales.add(locale);
+        for (final Locale additionalLocale : additionalLocales) {
+            if (!locales.contains(additionalLocale)) {
+                locales.add(additionalLocale);
+            }
+        }
+        return locales;
+    }
+
+    @Override
+    public void resetDictionaries(
+            final Context context,
+            final Locale newLocale,
+            final boolean useContactsDict,
+            final boolean usePersonalizedDicts,
+            final boolean forceReloadMainDictionary,
+            @Nullable final String account,
+            final String dictNamePrefix,
+            @Nullable final DictionaryInitializationListener listener) {
+        resetDictionaries(context, newLocale, Collections.<Locale>emptyList(), useContactsDict,
+                usePersonalizedDicts, forceReloadMainDictionary, account, dictNamePrefix,
+                listener);
     }
 
     @Override
     public void resetDictionaries(
             final Context context,
             final Locale newLocale,
+            @Nonnull final List<Locale> additionalLocales,
             final boolean useContactsDict,
             final boolean usePersonalizedDicts,
             final boolean forceReloadMainDictionary,
             @Nullable final String account,
             final String dictNamePrefix,
             @Nullable final DictionaryInitializationListener listener) {
+        final List<Locale> newLocales = getLocalesToUse(newLocale, additionalLocales);
         final HashMap<Locale, ArrayList<String>> existingDictionariesToCleanup = new HashMap<>();
         // TODO: Make subDictTypesToUse configurable by resource or a static final list.
         final HashSet<String> subDictTypesToUse = new HashSet<>();
@@ -305,61 +459,101 @@ public class DictionaryFacilitatorImpl implements DictionaryFacilitator {
         }
 
         // Gather all dictionaries. We'll remove them from the list to clean up later.
-        final ArrayList<String> dictTypeForLocale = new ArrayList<>();
-        existingDictionariesToCleanup.put(newLocale, dictTypeForLocale);
-        final DictionaryGroup currentDictionaryGroupForLocale =
-                findDictionaryGroupWithLocale(mDictionaryGroup, newLocale);
-        if (currentDictionaryGroupForLocale != null) {
+        final DictionaryGroup[] oldDictionaryGroups = mDictionaryGroups;
+        for (final DictionaryGroup dictionaryGroup : oldDictionaryGroups) {
+            if (dictionaryGroup.mLocale == null) continue;
+            final ArrayList<String> dictTypeForLocale = new ArrayList<>();
+            existingDictionariesToCleanup.put(dictionaryGroup.mLocale, dictTypeForLocale);
             for (final String dictType : DYNAMIC_DICTIONARY_TYPES) {
-                if (currentDictionaryGroupForLocale.hasDict(dictType, account)) {
+                if (dictionaryGroup.hasDict(dictType, account)) {
                     dictTypeForLocale.add(dictType);
                 }
             }
-            if (currentDictionaryGroupForLocale.hasDict(Dictionary.TYPE_MAIN, account)) {
+            if (dictionaryGroup.hasDict(Dictionary.TYPE_MAIN, account)) {
                 dictTypeForLocale.add(Dictionary.TYPE_MAIN);
             }
         }
 
-        final DictionaryGroup dictionaryGroupForLocale =
-                findDictionaryGroupWithLocale(mDictionaryGroup, newLocale);
-        final ArrayList<String> dictTypesToCleanupForLocale =
-                existingDictionariesToCleanup.get(newLocale);
-        final boolean noExistingDictsForThisLocale = (null == dictionaryGroupForLocale);
-
-        final Dictionary mainDict;
-        if (forceReloadMainDictionary || noExistingDictsForThisLocale
-                || !dictionaryGroupForLocale.hasDict(Dictionary.TYPE_MAIN, account)) {
-            mainDict = null;
-        } else {
-            mainDict = dictionaryGroupForLocale.getDict(Dictionary.TYPE_MAIN);
-            dictTypesToCleanupForLocale.remove(Dictionary.TYPE_MAIN);
+        // Contacts are not specific to a language, so the first group keeps the one contacts
+        // dictionary whichever group held it before. Only the name bigram rules depend on the
+        // locale it was built for.
+        ExpandableBinaryDictionary existingContactsDict = null;
+        if (subDictTypesToUse.contains(Dictionary.TYPE_CONTACTS)) {
+            final boolean useFirstLastBigrams =
+                    ContactsDictionaryUtils.useFirstLastBigramsForLocale(newLocales.get(0));
+            for (final DictionaryGroup dictionaryGroup : oldDictionaryGroups) {
+                if (dictionaryGroup.mLocale != null
+                        && dictionaryGroup.hasDict(Dictionary.TYPE_CONTACTS, account)
+                        && ContactsDictionaryUtils.useFirstLastBigramsForLocale(
+                                dictionaryGroup.mLocale) == useFirstLastBigrams) {
+                    existingContactsDict = dictionaryGroup.getSubDict(Dictionary.TYPE_CONTACTS);
+                    existingDictionariesToCleanup.get(dictionaryGroup.mLocale)
+                            .remove(Dictionary.TYPE_CONTACTS);
+                    break;
+                }
+            }
         }
 
-        final Map<String, ExpandableBinaryDictionary> subDicts = new HashMap<>();
-        for (final String subDictType : subDictTypesToUse) {
-            final ExpandableBinaryDictionary subDict;
-            if (noExistingDictsForThisLocale
-                    || !dictionaryGroupForLocale.hasDict(subDictType, account)) {
-                // Create a new dictionary.
-                subDict = getSubDict(subDictType, context, newLocale, null /* dictFile */,
-                        dictNamePrefix, account);
+        final DictionaryGroup[] newDictionaryGroups = new DictionaryGroup[newLocales.size()];
+        for (int i = 0; i < newDictionaryGroups.length; i++) {
+            final Locale locale = newLocales.get(i);
+            final DictionaryGroup dictionaryGroupForLocale =
+                    findDictionaryGroupWithLocale(oldDictionaryGroups, locale);
+            final ArrayList<String> dictTypesToCleanupForLocale =
+                    existingDictionariesToCleanup.get(locale);
+            final boolean noExistingDictsForThisLocale = (null == dictionaryGroupForLocale);
+
+            final Dictionary mainDict;
+            if (forceReloadMainDictionary || noExistingDictsForThisLocale
+                    || !dictionaryGroupForLocale.hasDict(Dictionary.TYPE_MAIN, account)) {
+                mainDict = null;
             } else {
-                // Reuse the existing dictionary, and don't close it at the end
-                subDict = dictionaryGroupForLocale.getSubDict(subDictType);
-                dictTypesToCleanupForLocale.remove(subDictType);
+                mainDict = dictionaryGroupForLocale.getDict(Dictionary.TYPE_MAIN);
+                dictTypesToCleanupForLocale.remove(Dictionary.TYPE_MAIN);
+            }
+
+            final Map<String, ExpandableBinaryDictionary> subDicts = new HashMap<>();
+            for (final String subDictType : subDictTypesToUse) {
+                final ExpandableBinaryDictionary subDict;
+                if (Dictionary.TYPE_CONTACTS.equals(subDictType)) {
+                    if (i > 0) continue;
+                    subDict = (existingContactsDict != null) ? existingContactsDict
+                            : getSubDict(subDictType, context, locale, null /* dictFile */,
+                                    dictNamePrefix, account);
+                } else if (noExistingDictsForThisLocale
+                        || !dictionaryGroupForLocale.hasDict(subDictType, account)) {
+                    // Create a new dictionary.
+                    subDict = getSubDict(subDictType, context, locale, null /* dictFile */,
+                            dictNamePrefix, account);
+                } else {
+                    // Reuse the existing dictionary, and don't close it at the end
+                    subDict = dictionaryGroupForLocale.getSubDict(subDictType);
+                    dictTypesToCleanupForLocale.remove(subDictType);
+                }
+                subDicts.put(subDictType, subDict);
             }
-            subDicts.put(subDictType, subDict);
+            newDictionaryGroups[i] = new DictionaryGroup(locale, mainDict, account, subDicts);
         }
-        DictionaryGroup newDictionaryGroup =
-                new DictionaryGroup(newLocale, mainDict, account, subDicts);
 
         // Replace Dictionaries.
-        final DictionaryGroup oldDictionaryGroup;
         synchronized (mLock) {
-            oldDictionaryGroup = mDictionaryGroup;
-            mDictionaryGroup = newDictionaryGroup;
+            if (forceReloadMainDictionary) {
+                discardPrewarmedMainDictLocked();
+            }
+            mDictionaryGroups = newDictionaryGroups;
+            // The user just picked this language, so start by assuming they type in it.
+            mMostProbableDictionaryGroup = newDictionaryGroups[0];
+            updateWeightsForLocales();
+            mDictionaryGroupsVersion.incrementAndGet();
             if (hasAtLeastOneUninitializedMainDictionary()) {
-                asyncReloadUninitializedMainDictionaries(context, newLocale, listener);
+                asyncReloadUninitializedMainDictionaries(context, newLocales, listener);
+            }
+        }
+        // Start loading the other dictionaries now rather than on their first lookup, so that
+        // they load alongside the main ones.
+        for (final DictionaryGroup dictionaryGroup : newDictionaryGroups) {
+            for (final ExpandableBinaryDictionary subDict : dictionaryGroup.mSubDictMap.values()) {
+                subDict.reloadDictionaryIfRequired();
             }
         }
         if (listener != null) {
@@ -371,7 +565,7 @@ public class DictionaryFacilitatorImpl implements DictionaryFacilitator {
             final ArrayList<String> dictTypesToCleanUp =
                     existingDictionariesToCleanup.get(localeToCleanUp);
             final DictionaryGroup dictionarySetToCleanup =
-                    findDictionaryGroupWithLocale(oldDictionaryGroup, localeToCleanUp);
+                    findDictionaryGroupWithLocale(oldDictionaryGroups, localeToCleanUp);
             for (final String dictType : dictTypesToCleanUp) {
                 dictionarySetToCleanup.closeDict(dictType);
             }
@@ -383,33 +577,65 @@ public class DictionaryFacilitatorImpl implements DictionaryFacilitator {
     }
 
     private void asyncReloadUninitializedMainDictionaries(final Context context,
-            final Locale locale, final DictionaryInitializationListener listener) {
+            final List<Locale> locales, final DictionaryInitializationListener listener) {
         final CountDownLatch latchForWaitingLoadingMainDictionary = new CountDownLatch(1);
         mLatchForWaitingLoadingMainDictionaries = latchForWaitingLoadingMainDictionary;
-        ExecutorUtils.getBackgroundExecutor(ExecutorUtils.KEYBOARD).execute(new Runnable() {
+        final long loadStartNanos = System.nanoTime();
+        // One task per locale, so that they load in parallel. The locale of the current subtype
+        // is submitted first, so it starts first.
+        final CompletableFuture<?>[] loads = new CompletableFuture<?>[locales.size()];
+        for (int i = 0; i < loads.length; i++) {
+            final Locale locale = locales.get(i);
+            loads[i] = CompletableFuture.runAsync(new Runnable() {
+                @Override
+                public void run() {
+                    doReloadUninitializedMainDictionaries(context, locale, listener,
+                            loadStartNanos);
+                }
+            }, ExecutorUtils.getDictionaryLoadExecutor());
+        }
+        CompletableFuture.allOf(loads).whenComplete(new BiConsumer<Void, Throwable>() {
             @Override
-            public void run() {
-                doReloadUninitializedMainDictionaries(
-                        context, locale, listener, latchForWaitingLoadingMainDictionary);
+            public void accept(final Void result, final Throwable throwable) {
+                if (throwable != null) {
+                    Log.e(TAG, "Failed to load main dictionaries", throwable);
+                }
+                latchForWaitingLoadingMainDictionary.countDown();
             }
         });
     }
 
     void doReloadUninitializedMainDictionaries(final Context context, final Locale locale,
-            final DictionaryInitializationListener listener,
-            final CountDownLatch latchForWaitingLoadingMainDictionary) {
+            final DictionaryInitializationListener listener) {
+        doReloadUninitializedMainDictionaries(context, locale, listener, System.nanoTime());
+    }
+
+    private void doReloadUninitializedMainDictionaries(final Context context,
+            final Locale locale, final DictionaryInitializationListener listener,
+            final long loadStartNanos) {
         final DictionaryGroup dictionaryGroup =
-                findDictionaryGroupWithLocale(mDictionaryGroup, locale);
+                findDictionaryGroupWithLocale(mDictionaryGroups, locale);
         if (null == dictionaryGroup) {
-            // This should never happen, but better safe than crashy
+            // The facilitator has been reset for other locales meanwhile.
             Log.w(TAG, "Expected a dictionary group for " + locale + " but none found");
             return;
         }
-        final Dictionary mainDict =
-                DictionaryFactory.createMainDictionaryFromManager(context, locale);
+        final Dictionary currentMainDict = dictionaryGroup.getDict(Dictionary.TYPE_MAIN);
+        if (currentMainDict != null && currentMainDict.isInitialized()) {
+            return;
+        }
+        final Dictionary mainDict = createMainDictionary(context, locale);
         synchronized (mLock) {
-            if (locale.equals(dictionaryGroup.mLocale)) {
+            if (dictionaryGroup == findDictionaryGroupWithLocale(mDictionaryGroups, locale)) {
                 dictionaryGroup.setMainDict(mainDict);
+                mDictionaryGroupsVersion.incrementAndGet();
+                final long readyNanos = System.nanoTime() - loadStartNanos;
+                mLoadTimings.onReady(locale, readyNanos);
+                Log.i(TAG, "Main dictionary for " + locale + " ready in "
+                        + TimeUnit.NANOSECONDS.toMillis(readyNanos) + "ms");
+                if (dictionaryGroup == mDictionaryGroups[0]) {
+                    mFirstSuggestionLoadStartNanos = loadStartNanos;
+                }
             } else {
                 // Dictionary facilitator has been reset for another locale.
                 mainDict.close();
@@ -418,7 +644,76 @@ public class DictionaryFacilitatorImpl implements DictionaryFacilitator {
         if (listener != null) {
             listener.onUpdateMainDictionaryAvailability(hasAtLeastOneInitializedMainDictionary());
         }
-        latchForWaitingLoadingMainDictionary.countDown();
+    }
+
+    // Takes the prewarmed dictionary if it is for this locale. Its load was submitted to the load
+    // executor before this one, so waiting for it cannot starve the pool. Its lookup and open
+    // times are in mPrewarmLoadTimings; mLoadTimings only tags the load as prewarmed.
+    private Dictionary createMainDictionary(final Context context, final Locale locale) {
+        final CompletableFuture<Dictionary> prewarmedMainDict;
+        synchronized (mLock) {
+            if (null == mPrewarmedMainDict || !locale.equals(mPrewarmedLocale)) {
+                prewarmedMainDict = null;
+            } else {
+                prewarmedMainDict = mPrewarmedMainDict;
+                mPrewarmedMainDict = null;
+                mPrewarmedLocale = null;
+            }
+        }
+        if (null != prewarmedMainDict) {
+            try {
+                final Dictionary mainDict = prewarmedMainDict.get();
+                mLoadTimings.onPrewarmedTaken(locale);
+                return mainDict;
+            } catch (final ExecutionException e) {
+                Log.e(TAG, "Failed to prewarm the main dictionary for " + locale, e.getCause());
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return DictionaryFactory.createMainDictionaryFromManager(context, locale, mLoadTimings);
+    }
+
+    @Override
+    public void prewarmDictionaries(final Context context, final Locale locale) {
+        synchronized (mLock) {
+            if (locale.equals(mPrewarmedLocale)
+                    || null != findDictionaryGroupWithLocale(mDictionaryGroups, locale)) {
+                return;
+            }
+            discardPrewarmedMainDictLocked();
+            mPrewarmedLocale = locale;
+            mPrewarmedMainDict = CompletableFuture.supplyAsync(new Supplier<Dictionary>() {
+                @Override
+                public Dictionary get() {
+                    return DictionaryFactory.createMainDictionaryFromManager(context, locale,
+                            mPrewarmLoadTimings);
+                }
+            }, ExecutorUtils.getDictionaryLoadExecutor());
+        }
+    }
+
+    private void discardPrewarmedMainDictLocked() {
+        if (null == mPrewarmedMainDict) {
+            return;
+        }
+        mPrewarmedMainDict.thenAccept(new Consumer<Dictionary>() {
+            @Override
+            public void accept(final Dictionary dictionary) {
+                dictionary.close();
+            }
+        });
+        mPrewarmedMainDict = null;
+        mPrewarmedLocale = null;
+    }
+
+    @Override
+    @Nullable
+    public CompletableFuture<Void> getDictionaryLoadedFuture(final Locale locale,
+            final String dictType) {
+        final DictionaryGroup dictionaryGroup =
+                findDictionaryGroupWithLocale(mDictionaryGroups, locale);
+        return dictionaryGroup == null ? null : dictionaryGroup.getLoadedFuture(dictType);
     }
 
     @UsedForTesting
@@ -449,35 +744,54 @@ public class DictionaryFacilitatorImpl implements DictionaryFacilitator {
                 subDicts.put(dictType, dict);
             }
         }
-        mDictionaryGroup = new DictionaryGroup(locale, mainDictionary, account, subDicts);
+        final DictionaryGroup dictionaryGroup =
+                new DictionaryGroup(locale, mainDictionary, account, subDicts);
+        mDictionaryGroups = new DictionaryGroup[] { dictionaryGroup };
+        mMostProbableDictionaryGroup = dictionaryGroup;
+        mDictionaryGroupsVersion.incrementAndGet();
     }
 
     public void closeDictionaries() {
-        final DictionaryGroup dictionaryGroupToClose;
+        final DictionaryGroup[] dictionaryGroupsToClose;
         synchronized (mLock) {
-            dictionaryGroupToClose = mDictionaryGroup;
-            mDictionaryGroup = new DictionaryGroup();
+            discardPrewarmedMainDictLocked();
+            dictionaryGroupsToClose = mDictionaryGroups;
+            mDictionaryGroups = new DictionaryGroup[] { new DictionaryGroup() };
+            mMostProbableDictionaryGroup = mDictionaryGroups[0];
+            mDictionaryGroupsVersion.incrementAndGet();
         }
-        for (final String dictType : ALL_DICTIONARY_TYPES) {
-            dictionaryGroupToClose.closeDict(dictType);
+        for (final DictionaryGroup dictionaryGroup : dictionaryGroupsToClose) {
+            for (final String dictType : ALL_DICTIONARY_TYPES) {
+                dictionaryGroup.closeDict(dictType);
+            }
         }
     }
 
     @UsedForTesting
     public ExpandableBinaryDictionary getSubDictForTesting(final String dictName) {
-        return mDictionaryGroup.getSubDict(dictName);
+        return mDictionaryGroups[0].getSubDict(dictName);
     }
 
     // The main dictionaries are loaded asynchronously.  Don't cache the return value
     // of these methods.
     public boolean hasAtLeastOneInitializedMainDictionary() {
-        final Dictionary mainDict = mDictionaryGroup.getDict(Dictionary.TYPE_MAIN);
-        return mainDict != null && mainDict.isInitialized();
+        for (final DictionaryGroup dictionaryGroup : mDictionaryGroups) {
+            final Dictionary mainDict = dictionaryGroup.getDict(Dictionary.TYPE_MAIN);
+            if (mainDict != null && mainDict.isInitialized()) {
+                return true;
+            }
+        }
+        return false;
     }
 
     public boolean hasAtLeastOneUninitializedMainDictionary() {
-        final Dictionary mainDict = mDictionaryGroup.getDict(Dictionary.TYPE_MAIN);
-        return mainDict == null || !mainDict.isInitialized();
+        for (final DictionaryGroup dictionaryGroup : mDictionaryGroups) {
+            final Dictionary mainDict = dictionaryGroup.getDict(Dictionary.TYPE_MAIN);
+            if (mainDict == null || !mainDict.isInitialized()) {
+                return true;
+            }
+        }
+        return false;
     }
 
     public void waitForLoadingMainDictionaries(final long timeout, final TimeUnit unit)
@@ -489,8 +803,10 @@ public class DictionaryFacilitatorImpl implements DictionaryFacilitator {
     public void waitForLoadingDictionariesForTesting(final long timeout, final TimeUnit unit)
             throws InterruptedException {
         waitForLoadingMainDictionaries(timeout, unit);
-        for (final ExpandableBinaryDictionary dict : mDictionaryGroup.mSubDictMap.values()) {
-            dict.waitAllTasksForTests();
+        for (final DictionaryGroup dictionaryGroup : mDictionaryGroups) {
+            for (final ExpandableBinaryDictionary dict : dictionaryGroup.mSubDictMap.values()) {
+                dict.waitAllTasksForTests();
+            }
         }
     }
 
@@ -506,14 +822,68 @@ public class DictionaryFacilitatorImpl implements DictionaryFacilitator {
         for (int i = 0; i < words.length; i++) {
             final String currentWord = words[i];
             final boolean wasCurrentWordAutoCapitalized = (i == 0) && wasAutoCapitalized;
-            addWordToUserHistory(mDictionaryGroup, ngramContextForCurrentWord, currentWord,
-                    wasCurrentWordAutoCapitalized, (int) timeStampInSeconds,
+            updateMostProbableDictionaryGroup(currentWord);
+            addWordToUserHistory(mMostProbableDictionaryGroup, ngramContextForCurrentWord,
+                    currentWord, wasCurrentWordAutoCapitalized, (int) timeStampInSeconds,
                     blockPotentiallyOffensive);
             ngramContextForCurrentWord =
                     ngramContextForCurrentWord.getNextNgramContext(new WordInfo(currentWord));
         }
     }
 
+    /**
+     * Updates the confidence of each language from a committed word, and makes a language the
+     * most probable one once enough words in a row were valid in it but not in all others.
+     * Words valid in every language, or in none, tell nothing and are ignored.
+     */
+    private void updateMostProbableDictionaryGroup(final String word) {
+        final DictionaryGroup[] dictionaryGroups = mDictionaryGroups;
+        if (dictionaryGroups.length < 2 || TextUtils.isEmpty(word)) {
+            return;
+        }
+        final boolean[] isValid = new boolean[dictionaryGroups.length];
+        int validCount = 0;
+        for (int i = 0; i < dictionaryGroups.length; i++) {
+            isValid[i] = dictionaryGroups[i].isValidWord(word);
+            if (isValid[i]) validCount++;
+        }
+        if (validCount == 0 || validCount == dictionaryGroups.length) {
+            return;
+        }
+        DictionaryGroup mostProbable = mMostProbableDictionaryGroup;
+        for (int i = 0; i < dictionaryGroups.length; i++) {
+            final DictionaryGroup dictionaryGroup = dictionaryGroups[i];
+            dictionaryGroup.mConfidence = isValid[i]
+                    ? Math.min(dictionaryGroup.mConfidence + 1, MAX_CONFIDENCE) : 0;
+            if (dictionaryGroup.mConfidence >= CONFIDENCE_TO_SWITCH_LANGUAGE
+                    && dictionaryGroup.mConfidence > mostProbable.mConfidence) {
+                mostProbable = dictionaryGroup;
+            }
+        }
+        if (mostProbable != mMostProbableDictionaryGroup) {
+            mMostProbableDictionaryGroup = mostProbable;
+            updateWeightsForLocales();
+            mDictionaryGroupsVersion.incrementAndGet();
+        }
+    }
+
+    private void updateWeightsForLocales() {
+        final DictionaryGroup mostProbable = mMostProbableDictionaryGroup;
+        for (final DictionaryGroup dictionaryGroup : mDictionaryGroups) {
+            if (dictionaryGroup == mostProbable) {
+                dictionaryGroup.mWeightForTypingInLocale =
+                        DictionaryGroup.WEIGHT_FOR_MOST_PROBABLE_LANGUAGE;
+                dictionaryGroup.mWeightForGesturingInLocale =
+                        DictionaryGroup.WEIGHT_FOR_MOST_PROBABLE_LANGUAGE;
+            } else {
+                dictionaryGroup.mWeightForTypingInLocale =
+                        DictionaryGroup.WEIGHT_FOR_TYPING_IN_NOT_MOST_PROBABLE_LANGUAGE;
+                dictionaryGroup.mWeightForGesturingInLocale =
+                        DictionaryGroup.WEIGHT_FOR_GESTURING_IN_NOT_MOST_PROBABLE_LANGUAGE;
+            }
+        }
+    }
+
     private void putWordIntoValidSpellingWordCache(
             @Nonnull final String caller,
             @Nonnull final String originalWord) {
@@ -542,10 +912,11 @@ public class DictionaryFacilitatorImpl implements DictionaryFacilitator {
             final int timeStampInSeconds, final boolean blockPotentiallyOffensive) {
         final ExpandableBinaryDictionary userHistoryDictionary =
                 dictionaryGroup.getSubDict(Dictionary.TYPE_USER_HISTORY);
-        if (userHistoryDictionary == null || !isForLocale(userHistoryDictionary.mLocale)) {
+        if (userHistoryDictionary == null
+                || !userHistoryDictionary.mLocale.equals(dictionaryGroup.mLocale)) {
             return;
         }
-        final int maxFreq = getFrequency(word);
+        final int maxFreq = getFrequency(dictionaryGroup, word);
         if (maxFreq == 0 && blockPotentiallyOffensive) {
             return;
         }
@@ -589,9 +960,11 @@ public class DictionaryFacilitatorImpl implements DictionaryFacilitator {
     }
 
     private void removeWord(final String dictName, final String word) {
-        final ExpandableBinaryDictionary dictionary = mDictionaryGroup.getSubDict(dictName);
-        if (dictionary != null) {
-            dictionary.removeUnigramEntryDynamically(word);
+        for (final DictionaryGroup dictionaryGroup : mDictionaryGroups) {
+            final ExpandableBinaryDictionary dictionary = dictionaryGroup.getSubDict(dictName);
+            if (dictionary != null) {
+                dictionary.removeUnigramEntryDynamically(word);
+            }
         }
     }
 
@@ -609,37 +982,305 @@ public class DictionaryFacilitatorImpl implements DictionaryFacilitator {
         putWordIntoValidSpellingWordCache("unlearnFromUserHistory", word.toLowerCase());
     }
 
-    // TODO: Revise the way to fusion suggestion results.
     @Override
     @Nonnull public SuggestionResults getSuggestionResults(ComposedData composedData,
             NgramContext ngramContext, @Nonnull final Keyboard keyboard,
             SettingsValuesForSuggestion settingsValuesForSuggestion, int sessionId,
             int inputStyle) {
+        // Gestures are made of coordinates that never repeat exactly, don't bother caching them.
+        if (composedData.mIsBatchMode) {
+            return querySuggestionResults(composedData, ngramContext, keyboard,
+                    settingsValuesForSuggestion, sessionId, new AtomicBoolean(true));
+        }
+        final SuggestionResultsCacheKey key = new SuggestionResultsCacheKey(composedData,
+                ngramContext, settingsValuesForSuggestion, sessionId, inputStyle);
+        final long version = getDictionariesVersion();
+        // Proximity correction depends on the layout, which may change within a locale without
+        // touching the dictionaries.
+        final ProximityInfo proximityInfo = keyboard.getProximityInfo();
+        synchronized (mSuggestionResultsCache) {
+            if (version != mSuggestionResultsCacheVersion
+                    || proximityInfo != mSuggestionResultsCacheProximityInfo) {
+                mSuggestionResultsCache.evictAll();
+                mSuggestionResultsCacheVersion = version;
+                mSuggestionResultsCacheProximityInfo = proximityInfo;
+            } else {
+                final SuggestionResults cachedResults = mSuggestionResultsCache.get(key);
+                if (null != cachedResults) {
+                    return cachedResults;
+                }
+            }
+        }
+        final AtomicBoolean isComplete = new AtomicBoolean(true);
+        final SuggestionResults suggestionResults = querySuggestionResults(composedData,
+                ngramContext, keyboard, settingsValuesForSuggestion, sessionId, isComplete);
+        // Results missing a dictionary that was busy or late must not be served again.
+        if (isComplete.get() && version == getDictionariesVersion()) {
+            synchronized (mSuggestionResultsCache) {
+                if (version == mSuggestionResultsCacheVersion
+                        && proximityInfo == mSuggestionResultsCacheProximityInfo) {
+                    mSuggestionResultsCache.put(key, suggestionResults);
+                }
+            }
+        }
+        return suggestionResults;
+    }
+
+    /**
+     * Returns a number that changes whenever the dictionaries, their weights or the contents
+     * of a user-specific dictionary (user history, user dictionary, contacts) may have changed.
+     */
+    private long getDictionariesVersion() {
+        long version = mDictionaryGroupsVersion.get();
+        for (final DictionaryGroup dictionaryGroup : mDictionaryGroups) {
+            for (final ExpandableBinaryDictionary dict : dictionaryGroup.mSubDictMap.values()) {
+                version = version * 31 + dict.getContentVersion();
+            }
+        }
+        return version;
+    }
+
+    // TODO: Revise the way to fusion suggestion results.
+    /**
+     * Looks up all dictionaries. outIsComplete is set to false when some dictionary could not
+     * contribute because it was busy or missed the deadline. Lookups running on other threads
+     * set it too, so it is atomic.
+     */
+    @Nonnull private SuggestionResults querySuggestionResults(final ComposedData composedData,
+            final NgramContext ngramContext, @Nonnull final Keyboard keyboard,
+            final SettingsValuesForSuggestion settingsValuesForSuggestion, final int sessionId,
+            final AtomicBoolean outIsComplete) {
         long proximityInfoHandle = keyboard.getProximityInfo().getNativeProximityInfo();
         final SuggestionResults suggestionResults = new SuggestionResults(
                 SuggestedWords.MAX_SUGGESTIONS, ngramContext.isBeginningOfSentenceContext(),
                 false /* firstSuggestionExceedsConfidenceThreshold */);
+        final long deadlineNanos = System.nanoTime()
+                + TimeUnit.MILLISECONDS.toNanos(DICTIONARY_QUERY_DEADLINE_MILLIS);
+        final DictionaryGroup[] dictionaryGroups = mDictionaryGroups;
+        final ArrayList<Future<SuggestionResults>> futures = new ArrayList<>();
+        final ArrayList<Dictionary[]> futureDictionaries = new ArrayList<>();
+        // Other languages first, so they are looked up while this thread does the first one.
+        // Each runs as one task: its main dictionary computes the weight its other ones use.
+        for (int i = 1; i < dictionaryGroups.length; i++) {
+            final Dictionary[] dictionaries = getDictionaries(dictionaryGroups[i],
+                    ALL_DICTIONARY_TYPES);
+            submitQuery(dictionaries, composedData, ngramContext, proximityInfoHandle,
+                    settingsValuesForSuggestion, sessionId,
+                    getWeightForLocale(dictionaryGroups[i], composedData), futures,
+                    futureDictionaries, outIsComplete);
+        }
+
+        final DictionaryGroup dictionaryGroup = dictionaryGroups[0];
+        final float weightForLocale = getWeightForLocale(dictionaryGroup, composedData);
         final float[] weightOfLangModelVsSpatialModel =
                 new float[] { Dictionary.NOT_A_WEIGHT_OF_LANG_MODEL_VS_SPATIAL_MODEL };
-        for (final String dictType : ALL_DICTIONARY_TYPES) {
-            final Dictionary dictionary = mDictionaryGroup.getDict(dictType);
-            if (null == dictionary) continue;
-            final float weightForLocale = composedData.mIsBatchMode
-                    ? mDictionaryGroup.mWeightForGesturingInLocale
-                    : mDictionaryGroup.mWeightForTypingInLocale;
-            final ArrayList<SuggestedWordInfo> dictionarySuggestions =
-                    dictionary.getSuggestions(composedData, ngramContext,
-                            proximityInfoHandle, settingsValuesForSuggestion, sessionId,
-                            weightForLocale, weightOfLangModelVsSpatialModel);
-            if (null == dictionarySuggestions) continue;
-            suggestionResults.addAll(dictionarySuggestions);
-            if (null != suggestionResults.mRawSuggestions) {
-                suggestionResults.mRawSuggestions.addAll(dictionarySuggestions);
+        if (settingsValuesForSuggestion.mParallelDictionaryLookup) {
+            // When typing, each dictionary computes the same language model weight on its own,
+            // so all of them can run at once. When gesturing, the weight computed by the main
+            // dictionary applies to the others, so it is queried first on this thread.
+            final String[] parallelDictTypes;
+            if (composedData.mIsBatchMode) {
+                querySequentially(
+                        getDictionaries(dictionaryGroup, new String[] { Dictionary.TYPE_MAIN }),
+                        composedData, ngramContext, proximityInfoHandle,
+                        settingsValuesForSuggestion, sessionId, weightForLocale,
+                        weightOfLangModelVsSpatialModel, suggestionResults, outIsComplete);
+                parallelDictTypes = DYNAMIC_DICTIONARY_TYPES;
+            } else {
+                parallelDictTypes = ALL_DICTIONARY_TYPES;
             }
+            for (final Dictionary dictionary : getDictionaries(dictionaryGroup,
+                    parallelDictTypes)) {
+                submitQuery(new Dictionary[] { dictionary }, composedData, ngramContext,
+                        proximityInfoHandle, settingsValuesForSuggestion, sessionId,
+                        weightForLocale, futures, futureDictionaries, outIsComplete,
+                        weightOfLangModelVsSpatialModel[0]);
+            }
+        } else {
+            querySequentially(getDictionaries(dictionaryGroup, ALL_DICTIONARY_TYPES),
+                    composedData, ngramContext, proximityInfoHandle,
+                    settingsValuesForSuggestion, sessionId, weightForLocale,
+                    weightOfLangModelVsSpatialModel, suggestionResults, outIsComplete);
+        }
+        collectQueryResults(futures, futureDictionaries, deadlineNanos, suggestionResults,
+                outIsComplete);
+        final long loadStartNanos = mFirstSuggestionLoadStartNanos;
+        if (0 != loadStartNanos) {
+            mFirstSuggestionLoadStartNanos = 0;
+            final long firstSuggestionNanos = System.nanoTime() - loadStartNanos;
+            mLoadTimings.onFirstSuggestion(dictionaryGroup.mLocale, firstSuggestionNanos);
+            Log.i(TAG, "First suggestions for " + dictionaryGroup.mLocale + " "
+                    + TimeUnit.NANOSECONDS.toMillis(firstSuggestionNanos)
+                    + "ms after starting to load the main dictionary");
         }
         return suggestionResults;
     }
 
+    private static float getWeightForLocale(final DictionaryGroup dictionaryGroup,
+            final ComposedData composedData) {
+        return composedData.mIsBatchMode
+                ? dictionaryGroup.mWeightForGesturingInLocale
+                : dictionaryGroup.mWeightForTypingInLocale;
+    }
+
+    private static Dictionary[] getDictionaries(final DictionaryGroup dictionaryGroup,
+            final String[] dictTypes) {
+        final ArrayList<Dictionary> dictionaries = new ArrayList<>(dictTypes.length);
+        for (final String dictType : dictTypes) {
+            final Dictionary dictionary = dictionaryGroup.getDict(dictType);
+            if (null != dictionary) {
+                dictionaries.add(dictionary);
+            }
+        }
+        return dictionaries.toArray(new Dictionary[0]);
+    }
+
+    private void submitQuery(final Dictionary[] dictionaries, final ComposedData composedData,
+            final NgramContext ngramContext, final long proximityInfoHandle,
+            final SettingsValuesForSuggestion settingsValuesForSuggestion, final int sessionId,
+            final float weightForLocale,
+            final ArrayList<Future<SuggestionResults>> futures,
+            final ArrayList<Dictionary[]> futureDictionaries, final AtomicBoolean outIsComplete) {
+        submitQuery(dictionaries, composedData, ngramContext, proximityInfoHandle,
+                settingsValuesForSuggestion, sessionId, weightForLocale, futures,
+                futureDictionaries, outIsComplete,
+                Dictionary.NOT_A_WEIGHT_OF_LANG_MODEL_VS_SPATIAL_MODEL);
+    }
+
+    /**
+     * Looks up the dictionaries one after the other on
+     * {@link ExecutorUtils#getDictionaryQueryExecutor()}, sharing one language model weight
+     * starting at weightOfLangModelVsSpatialModel. The task keeps its own top suggestions, which
+     * are merged into the final results by {@link #collectQueryResults}.
+     */
+    private void submitQuery(final Dictionary[] dictionaries, final ComposedData composedData,
+            final NgramContext ngramContext, final long proximityInfoHandle,
+            final SettingsValuesForSuggestion settingsValuesForSuggestion, final int sessionId,
+            final float weightForLocale,
+            final ArrayList<Future<SuggestionResults>> futures,
+            final ArrayList<Dictionary[]> futureDictionaries, final AtomicBoolean outIsComplete,
+            final float weightOfLangModelVsSpatialModel) {
+        if (dictionaries.length == 0) return;
+        try {
+            futures.add(ExecutorUtils.getDictionaryQueryExecutor().submit(
+                    new Callable<SuggestionResults>() {
+                        @Override
+                        public SuggestionResults call() {
+                            final SuggestionResults results = new SuggestionResults(
+                                    SuggestedWords.MAX_SUGGESTIONS,
+                                    ngramContext.isBeginningOfSentenceContext(),
+                                    false /* firstSuggestionExceedsConfidenceThreshold */);
+                            querySequentially(dictionaries, composedData, ngramContext,
+                                    proximityInfoHandle, settingsValuesForSuggestion, sessionId,
+                                    weightForLocale,
+                                    new float[] { weightOfLangModelVsSpatialModel }, results,
+                                    outIsComplete);
+                            return results;
+                        }
+                    }));
+            futureDictionaries.add(dictionaries);
+        } catch (final RejectedExecutionException e) {
+            Log.w(TAG, "Could not submit dictionary lookup", e);
+            outIsComplete.set(false);
+        }
+    }
+
+    /**
+     * Merges whatever the futures have returned by deadlineNanos; later results are dropped.
+     */
+    private void collectQueryResults(
+            final ArrayList<Future<SuggestionResults>> futures,
+            final ArrayList<Dictionary[]> futureDictionaries, final long deadlineNanos,
+            final SuggestionResults suggestionResults, final AtomicBoolean outIsComplete) {
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                final long remainingNanos = Math.max(0, deadlineNanos - System.nanoTime());
+                addSuggestions(suggestionResults,
+                        futures.get(i).get(remainingNanos, TimeUnit.NANOSECONDS));
+            } catch (final TimeoutException e) {
+                outIsComplete.set(false);
+                for (final Dictionary dictionary : futureDictionaries.get(i)) {
+                    mQueryTimings.onLate(getTimingsKey(dictionary));
+                }
+            } catch (final ExecutionException e) {
+                outIsComplete.set(false);
+                Log.e(TAG, "Failed to get suggestions from "
+                        + Arrays.toString(futureDictionaries.get(i)), e.getCause());
+            } catch (final InterruptedException e) {
+                outIsComplete.set(false);
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Looks up the dictionaries in order on the calling thread and offers their suggestions to
+     * outResults. A dictionary whose previous lookup is still running on another thread is
+     * skipped, as its traverse session must not be used by two threads at once, and so is a
+     * dynamic dictionary that has not finished loading. outIsComplete is then set to false.
+     */
+    private void querySequentially(final Dictionary[] dictionaries,
+            final ComposedData composedData, final NgramContext ngramContext,
+            final long proximityInfoHandle,
+            final SettingsValuesForSuggestion settingsValuesForSuggestion, final int sessionId,
+            final float weightForLocale, final float[] weightOfLangModelVsSpatialModel,
+            final SuggestionResults outResults, final AtomicBoolean outIsComplete) {
+        for (final Dictionary dictionary : dictionaries) {
+            if (dictionary instanceof ExpandableBinaryDictionary
+                    && !((ExpandableBinaryDictionary) dictionary).isLoaded()) {
+                // Still loading: don't wait on its lock. Loading changes its content version, so
+                // these partial results are not reused once it is done.
+                ((ExpandableBinaryDictionary) dictionary).reloadDictionaryIfRequired();
+                outIsComplete.set(false);
+                continue;
+            }
+            if (!tryStartQuery(dictionary)) {
+                outIsComplete.set(false);
+                continue;
+            }
+            try {
+                final long startNanos = System.nanoTime();
+                dictionary.addSuggestions(composedData, ngramContext, proximityInfoHandle,
+                        settingsValuesForSuggestion, sessionId, weightForLocale,
+                        weightOfLangModelVsSpatialModel, outResults);
+                mQueryTimings.onQueried(getTimingsKey(dictionary),
+                        System.nanoTime() - startNanos);
+            } finally {
+                finishQuery(dictionary);
+            }
+        }
+    }
+
+    // Marks a lookup on dictionary as running; false if the previous one is still running.
+    private boolean tryStartQuery(final Dictionary dictionary) {
+        synchronized (mRunningQueries) {
+            if (!mRunningQueries.add(dictionary)) {
+                mQueryTimings.onSkipped(getTimingsKey(dictionary));
+                return false;
+            }
+            return true;
+        }
+    }
+
+    private void finishQuery(final Dictionary dictionary) {
+        synchronized (mRunningQueries) {
+            mRunningQueries.remove(dictionary);
+        }
+    }
+
+    private static String getTimingsKey(final Dictionary dictionary) {
+        return dictionary.mDictType + ":" + dictionary.mLocale;
+    }
+
+    private static void addSuggestions(final SuggestionResults suggestionResults,
+            final SuggestionResults taskResults) {
+        suggestionResults.addAll(taskResults);
+        if (null != suggestionResults.mRawSuggestions) {
+            suggestionResults.mRawSuggestions.addAll(taskResults.mRawSuggestions);
+        }
+    }
+
     public boolean isValidSpellingWord(final String word) {
         if (mValidSpellingWordReadCache != null) {
             final Boolean cachedValue = mValidSpellingWordReadCache.get(word);
@@ -648,40 +1289,74 @@ public class DictionaryFacilitatorImpl implements DictionaryFacilitator {
             }
         }
 
-        return isValidWord(word, ALL_DICTIONARY_TYPES);
+        return isValidWord(word);
     }
 
     public boolean isValidSuggestionWord(final String word) {
-        return isValidWord(word, ALL_DICTIONARY_TYPES);
+        return isValidWord(word);
     }
 
-    private boolean isValidWord(final String word, final String[] dictionariesToCheck) {
-        if (TextUtils.isEmpty(word)) {
-            return false;
+    // Same answers as isValidSpellingWord(), with one batched lookup per dictionary for all the
+    // words that are not in the cache.
+    @Nonnull
+    public boolean[] areValidSpellingWords(@Nonnull final String[] words) {
+        final boolean[] isValid = new boolean[words.length];
+        final String[] wordsToLookUp = new String[words.length];
+        final int[] indices = new int[words.length];
+        int count = 0;
+        for (int i = 0; i < words.length; i++) {
+            final String word = words[i];
+            if (TextUtils.isEmpty(word)) {
+                continue;
+            }
+            if (mValidSpellingWordReadCache != null) {
+                final Boolean cachedValue = mValidSpellingWordReadCache.get(word);
+                if (cachedValue != null) {
+                    isValid[i] = cachedValue;
+                    continue;
+                }
+            }
+            wordsToLookUp[count] = word;
+            indices[count] = i;
+            count++;
+        }
+        if (count == 0) {
+            return isValid;
+        }
+        final String[] lookedUpWords = count == words.length
+                ? wordsToLookUp : Arrays.copyOf(wordsToLookUp, count);
+        final boolean[] lookedUpIsValid = new boolean[count];
+        for (final DictionaryGroup dictionaryGroup : mDictionaryGroups) {
+            if (dictionaryGroup.mLocale == null) continue;
+            dictionaryGroup.markValidWords(lookedUpWords, lookedUpIsValid);
         }
-        if (mDictionaryGroup.mLocale == null) {
+        for (int i = 0; i < count; i++) {
+            isValid[indices[i]] = lookedUpIsValid[i];
+        }
+        return isValid;
+    }
+
+    // Valid in any of the active languages.
+    private boolean isValidWord(final String word) {
+        if (TextUtils.isEmpty(word)) {
             return false;
         }
-        for (final String dictType : dictionariesToCheck) {
-            final Dictionary dictionary = mDictionaryGroup.getDict(dictType);
-            // Ideally the passed map would come out of a {@link java.util.concurrent.Future} and
-            // would be immutable once it's finished initializing, but concretely a null test is
-            // probably good enough for the time being.
-            if (null == dictionary) continue;
-            if (dictionary.isValidWord(word)) {
+        for (final DictionaryGroup dictionaryGroup : mDictionaryGroups) {
+            if (dictionaryGroup.mLocale == null) continue;
+            if (dictionaryGroup.isValidWord(word)) {
                 return true;
             }
         }
         return false;
     }
 
-    private int getFrequency(final String word) {
+    private static int getFrequency(final DictionaryGroup dictionaryGroup, final String word) {
         if (TextUtils.isEmpty(word)) {
             return Dictionary.NOT_A_PROBABILITY;
         }
         int maxFreq = Dictionary.NOT_A_PROBABILITY;
         for (final String dictType : ALL_DICTIONARY_TYPES) {
-            final Dictionary dictionary = mDictionaryGroup.getDict(dictType);
+            final Dictionary dictionary = dictionaryGroup.getDict(dictType);
             if (dictionary == null) continue;
             final int tempFreq = dictionary.getFrequency(word);
             if (tempFreq >= maxFreq) {
@@ -692,12 +1367,15 @@ public class DictionaryFacilitatorImpl implements DictionaryFacilitator {
     }
 
     private boolean clearSubDictionary(final String dictName) {
-        final ExpandableBinaryDictionary dictionary = mDictionaryGroup.getSubDict(dictName);
-        if (dictionary == null) {
-            return false;
+        boolean cleared = false;
+        for (final DictionaryGroup dictionaryGroup : mDictionaryGroups) {
+            final ExpandableBinaryDictionary dictionary = dictionaryGroup.getSubDict(dictName);
+            if (dictionary != null) {
+                dictionary.clear();
+                cleared = true;
+            }
         }
-        dictionary.clear();
-        return true;
+        return cleared;
     }
 
     @Override
@@ -707,7 +1385,7 @@ public class DictionaryFacilitatorImpl implements DictionaryFacilitator {
 
     @Override
     public void dumpDictionaryForDebug(final String dictName) {
-        final ExpandableBinaryDictionary dictToDump = mDictionaryGroup.getSubDict(dictName);
+        final ExpandableBinaryDictionary dictToDump = mDictionaryGroups[0].getSubDict(dictName);
         if (dictToDump == null) {
             Log.e(TAG, "Cannot dump " + dictName + ". "
                     + "The dictionary is not being used for suggestion or cannot be dumped.");
@@ -719,16 +1397,83 @@ public class DictionaryFacilitatorImpl implements DictionaryFacilitator {
     @Override
     @Nonnull public List<DictionaryStats> getDictionaryStats(final Context context) {
         final ArrayList<DictionaryStats> statsOfEnabledSubDicts = new ArrayList<>();
-        for (final String dictType : DYNAMIC_DICTIONARY_TYPES) {
-            final ExpandableBinaryDictionary dictionary = mDictionaryGroup.getSubDict(dictType);
-            if (dictionary == null) continue;
-            statsOfEnabledSubDicts.add(dictionary.getDictionaryStats());
+        for (final DictionaryGroup dictionaryGroup : mDictionaryGroups) {
+            for (final String dictType : DYNAMIC_DICTIONARY_TYPES) {
+                final ExpandableBinaryDictionary dictionary =
+                        dictionaryGroup.getSubDict(dictType);
+                if (dictionary == null) continue;
+                statsOfEnabledSubDicts.add(dictionary.getDictionaryStats());
+            }
         }
         return statsOfEnabledSubDicts;
     }
 
     @Override
     public String dump(final Context context) {
-        return "";
+        final StringBuilder sb = new StringBuilder("Dictionary groups:\n");
+        final DictionaryGroup mostProbable = mMostProbableDictionaryGroup;
+        for (final DictionaryGroup dictionaryGroup : mDictionaryGroups) {
+            sb.append("  ").append(dictionaryGroup.mLocale)
+                    .append(dictionaryGroup == mostProbable ? " (most probable)" : "")
+                    .append(": confidence=").append(dictionaryGroup.mConfidence)
+                    .append(" typingWeight=").append(dictionaryGroup.mWeightForTypingInLocale)
+                    .append(" gesturingWeight=")
+                    .append(dictionaryGroup.mWeightForGesturingInLocale)
+                    .append('\n');
+            for (final Map.Entry<String, ExpandableBinaryDictionary> entry
+                    : dictionaryGroup.mSubDictMap.entrySet()) {
+                sb.append("    ").append(entry.getKey()).append(": ")
+                        .append(entry.getValue().getContendedReadStats()).append('\n');
+            }
+        }
+        sb.append("Suggestion results cache: ").append(mSuggestionResultsCache).append('\n');
+        sb.append(mLoadTimings.dump());
+        sb.append(mPrewarmLoadTimings.dump());
+        return sb.append(mQueryTimings.dump()).toString();
+    }
+
+    /**
+     * What a typing lookup depends on besides the dictionaries and the keyboard, which the whole
+     * cache is tied to. Only the code points of the typed word are part of it, so the touch
+     * coordinates of the first lookup for a word are the ones used for the proximity correction
+     * of later identical ones.
+     */
+    private static final class SuggestionResultsCacheKey {
+        private final String mTypedWord;
+        private final NgramContext mNgramContext;
+        private final boolean mBlockPotentiallyOffensive;
+        private final int mSessionId;
+        private final int mInputStyle;
+        private final int mHashCode;
+
+        SuggestionResultsCacheKey(final ComposedData composedData,
+                final NgramContext ngramContext,
+                final SettingsValuesForSuggestion settingsValuesForSuggestion,
+                final int sessionId, final int inputStyle) {
+            mTypedWord = composedData.mTypedWord;
+            mNgramContext = ngramContext;
+            mBlockPotentiallyOffensive = settingsValuesForSuggestion.mBlockPotentiallyOffensive;
+            mSessionId = sessionId;
+            mInputStyle = inputStyle;
+            mHashCode = Arrays.hashCode(new Object[] { mTypedWord, mNgramContext,
+                    mBlockPotentiallyOffensive, mSessionId, mInputStyle });
+        }
+
+        @Override
+        public int hashCode() {
+            return mHashCode;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) return true;
+            if (!(o instanceof SuggestionResultsCacheKey)) return false;
+            final SuggestionResultsCacheKey key = (SuggestionResultsCacheKey) o;
+            return mTypedWord.equals(key.mTypedWord)
+                    && mNgramContext.equals(key.mNgramContext)
+                    && mBlockPotentiallyOffensive == key.mBlockPotentiallyOffensive
+                    && mSessionId == key.mSessionId
+                    && mInputStyle == key.mInputStyle;
+        }
     }
 }
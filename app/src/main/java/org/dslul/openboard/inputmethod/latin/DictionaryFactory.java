@@ -28,6 +28,8 @@ import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.Locale;
 
+import javax.annotation.Nullable;
+
 /**
  * Factory for dictionary instances.
  */
@@ -45,6 +47,18 @@ public final class DictionaryFactory {
      */
     public static DictionaryCollection createMainDictionaryFromManager(final Context context,
             final Locale locale) {
+        return createMainDictionaryFromManager(context, locale, null /* timings */);
+    }
+
+    /**
+     * Same as {@link #createMainDictionaryFromManager(Context, Locale)}, recording how long
+     * finding and opening the dictionary files took.
+     *
+     * The files are memory mapped where they are, be it in the APK (stored uncompressed) or in
+     * the dictionary cache, so nothing is copied or read up front.
+     */
+    public static DictionaryCollection createMainDictionaryFromManager(final Context context,
+            final Locale locale, @Nullable final DictionaryLoadTimings timings) {
         if (null == locale) {
             Log.e(TAG, "No locale defined for dictionary");
             return new DictionaryCollection(Dictionary.TYPE_MAIN, locale,
@@ -52,13 +66,21 @@ public final class DictionaryFactory {
         }
 
         final LinkedList<Dictionary> dictList = new LinkedList<>();
+        final long lookupStartNanos = System.nanoTime();
         final ArrayList<AssetFileAddress> assetFileList =
                 BinaryDictionaryGetter.getDictionaryFiles(locale, context, true);
+        if (null != timings) {
+            timings.onLookedUp(locale, System.nanoTime() - lookupStartNanos);
+        }
         if (null != assetFileList) {
             for (final AssetFileAddress f : assetFileList) {
+                final long openStartNanos = System.nanoTime();
                 final ReadOnlyBinaryDictionary readOnlyBinaryDictionary =
                         new ReadOnlyBinaryDictionary(f.mFilename, f.mOffset, f.mLength,
                                 false /* useFullEditDistance */, locale, Dictionary.TYPE_MAIN);
+                if (null != timings) {
+                    timings.onOpened(locale, System.nanoTime() - openStartNanos);
+                }
                 if (readOnlyBinaryDictionary.isValidDictionary()) {
                     dictList.add(readOnlyBinaryDictionary);
                 } else {
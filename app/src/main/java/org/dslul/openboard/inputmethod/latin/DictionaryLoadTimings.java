@@ -0,0 +1,103 @@
+package org.dslul.openboard.inputmethod.latin;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-locale timings of main dictionary loading, for dumpsys and the log.
+ *
+ * Loading goes through these phases: finding the dictionary files (lookup), mapping and opening
+ * each of them in native code (open), until the dictionary is installed and usable (ready).
+ * The first suggestion lookup served with it is also timed from the start of the load, as that
+ * is what the user waits for after a cold start. Speculative loads are kept in a separate
+ * instance, so that they don't mix with the loads the user waits for. Thread safe.
+ */
+public final class DictionaryLoadTimings {
+    private static final class Entry {
+        long mLoadCount;
+        int mFileCount;
+        long mLookupNanos;
+        long mOpenNanos;
+        long mReadyNanos;
+        long mFirstSuggestionNanos = -1;
+        // Whether the last load took a dictionary loaded ahead of time by a prewarm.
+        boolean mPrewarmed;
+    }
+
+    private final String mTitle;
+    private final TreeMap<String, Entry> mEntries = new TreeMap<>();
+
+    public DictionaryLoadTimings(final String title) {
+        mTitle = title;
+    }
+
+    private Entry getEntry(final Locale locale) {
+        final String key = String.valueOf(locale);
+        Entry entry = mEntries.get(key);
+        if (entry == null) {
+            entry = new Entry();
+            mEntries.put(key, entry);
+        }
+        return entry;
+    }
+
+    public synchronized void onLookedUp(final Locale locale, final long nanos) {
+        startLoad(locale, nanos, false);
+    }
+
+    /**
+     * Starts a load that takes a prewarmed dictionary, whose lookup and open times are in the
+     * prewarm timings instead.
+     */
+    public synchronized void onPrewarmedTaken(final Locale locale) {
+        startLoad(locale, 0, true);
+    }
+
+    private void startLoad(final Locale locale, final long lookupNanos, final boolean prewarmed) {
+        final Entry entry = getEntry(locale);
+        entry.mLoadCount++;
+        entry.mLookupNanos = lookupNanos;
+        entry.mOpenNanos = 0;
+        entry.mFileCount = 0;
+        entry.mFirstSuggestionNanos = -1;
+        entry.mPrewarmed = prewarmed;
+    }
+
+    public synchronized void onOpened(final Locale locale, final long nanos) {
+        final Entry entry = getEntry(locale);
+        entry.mFileCount++;
+        entry.mOpenNanos += nanos;
+    }
+
+    public synchronized void onReady(final Locale locale, final long nanosSinceLoadStart) {
+        getEntry(locale).mReadyNanos = nanosSinceLoadStart;
+    }
+
+    public synchronized void onFirstSuggestion(final Locale locale,
+            final long nanosSinceLoadStart) {
+        getEntry(locale).mFirstSuggestionNanos = nanosSinceLoadStart;
+    }
+
+    /** One line per locale with the times of the last load in milliseconds. */
+    public synchronized String dump() {
+        final StringBuilder sb = new StringBuilder(mTitle).append(" (ms):\n");
+        for (final Map.Entry<String, Entry> e : mEntries.entrySet()) {
+            final Entry entry = e.getValue();
+            sb.append("  ").append(e.getKey())
+                    .append(": loads=").append(entry.mLoadCount)
+                    .append(" files=").append(entry.mFileCount)
+                    .append(" lookup=").append(TimeUnit.NANOSECONDS.toMillis(entry.mLookupNanos))
+                    .append(" open=").append(TimeUnit.NANOSECONDS.toMillis(entry.mOpenNanos))
+                    .append(" ready=").append(TimeUnit.NANOSECONDS.toMillis(entry.mReadyNanos))
+                    .append(" firstSuggestion=")
+                    .append(entry.mFirstSuggestionNanos < 0 ? "-"
+                            : String.valueOf(TimeUnit.NANOSECONDS.toMillis(
+                                    entry.mFirstSuggestionNanos)))
+                    .append(entry.mPrewarmed ? " (prewarmed)" : "")
+                    .append('\n');
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,74 @@
+package org.dslul.openboard.inputmethod.latin;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-dictionary-type timings of suggestion lookups, for dumpsys.
+ *
+ * Besides the time spent in each dictionary, this counts results that arrived after the
+ * per-keystroke deadline (late) and lookups that were not started because the previous one
+ * on the same dictionary had not returned yet (skipped). Thread safe.
+ */
+public final class DictionaryQueryTimings {
+    private static final class Entry {
+        long mCount;
+        long mTotalNanos;
+        long mMaxNanos;
+        long mLastNanos;
+        long mLateCount;
+        long mSkippedCount;
+    }
+
+    private final TreeMap<String, Entry> mEntries = new TreeMap<>();
+
+    private Entry getEntry(final String dictType) {
+        Entry entry = mEntries.get(dictType);
+        if (entry == null) {
+            entry = new Entry();
+            mEntries.put(dictType, entry);
+        }
+        return entry;
+    }
+
+    public synchronized void onQueried(final String dictType, final long nanos) {
+        final Entry entry = getEntry(dictType);
+        entry.mCount++;
+        entry.mTotalNanos += nanos;
+        entry.mLastNanos = nanos;
+        if (nanos > entry.mMaxNanos) {
+            entry.mMaxNanos = nanos;
+        }
+    }
+
+    public synchronized void onLate(final String dictType) {
+        getEntry(dictType).mLateCount++;
+    }
+
+    public synchronized void onSkipped(final String dictType) {
+        getEntry(dictType).mSkippedCount++;
+    }
+
+    public synchronized void reset() {
+        mEntries.clear();
+    }
+
+    /** One line per dictionary type: lookups, avg/max/last time in microseconds, late, skipped. */
+    public synchronized String dump() {
+        final StringBuilder sb = new StringBuilder("Dictionary query timings (us):\n");
+        for (final Map.Entry<String, Entry> e : mEntries.entrySet()) {
+            final Entry entry = e.getValue();
+            final long avgNanos = entry.mCount == 0 ? 0 : entry.mTotalNanos / entry.mCount;
+            sb.append("  ").append(e.getKey())
+                    .append(": count=").append(entry.mCount)
+                    .append(" avg=").append(TimeUnit.NANOSECONDS.toMicros(avgNanos))
+                    .append(" max=").append(TimeUnit.NANOSECONDS.toMicros(entry.mMaxNanos))
+                    .append(" last=").append(TimeUnit.NANOSECONDS.toMicros(entry.mLastNanos))
+                    .append(" late=").append(entry.mLateCount)
+                    .append(" skipped=").append(entry.mSkippedCount)
+                    .append('\n');
+        }
+        return sb.toString();
+    }
+}
@@ -32,6 +32,7 @@ import org.dslul.openboard.inputmethod.latin.settings.SettingsValuesForSuggestio
 import org.dslul.openboard.inputmethod.latin.utils.AsyncResultHolder;
 import org.dslul.openboard.inputmethod.latin.utils.CombinedFormatUtils;
 import org.dslul.openboard.inputmethod.latin.utils.ExecutorUtils;
+import org.dslul.openboard.inputmethod.latin.utils.SuggestionResults;
 import org.dslul.openboard.inputmethod.latin.utils.WordInputEventForPersonalization;
 
 import java.io.File;
@@ -39,9 +40,12 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
@@ -104,6 +108,24 @@ abstract public class ExpandableBinaryDictionary extends Dictionary {
 
     private final ReentrantReadWriteLock mLock;
 
+    /** Incremented after every task run with the write lock, i.e. every possible change. */
+    private final AtomicInteger mContentVersion = new AtomicInteger();
+
+    /**
+     * Read-only copy of the dictionary as last written to its file, for readers to use while a
+     * write holds mLock, e.g. a GC or a batch of updates. Its file is mapped privately, so later
+     * flushes do not change it. Replaced with mLock held for writing, and only closed once no
+     * reader holds mSnapshotLock.
+     */
+    private BinaryDictionary mSnapshot;
+    private final ReentrantReadWriteLock mSnapshotLock = new ReentrantReadWriteLock();
+    // Reads served from the snapshot, and reads that got nothing, because of a running write.
+    private final AtomicLong mSnapshotReadCount = new AtomicLong();
+    private final AtomicLong mDroppedReadCount = new AtomicLong();
+
+    /** Completed once the first load of the dictionary has run, successful or not. */
+    private final CompletableFuture<Void> mLoadedFuture = new CompletableFuture<>();
+
     private Map<String, String> mAdditionalAttributeMap = null;
 
     /* A extension for a binary dictionary file. */
@@ -163,7 +185,24 @@ abstract public class ExpandableBinaryDictionary extends Dictionary {
     }
 
     private void asyncExecuteTaskWithWriteLock(final Runnable task) {
-        asyncExecuteTaskWithLock(mLock.writeLock(), task);
+        asyncExecuteTaskWithLock(mLock.writeLock(), new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    task.run();
+                } finally {
+                    mContentVersion.incrementAndGet();
+                }
+            }
+        });
+    }
+
+    /**
+     * Returns a number that changes whenever the contents of the dictionary may have changed,
+     * so that results computed from them can be cached.
+     */
+    public int getContentVersion() {
+        return mContentVersion.get();
     }
 
     private static void asyncExecuteTaskWithLock(final Lock lock, final Runnable task) {
@@ -186,12 +225,93 @@ abstract public class ExpandableBinaryDictionary extends Dictionary {
     }
 
     void closeBinaryDictionary() {
+        setSnapshotLocked(null);
         if (mBinaryDictionary != null) {
             mBinaryDictionary.close();
             mBinaryDictionary = null;
         }
     }
 
+    /**
+     * Opens a new snapshot of the dictionary file, which must be up to date with
+     * mBinaryDictionary. Called with the write lock held.
+     */
+    private void refreshSnapshotLocked() {
+        BinaryDictionary snapshot = null;
+        if (mBinaryDictionary != null && mBinaryDictionary.isValidDictionary()
+                && !mBinaryDictionary.hasUpdated() && mDictFile.exists()) {
+            snapshot = new BinaryDictionary(mDictFile.getAbsolutePath(), 0 /* offset */,
+                    mDictFile.length(), true /* useFullEditDistance */, mLocale, mDictType,
+                    false /* isUpdatable */);
+            if (!snapshot.isValidDictionary()) {
+                snapshot.close();
+                snapshot = null;
+            }
+        }
+        setSnapshotLocked(snapshot);
+    }
+
+    private void setSnapshotLocked(@Nullable final BinaryDictionary snapshot) {
+        final BinaryDictionary oldSnapshot;
+        mSnapshotLock.writeLock().lock();
+        try {
+            oldSnapshot = mSnapshot;
+            mSnapshot = snapshot;
+        } finally {
+            mSnapshotLock.writeLock().unlock();
+        }
+        if (oldSnapshot != null) {
+            oldSnapshot.close();
+        }
+    }
+
+    /**
+     * Takes a lock for reading and returns it, or null if none could be had in time:
+     * - the read lock if no write is running, mBinaryDictionary then being the one to read;
+     * - otherwise the snapshot lock if there is a snapshot, which is then the one to read;
+     * - otherwise the read lock once the write is done, waiting at most
+     *   TIMEOUT_FOR_READ_OPS_IN_MILLISECONDS.
+     * The caller gets the dictionary with {@link #getBinaryDictionaryForRead(Lock)} and must
+     * unlock the returned lock.
+     */
+    @Nullable
+    private Lock lockForRead(final String caller) {
+        final Lock readLock = mLock.readLock();
+        if (readLock.tryLock()) {
+            return readLock;
+        }
+        final Lock snapshotReadLock = mSnapshotLock.readLock();
+        snapshotReadLock.lock();
+        if (mSnapshot != null) {
+            mSnapshotReadCount.incrementAndGet();
+            return snapshotReadLock;
+        }
+        snapshotReadLock.unlock();
+        try {
+            if (readLock.tryLock(TIMEOUT_FOR_READ_OPS_IN_MILLISECONDS, TimeUnit.MILLISECONDS)) {
+                return readLock;
+            }
+        } catch (final InterruptedException e) {
+            Log.e(TAG, "Interrupted tryLock() in " + caller + "().", e);
+        }
+        mDroppedReadCount.incrementAndGet();
+        return null;
+    }
+
+    @Nullable
+    private BinaryDictionary getBinaryDictionaryForRead(final Lock lock) {
+        return lock == mLock.readLock() ? mBinaryDictionary : mSnapshot;
+    }
+
+    /**
+     * Returns how many reads were served from the last flushed contents of the dictionary, and
+     * how many got no result at all, because a write was running.
+     */
+    public String getContendedReadStats() {
+        return "snapshotReads=" + mSnapshotReadCount.get()
+                + " droppedReads=" + mDroppedReadCount.get();
+    }
+
     /**
      * Closes and cleans up the binary dictionary.
      */
@@ -272,11 +392,17 @@ abstract public class ExpandableBinaryDictionary extends Dictionary {
 
     protected void runGCIfRequiredLocked(final boolean mindsBlockByGC) {
         if (mBinaryDictionary.needsToRunGC(mindsBlockByGC)) {
-            mBinaryDictionary.flushWithGC();
+            if (mBinaryDictionary.flushWithGC()) {
+                refreshSnapshotLocked();
+            }
         }
     }
 
-    private void updateDictionaryWithWriteLock(@Nonnull final Runnable updateTask) {
+    /**
+     * Runs updateTask with the write lock once the dictionary is loaded, so that several
+     * *Locked() updates are applied as one task.
+     */
+    protected void updateDictionaryWithWriteLock(@Nonnull final Runnable updateTask) {
         reloadDictionaryIfRequired();
         final Runnable task = new Runnable() {
             @Override
@@ -328,15 +454,19 @@ abstract public class ExpandableBinaryDictionary extends Dictionary {
                     return;
                 }
                 runGCIfRequiredLocked(true /* mindsBlockByGC */);
-                if (!binaryDictionary.removeUnigramEntry(word)) {
-                    if (DEBUG) {
-                        Log.i(TAG, "Cannot remove unigram entry: " + word);
-                    }
-                }
+                removeUnigramLocked(word);
             }
         });
     }
 
+    protected void removeUnigramLocked(final String word) {
+        if (!mBinaryDictionary.removeUnigramEntry(word)) {
+            if (DEBUG) {
+                Log.i(TAG, "Cannot remove unigram entry: " + word);
+            }
+        }
+    }
+
     /**
      * Adds n-gram information of a word to the dictionary. May overwrite an existing entry.
      */
@@ -434,56 +564,77 @@ abstract public class ExpandableBinaryDictionary extends Dictionary {
             final SettingsValuesForSuggestion settingsValuesForSuggestion, final int sessionId,
             final float weightForLocale, final float[] inOutWeightOfLangModelVsSpatialModel) {
         reloadDictionaryIfRequired();
-        boolean lockAcquired = false;
+        final Lock lock = lockForRead("getSuggestionsWithSessionId");
+        if (lock == null) {
+            return null;
+        }
         try {
-            lockAcquired = mLock.readLock().tryLock(
-                    TIMEOUT_FOR_READ_OPS_IN_MILLISECONDS, TimeUnit.MILLISECONDS);
-            if (lockAcquired) {
-                if (mBinaryDictionary == null) {
-                    return null;
-                }
-                final ArrayList<SuggestedWordInfo> suggestions =
-                        mBinaryDictionary.getSuggestions(composedData, ngramContext,
-                                proximityInfoHandle, settingsValuesForSuggestion, sessionId,
-                                weightForLocale, inOutWeightOfLangModelVsSpatialModel);
-                if (mBinaryDictionary.isCorrupted()) {
-                    Log.i(TAG, "Dictionary (" + mDictName +") is corrupted. "
-                            + "Remove and regenerate it.");
-                    removeBinaryDictionary();
-                }
-                return suggestions;
+            final BinaryDictionary binaryDictionary = getBinaryDictionaryForRead(lock);
+            if (binaryDictionary == null) {
+                return null;
             }
-        } catch (final InterruptedException e) {
-            Log.e(TAG, "Interrupted tryLock() in getSuggestionsWithSessionId().", e);
+            final ArrayList<SuggestedWordInfo> suggestions =
+                    binaryDictionary.getSuggestions(composedData, ngramContext,
+                            proximityInfoHandle, settingsValuesForSuggestion, sessionId,
+                            weightForLocale, inOutWeightOfLangModelVsSpatialModel);
+            if (binaryDictionary == mBinaryDictionary && binaryDictionary.isCorrupted()) {
+                Log.i(TAG, "Dictionary (" + mDictName +") is corrupted. "
+                        + "Remove and regenerate it.");
+                removeBinaryDictionary();
+            }
+            return suggestions;
         } finally {
-            if (lockAcquired) {
-                mLock.readLock().unlock();
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void addSuggestions(final ComposedData composedData,
+            final NgramContext ngramContext, final long proximityInfoHandle,
+            final SettingsValuesForSuggestion settingsValuesForSuggestion, final int sessionId,
+            final float weightForLocale, final float[] inOutWeightOfLangModelVsSpatialModel,
+            final SuggestionResults outResults) {
+        reloadDictionaryIfRequired();
+        final Lock lock = lockForRead("addSuggestions");
+        if (lock == null) {
+            return;
+        }
+        try {
+            final BinaryDictionary binaryDictionary = getBinaryDictionaryForRead(lock);
+            if (binaryDictionary == null) {
+                return;
+            }
+            binaryDictionary.addSuggestions(composedData, ngramContext,
+                    proximityInfoHandle, settingsValuesForSuggestion, sessionId,
+                    weightForLocale, inOutWeightOfLangModelVsSpatialModel, outResults);
+            if (binaryDictionary == mBinaryDictionary && binaryDictionary.isCorrupted()) {
+                Log.i(TAG, "Dictionary (" + mDictName +") is corrupted. "
+                        + "Remove and regenerate it.");
+                removeBinaryDictionary();
             }
+        } finally {
+            lock.unlock();
         }
-        return null;
     }
 
     @Override
     public boolean isInDictionary(final String word) {
         reloadDictionaryIfRequired();
-        boolean lockAcquired = false;
+        final Lock lock = lockForRead("isInDictionary");
+        if (lock == null) {
+            return false;
+        }
         try {
-            lockAcquired = mLock.readLock().tryLock(
-                    TIMEOUT_FOR_READ_OPS_IN_MILLISECONDS, TimeUnit.MILLISECONDS);
-            if (lockAcquired) {
-                if (mBinaryDictionary == null) {
-                    return false;
-                }
-                return isInDictionaryLocked(word);
+            if (lock != mLock.readLock()) {
+                return mSnapshot.isInDictionary(word);
             }
-        } catch (final InterruptedException e) {
-            Log.e(TAG, "Interrupted tryLock() in isInDictionary().", e);
-        } finally {
-            if (lockAcquired) {
-                mLock.readLock().unlock();
+            if (mBinaryDictionary == null) {
+                return false;
             }
+            return isInDictionaryLocked(word);
+        } finally {
+            lock.unlock();
         }
-        return false;
     }
 
     protected boolean isInDictionaryLocked(final String word) {
@@ -492,26 +643,38 @@ abstract public class ExpandableBinaryDictionary extends Dictionary {
     }
 
     @Override
-    public int getMaxFrequencyOfExactMatches(final String word) {
+    public void markValidWords(final String[] words, final boolean[] outIsValid) {
         reloadDictionaryIfRequired();
-        boolean lockAcquired = false;
+        final Lock lock = lockForRead("markValidWords");
+        if (lock == null) {
+            return;
+        }
         try {
-            lockAcquired = mLock.readLock().tryLock(
-                    TIMEOUT_FOR_READ_OPS_IN_MILLISECONDS, TimeUnit.MILLISECONDS);
-            if (lockAcquired) {
-                if (mBinaryDictionary == null) {
-                    return NOT_A_PROBABILITY;
-                }
-                return mBinaryDictionary.getMaxFrequencyOfExactMatches(word);
+            final BinaryDictionary binaryDictionary = getBinaryDictionaryForRead(lock);
+            if (binaryDictionary != null) {
+                binaryDictionary.markValidWords(words, outIsValid);
             }
-        } catch (final InterruptedException e) {
-            Log.e(TAG, "Interrupted tryLock() in getMaxFrequencyOfExactMatches().", e);
         } finally {
-            if (lockAcquired) {
-                mLock.readLock().unlock();
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int getMaxFrequencyOfExactMatches(final String word) {
+        reloadDictionaryIfRequired();
+        final Lock lock = lockForRead("getMaxFrequencyOfExactMatches");
+        if (lock == null) {
+            return NOT_A_PROBABILITY;
+        }
+        try {
+            final BinaryDictionary binaryDictionary = getBinaryDictionaryForRead(lock);
+            if (binaryDictionary == null) {
+                return NOT_A_PROBABILITY;
             }
+            return binaryDictionary.getMaxFrequencyOfExactMatches(word);
+        } finally {
+            lock.unlock();
         }
-        return NOT_A_PROBABILITY;
     }
 
 
@@ -541,8 +704,10 @@ abstract public class ExpandableBinaryDictionary extends Dictionary {
             if (!mBinaryDictionary.migrateTo(DICTIONARY_FORMAT_VERSION)) {
                 Log.e(TAG, "Dictionary migration failed: " + mDictName);
                 removeBinaryDictionaryLocked();
+                return;
             }
         }
+        refreshSnapshotLocked();
     }
 
     /**
@@ -554,6 +719,7 @@ abstract public class ExpandableBinaryDictionary extends Dictionary {
         loadInitialContentsLocked();
         // Run GC and flush to file when initial contents have been loaded.
         mBinaryDictionary.flushWithGCIfHasUpdated();
+        refreshSnapshotLocked();
     }
 
     /**
@@ -562,6 +728,7 @@ abstract public class ExpandableBinaryDictionary extends Dictionary {
      */
     protected void setNeedsToRecreate() {
         mNeedsToRecreate = true;
+        mContentVersion.incrementAndGet();
     }
 
     void clearNeedsToRecreate() {
@@ -583,6 +750,19 @@ abstract public class ExpandableBinaryDictionary extends Dictionary {
         asyncReloadDictionary();
     }
 
+    /**
+     * Returns a future completed once the dictionary has been loaded or created for the first
+     * time. Loading starts with the first lookup or {@link #reloadDictionaryIfRequired()}; any
+     * lookup before completion only sees an empty dictionary.
+     */
+    public CompletableFuture<Void> getLoadedFuture() {
+        return mLoadedFuture;
+    }
+
+    public boolean isLoaded() {
+        return mLoadedFuture.isDone();
+    }
+
     /**
      * Returns whether a dictionary reload is required.
      */
@@ -624,6 +804,7 @@ abstract public class ExpandableBinaryDictionary extends Dictionary {
                     clearNeedsToRecreate();
                 } finally {
                     isReloading.set(false);
+                    mLoadedFuture.complete(null);
                 }
             }
         });
@@ -641,11 +822,15 @@ abstract public class ExpandableBinaryDictionary extends Dictionary {
                 if (binaryDictionary == null) {
                     return;
                 }
+                final boolean hasUpdated = binaryDictionary.hasUpdated();
                 if (binaryDictionary.needsToRunGC(false /* mindsBlockByGC */)) {
                     binaryDictionary.flushWithGCIfHasUpdated();
                 } else {
                     binaryDictionary.flush();
                 }
+                if (hasUpdated) {
+                    refreshSnapshotLocked();
+                }
             }
         });
     }
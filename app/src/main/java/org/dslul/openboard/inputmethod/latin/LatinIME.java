@@ -61,6 +61,7 @@ import org.dslul.openboard.inputmethod.event.InputTransaction;
 import org.dslul.openboard.inputmethod.keyboard.Keyboard;
 import org.dslul.openboard.inputmethod.keyboard.KeyboardActionListener;
 import org.dslul.openboard.inputmethod.keyboard.KeyboardId;
+import org.dslul.openboard.inputmethod.keyboard.KeyboardLoadTimings;
 import org.dslul.openboard.inputmethod.keyboard.KeyboardSwitcher;
 import org.dslul.openboard.inputmethod.keyboard.MainKeyboardView;
 import org.dslul.openboard.inputmethod.latin.Suggest.OnGetSuggestedWordsCallback;
@@ -82,6 +83,7 @@ import org.dslul.openboard.inputmethod.latin.touchinputconsumer.GestureConsumer;
 import org.dslul.openboard.inputmethod.latin.utils.ApplicationUtils;
 import org.dslul.openboard.inputmethod.latin.utils.DeviceProtectedUtils;
 import org.dslul.openboard.inputmethod.latin.utils.DialogUtils;
+import org.dslul.openboard.inputmethod.latin.utils.ExecutorUtils;
 import org.dslul.openboard.inputmethod.latin.utils.IntentUtils;
 import org.dslul.openboard.inputmethod.latin.utils.JniUtils;
 import org.dslul.openboard.inputmethod.latin.utils.LeakGuardHandlerWrapper;
@@ -90,7 +92,9 @@ import org.dslul.openboard.inputmethod.latin.utils.StatsUtilsManager;
 import org.dslul.openboard.inputmethod.latin.utils.SubtypeLocaleUtils;
 import org.dslul.openboard.inputmethod.latin.utils.ViewLayoutUtils;
 
+import java.io.File;
 import java.io.FileDescriptor;
+import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.List;
@@ -119,6 +123,7 @@ public class LatinIME extends InputMethodService implements KeyboardActionListen
     private static final int PENDING_IMS_CALLBACK_DURATION_MILLIS = 800;
     static final long DELAY_WAIT_FOR_DICTIONARY_LOAD_MILLIS = TimeUnit.SECONDS.toMillis(2);
     static final long DELAY_DEALLOCATE_MEMORY_MILLIS = TimeUnit.SECONDS.toMillis(10);
+    static final long DELAY_PREWARM_DICTIONARIES_MILLIS = TimeUnit.SECONDS.toMillis(5);
 
     /**
      * A broadcast intent action to hide the software keyboard.
@@ -220,6 +225,13 @@ public class LatinIME extends InputMethodService implements KeyboardActionListen
 
     private final ClipboardHistoryManager mClipboardHistoryManager = new ClipboardHistoryManager(this);
 
+    // Owns every running AI request, so taps dedupe/supersede each other and nothing outlives
+    // the input view.
+    private final org.dslul.openboard.inputmethod.latin.ai.AiJobScheduler mAiJobScheduler =
+            new org.dslul.openboard.inputmethod.latin.ai.AiJobScheduler();
+    // Created in onCreate; only armed when the user enabled speculative grammar checks.
+    private org.dslul.openboard.inputmethod.latin.ai.SpeculativeGrammarPrefetcher mSpeculativeGrammar;
+
     public final UIHandler mHandler = new UIHandler(this);
 
     public static final class UIHandler extends LeakGuardHandlerWrapper<LatinIME> {
@@ -236,8 +248,9 @@ public class LatinIME extends InputMethodService implements KeyboardActionListen
         private static final int MSG_RESUME_SUGGESTIONS_FOR_START_INPUT = 10;
         private static final int MSG_SWITCH_LANGUAGE_AUTOMATICALLY = 11;
         private static final int MSG_UPDATE_CLIPBOARD_PINNED_CLIPS = 12;
+        private static final int MSG_PREWARM_DICTIONARIES = 13;
         // Update this when adding new messages
-        private static final int MSG_LAST = MSG_UPDATE_CLIPBOARD_PINNED_CLIPS;
+        private static final int MSG_LAST = MSG_PREWARM_DICTIONARIES;
 
         private static final int ARG1_NOT_GESTURE_INPUT = 0;
         private static final int ARG1_DISMISS_GESTURE_FLOATING_PREVIEW_TEXT = 1;
@@ -339,6 +352,16 @@ public class LatinIME extends InputMethodService implements KeyboardActionListen
                     List<ClipboardHistoryEntry> entries = (List<ClipboardHistoryEntry>) msg.obj;
                     latinIme.mClipboardHistoryManager.onPinnedClipsAvailable(entries);
                     break;
+                case MSG_PREWARM_DICTIONARIES:
+                    // Wait for the UI thread to have nothing else to do.
+                    latinIme.getMainLooper().getQueue().addIdleHandler(() -> {
+                        final LatinIME owner = getOwnerInstance();
+                        if (owner != null) {
+                            owner.prewarmNextSubtypeDictionaries();
+                        }
+                        return false;
+                    });
+                    break;
             }
         }
 
@@ -430,6 +453,12 @@ public class LatinIME extends InputMethodService implements KeyboardActionListen
             return hasMessages(MSG_DEALLOCATE_MEMORY);
         }
 
+        public void postPrewarmDictionaries() {
+            removeMessages(MSG_PREWARM_DICTIONARIES);
+            sendMessageDelayed(obtainMessage(MSG_PREWARM_DICTIONARIES),
+                    DELAY_PREWARM_DICTIONARIES_MILLIS);
+        }
+
         @UsedForTesting
         public void removeAllMessages() {
             for (int i = 0; i <= MSG_LAST; ++i) {
@@ -630,11 +659,18 @@ public class LatinIME extends InputMethodService implements KeyboardActionListen
         AccessibilityUtils.init(this);
         mStatsUtilsManager.onCreate(this /* context */, mDictionaryFacilitator);
         super.onCreate();
-        // Expose instance for lightweight access (TemplateSuggester)
+        // Expose instance for lightweight access
         sInstance = this;
 
         mClipboardHistoryManager.onCreate();
         mHandler.onCreate();
+        installLocalModelRuntime();
+        org.dslul.openboard.inputmethod.latin.ai.TemplateSuggester.load(this);
+        mSpeculativeGrammar = new org.dslul.openboard.inputmethod.latin.ai.SpeculativeGrammarPrefetcher(
+                this, mAiJobScheduler, newAiProvider(),
+                org.dslul.openboard.inputmethod.latin.ai.AiResponseCache.getInstance(this),
+                org.dslul.openboard.inputmethod.latin.ai.AiProviderOpenAI.MODEL,
+                () -> newCursorAiRequest(org.dslul.openboard.inputmethod.latin.ai.AiProvider.Action.GRAMMAR));
 
         // TODO: Resolve mutual dependencies of {@link #loadSettings()} and
         // {@link #resetDictionaryFacilitatorIfNecessary()}.
@@ -714,6 +750,24 @@ public class LatinIME extends InputMethodService implements KeyboardActionListen
             mHandler.cancelWaitForDictionaryLoad();
             mHandler.postResumeSuggestions(false /* shouldDelay */);
         }
+        if (isMainDictionaryAvailable) {
+            mHandler.postPrewarmDictionaries();
+        }
+    }
+
+    /**
+     * Opens the main dictionary of the subtype the user would switch to next in the background,
+     * so that switching to it does not wait for the dictionary to load.
+     */
+    void prewarmNextSubtypeDictionaries() {
+        final InputMethodSubtype nextSubtype = mRichImm.getNextSubtypeInThisIme();
+        if (nextSubtype == null) {
+            return;
+        }
+        final Locale locale = SubtypeLocaleUtils.getSubtypeLocale(nextSubtype);
+        if (!locale.equals(mDictionaryFacilitator.getLocale())) {
+            mDictionaryFacilitator.prewarmDictionaries(this, locale);
+        }
     }
 
     void resetDictionaryFacilitatorIfNecessary() {
@@ -729,7 +783,7 @@ public class LatinIME extends InputMethodService implements KeyboardActionListen
         } else {
             subtypeLocale = subtypeSwitcherLocale;
         }
-        if (mDictionaryFacilitator.isForLocale(subtypeLocale)
+        if (mDictionaryFacilitator.isForLocales(subtypeLocale, getAdditionalLocales(subtypeLocale))
                 && mDictionaryFacilitator.isForAccount(mSettings.getCurrent().mAccount)) {
             return;
         }
@@ -746,7 +800,7 @@ public class LatinIME extends InputMethodService implements KeyboardActionListen
     private void resetDictionaryFacilitator(final Locale locale) {
         final SettingsValues settingsValues = mSettings.getCurrent();
         mDictionaryFacilitator.resetDictionaries(this /* context */, locale,
-                false, settingsValues.mUsePersonalizedDicts,
+                getAdditionalLocales(locale), false, settingsValues.mUsePersonalizedDicts,
                 false /* forceReloadMainDictionary */,
                 settingsValues.mAccount, "" /* dictNamePrefix */,
                 this /* DictionaryInitializationListener */);
@@ -757,13 +811,33 @@ public class LatinIME extends InputMethodService implements KeyboardActionListen
         mInputLogic.mSuggest.setPlausibilityThreshold(settingsValues.mPlausibilityThreshold);
     }
 
+    /**
+     * Returns the locales of the other enabled subtypes when multilingual typing is on, so
+     * their dictionaries are loaded along with the one for the given locale.
+     */
+    private List<Locale> getAdditionalLocales(final Locale locale) {
+        final ArrayList<Locale> additionalLocales = new ArrayList<>();
+        if (!mSettings.getCurrent().mMultilingualTypingEnabled) {
+            return additionalLocales;
+        }
+        for (final InputMethodSubtype subtype : mRichImm.getMyEnabledInputMethodSubtypeList(
+                true /* allowsImplicitlySelectedSubtypes */)) {
+            final Locale subtypeLocale = SubtypeLocaleUtils.getSubtypeLocale(subtype);
+            if (!subtypeLocale.equals(locale) && !additionalLocales.contains(subtypeLocale)) {
+                additionalLocales.add(subtypeLocale);
+            }
+        }
+        return additionalLocales;
+    }
+
     /**
      * Reset suggest by loading the main dictionary of the current locale.
      */
     /* package private */ void resetSuggestMainDict() {
         final SettingsValues settingsValues = mSettings.getCurrent();
+        final Locale locale = mDictionaryFacilitator.getLocale();
         mDictionaryFacilitator.resetDictionaries(this /* context */,
-                mDictionaryFacilitator.getLocale(), false,
+                locale, getAdditionalLocales(locale), false,
                 settingsValues.mUsePersonalizedDicts,
                 true /* forceReloadMainDictionary */,
                 settingsValues.mAccount, "" /* dictNamePrefix */,
@@ -773,6 +847,9 @@ public class LatinIME extends InputMethodService implements KeyboardActionListen
     @Override
     public void onDestroy() {
         mClipboardHistoryManager.onDestroy();
+        mSpeculativeGrammar.cancel();
+        mAiJobScheduler.shutdown();
+        org.dslul.openboard.inputmethod.latin.ai.LocalModelRuntimes.install(null);
         mDictionaryFacilitator.closeDictionaries();
         mSettings.onDestroy();
         unregisterReceiver(mHideSoftInputReceiver);
@@ -940,12 +1017,23 @@ public class LatinIME extends InputMethodService implements KeyboardActionListen
             }
             try { showImproveOverlay(seedText); } catch (Throwable ignored) {}
 
+            // Streamed deltas are appended to the overlay at most once per frame.
+            final android.widget.TextView improvedView = mImproveOverlay != null
+                    ? mImproveOverlay.findViewById(org.dslul.openboard.inputmethod.latin.R.id.txt_improved)
+                    : null;
+            final org.dslul.openboard.inputmethod.latin.ime.StreamingTextUpdater streamingUpdater =
+                    improvedView != null
+                            ? new org.dslul.openboard.inputmethod.latin.ime.StreamingTextUpdater(improvedView)
+                            : null;
+
             org.dslul.openboard.inputmethod.latin.ai.AiActionController controller =
                     new org.dslul.openboard.inputmethod.latin.ai.AiActionController(
-                            new org.dslul.openboard.inputmethod.latin.ai.AiProviderOpenAI(getApplicationContext()),
+                            mAiJobScheduler,
+                            newAiProvider(),
                             content -> {
                                 getMainLooper().getQueue().addIdleHandler(() -> {
                                     try {
+                                        if (streamingUpdater != null) streamingUpdater.cancel();
                                         // Update overlay text with final content
                                         final android.view.View current = mImproveOverlay;
                                         if (current != null) {
@@ -959,17 +1047,10 @@ public class LatinIME extends InputMethodService implements KeyboardActionListen
                                 });
                                 return kotlin.Unit.INSTANCE;
                             },
-                            progress -> {
-                                getMainLooper().getQueue().addIdleHandler(() -> {
-                                    try {
-                                        final android.view.View current = mImproveOverlay;
-                                        if (current != null && progress != null) {
-                                            final android.widget.TextView tv2 = current.findViewById(org.dslul.openboard.inputmethod.latin.R.id.txt_improved);
-                                            if (tv2 != null) tv2.setText(progress);
-                                        }
-                                    } catch (Throwable ignored2) {}
-                                    return false;
-                                });
+                            delta -> {
+                                if (streamingUpdater != null && delta != null) {
+                                    streamingUpdater.append(delta);
+                                }
                                 return kotlin.Unit.INSTANCE;
                             }
                     );
@@ -979,15 +1060,23 @@ public class LatinIME extends InputMethodService implements KeyboardActionListen
                     selected != null ? selected.toString() : null,
                     after != null ? after.toString() : "",
                     null,
-                    "You are an AI writing assistant. Improve the following text for grammar, clarity, and style while keeping the original meaning."
+                    "You are an AI writing assistant. Improve the following text for grammar, clarity, and style while keeping the original meaning.",
+                    isAiResponseCacheAllowed(sv)
             );
             return;
         }
 
+        if (action == org.dslul.openboard.inputmethod.latin.ai.AiProvider.Action.GRAMMAR) {
+            final org.dslul.openboard.inputmethod.latin.ai.AiProvider.Request request =
+                    newCursorAiRequest(action);
+            if (request != null) mSpeculativeGrammar.onUserRequest(request);
+        }
+
         // Bridge to Kotlin controller (default behavior)
         org.dslul.openboard.inputmethod.latin.ai.AiActionController controller =
                 new org.dslul.openboard.inputmethod.latin.ai.AiActionController(
-                        new org.dslul.openboard.inputmethod.latin.ai.AiProviderOpenAI(getApplicationContext()),
+                        mAiJobScheduler,
+                        newAiProvider(),
                         content -> {
                             // Commit result on main thread
                             getMainLooper().getQueue().addIdleHandler(() -> {
@@ -999,7 +1088,7 @@ public class LatinIME extends InputMethodService implements KeyboardActionListen
                             });
                             return kotlin.Unit.INSTANCE;
                         },
-                        progress -> {
+                        delta -> {
                             // Optional: could show streaming UI later
                             return kotlin.Unit.INSTANCE;
                         }
@@ -1010,10 +1099,78 @@ public class LatinIME extends InputMethodService implements KeyboardActionListen
                 selected != null ? selected.toString() : null,
                 after != null ? after.toString() : "",
                 null,
-                null
+                null,
+                isAiResponseCacheAllowed(sv)
         );
     }
 
+    /**
+     * The request the action strip sends for {@code action} with the current cursor context, or
+     * null in fields where AI actions are not allowed. Must match what {@link #onAiAction} sends
+     * for non-Improve actions, so speculative results land on the same cache key.
+     */
+    private org.dslul.openboard.inputmethod.latin.ai.AiProvider.Request newCursorAiRequest(
+            final org.dslul.openboard.inputmethod.latin.ai.AiProvider.Action action) {
+        final SettingsValues sv = mSettings.getCurrent();
+        if (sv == null || sv.mInputAttributes == null || sv.mInputAttributes.mIsPasswordField) {
+            return null;
+        }
+        final CharSequence before = mInputLogic.mConnection.getTextBeforeCursor(2048, 0);
+        final CharSequence after = mInputLogic.mConnection.getTextAfterCursor(2048, 0);
+        final CharSequence selected = mInputLogic.mConnection.getSelectedText(0);
+        return new org.dslul.openboard.inputmethod.latin.ai.AiProvider.Request(
+                action,
+                before != null ? before.toString() : "",
+                selected != null ? selected.toString() : null,
+                after != null ? after.toString() : "",
+                null,
+                null,
+                0,
+                isAiResponseCacheAllowed(sv));
+    }
+
+    // Loads the on-device model, if one was placed in the files directory, off the UI thread.
+    private void installLocalModelRuntime() {
+        final File modelFile = new File(getFilesDir(),
+                org.dslul.openboard.inputmethod.latin.ai.LocalModelRuntimes.MODEL_FILE_NAME);
+        ExecutorUtils.getBackgroundExecutor(ExecutorUtils.KEYBOARD).execute(() -> {
+            try {
+                if (org.dslul.openboard.inputmethod.latin.ai.LocalModelRuntimes.installFromFile(
+                        modelFile)) {
+                    Log.i(TAG, "Installed on-device model " + modelFile);
+                }
+            } catch (final IOException e) {
+                Log.w(TAG, "Can't load on-device model " + modelFile, e);
+            }
+        });
+    }
+
+    private org.dslul.openboard.inputmethod.latin.ai.RoutingAiProvider newAiProvider() {
+        final Context appContext = getApplicationContext();
+        final org.dslul.openboard.inputmethod.latin.ai.AiResponseCache cache =
+                org.dslul.openboard.inputmethod.latin.ai.AiResponseCache.getInstance(appContext);
+        final org.dslul.openboard.inputmethod.latin.ai.AiProvider remote =
+                new org.dslul.openboard.inputmethod.latin.ai.CachingAiProvider(
+                        new org.dslul.openboard.inputmethod.latin.ai.AiProviderOpenAI(appContext),
+                        cache,
+                        org.dslul.openboard.inputmethod.latin.ai.AiProviderOpenAI.MODEL);
+        // The local runtime is looked up per request: it may finish loading after this provider
+        // was created, and until it does everything goes to the relay.
+        return new org.dslul.openboard.inputmethod.latin.ai.RoutingAiProvider(remote,
+                new org.dslul.openboard.inputmethod.latin.ai.AiProviderOnDevice(
+                        org.dslul.openboard.inputmethod.latin.ai.LocalModelRuntimes::installed),
+                cache,
+                org.dslul.openboard.inputmethod.latin.ai.RoutingAiProvider.linkStateOf(appContext));
+    }
+
+    // Replies for fields that opted out of learning, or that hold addresses/URIs, are never
+    // cached, so their text does not outlive the request.
+    private static boolean isAiResponseCacheAllowed(final SettingsValues sv) {
+        if (sv == null || sv.mInputAttributes == null) return false;
+        final InputAttributes attrs = sv.mInputAttributes;
+        return !attrs.mIsPasswordField && !attrs.mNoLearning && attrs.mIsGeneralTextInput;
+    }
+
     private void showImproveOverlay(final String improvedText) {
         try {
             if (mInputView == null) return;
@@ -1228,6 +1385,8 @@ public class LatinIME extends InputMethodService implements KeyboardActionListen
     public void onFinishInputView(final boolean finishingInput) {
         StatsUtils.onFinishInputView();
         mHandler.onFinishInputView(finishingInput);
+        mAiJobScheduler.cancelAll();
+        mSpeculativeGrammar.cancel();
         mStatsUtilsManager.onFinishInputView();
         mGestureConsumer = GestureConsumer.NULL_GESTURE_CONSUMER;
     }
@@ -1415,6 +1574,10 @@ public class LatinIME extends InputMethodService implements KeyboardActionListen
                     aiStrip.setVisibility(isAlphabet ? View.VISIBLE : View.GONE);
                     // Update window insets so the host app content isn't obscured/over-inset.
                     updateSoftInputWindowLayoutParameters();
+                    // Warm up the AI connection while the user is still reading the strip.
+                    if (isAlphabet) {
+                        org.dslul.openboard.inputmethod.latin.ai.AiHttpClient.preconnect(getApplicationContext());
+                    }
                 }
             } catch (Throwable ignored) {}
         } else if (restarting) {
@@ -2042,11 +2205,13 @@ public class LatinIME extends InputMethodService implements KeyboardActionListen
             }
         } catch (Throwable ignored) {}
 
-        // Determine if we should force-show the strip for Templates (now guarded by non-empty tail)
-        org.dslul.openboard.inputmethod.latin.ai.TemplateSuggester tsForVisibility =
-                org.dslul.openboard.inputmethod.latin.ai.TemplateSuggester.INSTANCE;
-        CharSequence beforeForVisibility = mInputLogic.mConnection.getTextBeforeCursor(64, 0);
-        SuggestedWords templateSuggestionsForVisibility = tsForVisibility.suggestionsFor(beforeForVisibility, 3);
+        // Determine if we should force-show the strip for Templates (now guarded by non-empty tail).
+        // Queried once per update from the cached text, so this never costs an IPC round trip.
+        SuggestedWords templateSuggestions = null;
+        try {
+            templateSuggestions = org.dslul.openboard.inputmethod.latin.ai.TemplateSuggester.INSTANCE
+                    .suggestionsFor(mInputLogic.mConnection.getCachedTextBeforeCursor(64), 3);
+        } catch (Throwable ignored) {}
 
         final boolean shouldShowSuggestionCandidates =
                 currentSettingsValues.mInputAttributes.mShouldShowSuggestions
@@ -2055,7 +2220,7 @@ public class LatinIME extends InputMethodService implements KeyboardActionListen
                 || currentSettingsValues.mShowsClipboardKey
                 || shouldShowSuggestionCandidates
                 || currentSettingsValues.isApplicationSpecifiedCompletionsOn()
-                || (templateSuggestionsForVisibility != null && !templateSuggestionsForVisibility.isEmpty());
+                || (templateSuggestions != null && !templateSuggestions.isEmpty());
         final boolean shouldShowSuggestionsStrip = shouldShowSuggestionsStripUnlessPassword
                 && (!currentSettingsValues.mInputAttributes.mIsPasswordField || currentSettingsValues.mShowsClipboardKey);
         mSuggestionStripView.updateVisibility(shouldShowSuggestionsStrip, isFullscreenMode());
@@ -2064,17 +2229,11 @@ public class LatinIME extends InputMethodService implements KeyboardActionListen
         }
 
         // If templates match the last token, show them instead of normal suggestions
-        try {
-            org.dslul.openboard.inputmethod.latin.ai.TemplateSuggester ts =
-                    org.dslul.openboard.inputmethod.latin.ai.TemplateSuggester.INSTANCE;
-            CharSequence before = mInputLogic.mConnection.getTextBeforeCursor(64, 0);
-            SuggestedWords templateSuggestions = ts.suggestionsFor(before, 3);
-            if (templateSuggestions != null && !templateSuggestions.isEmpty()) {
-                mSuggestionStripView.setSuggestions(templateSuggestions,
-                        mRichImm.getCurrentSubtype().isRtlSubtype());
-                return;
-            }
-        } catch (Throwable ignored) {}
+        if (templateSuggestions != null && !templateSuggestions.isEmpty()) {
+            mSuggestionStripView.setSuggestions(templateSuggestions,
+                    mRichImm.getCurrentSubtype().isRtlSubtype());
+            return;
+        }
 
         final boolean isEmptyApplicationSpecifiedCompletions =
                 currentSettingsValues.isApplicationSpecifiedCompletionsOn()
@@ -2191,6 +2350,9 @@ public class LatinIME extends InputMethodService implements KeyboardActionListen
         }
         if (inputTransaction.didAffectContents()) {
             mSubtypeState.setCurrentSubtypeHasBeenUsed();
+            if (inputTransaction.getMSettingsValues().mAiSpeculativeGrammarEnabled) {
+                mSpeculativeGrammar.onContentsChanged();
+            }
         }
     }
 
@@ -2456,6 +2618,14 @@ public class LatinIME extends InputMethodService implements KeyboardActionListen
         final SettingsValues settingsValues = mSettings.getCurrent();
         p.println(settingsValues.dump());
         p.println(mDictionaryFacilitator.dump(this /* context */));
+        final MainKeyboardView mainKeyboardView = mKeyboardSwitcher.getMainKeyboardView();
+        if (mainKeyboardView != null) {
+            p.println(mainKeyboardView.dumpGestureTrailFrameTimes());
+        }
+        p.println(KeyboardLoadTimings.dump());
+        if (mSpeculativeGrammar != null) {
+            p.println(mSpeculativeGrammar.dump());
+        }
         // TODO: Dump all settings values
     }
 
@@ -108,6 +108,11 @@ public class NgramContext {
 
     private final int mMaxPrevWordCount;
 
+    private static final int[] EMPTY_CODE_POINT_ARRAY = new int[0];
+    // Code points of the previous words, computed on the first call to outputToArray(). Racing
+    // threads compute the same arrays, so whichever write wins is fine.
+    private volatile int[][] mPrevWordCodePointArrays;
+
     // Construct from the previous word information.
     public NgramContext(final WordInfo... prevWordsInfo) {
         this(DecoderSpecificConstants.MAX_PREV_WORD_COUNT_FOR_N_GRAM, prevWordsInfo);
@@ -205,17 +210,32 @@ public class NgramContext {
         return mPrevWordsInfo[n - 1].mIsBeginningOfSentence;
     }
 
+    /**
+     * Outputs the code points and beginning-of-sentence flags of the previous words.
+     *
+     * The code point arrays are computed once per context and shared between calls, so they
+     * must not be modified.
+     */
     public void outputToArray(final int[][] codePointArrays,
             final boolean[] isBeginningOfSentenceArray) {
+        int[][] prevWordCodePointArrays = mPrevWordCodePointArrays;
+        if (prevWordCodePointArrays == null) {
+            prevWordCodePointArrays = new int[mPrevWordsCount][];
+            for (int i = 0; i < mPrevWordsCount; i++) {
+                final WordInfo wordInfo = mPrevWordsInfo[i];
+                if (wordInfo == null || !wordInfo.isValid()) {
+                    prevWordCodePointArrays[i] = EMPTY_CODE_POINT_ARRAY;
+                    continue;
+                }
+                prevWordCodePointArrays[i] = StringUtils.toCodePointArray(wordInfo.mWord);
+            }
+            mPrevWordCodePointArrays = prevWordCodePointArrays;
+        }
         for (int i = 0; i < mPrevWordsCount; i++) {
             final WordInfo wordInfo = mPrevWordsInfo[i];
-            if (wordInfo == null || !wordInfo.isValid()) {
-                codePointArrays[i] = new int[0];
-                isBeginningOfSentenceArray[i] = false;
-                continue;
-            }
-            codePointArrays[i] = StringUtils.toCodePointArray(wordInfo.mWord);
-            isBeginningOfSentenceArray[i] = wordInfo.mIsBeginningOfSentence;
+            codePointArrays[i] = prevWordCodePointArrays[i];
+            isBeginningOfSentenceArray[i] = wordInfo != null && wordInfo.isValid()
+                    && wordInfo.mIsBeginningOfSentence;
         }
     }
 
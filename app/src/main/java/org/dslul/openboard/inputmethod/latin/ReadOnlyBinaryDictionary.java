@@ -19,8 +19,10 @@ package org.dslul.openboard.inputmethod.latin;
 import org.dslul.openboard.inputmethod.latin.SuggestedWords.SuggestedWordInfo;
 import org.dslul.openboard.inputmethod.latin.common.ComposedData;
 import org.dslul.openboard.inputmethod.latin.settings.SettingsValuesForSuggestion;
+import org.dslul.openboard.inputmethod.latin.utils.SuggestionResults;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Locale;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
@@ -67,6 +69,24 @@ public final class ReadOnlyBinaryDictionary extends Dictionary {
         return null;
     }
 
+    @Override
+    public void addSuggestions(final ComposedData composedData,
+            final NgramContext ngramContext, final long proximityInfoHandle,
+            final SettingsValuesForSuggestion settingsValuesForSuggestion,
+            final int sessionId, final float weightForLocale,
+            final float[] inOutWeightOfLangModelVsSpatialModel,
+            final SuggestionResults outResults) {
+        if (mLock.readLock().tryLock()) {
+            try {
+                mBinaryDictionary.addSuggestions(composedData, ngramContext,
+                        proximityInfoHandle, settingsValuesForSuggestion, sessionId,
+                        weightForLocale, inOutWeightOfLangModelVsSpatialModel, outResults);
+            } finally {
+                mLock.readLock().unlock();
+            }
+        }
+    }
+
     @Override
     public boolean isInDictionary(final String word) {
         if (mLock.readLock().tryLock()) {
@@ -103,6 +123,30 @@ public final class ReadOnlyBinaryDictionary extends Dictionary {
         return NOT_A_PROBABILITY;
     }
 
+    @Override
+    public void getFrequencies(final String[] words, final int[] outFrequencies) {
+        if (mLock.readLock().tryLock()) {
+            try {
+                mBinaryDictionary.getFrequencies(words, outFrequencies);
+                return;
+            } finally {
+                mLock.readLock().unlock();
+            }
+        }
+        Arrays.fill(outFrequencies, 0, words.length, NOT_A_PROBABILITY);
+    }
+
+    @Override
+    public void markValidWords(final String[] words, final boolean[] outIsValid) {
+        if (mLock.readLock().tryLock()) {
+            try {
+                mBinaryDictionary.markValidWords(words, outIsValid);
+            } finally {
+                mLock.readLock().unlock();
+            }
+        }
+    }
+
     @Override
     public int getMaxFrequencyOfExactMatches(final String word) {
         if (mLock.readLock().tryLock()) {
@@ -398,6 +398,23 @@ public final class RichInputConnection implements PrivateCommandPerformer {
         return Character.codePointBefore(mCommittedTextBeforeComposingText, length);
     }
 
+    /**
+     * Returns up to n characters before the cursor from the cached text only. Unlike
+     * {@link #getTextBeforeCursor(int, int)} this never calls into the editor, so the result
+     * may be shorter than what the editor holds. Must be called on the main thread.
+     */
+    public CharSequence getCachedTextBeforeCursor(final int n) {
+        final int committedLength = mCommittedTextBeforeComposingText.length();
+        final int composingLength = mComposingText.length();
+        final int start = Math.max(0, committedLength + composingLength - n);
+        final StringBuilder s = new StringBuilder(Math.min(n, committedLength + composingLength));
+        if (start < committedLength) {
+            s.append(mCommittedTextBeforeComposingText, start, committedLength);
+        }
+        s.append(mComposingText, Math.max(0, start - committedLength), composingLength);
+        return s;
+    }
+
     public CharSequence getTextBeforeCursor(final int n, final int flags) {
         final int cachedLength =
                 mCommittedTextBeforeComposingText.length() + mComposingText.length();
@@ -163,6 +163,23 @@ public class RichInputMethodManager {
         return true;
     }
 
+    /**
+     * Returns the enabled subtype of this IME after the current one, wrapping around, or null if
+     * there is no other one.
+     */
+    @Nullable
+    public InputMethodSubtype getNextSubtypeInThisIme() {
+        final InputMethodSubtype currentSubtype =
+                mImmWrapper.mImm.getCurrentInputMethodSubtype();
+        final List<InputMethodSubtype> enabledSubtypes = getMyEnabledInputMethodSubtypeList(
+                true /* allowsImplicitlySelectedSubtypes */);
+        final int currentIndex = getSubtypeIndexInList(currentSubtype, enabledSubtypes);
+        if (currentIndex == INDEX_NOT_FOUND || enabledSubtypes.size() < 2) {
+            return null;
+        }
+        return enabledSubtypes.get((currentIndex + 1) % enabledSubtypes.size());
+    }
+
     private boolean switchToNextInputMethodAndSubtype(final IBinder token) {
         final InputMethodManager imm = mImmWrapper.mImm;
         final List<InputMethodInfo> enabledImis = imm.getEnabledInputMethodList();
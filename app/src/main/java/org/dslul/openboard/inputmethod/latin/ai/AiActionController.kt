@@ -1,17 +1,18 @@
 package org.dslul.openboard.inputmethod.latin.ai
 
-import kotlinx.coroutines.CoroutineScope
-import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.Job
-import kotlinx.coroutines.flow.collect
-import kotlinx.coroutines.launch
 
+/**
+ * Runs one AI action on the IME's [AiJobScheduler] and reports the streamed reply.
+ * [progressCallback] receives only the text appended by each chunk, [commitCallback] the full
+ * reply once the stream is done.
+ */
 class AiActionController(
+    private val scheduler: AiJobScheduler,
     private val provider: AiProvider,
     private val commitCallback: (String) -> Unit,
     private val progressCallback: (String) -> Unit = {}
 ) {
-    private val scope = CoroutineScope(Dispatchers.IO)
     private var job: Job? = null
 
     fun runGrammar(textBefore: String, selected: String?, textAfter: String) {
@@ -31,7 +32,8 @@ class AiActionController(
         selected: String?,
         textAfter: String,
         targetLang: String? = null,
-        customPrompt: String? = null
+        customPrompt: String? = null,
+        allowCache: Boolean = true
     ) {
         execute(
             AiProvider.Request(
@@ -40,7 +42,8 @@ class AiActionController(
                 selectedText = selected,
                 textAfterCursor = textAfter,
                 targetLanguage = targetLang,
-                customPrompt = customPrompt
+                customPrompt = customPrompt,
+                allowCache = allowCache
             )
         )
     }
@@ -51,33 +54,6 @@ class AiActionController(
 
     private fun execute(req: AiProvider.Request) {
         job?.cancel()
-        job = scope.launch {
-            val builder = StringBuilder()
-            provider.stream(req).collect { chunk ->
-                if (chunk.content.isNotEmpty()) {
-                    builder.append(parseDelta(chunk.content))
-                    progressCallback(builder.toString())
-                }
-                if (chunk.isDone) {
-                    commitCallback(builder.toString())
-                }
-            }
-        }
-    }
-
-    // The relay is expected to forward SSE JSON lines similar to OpenAI; we extract delta content.
-    private fun parseDelta(raw: String): String {
-        return try {
-            val obj = org.json.JSONObject(raw)
-            val choices = obj.optJSONArray("choices")
-            if (choices != null && choices.length() > 0) {
-                val delta = choices.getJSONObject(0).optJSONObject("delta")
-                delta?.optString("content").orEmpty()
-            } else obj.optString("content")
-        } catch (t: Throwable) {
-            ""
-        }
+        job = scheduler.submit(provider, req, progressCallback, commitCallback)
     }
 }
-
-
@@ -0,0 +1,167 @@
+package org.dslul.openboard.inputmethod.latin.ai
+
+/**
+ * Picks the text around the cursor that goes into an AI prompt, measured in (estimated)
+ * tokens rather than characters.
+ *
+ * Context is split into sentences and lines, then taken outwards from the cursor whole
+ * segment by segment until the action's budget is spent, so the prompt never starts or ends
+ * mid-sentence unless the sentence touching the cursor alone is over budget. For replies,
+ * where the text is only context, quoted lines (`> ...`) and segments repeated further from
+ * the cursor are dropped. Selected text is what gets rewritten and is passed through as is.
+ * [AiProvider.Request.tokenBudget] overrides the per-action [defaultBudget].
+ *
+ * Pure JVM code, no Android dependencies.
+ */
+object AiContextBuilder {
+    data class Window(val before: String, val selected: String?, val after: String)
+
+    // Share of the budget given to text before the cursor when there is no selection.
+    private const val BEFORE_SHARE_PERCENT = 75
+    // Letters per token for alphabetic runs; a rough fit for BPE vocabularies on Latin text.
+    private const val CHARS_PER_TOKEN = 4
+    // Ideographs and other wide scripts mostly map to one token per char.
+    private const val FIRST_WIDE_SCRIPT_CHAR = 0x2E80
+
+    @JvmStatic
+    fun defaultBudget(action: AiProvider.Action): Int = when (action) {
+        AiProvider.Action.GRAMMAR -> 1000
+        AiProvider.Action.IMPROVE -> 1500
+        AiProvider.Action.TRANSLATE -> 1500
+        AiProvider.Action.REPLY -> 1000
+        AiProvider.Action.CUSTOM -> 1000
+    }
+
+    @JvmStatic
+    fun build(request: AiProvider.Request): Window {
+        val selected = request.selectedText
+        if (selected?.isNotBlank() == true) return Window("", selected, "")
+        val budget = if (request.tokenBudget > 0) request.tokenBudget else defaultBudget(request.action)
+        val dropNoise = request.action == AiProvider.Action.REPLY
+        val before = fitBefore(request.textBeforeCursor, budget * BEFORE_SHARE_PERCENT / 100, dropNoise)
+        val after = fitAfter(request.textAfterCursor, budget - estimateTokens(before), dropNoise)
+        return Window(before, null, after)
+    }
+
+    @JvmStatic
+    @JvmOverloads
+    fun estimateTokens(text: CharSequence, start: Int = 0, end: Int = text.length): Int {
+        var tokens = 0
+        var run = 0
+        for (i in start until end) {
+            val c = text[i]
+            if (Character.isLetterOrDigit(c) && c.code < FIRST_WIDE_SCRIPT_CHAR) {
+                run++
+                continue
+            }
+            tokens += (run + CHARS_PER_TOKEN - 1) / CHARS_PER_TOKEN
+            run = 0
+            if (Character.isWhitespace(c) || Character.isLowSurrogate(c)) continue
+            tokens++
+        }
+        return tokens + (run + CHARS_PER_TOKEN - 1) / CHARS_PER_TOKEN
+    }
+
+    private fun fitBefore(text: String, budget: Int, dropNoise: Boolean): String {
+        if (budget <= 0 || text.isEmpty()) return ""
+        if (!dropNoise && estimateTokens(text) <= budget) return text
+        val bounds = segmentBounds(text)
+        val seen = HashSet<String>()
+        val kept = ArrayList<String>()
+        var used = 0
+        for (s in bounds.size - 2 downTo 0) {
+            val segment = text.substring(bounds[s], bounds[s + 1])
+            if (dropNoise && isNoise(segment, seen)) continue
+            val cost = estimateTokens(segment)
+            if (used + cost > budget) {
+                if (kept.isEmpty()) kept.add(segment.substring(tailStartWithin(segment, budget)))
+                break
+            }
+            kept.add(segment)
+            used += cost
+        }
+        kept.reverse()
+        return kept.joinToString("")
+    }
+
+    private fun fitAfter(text: String, budget: Int, dropNoise: Boolean): String {
+        if (budget <= 0 || text.isEmpty()) return ""
+        if (!dropNoise && estimateTokens(text) <= budget) return text
+        val bounds = segmentBounds(text)
+        val seen = HashSet<String>()
+        val sb = StringBuilder()
+        var used = 0
+        for (s in 0 until bounds.size - 1) {
+            val segment = text.substring(bounds[s], bounds[s + 1])
+            if (dropNoise && isNoise(segment, seen)) continue
+            val cost = estimateTokens(segment)
+            if (used + cost > budget) {
+                if (sb.isEmpty()) sb.append(segment, 0, headEndWithin(segment, budget))
+                break
+            }
+            sb.append(segment)
+            used += cost
+        }
+        return sb.toString()
+    }
+
+    /**
+     * Quoted lines, and segments already kept closer to the cursor. Blank segments are never
+     * noise: they hold the line breaks between the kept segments, and cost no tokens.
+     */
+    private fun isNoise(segment: String, seen: MutableSet<String>): Boolean {
+        val trimmed = segment.trim()
+        if (trimmed.isEmpty()) return false
+        if (trimmed[0] == '>') return true
+        return !seen.add(trimmed.lowercase())
+    }
+
+    /**
+     * Returns segment start offsets plus the text length: a segment ends after a line break,
+     * or after sentence-final punctuation and the whitespace following it.
+     */
+    internal fun segmentBounds(text: String): IntArray {
+        val bounds = ArrayList<Int>()
+        bounds.add(0)
+        var i = 0
+        val length = text.length
+        while (i < length) {
+            val c = text[i]
+            i++
+            val endsSentence = (c == '.' || c == '!' || c == '?' || c == '…')
+                    && i < length && Character.isWhitespace(text[i])
+            if (c != '\n' && !endsSentence) continue
+            while (i < length && text[i] != '\n' && Character.isWhitespace(text[i])) i++
+            if (i < length && bounds[bounds.size - 1] != i) bounds.add(i)
+        }
+        bounds.add(length)
+        return bounds.toIntArray()
+    }
+
+    /** Smallest start such that [segment] from there fits the budget, moved to a word start. */
+    private fun tailStartWithin(segment: String, budget: Int): Int {
+        var low = 0
+        var high = segment.length
+        while (low < high) {
+            val mid = (low + high) ushr 1
+            if (estimateTokens(segment, mid, segment.length) <= budget) high = mid else low = mid + 1
+        }
+        var start = low
+        while (start in 1 until segment.length && !Character.isWhitespace(segment[start - 1])) start++
+        // A single over-long word: cut it rather than send nothing.
+        return if (start < segment.length) start else low
+    }
+
+    /** Largest end such that [segment] up to there fits the budget, moved back to a word end. */
+    private fun headEndWithin(segment: String, budget: Int): Int {
+        var low = 0
+        var high = segment.length
+        while (low < high) {
+            val mid = (low + high + 1) ushr 1
+            if (estimateTokens(segment, 0, mid) <= budget) low = mid else high = mid - 1
+        }
+        var end = low
+        while (end in 1 until segment.length && !Character.isWhitespace(segment[end])) end--
+        return if (end > 0) end else low
+    }
+}
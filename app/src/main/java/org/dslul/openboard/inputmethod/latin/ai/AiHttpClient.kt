@@ -0,0 +1,121 @@
+package org.dslul.openboard.inputmethod.latin.ai
+
+import android.content.Context
+import android.os.SystemClock
+import okhttp3.Call
+import okhttp3.Callback
+import okhttp3.ConnectionPool
+import okhttp3.Interceptor
+import okhttp3.OkHttpClient
+import okhttp3.Protocol
+import okhttp3.Response
+import okhttp3.Request as OkRequest
+import java.io.IOException
+import java.util.concurrent.TimeUnit
+
+/**
+ * Process-wide transport for all AI providers. Every caller shares one connection pool and
+ * dispatcher, so consecutive Reply/Improve/Grammar taps reuse the same TLS/HTTP/2 connection
+ * instead of paying DNS + handshake on each action. Per-caller variations (timeouts) should be
+ * derived with [OkHttpClient.newBuilder], which keeps the shared pool and dispatcher.
+ */
+object AiHttpClient {
+    const val BASE_URL = "https://api.openai.com"
+
+    private const val KEEP_ALIVE_MINUTES = 5L
+    private const val MAX_IDLE_CONNECTIONS = 2
+    // Don't pre-connect more often than this; a pooled connection stays warm much longer.
+    private val PRECONNECT_INTERVAL_MILLIS = TimeUnit.SECONDS.toMillis(60)
+
+    @Volatile private var sClient: OkHttpClient? = null
+    @Volatile private var sPreconnectClient: OkHttpClient? = null
+    @Volatile private var sLastPreconnectMillis = 0L
+
+    @JvmStatic
+    fun get(context: Context): OkHttpClient {
+        sClient?.let { return it }
+        synchronized(this) {
+            sClient?.let { return it }
+            return newHttpClient(context.applicationContext).also { sClient = it }
+        }
+    }
+
+    /**
+     * The shared client without its interceptors: same pool and dispatcher, so the connection it
+     * opens is the one the next call reuses, but no API key is attached to the warm-up request.
+     */
+    private fun getPreconnectClient(context: Context): OkHttpClient {
+        sPreconnectClient?.let { return it }
+        synchronized(this) {
+            sPreconnectClient?.let { return it }
+            return get(context).newBuilder()
+                .apply { interceptors().clear() }
+                .build()
+                .also { sPreconnectClient = it }
+        }
+    }
+
+    /**
+     * Opens (or refreshes) a pooled connection to the AI endpoint in the background, so the
+     * first streamed request after the action strip appears skips DNS, TLS and ALPN.
+     * The warm-up request is unauthenticated. Cheap to call repeatedly; calls are throttled and
+     * failures are ignored.
+     */
+    @JvmStatic
+    fun preconnect(context: Context) {
+        val now = SystemClock.elapsedRealtime()
+        if (sLastPreconnectMillis != 0L && now - sLastPreconnectMillis < PRECONNECT_INTERVAL_MILLIS) {
+            return
+        }
+        sLastPreconnectMillis = now
+        val req = OkRequest.Builder()
+            .url(BASE_URL)
+            .head()
+            .build()
+        getPreconnectClient(context).newCall(req).enqueue(object : Callback {
+            override fun onFailure(call: Call, e: IOException) {
+                // Allow the next attempt right away; the real request will connect by itself.
+                sLastPreconnectMillis = 0L
+            }
+
+            override fun onResponse(call: Call, response: Response) {
+                response.close()
+            }
+        })
+    }
+
+    private fun newHttpClient(context: Context): OkHttpClient {
+        // Resolve the key per request, so a key saved after the client was built is honoured.
+        val authInterceptor = Interceptor { chain ->
+            val apiKey = ApiKeyProvider.getOpenAiKey(context)
+            val builder = chain.request().newBuilder()
+                .header("Content-Type", "application/json")
+            if (!apiKey.isNullOrBlank()) {
+                builder.header("Authorization", "Bearer $apiKey")
+            }
+            chain.proceed(builder.build())
+        }
+
+        val retry429Interceptor = Interceptor { chain ->
+            var attempt = 0
+            var resp: Response = chain.proceed(chain.request())
+            while (resp.code == 429 && attempt < 1) {
+                resp.close()
+                attempt++
+                try { Thread.sleep(800L * (1 shl attempt)) } catch (_: InterruptedException) { }
+                resp = chain.proceed(chain.request())
+            }
+            resp
+        }
+
+        return OkHttpClient.Builder()
+            .connectionPool(ConnectionPool(MAX_IDLE_CONNECTIONS, KEEP_ALIVE_MINUTES, TimeUnit.MINUTES))
+            .protocols(listOf(Protocol.HTTP_2, Protocol.HTTP_1_1))
+            .connectTimeout(15, TimeUnit.SECONDS)
+            .readTimeout(15, TimeUnit.SECONDS)
+            .retryOnConnectionFailure(true)
+            .addInterceptor(authInterceptor)
+            .addInterceptor(retry429Interceptor)
+            .build()
+    }
+}
@@ -0,0 +1,135 @@
+package org.dslul.openboard.inputmethod.latin.ai
+
+import android.util.Log
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.CoroutineDispatcher
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.CoroutineStart
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.cancel
+import kotlinx.coroutines.currentCoroutineContext
+import kotlinx.coroutines.ensureActive
+import kotlinx.coroutines.launch
+
+/**
+ * IME-scoped owner of every running AI request.
+ *
+ * - An identical request that is still streaming is not started again: the new caller takes
+ *   over the running stream and first receives everything streamed so far.
+ * - At most [maxConcurrentPerAction] streams run per [AiProvider.Action]; submitting another
+ *   cancels the oldest one, which closes its underlying EventSource.
+ * - A cancelled stream never reaches its commit callback, so superseded replies can't be
+ *   committed over newer ones.
+ *
+ * The IME calls [cancelAll] when its input view goes away and [shutdown] on destroy.
+ */
+class AiJobScheduler @JvmOverloads constructor(
+    private val maxConcurrentPerAction: Int = 1,
+    dispatcher: CoroutineDispatcher = Dispatchers.IO
+) {
+    private class InFlight(val request: AiProvider.Request) {
+        lateinit var job: Job
+        // Both guarded by this
+        val reply = StringBuilder()
+        var onDelta: (String) -> Unit = {}
+        var onCommit: (String) -> Unit = {}
+    }
+
+    private val scope = CoroutineScope(SupervisorJob() + dispatcher)
+    // Guarded by itself
+    private val inFlight = ArrayList<InFlight>()
+
+    fun submit(
+        provider: AiProvider,
+        request: AiProvider.Request,
+        onDelta: (String) -> Unit,
+        onCommit: (String) -> Unit
+    ): Job {
+        synchronized(inFlight) {
+            val running = inFlight.firstOrNull { it.request == request && it.job.isActive }
+            if (running != null) {
+                synchronized(running) {
+                    running.onDelta = onDelta
+                    running.onCommit = onCommit
+                    if (running.reply.isNotEmpty()) onDelta(running.reply.toString())
+                }
+                return running.job
+            }
+            var excess = inFlight.count { it.request.action == request.action } -
+                    maxConcurrentPerAction + 1
+            val iterator = inFlight.iterator()
+            while (excess > 0 && iterator.hasNext()) {
+                val entry = iterator.next()
+                if (entry.request.action != request.action) continue
+                entry.job.cancel()
+                iterator.remove()
+                excess--
+            }
+            val entry = InFlight(request)
+            entry.onDelta = onDelta
+            entry.onCommit = onCommit
+            entry.job = scope.launch(start = CoroutineStart.LAZY) { run(provider, entry) }
+            entry.job.invokeOnCompletion {
+                synchronized(inFlight) { inFlight.remove(entry) }
+            }
+            inFlight.add(entry)
+            entry.job.start()
+            return entry.job
+        }
+    }
+
+    fun isRunning(action: AiProvider.Action): Boolean {
+        synchronized(inFlight) {
+            return inFlight.any { it.request.action == action && it.job.isActive }
+        }
+    }
+
+    /** Cancels every running request; used when the input view is finished. */
+    fun cancelAll() {
+        synchronized(inFlight) {
+            for (entry in inFlight) entry.job.cancel()
+            inFlight.clear()
+        }
+    }
+
+    /** Cancels everything and refuses further work. */
+    fun shutdown() {
+        cancelAll()
+        scope.cancel()
+    }
+
+    private suspend fun run(provider: AiProvider, entry: InFlight) {
+        try {
+            provider.stream(entry.request).collect { chunk ->
+                if (chunk.content.isNotEmpty()) {
+                    synchronized(entry) {
+                        val start = entry.reply.length
+                        if (StreamDeltaParser.appendDelta(chunk.content, entry.reply) > 0) {
+                            entry.onDelta(entry.reply.substring(start))
+                        }
+                    }
+                }
+                if (chunk.isDone) {
+                    currentCoroutineContext().ensureActive()
+                    val reply: String
+                    val onCommit: (String) -> Unit
+                    synchronized(entry) {
+                        reply = entry.reply.toString()
+                        onCommit = entry.onCommit
+                    }
+                    onCommit(reply)
+                }
+            }
+        } catch (e: CancellationException) {
+            throw e
+        } catch (e: Throwable) {
+            Log.w(TAG, "AI request failed: " + entry.request.action, e)
+        }
+    }
+
+    companion object {
+        private const val TAG = "AiJobScheduler"
+    }
+}
@@ -0,0 +1,33 @@
+package org.dslul.openboard.inputmethod.latin.ai
+
+/** Prompt text shared by every [AiProvider], so remote and local models see the same input. */
+object AiPrompts {
+    @JvmStatic
+    fun instructionFor(action: AiProvider.Action, targetLanguage: String?, custom: String?): String {
+        return when (action) {
+            AiProvider.Action.GRAMMAR -> "Fix grammar, spelling, and clarity. Preserve meaning. Return only the corrected text."
+            AiProvider.Action.IMPROVE -> "Improve tone and clarity while preserving meaning. Return only the improved text."
+            AiProvider.Action.REPLY -> "Draft a concise, polite reply. Return only the reply text."
+            AiProvider.Action.TRANSLATE -> "Translate to ${targetLanguage ?: "English"}. Return only the translation."
+            AiProvider.Action.CUSTOM -> custom ?: ""
+        }
+    }
+
+    @JvmStatic
+    fun build(request: AiProvider.Request): String {
+        val window = AiContextBuilder.build(request)
+        return buildString {
+            append(instructionFor(request.action, request.targetLanguage, request.customPrompt))
+            append("\n\n")
+            if (window.selected != null) {
+                append("Selected:\n")
+                append(window.selected)
+            } else {
+                append("Context before:\n")
+                append(window.before)
+                append("\n\nContext after:\n")
+                append(window.after)
+            }
+        }
+    }
+}
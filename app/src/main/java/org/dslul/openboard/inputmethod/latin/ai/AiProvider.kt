@@ -10,7 +10,10 @@ interface AiProvider {
         val textAfterCursor: String,
         val targetLanguage: String? = null,
         val customPrompt: String? = null,
-        val truncateAtChars: Int = 3000
+        /** Prompt context budget in estimated tokens; 0 uses [AiContextBuilder.defaultBudget]. */
+        val tokenBudget: Int = 0,
+        /** False for sensitive fields: the reply must neither be served from nor kept in a cache. */
+        val allowCache: Boolean = true
     )
 
     enum class Action { REPLY, IMPROVE, GRAMMAR, TRANSLATE, CUSTOM }
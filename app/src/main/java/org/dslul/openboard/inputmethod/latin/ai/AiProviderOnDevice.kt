@@ -0,0 +1,55 @@
+package org.dslul.openboard.inputmethod.latin.ai
+
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.channels.trySendBlocking
+import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.channelFlow
+import kotlinx.coroutines.flow.flowOn
+import kotlinx.coroutines.isActive
+import org.json.JSONObject
+
+/**
+ * [AiProvider] that generates on the CPU through a [LocalModelRuntime], without the network.
+ *
+ * Pieces are emitted as they are decoded, in the same `{"content": ...}` shape the relay
+ * streams, so collectors parse both providers alike. Cancelling collection stops generation
+ * at the next piece. The runtime is looked up per request, so one installed after this
+ * provider was created is picked up.
+ */
+class AiProviderOnDevice @JvmOverloads constructor(
+    private val runtimeSource: () -> LocalModelRuntime?,
+    private val maxNewTokens: Int = DEFAULT_MAX_NEW_TOKENS
+) : AiProvider {
+
+    constructor(runtime: LocalModelRuntime) : this({ runtime })
+
+    /** Whether a runtime with a loaded model is there to serve [action] right now. */
+    fun canRun(action: AiProvider.Action): Boolean {
+        val runtime = runtimeSource() ?: return false
+        return runtime.isReady && action in runtime.supportedActions
+    }
+
+    /** Id of the model that serves requests right now, for cache keys. */
+    val modelId: String
+        get() = runtimeSource()?.modelId ?: NO_MODEL_ID
+
+    override fun stream(request: AiProvider.Request): Flow<AiProvider.StreamChunk> = channelFlow {
+        val runtime = runtimeSource()?.takeIf { it.isReady }
+            ?: throw IllegalStateException("No local model runtime installed")
+        check(request.action in runtime.supportedActions) {
+            "Local model can't run ${request.action}"
+        }
+        runtime.generate(request, maxNewTokens) { piece ->
+            isActive && trySendBlocking(
+                AiProvider.StreamChunk(content = JSONObject().put("content", piece).toString())
+            ).isSuccess
+        }
+        send(AiProvider.StreamChunk(content = "", isDone = true))
+    }.flowOn(Dispatchers.Default)
+
+    companion object {
+        // Enough to rewrite the largest prompt window [AiContextBuilder] builds.
+        private const val DEFAULT_MAX_NEW_TOKENS = 1500
+        private const val NO_MODEL_ID = "none"
+    }
+}
@@ -1,14 +1,11 @@
 package org.dslul.openboard.inputmethod.latin.ai
 
+import kotlinx.coroutines.channels.ProducerScope
 import kotlinx.coroutines.channels.awaitClose
 import kotlinx.coroutines.flow.Flow
 import kotlinx.coroutines.flow.callbackFlow
 import okhttp3.MediaType.Companion.toMediaType
 import okhttp3.OkHttpClient
-import okhttp3.Interceptor
-import okhttp3.Response
-import java.io.IOException
-import java.util.concurrent.TimeUnit
 import okhttp3.RequestBody.Companion.toRequestBody
 import okhttp3.Request as OkRequest
 import okhttp3.sse.EventSource
@@ -23,49 +20,26 @@ import org.json.JSONObject
  */
 class AiProviderOpenAI @JvmOverloads constructor(
     private val appContext: android.content.Context,
-    private val httpClient: OkHttpClient = newHttpClient(appContext)
+    private val httpClient: OkHttpClient = AiHttpClient.get(appContext)
 ) : AiProvider {
 
-    private fun actionToInstruction(action: AiProvider.Action, targetLanguage: String?, custom: String?): String {
-        return when (action) {
-            AiProvider.Action.GRAMMAR -> "Fix grammar, spelling, and clarity. Preserve meaning. Return only the corrected text."
-            AiProvider.Action.IMPROVE -> "Improve tone and clarity while preserving meaning. Return only the improved text."
-            AiProvider.Action.REPLY -> "Draft a concise, polite reply. Return only the reply text."
-            AiProvider.Action.TRANSLATE -> "Translate to ${targetLanguage ?: "English"}. Return only the translation."
-            AiProvider.Action.CUSTOM -> custom ?: ""
-        }
-    }
+    private val eventSourceFactory by lazy { EventSources.createFactory(httpClient) }
 
     override fun stream(request: AiProvider.Request): Flow<AiProvider.StreamChunk> = callbackFlow {
         try {
             val apiKey = ApiKeyProvider.getOpenAiKey(appContext)
-            val base = "https://api.openai.com"
+            val base = AiHttpClient.BASE_URL
             if (apiKey.isNullOrBlank()) {
                 trySend(AiProvider.StreamChunk(content = "", isDone = true))
                 close(IllegalStateException("Missing OPENAI_API_KEY"))
                 return@callbackFlow
             }
 
-        val before = request.textBeforeCursor.takeLast(request.truncateAtChars)
-        val after = request.textAfterCursor.take(request.truncateAtChars)
-
-        val prompt = buildString {
-            append(actionToInstruction(request.action, request.targetLanguage, request.customPrompt))
-            append("\n\n")
-            if (request.selectedText?.isNotBlank() == true) {
-                append("Selected:\n")
-                append(request.selectedText)
-            } else {
-                append("Context before:\n")
-                append(before)
-                append("\n\nContext after:\n")
-                append(after)
-            }
-        }
+        val prompt = AiPrompts.build(request)
 
         // Try Responses API first
         val responsesJson = JSONObject()
-            .put("model", "gpt-5-fast")
+            .put("model", MODEL)
             .put("input", prompt)
 
             var req = OkRequest.Builder()
@@ -73,22 +47,9 @@ class AiProviderOpenAI @JvmOverloads constructor(
                 .post(responsesJson.toString().toRequestBody("application/json".toMediaType()))
                 .build()
 
-        val listener = object : EventSourceListener() {
-            override fun onEvent(eventSource: EventSource, id: String?, type: String?, data: String) {
-                if (data == "[DONE]") {
-                    trySend(AiProvider.StreamChunk(content = "", isDone = true))
-                    close()
-                    return
-                }
-                trySend(AiProvider.StreamChunk(content = data, isDone = false))
-            }
-
-            override fun onFailure(eventSource: EventSource, t: Throwable?, response: okhttp3.Response?) {
-                close(t)
-            }
-        }
+        val listener = StreamListener(this)
 
-            var es = EventSources.createFactory(httpClient).newEventSource(req, listener)
+            var es = eventSourceFactory.newEventSource(req, listener)
             awaitClose { es.cancel() }
         } catch (t: Throwable) {
             trySend(AiProvider.StreamChunk(content = "", isDone = true))
@@ -96,39 +57,51 @@ class AiProviderOpenAI @JvmOverloads constructor(
         }
     }
 
-    companion object {
-        private fun newHttpClient(context: android.content.Context): OkHttpClient {
-            val apiKey = ApiKeyProvider.getOpenAiKey(context)
-            val authInterceptor = Interceptor { chain ->
-                val original = chain.request()
-                val builder = original.newBuilder()
-                    .header("Content-Type", "application/json")
-                if (!apiKey.isNullOrBlank()) {
-                    builder.header("Authorization", "Bearer $apiKey")
-                }
-                chain.proceed(builder.build())
+    /**
+     * Forwards SSE events to [producer] and ends the flow with the terminal chunk.
+     *
+     * Chat completions streams end with a literal `[DONE]` event, Responses streams with a
+     * `response.completed` event after which the server closes the stream. A stream that is
+     * closed cleanly without either also counts as complete; failures close the flow without
+     * the terminal chunk.
+     */
+    internal class StreamListener(
+        private val producer: ProducerScope<AiProvider.StreamChunk>
+    ) : EventSourceListener() {
+        private var finished = false
+
+        override fun onEvent(eventSource: EventSource, id: String?, type: String?, data: String) {
+            if (finished) return
+            if (data == DONE_DATA || type == RESPONSE_COMPLETED_EVENT
+                    || data.startsWith(RESPONSE_COMPLETED_DATA_PREFIX)) {
+                finish()
+                return
             }
+            producer.trySend(AiProvider.StreamChunk(content = data, isDone = false))
+        }
 
-            val retry429Interceptor = Interceptor { chain ->
-                var attempt = 0
-                var resp: Response = chain.proceed(chain.request())
-                while (resp.code == 429 && attempt < 1) {
-                    resp.close()
-                    attempt++
-                    try { Thread.sleep(800L * (1 shl attempt)) } catch (_: InterruptedException) { }
-                    resp = chain.proceed(chain.request())
-                }
-                resp
-            }
+        override fun onClosed(eventSource: EventSource) {
+            finish()
+        }
 
-            return OkHttpClient.Builder()
-                .connectTimeout(15, TimeUnit.SECONDS)
-                .readTimeout(15, TimeUnit.SECONDS)
-                .addInterceptor(authInterceptor)
-                .addInterceptor(retry429Interceptor)
-                .build()
+        override fun onFailure(eventSource: EventSource, t: Throwable?, response: okhttp3.Response?) {
+            finished = true
+            producer.close(t)
+        }
+
+        private fun finish() {
+            if (finished) return
+            finished = true
+            producer.trySend(AiProvider.StreamChunk(content = "", isDone = true))
+            producer.close()
         }
     }
-}
 
+    companion object {
+        const val MODEL = "gpt-5-fast"
 
+        private const val DONE_DATA = "[DONE]"
+        private const val RESPONSE_COMPLETED_EVENT = "response.completed"
+        private const val RESPONSE_COMPLETED_DATA_PREFIX = "{\"type\":\"response.completed\""
+    }
+}
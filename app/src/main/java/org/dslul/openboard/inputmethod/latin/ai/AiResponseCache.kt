@@ -0,0 +1,138 @@
+package org.dslul.openboard.inputmethod.latin.ai
+
+import android.content.Context
+import android.util.Log
+import android.util.LruCache
+import androidx.annotation.VisibleForTesting
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.File
+import java.io.FileInputStream
+import java.io.FileOutputStream
+import java.security.MessageDigest
+import java.util.concurrent.TimeUnit
+
+/**
+ * Content-addressed cache of finished AI replies, so re-running Grammar/Improve on unchanged
+ * text does not pay for another round trip.
+ *
+ * Two tiers: a small in-memory LRU bounded by characters, backed by one file per entry in the
+ * app cache dir, evicted oldest-first once the directory grows past [MAX_DISK_BYTES]. Entries
+ * older than [TTL_MILLIS] are treated as misses and deleted. Disk access happens on the
+ * caller's thread; callers are expected to be off the UI thread.
+ */
+class AiResponseCache @VisibleForTesting internal constructor(private val dir: File) {
+    private class Entry(val text: String, val createdAtMillis: Long)
+
+    private val memory = object : LruCache<String, Entry>(MAX_MEMORY_CHARS) {
+        override fun sizeOf(key: String, value: Entry) = value.text.length
+    }
+
+    /** Builds the cache key for the prompt window of [request] as sent to [model]. */
+    fun keyFor(request: AiProvider.Request, model: String): String {
+        val digest = MessageDigest.getInstance("SHA-256")
+        fun field(value: String?) {
+            digest.update((value ?: "").toByteArray(Charsets.UTF_8))
+            digest.update(0)
+        }
+        field(request.action.name)
+        field(request.customPrompt)
+        field(request.targetLanguage)
+        field(model)
+        val window = AiContextBuilder.build(request)
+        field(normalize(window.selected ?: ""))
+        field(normalize(window.before))
+        field(normalize(window.after))
+        val bytes = digest.digest()
+        val sb = StringBuilder(bytes.size * 2)
+        for (b in bytes) {
+            sb.append(HEX[(b.toInt() shr 4) and 0xF]).append(HEX[b.toInt() and 0xF])
+        }
+        return sb.toString()
+    }
+
+    fun get(key: String): String? {
+        val now = System.currentTimeMillis()
+        memory.get(key)?.let { entry ->
+            if (now - entry.createdAtMillis < TTL_MILLIS) return entry.text
+            memory.remove(key)
+        }
+        val file = File(dir, key)
+        if (!file.isFile) return null
+        return try {
+            DataInputStream(FileInputStream(file).buffered()).use { input ->
+                val createdAt = input.readLong()
+                if (now - createdAt >= TTL_MILLIS) {
+                    file.delete()
+                    return null
+                }
+                val text = input.readBytes().toString(Charsets.UTF_8)
+                memory.put(key, Entry(text, createdAt))
+                text
+            }
+        } catch (e: Exception) {
+            Log.w(TAG, "Dropping unreadable cache entry", e)
+            file.delete()
+            null
+        }
+    }
+
+    fun put(key: String, text: String) {
+        if (text.isEmpty()) return
+        val now = System.currentTimeMillis()
+        memory.put(key, Entry(text, now))
+        try {
+            if (!dir.isDirectory && !dir.mkdirs()) return
+            DataOutputStream(FileOutputStream(File(dir, key)).buffered()).use { out ->
+                out.writeLong(now)
+                out.write(text.toByteArray(Charsets.UTF_8))
+            }
+            trimDisk()
+        } catch (e: Exception) {
+            Log.w(TAG, "Could not persist cache entry", e)
+        }
+    }
+
+    fun clear() {
+        memory.evictAll()
+        dir.listFiles()?.forEach { it.delete() }
+    }
+
+    private fun trimDisk() {
+        val files = dir.listFiles() ?: return
+        var total = files.sumOf { it.length() }
+        if (total <= MAX_DISK_BYTES) return
+        files.sortBy { it.lastModified() }
+        for (file in files) {
+            if (total <= MAX_DISK_BYTES) break
+            val length = file.length()
+            if (file.delete()) total -= length
+        }
+    }
+
+    companion object {
+        private const val TAG = "AiResponseCache"
+        private const val DIR_NAME = "ai_responses"
+        private const val MAX_MEMORY_CHARS = 256 * 1024
+        private const val MAX_DISK_BYTES = 2L * 1024 * 1024
+        private val TTL_MILLIS = TimeUnit.HOURS.toMillis(12)
+        private val HEX = "0123456789abcdef".toCharArray()
+        private val WHITESPACE = Regex("\\s+")
+
+        @Volatile private var sInstance: AiResponseCache? = null
+
+        @JvmStatic
+        fun getInstance(context: Context): AiResponseCache {
+            sInstance?.let { return it }
+            synchronized(this) {
+                sInstance?.let { return it }
+                return AiResponseCache(File(context.applicationContext.cacheDir, DIR_NAME))
+                    .also { sInstance = it }
+            }
+        }
+
+        /** Whitespace differences alone never produce a different reply worth paying for. */
+        @JvmStatic
+        fun normalize(text: String): String = text.trim().replace(WHITESPACE, " ")
+    }
+}
@@ -0,0 +1,49 @@
+package org.dslul.openboard.inputmethod.latin.ai
+
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.flow
+import kotlinx.coroutines.flow.flowOn
+import org.json.JSONObject
+
+/**
+ * [AiProvider] decorator that answers repeated requests from [cache].
+ *
+ * A hit replays the stored reply as a single content event followed by the terminal chunk,
+ * so collectors cannot tell it from a (very fast) network stream. A miss streams from
+ * [delegate] unchanged and stores the reply once the stream completes. Requests with
+ * [AiProvider.Request.allowCache] unset bypass the cache in both directions. [modelOf] names
+ * the model [delegate] answers with, and is asked per request.
+ */
+class CachingAiProvider(
+    private val delegate: AiProvider,
+    private val cache: AiResponseCache,
+    private val modelOf: () -> String
+) : AiProvider {
+
+    constructor(delegate: AiProvider, cache: AiResponseCache, model: String) :
+            this(delegate, cache, { model })
+
+    override fun stream(request: AiProvider.Request): Flow<AiProvider.StreamChunk> {
+        if (!request.allowCache) return delegate.stream(request)
+        return flow {
+            val key = cache.keyFor(request, modelOf())
+            val cached = cache.get(key)
+            if (cached != null) {
+                emit(AiProvider.StreamChunk(content = JSONObject().put("content", cached).toString()))
+                emit(AiProvider.StreamChunk(content = "", isDone = true))
+                return@flow
+            }
+            val reply = StringBuilder()
+            delegate.stream(request).collect { chunk ->
+                if (chunk.content.isNotEmpty()) {
+                    StreamDeltaParser.appendDelta(chunk.content, reply)
+                }
+                if (chunk.isDone && reply.isNotEmpty()) {
+                    cache.put(key, reply.toString())
+                }
+                emit(chunk)
+            }
+        }.flowOn(Dispatchers.IO)
+    }
+}
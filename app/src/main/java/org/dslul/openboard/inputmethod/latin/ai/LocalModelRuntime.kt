@@ -0,0 +1,68 @@
+package org.dslul.openboard.inputmethod.latin.ai
+
+import java.io.File
+import java.io.IOException
+
+/**
+ * In-process text generation backend for [AiProviderOnDevice], e.g. a small quantized model
+ * behind JNI. Implementations must not touch Android APIs, so they can run (with a tiny model)
+ * on a plain JVM.
+ */
+interface LocalModelRuntime {
+    /** Whether a model is loaded and [generate] can be called. */
+    val isReady: Boolean
+
+    /** Identifies the loaded model, so that cached replies of another model are not reused. */
+    val modelId: String
+
+    /**
+     * The actions whose reply this runtime produces. Requests for other actions are never
+     * routed to it.
+     */
+    val supportedActions: Set<AiProvider.Action>
+
+    /**
+     * Produces the reply to [request], one of [supportedActions], on the calling thread,
+     * reporting each decoded piece to [onToken]. Instruction-following models generate from
+     * [AiPrompts.build]. Stops after [maxNewTokens] pieces, at the end of the reply, or as soon
+     * as [onToken] returns false.
+     */
+    fun generate(request: AiProvider.Request, maxNewTokens: Int, onToken: (String) -> Boolean)
+
+    fun close()
+}
+
+/**
+ * Registry of the runtime installed for this process. No model ships with the app; the IME
+ * installs an [NGramModelRuntime] when a model file has been placed at [MODEL_FILE_NAME] in its
+ * files directory.
+ */
+object LocalModelRuntimes {
+    const val MODEL_FILE_NAME = "local_model.bin"
+
+    @Volatile private var sInstalled: LocalModelRuntime? = null
+
+    /** The installed runtime if its model is loaded, else null. */
+    @JvmStatic
+    fun installed(): LocalModelRuntime? = sInstalled?.takeIf { it.isReady }
+
+    @JvmStatic
+    fun install(runtime: LocalModelRuntime?) {
+        val previous = sInstalled
+        sInstalled = runtime
+        if (previous != null && previous !== runtime) previous.close()
+    }
+
+    /**
+     * Loads and installs the model in [file] if there is one. Blocks while the model loads, so
+     * call it off the UI thread.
+     * @return whether a runtime was installed.
+     */
+    @JvmStatic
+    @Throws(IOException::class)
+    fun installFromFile(file: File): Boolean {
+        if (!file.isFile) return false
+        install(NGramModelRuntime.load(file))
+        return true
+    }
+}
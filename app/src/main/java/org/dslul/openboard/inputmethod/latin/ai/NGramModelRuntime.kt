@@ -0,0 +1,278 @@
+package org.dslul.openboard.inputmethod.latin.ai
+
+import java.io.BufferedInputStream
+import java.io.DataInputStream
+import java.io.File
+import java.io.FileInputStream
+import java.io.IOException
+import java.io.InputStream
+import java.util.Locale
+import java.util.zip.CRC32
+import java.util.zip.CheckedInputStream
+import kotlin.math.abs
+import kotlin.math.ln
+
+/**
+ * [LocalModelRuntime] that corrects spelling with a small word bigram model, in pure Kotlin.
+ * It only answers [AiProvider.Action.GRAMMAR]: the reply is the request text with misspelled
+ * words replaced, never a continuation of it.
+ *
+ * Each word may stay as typed or become a vocabulary word within one edit (two for words longer
+ * than [SHORT_WORD_LENGTH]; an edit is an insertion, deletion, substitution or transposition).
+ * The sentence with the best score under the bigram model, minus a penalty per edit, is chosen
+ * with Viterbi decoding; sentence-final punctuation and line breaks restart at
+ * [START_OF_SEQUENCE]. Words are looked up in lower case, so the vocabulary should be lower
+ * case; corrected words take over the capitalization of the typed ones. Everything but the
+ * words is kept as is. Each word, with the separator before it, is one piece.
+ *
+ * Model file, all big-endian as written by [java.io.DataOutputStream]:
+ * ```
+ * int   MAGIC, int FORMAT_VERSION
+ * int   vocabulary size V; V x UTF word (index 0 is [END_OF_SEQUENCE], 1 is [START_OF_SEQUENCE])
+ * V x { int successor count N; N x { int word index, float probability of it following } }
+ * ```
+ */
+class NGramModelRuntime internal constructor(
+    private val words: Array<String>,
+    successors: Array<IntArray>,
+    probabilities: Array<FloatArray>,
+    override val modelId: String
+) : LocalModelRuntime {
+    private val indexOfWord = HashMap<String, Int>(words.size * 2).apply {
+        words.forEachIndexed { index, word -> put(word, index) }
+    }
+    private val logProbabilities = HashMap<Long, Float>().apply {
+        for (word in successors.indices) {
+            for (i in successors[word].indices) {
+                val probability = probabilities[word][i]
+                if (probability > 0f) put(bigram(word, successors[word][i]), ln(probability))
+            }
+        }
+    }
+
+    @Volatile private var closed = false
+
+    override val isReady: Boolean
+        get() = !closed
+
+    override val supportedActions: Set<AiProvider.Action> = setOf(AiProvider.Action.GRAMMAR)
+
+    override fun generate(request: AiProvider.Request, maxNewTokens: Int,
+            onToken: (String) -> Boolean) {
+        require(request.action in supportedActions) { "Unsupported action ${request.action}" }
+        val window = AiContextBuilder.build(request)
+        val text = window.selected ?: (window.before + window.after)
+        val tokens = tokenize(text)
+        val corrected = correct(text, tokens)
+        var emitted = 0
+        var end = 0
+        for (t in tokens.indices) {
+            if (emitted >= maxNewTokens || closed) return
+            val piece = text.substring(end, tokens[t].first) + corrected[t]
+            end = tokens[t].last + 1
+            emitted++
+            if (!onToken(piece)) return
+        }
+        if (end < text.length && !closed) onToken(text.substring(end))
+    }
+
+    override fun close() {
+        closed = true
+    }
+
+    private class Candidate(val word: Int, val score: Float)
+
+    /** The best spelling of each word in [tokens], as they appear in [text]. */
+    private fun correct(text: String, tokens: List<IntRange>): Array<String> {
+        val typed = Array(tokens.size) { text.substring(tokens[it].first, tokens[it].last + 1) }
+        val candidates = Array(tokens.size) { candidatesFor(typed[it]) }
+        // Viterbi over the candidates, best score and back pointer per candidate.
+        val best = Array(tokens.size) { FloatArray(candidates[it].size) }
+        val back = Array(tokens.size) { IntArray(candidates[it].size) }
+        for (t in tokens.indices) {
+            val startsSentence = t == 0 || endsSentence(text, tokens[t - 1].last + 1, tokens[t].first)
+            for (c in candidates[t].indices) {
+                val candidate = candidates[t][c]
+                if (startsSentence) {
+                    val previousBest = if (t == 0) 0f else best[t - 1].maxOrNull()!!
+                    best[t][c] = previousBest + candidate.score +
+                            logProbability(START_OF_SEQUENCE_INDEX, candidate.word)
+                    back[t][c] = if (t == 0) -1 else best[t - 1].indexOfMax()
+                    continue
+                }
+                var bestScore = Float.NEGATIVE_INFINITY
+                for (p in candidates[t - 1].indices) {
+                    val score = best[t - 1][p] +
+                            logProbability(candidates[t - 1][p].word, candidate.word)
+                    if (score > bestScore) {
+                        bestScore = score
+                        back[t][c] = p
+                    }
+                }
+                best[t][c] = bestScore + candidate.score
+            }
+        }
+        val result = typed.copyOf()
+        var c = if (tokens.isEmpty()) -1 else best[tokens.size - 1].indexOfMax()
+        for (t in tokens.size - 1 downTo 0) {
+            val word = candidates[t][c].word
+            if (word != OUT_OF_VOCABULARY) result[t] = matchCase(words[word], typed[t])
+            c = back[t][c]
+        }
+        return result
+    }
+
+    /** The typed word itself, plus the vocabulary words within reach of it. */
+    private fun candidatesFor(typed: String): List<Candidate> {
+        val lowerCase = typed.lowercase(Locale.ROOT)
+        val exact = indexOfWord[lowerCase]
+        val candidates = ArrayList<Candidate>()
+        candidates.add(Candidate(exact ?: OUT_OF_VOCABULARY, 0f))
+        if (typed.length < MIN_CORRECTED_LENGTH || typed.any { Character.isDigit(it) }) {
+            return candidates
+        }
+        val maxEdits = if (typed.length <= SHORT_WORD_LENGTH) 1 else 2
+        for (word in FIRST_WORD_INDEX until words.size) {
+            if (word == exact) continue
+            val edits = editDistance(lowerCase, words[word], maxEdits)
+            if (edits <= maxEdits) candidates.add(Candidate(word, edits * LOG_EDIT_PROBABILITY))
+        }
+        return candidates
+    }
+
+    private fun logProbability(from: Int, to: Int): Float {
+        if (from == OUT_OF_VOCABULARY || to == OUT_OF_VOCABULARY) return LOG_UNSEEN_PROBABILITY
+        return logProbabilities[bigram(from, to)] ?: LOG_UNSEEN_PROBABILITY
+    }
+
+    companion object {
+        const val MAGIC = 0x4B424C4D // "KBLM"
+        const val FORMAT_VERSION = 1
+        const val END_OF_SEQUENCE = "</s>"
+        const val START_OF_SEQUENCE = "<s>"
+        private const val START_OF_SEQUENCE_INDEX = 1
+        private const val FIRST_WORD_INDEX = 2
+        private const val OUT_OF_VOCABULARY = -1
+
+        private const val MIN_CORRECTED_LENGTH = 2
+        private const val SHORT_WORD_LENGTH = 4
+        // Chance that a typed word is a misspelling at one edit, and the probability given to
+        // bigrams the model has not seen. Their ratio decides how eagerly words are replaced.
+        private val LOG_EDIT_PROBABILITY = ln(0.01f)
+        private val LOG_UNSEEN_PROBABILITY = ln(0.0001f)
+
+        private fun bigram(from: Int, to: Int): Long = (from.toLong() shl 32) or to.toLong()
+
+        private fun FloatArray.indexOfMax(): Int {
+            var best = 0
+            for (i in 1 until size) if (this[i] > this[best]) best = i
+            return best
+        }
+
+        /** Word ranges: runs of letters and digits, with apostrophes inside them. */
+        private fun tokenize(text: String): List<IntRange> {
+            val tokens = ArrayList<IntRange>()
+            var i = 0
+            while (i < text.length) {
+                if (!Character.isLetterOrDigit(text[i])) {
+                    i++
+                    continue
+                }
+                val start = i
+                while (i < text.length && (Character.isLetterOrDigit(text[i])
+                                || (text[i] == '\'' && i + 1 < text.length
+                                && Character.isLetterOrDigit(text[i + 1])))) {
+                    i++
+                }
+                tokens.add(start until i)
+            }
+            return tokens
+        }
+
+        private fun endsSentence(text: String, start: Int, end: Int): Boolean {
+            for (i in start until end) {
+                val c = text[i]
+                if (c == '.' || c == '!' || c == '?' || c == '\n') return true
+            }
+            return false
+        }
+
+        private fun matchCase(word: String, typed: String): String = when {
+            typed.length > 1 && typed.all { !Character.isLetter(it) || Character.isUpperCase(it) } ->
+                word.uppercase(Locale.ROOT)
+            Character.isUpperCase(typed[0]) ->
+                word.substring(0, 1).uppercase(Locale.ROOT) + word.substring(1)
+            else -> word
+        }
+
+        /**
+         * Edit distance counting adjacent transpositions as one edit, or anything above
+         * [maxEdits] once it is certain to exceed it.
+         */
+        internal fun editDistance(a: String, b: String, maxEdits: Int): Int {
+            if (abs(a.length - b.length) > maxEdits) return maxEdits + 1
+            var previousRow = IntArray(b.length + 1)
+            var row = IntArray(b.length + 1) { it }
+            var nextRow = IntArray(b.length + 1)
+            for (i in 1..a.length) {
+                nextRow[0] = i
+                var rowMin = i
+                for (j in 1..b.length) {
+                    val cost = if (a[i - 1] == b[j - 1]) 0 else 1
+                    var d = minOf(row[j] + 1, nextRow[j - 1] + 1, row[j - 1] + cost)
+                    if (i > 1 && j > 1 && a[i - 1] == b[j - 2] && a[i - 2] == b[j - 1]) {
+                        d = minOf(d, previousRow[j - 2] + 1)
+                    }
+                    nextRow[j] = d
+                    rowMin = minOf(rowMin, d)
+                }
+                if (rowMin > maxEdits) return maxEdits + 1
+                val recycled = previousRow
+                previousRow = row
+                row = nextRow
+                nextRow = recycled
+            }
+            return row[b.length]
+        }
+
+        @JvmStatic
+        @Throws(IOException::class)
+        fun load(file: File): NGramModelRuntime =
+            BufferedInputStream(FileInputStream(file)).use { load(it) }
+
+        @JvmStatic
+        @Throws(IOException::class)
+        fun load(input: InputStream): NGramModelRuntime {
+            val checksum = CRC32()
+            val data = DataInputStream(CheckedInputStream(input, checksum))
+            if (data.readInt() != MAGIC) throw IOException("Not a bigram model")
+            val version = data.readInt()
+            if (version != FORMAT_VERSION) throw IOException("Unsupported model version $version")
+            val size = data.readInt()
+            if (size < FIRST_WORD_INDEX) throw IOException("Vocabulary too small: $size")
+            val words = Array(size) { data.readUTF() }
+            if (words[0] != END_OF_SEQUENCE || words[START_OF_SEQUENCE_INDEX] != START_OF_SEQUENCE) {
+                throw IOException("Missing sequence markers")
+            }
+            val successors = arrayOfNulls<IntArray>(size)
+            val probabilities = arrayOfNulls<FloatArray>(size)
+            for (word in 0 until size) {
+                val count = data.readInt()
+                if (count < 0 || count > size) throw IOException("Bad successor count $count")
+                val next = IntArray(count)
+                val probability = FloatArray(count)
+                for (i in 0 until count) {
+                    next[i] = data.readInt()
+                    if (next[i] !in 0 until size) throw IOException("Bad word index ${next[i]}")
+                    probability[i] = data.readFloat()
+                }
+                successors[word] = next
+                probabilities[word] = probability
+            }
+            @Suppress("UNCHECKED_CAST")
+            return NGramModelRuntime(words, successors as Array<IntArray>,
+                probabilities as Array<FloatArray>,
+                "bigram-" + java.lang.Long.toHexString(checksum.value))
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package org.dslul.openboard.inputmethod.latin.ai
+
+import android.content.Context
+import android.net.ConnectivityManager
+import android.net.NetworkCapabilities
+import kotlinx.coroutines.flow.Flow
+
+/**
+ * Sends each request either to the on-device [local] provider or to the [remote] relay.
+ *
+ * A request goes to the local model only when the model produces the reply its action asks
+ * for, and the relay is out of reach or slow: offline any such request runs locally, on a
+ * slow link only short ones, where a small model is faster than the round trip. Everything
+ * else, and everything while no local model is installed, goes to the relay. With a [cache],
+ * local replies are cached like remote ones, under the id of the local model.
+ */
+class RoutingAiProvider @JvmOverloads constructor(
+    private val remote: AiProvider,
+    private val local: AiProviderOnDevice?,
+    cache: AiResponseCache? = null,
+    private val linkState: LinkStateSource
+) : AiProvider {
+    enum class Link { OFFLINE, SLOW, FAST }
+
+    fun interface LinkStateSource {
+        fun current(): Link
+    }
+
+    private val cachedLocal: AiProvider? = if (local != null && cache != null) {
+        CachingAiProvider(local, cache) { local.modelId }
+    } else {
+        local
+    }
+
+    /** Whether [request] would be answered by the local model right now. */
+    fun routesLocally(request: AiProvider.Request): Boolean =
+        local != null && local.canRun(request.action)
+                && shouldRunLocally(request, linkState.current())
+
+    override fun stream(request: AiProvider.Request): Flow<AiProvider.StreamChunk> {
+        val target = if (routesLocally(request)) cachedLocal!! else remote
+        return target.stream(request)
+    }
+
+    companion object {
+        // Rough size of what a small local model rewrites reliably.
+        private const val SHORT_INPUT_TOKENS = 120
+        private const val SLOW_LINK_KBPS = 1000
+
+        /** Whether [request] should run locally on [link], given the model can run it. */
+        @JvmStatic
+        fun shouldRunLocally(request: AiProvider.Request, link: Link): Boolean {
+            if (link == Link.FAST) return false
+            if (link == Link.OFFLINE) return true
+            val selected = request.selectedText
+            val inputTokens = if (selected?.isNotBlank() == true) {
+                AiContextBuilder.estimateTokens(selected)
+            } else {
+                AiContextBuilder.estimateTokens(request.textBeforeCursor) +
+                        AiContextBuilder.estimateTokens(request.textAfterCursor)
+            }
+            return inputTokens <= SHORT_INPUT_TOKENS
+        }
+
+        /** Link state from the active network; unknown bandwidth counts as fast. */
+        @JvmStatic
+        fun linkStateOf(context: Context): LinkStateSource {
+            val connectivity = context.applicationContext
+                .getSystemService(ConnectivityManager::class.java)
+            return LinkStateSource {
+                try {
+                    val capabilities = connectivity
+                        ?.getNetworkCapabilities(connectivity.activeNetwork)
+                    when {
+                        capabilities == null
+                                || !capabilities.hasCapability(NetworkCapabilities.NET_CAPABILITY_INTERNET) ->
+                            Link.OFFLINE
+                        capabilities.linkDownstreamBandwidthKbps in 1 until SLOW_LINK_KBPS -> Link.SLOW
+                        else -> Link.FAST
+                    }
+                } catch (e: SecurityException) {
+                    Link.FAST
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package org.dslul.openboard.inputmethod.latin.ai
+
+import android.content.Context
+import android.net.ConnectivityManager
+import android.os.BatteryManager
+import android.os.Handler
+import android.os.Looper
+import android.os.PowerManager
+import android.os.SystemClock
+import android.util.Log
+import org.dslul.openboard.inputmethod.latin.define.DebugFlags
+import java.util.ArrayDeque
+import java.util.concurrent.TimeUnit
+
+/**
+ * Quietly runs the Grammar action once the user pauses typing, so that tapping Grammar is
+ * usually answered from [AiResponseCache] without waiting for the network.
+ *
+ * The speculative request is exactly the one the Grammar button would send (obtained from
+ * [RequestSource]), which makes a later tap hit the same cache key, or join the speculative
+ * stream through [AiJobScheduler] if it is still running. Speculation is skipped when it would
+ * be wasteful: rate limits, battery saver or low battery, metered or no network, a Grammar
+ * request already running, or too little text. Requests [provider] answers with the on-device
+ * model are neither speculated nor counted. Hit rate is tracked from real Grammar taps and
+ * shows up in [dump].
+ *
+ * All methods must be called on the UI thread.
+ */
+class SpeculativeGrammarPrefetcher(
+    context: Context,
+    private val scheduler: AiJobScheduler,
+    private val provider: RoutingAiProvider,
+    private val cache: AiResponseCache,
+    private val model: String,
+    private val requestSource: RequestSource
+) {
+    fun interface RequestSource {
+        /** The request the Grammar button would send right now, or null if none is allowed. */
+        fun currentGrammarRequest(): AiProvider.Request?
+    }
+
+    private val appContext = context.applicationContext
+    private val handler = Handler(Looper.getMainLooper())
+    private val speculateRunnable = Runnable { speculate() }
+    // Start times of recent speculations, oldest first, for the hourly limit.
+    private val recentStarts = ArrayDeque<Long>()
+    // Cache keys speculated recently; a Grammar tap on one of them counts as a hit.
+    private val speculatedKeys = object : LinkedHashMap<String, Boolean>() {
+        override fun removeEldestEntry(eldest: MutableMap.MutableEntry<String, Boolean>?) =
+            size > MAX_TRACKED_KEYS
+    }
+    private var lastKey: String? = null
+
+    var speculationCount = 0
+        private set
+    var hitCount = 0
+        private set
+    var missCount = 0
+        private set
+
+    /** Call whenever the text changes; (re)arms the idle timer. */
+    fun onContentsChanged() {
+        handler.removeCallbacks(speculateRunnable)
+        handler.postDelayed(speculateRunnable, IDLE_DELAY_MILLIS)
+    }
+
+    fun cancel() {
+        handler.removeCallbacks(speculateRunnable)
+    }
+
+    /** Call when the user actually taps Grammar with [request], to account hits and misses. */
+    fun onUserRequest(request: AiProvider.Request) {
+        if (request.action != AiProvider.Action.GRAMMAR || !request.allowCache) return
+        if (provider.routesLocally(request)) return
+        if (speculatedKeys.containsKey(cache.keyFor(request, model))) hitCount++ else missCount++
+        if (DebugFlags.DEBUG_ENABLED) Log.d(TAG, dump())
+    }
+
+    fun dump(): String = "Speculative Grammar: hits=" + hitCount + "/" + (hitCount + missCount) +
+            " speculations=" + speculationCount
+
+    private fun speculate() {
+        val request = requestSource.currentGrammarRequest() ?: return
+        if (!request.allowCache || request.action != AiProvider.Action.GRAMMAR) return
+        if (provider.routesLocally(request)) return
+        if (request.selectedText.isNullOrBlank()
+                && AiContextBuilder.estimateTokens(request.textBeforeCursor) < MIN_TOKENS) return
+        val key = cache.keyFor(request, model)
+        if (key == lastKey) return
+        if (!isWithinRateLimits() || isConstrained() || scheduler.isRunning(request.action)) return
+        lastKey = key
+        speculatedKeys[key] = true
+        recentStarts.addLast(SystemClock.elapsedRealtime())
+        speculationCount++
+        scheduler.submit(provider, request, {}, {})
+    }
+
+    private fun isWithinRateLimits(): Boolean {
+        val now = SystemClock.elapsedRealtime()
+        while (recentStarts.isNotEmpty() && now - recentStarts.first > TimeUnit.HOURS.toMillis(1)) {
+            recentStarts.removeFirst()
+        }
+        if (recentStarts.size >= MAX_PER_HOUR) return false
+        return recentStarts.isEmpty() || now - recentStarts.last >= MIN_INTERVAL_MILLIS
+    }
+
+    /** Battery saver, low battery while unplugged, or no/metered network. */
+    private fun isConstrained(): Boolean {
+        val power = appContext.getSystemService(PowerManager::class.java)
+        if (power != null && power.isPowerSaveMode) return true
+        val battery = appContext.getSystemService(BatteryManager::class.java)
+        if (battery != null && !battery.isCharging) {
+            val percent = battery.getIntProperty(BatteryManager.BATTERY_PROPERTY_CAPACITY)
+            if (percent in 0 until LOW_BATTERY_PERCENT) return true
+        }
+        val connectivity = appContext.getSystemService(ConnectivityManager::class.java)
+            ?: return true
+        return try {
+            connectivity.activeNetwork == null || connectivity.isActiveNetworkMetered
+        } catch (e: SecurityException) {
+            true
+        }
+    }
+
+    companion object {
+        private const val TAG = "SpeculativeGrammar"
+        private const val IDLE_DELAY_MILLIS = 1500L
+        private val MIN_INTERVAL_MILLIS = TimeUnit.SECONDS.toMillis(20)
+        private const val MAX_PER_HOUR = 30
+        private const val LOW_BATTERY_PERCENT = 20
+        private const val MIN_TOKENS = 6
+        private const val MAX_TRACKED_KEYS = 32
+    }
+}
@@ -0,0 +1,120 @@
+package org.dslul.openboard.inputmethod.latin.ai
+
+/**
+ * Incremental extractor for the text delta carried by one SSE data line.
+ *
+ * Understands both chat-completions chunks (`choices[0].delta.content`) and Responses API
+ * events (`{"type":"response.output_text.delta","delta":"..."}`). Instead of building a
+ * JSONObject tree per event, it scans the line once, skipping over string tokens, and decodes
+ * the first string value keyed `content` or `delta` straight into the caller's buffer.
+ * Nothing is allocated per event, so cost per token stays flat however long the reply gets.
+ */
+object StreamDeltaParser {
+    private const val KEY_CONTENT = "content"
+    private const val KEY_DELTA = "delta"
+
+    /**
+     * Appends the delta text found in [event] to [dest].
+     * @return the number of chars appended; 0 when the event carries no text or is malformed.
+     */
+    @JvmStatic
+    fun appendDelta(event: CharSequence, dest: StringBuilder): Int {
+        val length = event.length
+        var i = 0
+        while (i < length) {
+            if (event[i] != '"') {
+                i++
+                continue
+            }
+            val tokenStart = i + 1
+            val tokenEnd = skipString(event, tokenStart)
+            if (tokenEnd < 0) return 0
+            var j = skipWhitespace(event, tokenEnd + 1)
+            if (j < length && event[j] == ':') {
+                j = skipWhitespace(event, j + 1)
+                if (j < length && event[j] == '"'
+                        && (regionEquals(event, tokenStart, tokenEnd, KEY_CONTENT)
+                            || regionEquals(event, tokenStart, tokenEnd, KEY_DELTA))) {
+                    return decodeString(event, j + 1, dest)
+                }
+                i = j
+                continue
+            }
+            i = tokenEnd + 1
+        }
+        return 0
+    }
+
+    /** Returns the index of the closing quote of the string starting at [start], or -1. */
+    private fun skipString(s: CharSequence, start: Int): Int {
+        var i = start
+        while (i < s.length) {
+            when (s[i]) {
+                '\\' -> i += 2
+                '"' -> return i
+                else -> i++
+            }
+        }
+        return -1
+    }
+
+    private fun skipWhitespace(s: CharSequence, start: Int): Int {
+        var i = start
+        while (i < s.length && s[i].isWhitespace()) i++
+        return i
+    }
+
+    private fun regionEquals(s: CharSequence, start: Int, end: Int, key: String): Boolean {
+        if (end - start != key.length) return false
+        for (k in key.indices) {
+            if (s[start + k] != key[k]) return false
+        }
+        return true
+    }
+
+    /**
+     * Decodes the string value starting at [start] into [dest]. A value that is cut off or has
+     * a broken escape is not appended at all.
+     */
+    private fun decodeString(s: CharSequence, start: Int, dest: StringBuilder): Int {
+        val initialLength = dest.length
+        var i = start
+        while (i < s.length) {
+            val c = s[i]
+            if (c == '"') return dest.length - initialLength
+            if (c != '\\') {
+                dest.append(c)
+                i++
+                continue
+            }
+            if (i + 1 >= s.length) break
+            when (val escaped = s[i + 1]) {
+                'n' -> dest.append('\n')
+                't' -> dest.append('\t')
+                'r' -> dest.append('\r')
+                'b' -> dest.append('\b')
+                'f' -> dest.append('\u000C')
+                'u' -> {
+                    if (i + 6 > s.length) break
+                    var code = 0
+                    for (k in i + 2 until i + 6) {
+                        val digit = Character.digit(s[k], 16)
+                        if (digit < 0) {
+                            dest.setLength(initialLength)
+                            return 0
+                        }
+                        code = (code shl 4) or digit
+                    }
+                    dest.append(code.toChar())
+                    i += 6
+                    continue
+                }
+                else -> dest.append(escaped)
+            }
+            i += 2
+        }
+        // No closing quote.
+        dest.setLength(initialLength)
+        return 0
+    }
+}
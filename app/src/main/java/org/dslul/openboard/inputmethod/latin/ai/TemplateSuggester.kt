@@ -1,15 +1,27 @@
 package org.dslul.openboard.inputmethod.latin.ai
 
+import android.content.Context
+import android.util.Log
 import org.dslul.openboard.inputmethod.latin.SuggestedWords
+import org.dslul.openboard.inputmethod.latin.autotext.AutoTextEntry
+import org.dslul.openboard.inputmethod.latin.autotext.AutoTextRepository
+import org.dslul.openboard.inputmethod.latin.utils.ExecutorUtils
+import java.util.concurrent.atomic.AtomicBoolean
 
 /**
  * Lightweight templates provider. Later we can back this by Room/DataStore.
  * For now, keep a small in-memory list of keyword→template pairs.
+ *
+ * Built-in and user Auto Text templates are indexed in [TemplateTrie]s, so a keystroke costs
+ * one walk down the typed prefix. The user index is built once on the keyboard background
+ * executor when the IME starts ([load]); after that, each Auto Text change is applied to it
+ * entry by entry on the same executor, so opening the database never blocks typing. Until the
+ * first build finishes, only built-in templates match.
  */
 object TemplateSuggester {
     data class Template(val trigger: String, val content: String)
 
-    // Demo templates plus user Auto Text entries merged at query time
+    // Demo templates, ranked before user Auto Text entries
     private val templates: List<Template> = listOf(
         Template("brb", "Be right back."),
         Template("omw", "On my way!"),
@@ -18,24 +30,92 @@ object TemplateSuggester {
         Template("intro", "Hi, I’m using the new AI Keyboard app.")
     )
 
+    private val builtInIndex = TemplateTrie(templates.map { it.trigger to it })
+
+    // Published by the background build, read on the UI thread.
+    @Volatile private var userIndex: TemplateTrie<Template>? = null
+    private val loadStarted = AtomicBoolean(false)
+
+    // Accessed on the UI thread only.
+    private var lastIndex: TemplateTrie<Template>? = null
+    private var lastVersion = 0
+    private var lastTail: String? = null
+    private var lastMax = 0
+    private var lastResult: SuggestedWords? = null
+
+    // Changes are queued behind the initial build. Applying one the build already saw is
+    // harmless: every change sets the state of the entries it names.
+    private val autoTextListener = object : AutoTextRepository.Listener {
+        override fun onAutoTextAdded(entries: List<AutoTextEntry>) {
+            updateIndex { index ->
+                for (entry in entries) index.put(entry.shortcut, entry.toTemplate())
+            }
+        }
+
+        override fun onAutoTextUpdated(oldShortcut: String, entry: AutoTextEntry) {
+            updateIndex { index -> index.rename(oldShortcut, entry.shortcut, entry.toTemplate()) }
+        }
+
+        override fun onAutoTextRemoved(shortcuts: Collection<String>) {
+            updateIndex { index -> for (shortcut in shortcuts) index.remove(shortcut) }
+        }
+    }
+
+    /** Starts indexing the Auto Text store in the background and keeps the index up to date. */
+    @JvmStatic
+    fun load(context: Context) {
+        if (!loadStarted.compareAndSet(false, true)) return
+        val appContext = context.applicationContext
+        AutoTextRepository.addListener(autoTextListener)
+        ExecutorUtils.getBackgroundExecutor(ExecutorUtils.KEYBOARD).execute {
+            userIndex = buildIndex(appContext)
+        }
+    }
+
+    private fun updateIndex(change: (TemplateTrie<Template>) -> Unit) {
+        ExecutorUtils.getBackgroundExecutor(ExecutorUtils.KEYBOARD).execute {
+            userIndex?.let(change)
+        }
+    }
+
     /**
      * Returns template suggestions matching the tail token of the given textBefore.
      */
     fun suggestionsFor(textBeforeCursor: CharSequence?, max: Int = 3): SuggestedWords? {
-        val tail = lastToken(textBeforeCursor?.toString().orEmpty())
+        val tail = lastToken(textBeforeCursor)
         // Do not show any auto text suggestions until user starts typing something.
         if (tail.isEmpty()) return null
-        val ctx = org.dslul.openboard.inputmethod.latin.LatinIME.sInstance
-        val repoEntries = try {
-            if (ctx != null) org.dslul.openboard.inputmethod.latin.autotext.AutoTextRepository(ctx).getAll()
-            else emptyList()
-        } catch (_: Throwable) { emptyList() }
-        val repoTemplates = repoEntries.map { Template(it.shortcut, it.message) }
-        val all = templates + repoTemplates
-        val matches = all.filter { it.trigger.startsWith(tail, ignoreCase = true) }
-        if (matches.isEmpty()) return null
-
-        val infos = matches.take(max).map {
+        val index = userIndex
+        val version = index?.version ?: 0
+        if (index === lastIndex && version == lastVersion && tail == lastTail && max == lastMax) {
+            return lastResult
+        }
+        val builtIn = builtInIndex.startingWith(tail, max)
+        val matches = if (index == null || builtIn.size >= max) builtIn
+                else builtIn + index.startingWith(tail, max - builtIn.size)
+        val result = if (matches.isEmpty()) null else toSuggestedWords(matches)
+        lastIndex = index
+        lastVersion = version
+        lastTail = tail
+        lastMax = max
+        lastResult = result
+        return result
+    }
+
+    private fun buildIndex(context: Context): TemplateTrie<Template> {
+        val entries = try {
+            AutoTextRepository(context).getAll()
+        } catch (e: Exception) {
+            Log.w(TAG, "Could not read Auto Text entries", e)
+            emptyList()
+        }
+        return TemplateTrie(entries.map { it.shortcut to it.toTemplate() })
+    }
+
+    private fun AutoTextEntry.toTemplate() = Template(shortcut, message)
+
+    private fun toSuggestedWords(matches: List<Template>): SuggestedWords {
+        val infos = matches.map {
             SuggestedWords.SuggestedWordInfo(
                 it.content,
                 "",
@@ -58,11 +138,17 @@ object TemplateSuggester {
         )
     }
 
-    private fun lastToken(text: String): String {
-        if (text.isBlank()) return ""
-        val parts = text.split('\n', ' ', '\t')
-        return parts.lastOrNull { it.isNotBlank() }?.trim().orEmpty()
+    // The last run of non-separator chars, ignoring trailing separators.
+    private fun lastToken(text: CharSequence?): String {
+        if (text == null) return ""
+        var end = text.length
+        while (end > 0 && isSeparator(text[end - 1])) end--
+        var start = end
+        while (start > 0 && !isSeparator(text[start - 1])) start--
+        return text.subSequence(start, end).toString().trim()
     }
-}
 
+    private fun isSeparator(c: Char) = c == ' ' || c == '\n' || c == '\t'
 
+    private const val TAG = "TemplateSuggester"
+}
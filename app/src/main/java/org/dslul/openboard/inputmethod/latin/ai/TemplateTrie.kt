@@ -0,0 +1,227 @@
+package org.dslul.openboard.inputmethod.latin.ai
+
+/**
+ * Case-folded prefix trie over template triggers, with at most one value per trigger.
+ *
+ * Every node keeps the indices of the first [MAX_RESULTS_PER_NODE] values (in insertion
+ * order) whose trigger passes through it, so a lookup only walks the prefix and never visits
+ * the subtree: O(prefix length) regardless of how many templates exist. Values are added,
+ * replaced, renamed and removed in place, touching only the nodes along their triggers; a
+ * removal refills the per-node indices it opens up from the node's subtree. Thread safe:
+ * lookups may run while another thread changes the trie.
+ */
+class TemplateTrie<T : Any>(entries: List<Pair<String, T>>) {
+    private class Node {
+        var keys = CharArray(0)
+        var children = arrayOfNulls<Node>(0)
+        // Smallest indices of the values below this node, ascending.
+        val firsts = IntArray(MAX_RESULTS_PER_NODE)
+        var firstCount = 0
+        // Number of values whose trigger ends at or below this node.
+        var count = 0
+        // Index of the value whose trigger ends here, or -1.
+        var end = -1
+
+        fun child(c: Char): Node? {
+            for (i in keys.indices) if (keys[i] == c) return children[i]
+            return null
+        }
+
+        fun getOrAddChild(c: Char): Node {
+            child(c)?.let { return it }
+            val node = Node()
+            keys = keys.copyOf(keys.size + 1).also { it[keys.size] = c }
+            children = children.copyOf(children.size + 1).also { it[children.size] = node }
+            return node
+        }
+
+        fun removeChild(c: Char) {
+            val i = keys.indexOf(c)
+            if (i < 0) return
+            keys = CharArray(keys.size - 1) { if (it < i) keys[it] else keys[it + 1] }
+            children = Array(children.size - 1) { if (it < i) children[it] else children[it + 1] }
+        }
+
+        /** Adds [index] to [firsts] if it is among the smallest of this node. */
+        fun addFirst(index: Int) {
+            var i = firstCount
+            if (i == firsts.size) {
+                if (index > firsts[i - 1]) return
+                i--
+            } else {
+                firstCount++
+            }
+            while (i > 0 && firsts[i - 1] > index) {
+                firsts[i] = firsts[i - 1]
+                i--
+            }
+            firsts[i] = index
+        }
+
+        /** Removes [index] from [firsts]; returns whether it was there. */
+        fun removeFirst(index: Int): Boolean {
+            var i = 0
+            while (i < firstCount && firsts[i] != index) i++
+            if (i == firstCount) return false
+            System.arraycopy(firsts, i + 1, firsts, i, firstCount - i - 1)
+            firstCount--
+            return true
+        }
+    }
+
+    private val root = Node()
+    // Removed values are nulled out, so the indices of the others stay valid.
+    private val values = ArrayList<T?>(entries.size)
+
+    /** Incremented by every change, so callers can tell whether lookups may have changed. */
+    @Volatile var version = 0
+        private set
+
+    init {
+        for (entry in entries) put(entry.first, entry.second)
+    }
+
+    /**
+     * Sets the value of [key]. A key that is already there keeps its rank; a new one ranks after
+     * every value added before.
+     */
+    @Synchronized
+    fun put(key: CharSequence, value: T) {
+        version++
+        val existing = find(key)
+        if (existing != null && existing.end >= 0) {
+            values[existing.end] = value
+            return
+        }
+        val index = values.size
+        values.add(value)
+        insert(key, index)
+    }
+
+    /**
+     * Moves the value of [oldKey] to [newKey] and sets it to [value], keeping its rank. Any value
+     * [newKey] had is dropped. Works like [put] if [oldKey] is not there.
+     */
+    @Synchronized
+    fun rename(oldKey: CharSequence, newKey: CharSequence, value: T) {
+        if (sameKey(oldKey, newKey)) {
+            put(newKey, value)
+            return
+        }
+        version++
+        val index = detach(oldKey)
+        if (index < 0) {
+            put(newKey, value)
+            return
+        }
+        val replaced = detach(newKey)
+        if (replaced >= 0) values[replaced] = null
+        values[index] = value
+        insert(newKey, index)
+    }
+
+    /** Removes the value of [key]; returns whether there was one. */
+    @Synchronized
+    fun remove(key: CharSequence): Boolean {
+        version++
+        val index = detach(key)
+        if (index < 0) return false
+        values[index] = null
+        return true
+    }
+
+    /** Up to [max] values whose key starts with [prefix], ignoring case, in rank order. */
+    @Synchronized
+    fun startingWith(prefix: CharSequence, max: Int): List<T> {
+        if (prefix.isEmpty()) return emptyList()
+        val node = find(prefix) ?: return emptyList()
+        val count = minOf(max, node.firstCount)
+        val result = ArrayList<T>(count)
+        for (i in 0 until count) result.add(values[node.firsts[i]]!!)
+        return result
+    }
+
+    private fun find(key: CharSequence): Node? {
+        var node: Node = root
+        for (i in 0 until key.length) {
+            node = node.child(Character.toLowerCase(key[i])) ?: return null
+        }
+        return node
+    }
+
+    private fun insert(key: CharSequence, index: Int) {
+        var node = root
+        for (i in 0 until key.length) {
+            node = node.getOrAddChild(Character.toLowerCase(key[i]))
+            node.count++
+            node.addFirst(index)
+        }
+        node.end = index
+    }
+
+    /**
+     * Unlinks the value of [key] from the nodes along it, dropping nodes nothing passes through
+     * any more.
+     * @return the index of the value, or -1 if [key] has none.
+     */
+    private fun detach(key: CharSequence): Int {
+        if (key.isEmpty()) return -1
+        val terminal = find(key)
+        if (terminal == null || terminal.end < 0) return -1
+        val index = terminal.end
+        terminal.end = -1
+        val path = arrayOfNulls<Node>(key.length + 1)
+        path[0] = root
+        for (i in 0 until key.length) path[i + 1] = path[i]!!.child(Character.toLowerCase(key[i]))
+        // Bottom up, so that refilling a node only sees children that no longer hold the index.
+        for (i in key.length downTo 1) {
+            val node = path[i]!!
+            node.count--
+            if (node.count == 0) {
+                path[i - 1]!!.removeChild(Character.toLowerCase(key[i - 1]))
+                continue
+            }
+            if (node.removeFirst(index) && node.count > node.firstCount) refill(node)
+        }
+        return index
+    }
+
+    /** Adds the smallest index below [node] that is not among its firsts yet. */
+    private fun refill(node: Node) {
+        val after = if (node.firstCount == 0) -1 else node.firsts[node.firstCount - 1]
+        val next = smallestAfter(node, after)
+        if (next >= 0) node.addFirst(next)
+    }
+
+    private fun smallestAfter(node: Node, after: Int): Int {
+        var best = if (node.end > after) node.end else -1
+        for (child in node.children) {
+            // A child's firsts are its smallest indices, so one of them is the answer if any is.
+            val candidate = if (child!!.firstCount < child.count
+                    && (child.firstCount == 0 || child.firsts[child.firstCount - 1] <= after)) {
+                smallestAfter(child, after)
+            } else {
+                firstAfter(child, after)
+            }
+            if (candidate >= 0 && (best < 0 || candidate < best)) best = candidate
+        }
+        return best
+    }
+
+    private fun firstAfter(node: Node, after: Int): Int {
+        for (i in 0 until node.firstCount) if (node.firsts[i] > after) return node.firsts[i]
+        return -1
+    }
+
+    private fun sameKey(a: CharSequence, b: CharSequence): Boolean {
+        if (a.length != b.length) return false
+        for (i in 0 until a.length) {
+            if (Character.toLowerCase(a[i]) != Character.toLowerCase(b[i])) return false
+        }
+        return true
+    }
+
+    companion object {
+        const val MAX_RESULTS_PER_NODE = 8
+    }
+}
@@ -0,0 +1,63 @@
+package org.dslul.openboard.inputmethod.latin.autotext
+
+import android.content.ContentValues
+import android.content.Context
+import android.database.sqlite.SQLiteDatabase
+import android.database.sqlite.SQLiteOpenHelper
+
+/**
+ * SQLite store behind [AutoTextRepository]: one row per entry, with a unique case-insensitive
+ * index on the shortcut. Rows keep their insertion order through the rowid.
+ * On creation, entries from the old delimiter-joined SharedPreferences blob are imported.
+ */
+internal class AutoTextDbHelper private constructor(private val context: Context) :
+    SQLiteOpenHelper(context, DATABASE_NAME, null, DATABASE_VERSION) {
+
+    override fun onCreate(db: SQLiteDatabase) {
+        db.execSQL("CREATE TABLE $TABLE_NAME ("
+                + "$COLUMN_ID INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + "$COLUMN_SHORTCUT TEXT NOT NULL UNIQUE COLLATE NOCASE, "
+                + "$COLUMN_MESSAGE TEXT NOT NULL)")
+        migrateLegacyPrefs(db)
+    }
+
+    override fun onUpgrade(db: SQLiteDatabase, oldVersion: Int, newVersion: Int) {
+        // Only one version so far.
+    }
+
+    private fun migrateLegacyPrefs(db: SQLiteDatabase) {
+        val prefs = context.getSharedPreferences(LEGACY_PREFS_NAME, Context.MODE_PRIVATE)
+        val raw = prefs.getString(LEGACY_PREFS_KEY, null) ?: return
+        val values = ContentValues()
+        for (item in raw.split("\u0001")) {
+            val parts = item.split("\u0002")
+            if (parts.size != 2) continue
+            values.put(COLUMN_SHORTCUT, parts[0])
+            values.put(COLUMN_MESSAGE, parts[1])
+            db.insertWithOnConflict(TABLE_NAME, null, values, SQLiteDatabase.CONFLICT_REPLACE)
+        }
+        prefs.edit().remove(LEGACY_PREFS_KEY).apply()
+    }
+
+    companion object {
+        private const val DATABASE_NAME = "auto_text.db"
+        private const val DATABASE_VERSION = 1
+        const val TABLE_NAME = "auto_text"
+        const val COLUMN_ID = "_id"
+        const val COLUMN_SHORTCUT = "shortcut"
+        const val COLUMN_MESSAGE = "message"
+
+        private const val LEGACY_PREFS_NAME = "auto_text_store"
+        private const val LEGACY_PREFS_KEY = "entries"
+
+        @Volatile private var sInstance: AutoTextDbHelper? = null
+
+        fun getInstance(context: Context): AutoTextDbHelper {
+            sInstance?.let { return it }
+            synchronized(this) {
+                sInstance?.let { return it }
+                return AutoTextDbHelper(context.applicationContext).also { sInstance = it }
+            }
+        }
+    }
+}
@@ -1,28 +1,79 @@
 package org.dslul.openboard.inputmethod.latin.autotext
 
+import android.content.ContentValues
 import android.content.Context
-import android.content.SharedPreferences
+import android.database.sqlite.SQLiteDatabase
+import java.util.concurrent.CopyOnWriteArrayList
 
 data class AutoTextEntry(val shortcut: String, val message: String)
 
+/**
+ * Auto Text entries, stored in SQLite with a unique case-insensitive shortcut index, so single
+ * edits touch one row instead of rewriting every entry. Changes are announced to [Listener]s
+ * entry by entry, so that they can be applied without reloading everything.
+ */
 class AutoTextRepository(private val context: Context) {
-    private val prefs: SharedPreferences =
-        context.getSharedPreferences("auto_text_store", Context.MODE_PRIVATE)
+    interface Listener {
+        /**
+         * [entries] were stored, in order: each one was appended, or replaced the entry with the
+         * same shortcut (ignoring case) in place.
+         */
+        fun onAutoTextAdded(entries: List<AutoTextEntry>)
+
+        /** The entry with [oldShortcut] was changed to [entry] in place. */
+        fun onAutoTextUpdated(oldShortcut: String, entry: AutoTextEntry)
+
+        /** The entries with [shortcuts] (ignoring case) were removed, where there were any. */
+        fun onAutoTextRemoved(shortcuts: Collection<String>)
+    }
+
+    private val db: SQLiteDatabase
+        get() = AutoTextDbHelper.getInstance(context).writableDatabase
 
     fun getAll(): List<AutoTextEntry> {
-        val raw = prefs.getString("entries", null) ?: return emptyList()
-        return raw.split("\u0001").mapNotNull {
-            val parts = it.split("\u0002")
-            if (parts.size == 2) AutoTextEntry(parts[0], parts[1]) else null
+        val result = ArrayList<AutoTextEntry>()
+        db.query(
+            AutoTextDbHelper.TABLE_NAME,
+            arrayOf(AutoTextDbHelper.COLUMN_SHORTCUT, AutoTextDbHelper.COLUMN_MESSAGE),
+            null, null, null, null, AutoTextDbHelper.COLUMN_ID
+        ).use { cursor ->
+            while (cursor.moveToNext()) {
+                result.add(AutoTextEntry(cursor.getString(0), cursor.getString(1)))
+            }
         }
+        return result
     }
 
+    /** All entries in storage order, for export. */
+    fun exportAll(): List<AutoTextEntry> = getAll()
+
     fun add(entry: AutoTextEntry) {
-        val list = getAll().toMutableList()
-        // Replace if same shortcut exists
-        val idx = list.indexOfFirst { it.shortcut.equals(entry.shortcut, ignoreCase = true) }
-        if (idx >= 0) list[idx] = entry else list.add(entry)
-        save(list)
+        addAll(listOf(entry))
+    }
+
+    /**
+     * Adds or replaces (same shortcut, ignoring case) all [entries] in one transaction, e.g. for
+     * imports. Replaced entries keep their position.
+     */
+    fun addAll(entries: Collection<AutoTextEntry>) {
+        if (entries.isEmpty()) return
+        val database = db
+        val values = ContentValues()
+        database.beginTransaction()
+        try {
+            for (entry in entries) {
+                values.clear()
+                values.put(AutoTextDbHelper.COLUMN_SHORTCUT, entry.shortcut)
+                values.put(AutoTextDbHelper.COLUMN_MESSAGE, entry.message)
+                val updated = database.update(AutoTextDbHelper.TABLE_NAME, values,
+                    SHORTCUT_SELECTION, arrayOf(entry.shortcut))
+                if (updated == 0) database.insert(AutoTextDbHelper.TABLE_NAME, null, values)
+            }
+            database.setTransactionSuccessful()
+        } finally {
+            database.endTransaction()
+        }
+        notifyAdded(entries.toList())
     }
 
     /**
@@ -30,39 +81,62 @@ class AutoTextRepository(private val context: Context) {
      * belongs to another entry (case-insensitive), no change is made and false is returned.
      */
     fun update(oldShortcut: String, updated: AutoTextEntry): Boolean {
-        val list = getAll().toMutableList()
-        val oldIndex = list.indexOfFirst { it.shortcut.equals(oldShortcut, ignoreCase = true) }
-        if (oldIndex < 0) return false
-        // If shortcut changed, ensure uniqueness against all other entries
-        val isSameShortcut = updated.shortcut.equals(oldShortcut, ignoreCase = true)
-        if (!isSameShortcut) {
-            val clash = list.anyIndexed { index, it ->
-                index != oldIndex && it.shortcut.equals(updated.shortcut, ignoreCase = true)
-            }
-            if (clash) return false
+        val values = ContentValues()
+        values.put(AutoTextDbHelper.COLUMN_SHORTCUT, updated.shortcut)
+        values.put(AutoTextDbHelper.COLUMN_MESSAGE, updated.message)
+        val count = try {
+            // The unique index rejects a shortcut that belongs to another entry.
+            db.updateWithOnConflict(AutoTextDbHelper.TABLE_NAME, values, SHORTCUT_SELECTION,
+                arrayOf(oldShortcut), SQLiteDatabase.CONFLICT_ABORT)
+        } catch (e: android.database.sqlite.SQLiteConstraintException) {
+            0
         }
-        list[oldIndex] = updated
-        save(list)
+        if (count <= 0) return false
+        for (listener in sListeners) listener.onAutoTextUpdated(oldShortcut, updated)
         return true
     }
 
-    private inline fun <T> List<T>.anyIndexed(predicate: (index: Int, T) -> Boolean): Boolean {
-        for (i in indices) if (predicate(i, this[i])) return true
-        return false
+    fun removeMany(shortcuts: Collection<String>) {
+        if (shortcuts.isEmpty()) return
+        val database = db
+        var removed = 0
+        database.beginTransaction()
+        try {
+            // The column's NOCASE collation makes IN case-insensitive.
+            for (chunk in shortcuts.chunked(MAX_SQL_ARGS)) {
+                val placeholders = chunk.joinToString(",") { "?" }
+                removed += database.delete(AutoTextDbHelper.TABLE_NAME,
+                    "${AutoTextDbHelper.COLUMN_SHORTCUT} IN ($placeholders)", chunk.toTypedArray())
+            }
+            database.setTransactionSuccessful()
+        } finally {
+            database.endTransaction()
+        }
+        if (removed > 0) {
+            for (listener in sListeners) listener.onAutoTextRemoved(shortcuts)
+        }
     }
 
-    private fun save(list: List<AutoTextEntry>) {
-        val raw = list.joinToString("\u0001") { it.shortcut + "\u0002" + it.message }
-        prefs.edit().putString("entries", raw).apply()
+    private fun notifyAdded(entries: List<AutoTextEntry>) {
+        for (listener in sListeners) listener.onAutoTextAdded(entries)
     }
 
-    fun removeMany(shortcuts: Collection<String>) {
-        if (shortcuts.isEmpty()) return
-        val list = getAll().filterNot { e ->
-            shortcuts.any { it.equals(e.shortcut, ignoreCase = true) }
+    companion object {
+        private const val SHORTCUT_SELECTION = "${AutoTextDbHelper.COLUMN_SHORTCUT} = ?"
+        // Stays well below SQLite's host parameter limit.
+        private const val MAX_SQL_ARGS = 500
+
+        private val sListeners = CopyOnWriteArrayList<Listener>()
+
+        /** Listeners are called on the thread that made the change. */
+        @JvmStatic
+        fun addListener(listener: Listener) {
+            sListeners.addIfAbsent(listener)
+        }
+
+        @JvmStatic
+        fun removeListener(listener: Listener) {
+            sListeners.remove(listener)
         }
-        save(list)
     }
 }
-
-
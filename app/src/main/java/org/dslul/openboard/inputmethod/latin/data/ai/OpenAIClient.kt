@@ -1,32 +1,24 @@
 package org.dslul.openboard.inputmethod.latin.data.ai
 
-import okhttp3.Interceptor
 import okhttp3.MediaType.Companion.toMediaType
 import okhttp3.OkHttpClient
 import okhttp3.RequestBody.Companion.toRequestBody
 import okhttp3.Request as OkRequest
 import org.json.JSONObject
 import java.util.concurrent.TimeUnit
-import org.dslul.openboard.inputmethod.latin.ai.ApiKeyProvider
+import org.dslul.openboard.inputmethod.latin.ai.AiHttpClient
 
 class OpenAIClient(private val context: android.content.Context) {
     companion object {
         const val MODEL = "gpt-5-fast"
-        private const val BASE = "https://api.openai.com"
+        private const val BASE = AiHttpClient.BASE_URL
     }
 
-    private fun httpClient(): OkHttpClient {
-        val apiKey = ApiKeyProvider.getOpenAiKey(context)
-        val auth = Interceptor { chain ->
-            val b = chain.request().newBuilder()
-                .header("Content-Type", "application/json")
-            if (!apiKey.isNullOrBlank()) b.header("Authorization", "Bearer $apiKey")
-            chain.proceed(b.build())
-        }
-        return OkHttpClient.Builder()
+    // Derived from the shared AI transport so the connection pool and dispatcher are reused.
+    private val httpClient: OkHttpClient by lazy {
+        AiHttpClient.get(context).newBuilder()
             .connectTimeout(10, TimeUnit.SECONDS)
             .readTimeout(10, TimeUnit.SECONDS)
-            .addInterceptor(auth)
             .build()
     }
 
@@ -49,7 +41,7 @@ class OpenAIClient(private val context: android.content.Context) {
             .url("$BASE/v1/chat/completions")
             .post(body)
             .build()
-        httpClient().newCall(req).execute().use { resp ->
+        httpClient.newCall(req).execute().use { resp ->
             if (!resp.isSuccessful) throw RuntimeException("HTTP ${'$'}{resp.code}")
             val s = resp.body?.string().orEmpty()
             val jo = JSONObject(s)
@@ -0,0 +1,54 @@
+package org.dslul.openboard.inputmethod.latin.ime
+
+import android.view.Choreographer
+import android.widget.TextView
+
+/**
+ * Coalesces streamed text deltas into at most one [TextView] update per vsync.
+ *
+ * [append] may be called from any thread; pending text is buffered and flushed on the next
+ * frame by appending only what is new, so the view never re-lays out the whole reply per token.
+ * The first flush replaces whatever placeholder the view was showing.
+ * Must be constructed on the UI thread.
+ */
+class StreamingTextUpdater(private val textView: TextView) : Choreographer.FrameCallback {
+    private val choreographer = Choreographer.getInstance()
+    private val pending = StringBuilder()
+    private var frameScheduled = false
+    private var replacedPlaceholder = false
+
+    fun append(delta: CharSequence) {
+        if (delta.isEmpty()) return
+        synchronized(pending) {
+            pending.append(delta)
+            if (frameScheduled) return
+            frameScheduled = true
+        }
+        choreographer.postFrameCallback(this)
+    }
+
+    /** Drops anything not yet drawn; call before writing the final text into the view. */
+    fun cancel() {
+        choreographer.removeFrameCallback(this)
+        synchronized(pending) {
+            pending.setLength(0)
+            frameScheduled = false
+        }
+    }
+
+    override fun doFrame(frameTimeNanos: Long) {
+        val chunk: String
+        synchronized(pending) {
+            frameScheduled = false
+            if (pending.isEmpty()) return
+            chunk = pending.toString()
+            pending.setLength(0)
+        }
+        if (replacedPlaceholder) {
+            textView.append(chunk)
+        } else {
+            replacedPlaceholder = true
+            textView.setText(chunk, TextView.BufferType.EDITABLE)
+        }
+    }
+}
@@ -106,4 +106,9 @@ public class UserHistoryDictionary extends ExpandableBinaryDictionary {
         // Strings out of this dictionary should not be considered existing words.
         return false;
     }
+
+    @Override
+    public void markValidWords(final String[] words, final boolean[] outIsValid) {
+        // Same as isValidWord(): nothing to mark.
+    }
 }
@@ -46,6 +46,7 @@ public final class DebugSettings {
     public static final String PREF_SHOULD_SHOW_LXX_SUGGESTION_UI =
             "pref_should_show_lxx_suggestion_ui";
     public static final String PREF_SLIDING_KEY_INPUT_PREVIEW = "pref_sliding_key_input_preview";
+    public static final String PREF_PARALLEL_DICTIONARY_LOOKUP = "pref_parallel_dictionary_lookup";
 
     private DebugSettings() {
         // This class is not publicly instantiable.
@@ -96,6 +96,7 @@ public final class Settings implements SharedPreferences.OnSharedPreferenceChang
     public static final String PREF_ALWAYS_INCOGNITO_MODE =
             "pref_always_incognito_mode";
     public static final String PREF_BIGRAM_PREDICTIONS = "next_word_prediction";
+    public static final String PREF_MULTILINGUAL_TYPING = "pref_multilingual_typing";
     public static final String PREF_GESTURE_INPUT = "gesture_input";
     public static final String PREF_VIBRATION_DURATION_SETTINGS =
             "pref_vibration_duration_settings";
@@ -125,6 +126,8 @@ public final class Settings implements SharedPreferences.OnSharedPreferenceChang
     public static final String PREF_ENABLE_CLIPBOARD_HISTORY = "pref_enable_clipboard_history";
     public static final String PREF_CLIPBOARD_HISTORY_RETENTION_TIME = "pref_clipboard_history_retention_time";
 
+    public static final String PREF_AI_SPECULATIVE_GRAMMAR = "pref_ai_speculative_grammar";
+
     // This preference key is deprecated. Use {@link #PREF_SHOW_LANGUAGE_SWITCH_KEY} instead.
     // This is being used only for the backward compatibility.
     private static final String PREF_SUPPRESS_LANGUAGE_SWITCH_KEY =
@@ -365,6 +368,10 @@ public final class Settings implements SharedPreferences.OnSharedPreferenceChang
         return prefs.getBoolean(PREF_ENABLE_CLIPBOARD_HISTORY, true);
     }
 
+    public static boolean readAiSpeculativeGrammarEnabled(final SharedPreferences prefs) {
+        return prefs.getBoolean(PREF_AI_SPECULATIVE_GRAMMAR, false);
+    }
+
     public static int readClipboardHistoryRetentionTime(final SharedPreferences prefs,
                                               final Resources res) {
         final int minutes = prefs.getInt(
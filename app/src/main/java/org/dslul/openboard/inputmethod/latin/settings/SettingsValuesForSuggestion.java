@@ -18,8 +18,16 @@ package org.dslul.openboard.inputmethod.latin.settings;
 
 public class SettingsValuesForSuggestion {
     public final boolean mBlockPotentiallyOffensive;
+    // Query the dictionaries concurrently, dropping results that miss the keystroke deadline.
+    public final boolean mParallelDictionaryLookup;
 
     public SettingsValuesForSuggestion(final boolean blockPotentiallyOffensive) {
+        this(blockPotentiallyOffensive, false /* parallelDictionaryLookup */);
+    }
+
+    public SettingsValuesForSuggestion(final boolean blockPotentiallyOffensive,
+            final boolean parallelDictionaryLookup) {
         mBlockPotentiallyOffensive = blockPotentiallyOffensive;
+        mParallelDictionaryLookup = parallelDictionaryLookup;
     }
 }
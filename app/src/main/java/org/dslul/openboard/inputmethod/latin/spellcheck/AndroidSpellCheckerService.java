@@ -174,6 +174,17 @@ public final class AndroidSpellCheckerService extends SpellCheckerService
         }
     }
 
+    public boolean[] areValidWords(final Locale locale, final String[] words) {
+        mSemaphore.acquireUninterruptibly();
+        try {
+            DictionaryFacilitator dictionaryFacilitatorForLocale =
+                    mDictionaryFacilitatorCache.get(locale);
+            return dictionaryFacilitatorForLocale.areValidSpellingWords(words);
+        } finally {
+            mSemaphore.release();
+        }
+    }
+
     public SuggestionResults getSuggestionResults(final Locale locale,
             final ComposedData composedData, final NgramContext ngramContext,
             @Nonnull final Keyboard keyboard) {
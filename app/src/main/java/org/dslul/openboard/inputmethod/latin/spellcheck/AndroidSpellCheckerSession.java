@@ -32,6 +32,7 @@ import org.dslul.openboard.inputmethod.latin.utils.SpannableStringUtils;
 
 import java.util.ArrayList;
 import java.util.Locale;
+import java.util.Map;
 
 public final class AndroidSpellCheckerSession extends AndroidWordLevelSpellCheckerSession {
     private static final String TAG = AndroidSpellCheckerSession.class.getSimpleName();
@@ -199,6 +200,7 @@ public final class AndroidSpellCheckerSession extends AndroidWordLevelSpellCheck
         try {
             final int length = textInfos.length;
             final SuggestionsInfo[] retval = new SuggestionsInfo[length];
+            final Map<String, Boolean> knownValidity = getValidityOfSpellings(textInfos);
             for (int i = 0; i < length; ++i) {
                 final CharSequence prevWord;
                 if (sequentialWords && i > 0) {
@@ -214,7 +216,8 @@ public final class AndroidSpellCheckerSession extends AndroidWordLevelSpellCheck
                 final NgramContext ngramContext =
                         new NgramContext(new NgramContext.WordInfo(prevWord));
                 final TextInfo textInfo = textInfos[i];
-                retval[i] = onGetSuggestionsInternal(textInfo, ngramContext, suggestionsLimit);
+                retval[i] = onGetSuggestionsInternal(textInfo, ngramContext, suggestionsLimit,
+                        knownValidity);
                 retval[i].setCookieAndSequence(textInfo.getCookie(), textInfo.getSequence());
             }
             return retval;
@@ -43,11 +43,14 @@ import org.dslul.openboard.inputmethod.latin.utils.StatsUtils;
 import org.dslul.openboard.inputmethod.latin.utils.SuggestionResults;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.TreeMap;
 
+import javax.annotation.Nullable;
+
 public abstract class AndroidWordLevelSpellCheckerSession extends Session {
     private static final String TAG = AndroidWordLevelSpellCheckerSession.class.getSimpleName();
 
@@ -237,24 +240,97 @@ public abstract class AndroidWordLevelSpellCheckerSession extends Session {
      * If the "TEXT" is fully upper case, we test the exact string "TEXT", the lower-cased
      *  version of it "text" and the capitalized version of it "Text".
      */
-    private boolean isInDictForAnyCapitalization(final String text, final int capitalizeType) {
+    private boolean isInDictForAnyCapitalization(final String text, final int capitalizeType,
+            @Nullable final Map<String, Boolean> knownValidity) {
         // If the word is in there as is, then it's in the dictionary. If not, we'll test lower
         // case versions, but only if the word is not already all-lower case or mixed case.
-        if (mService.isValidWord(mLocale, text)) return true;
+        if (isValidWord(text, knownValidity)) return true;
         if (StringUtils.CAPITALIZE_NONE == capitalizeType) return false;
 
         // If we come here, we have a capitalized word (either First- or All-).
         // Downcase the word and look it up again. If the word is only capitalized, we
         // tested all possibilities, so if it's still negative we can return false.
         final String lowerCaseText = text.toLowerCase(mLocale);
-        if (mService.isValidWord(mLocale, lowerCaseText)) return true;
+        if (isValidWord(lowerCaseText, knownValidity)) return true;
         if (StringUtils.CAPITALIZE_FIRST == capitalizeType) return false;
 
         // If the lower case version is not in the dictionary, it's still possible
         // that we have an all-caps version of a word that needs to be capitalized
         // according to the dictionary. E.g. "GERMANS" only exists in the dictionary as "Germans".
-        return mService.isValidWord(mLocale,
-                StringUtils.capitalizeFirstAndDowncaseRest(lowerCaseText, mLocale));
+        return isValidWord(StringUtils.capitalizeFirstAndDowncaseRest(lowerCaseText, mLocale),
+                knownValidity);
+    }
+
+    private boolean isValidWord(final String word,
+            @Nullable final Map<String, Boolean> knownValidity) {
+        final Boolean isValid = null == knownValidity ? null : knownValidity.get(word);
+        return null != isValid ? isValid : mService.isValidWord(mLocale, word);
+    }
+
+    // Strips the quotes and punctuation that should not be spell checked.
+    private String getTextToCheck(final TextInfo textInfo) {
+        // It's good to keep this not local specific since the standard
+        // ones may show up in other languages also.
+        String text = textInfo.getText().
+                replaceAll(AndroidSpellCheckerService.APOSTROPHE,
+                        AndroidSpellCheckerService.SINGLE_QUOTE).
+                replaceAll("^" + quotesRegexp, "").
+                replaceAll(quotesRegexp + "$", "");
+
+        final String localeRegex = scriptToPunctuationRegexMap.get(
+                ScriptUtils.getScriptFromSpellCheckerLocale(mLocale)
+        );
+
+        if (localeRegex != null) {
+            text = text.replaceAll(localeRegex, "");
+        }
+        return text;
+    }
+
+    /**
+     * Looks up in one go the spellings that checking textInfos will ask about: each text as
+     * is, and the lower case and capitalized forms that isInDictForAnyCapitalization() tries.
+     * A whole sentence then costs a single batched lookup per dictionary instead of a few
+     * lookups per word.
+     *
+     * @return the validity of each spelling looked up, or null if there is nothing to check.
+     */
+    @Nullable
+    protected Map<String, Boolean> getValidityOfSpellings(final TextInfo[] textInfos) {
+        try {
+            updateLocale();
+            if (!mService.hasMainDictionaryForLocale(mLocale)) {
+                return null;
+            }
+            final ArrayList<String> spellings = new ArrayList<>();
+            for (final TextInfo textInfo : textInfos) {
+                final String text = getTextToCheck(textInfo);
+                if (CHECKABILITY_CHECKABLE != getCheckabilityInScript(text, mScript)) {
+                    continue;
+                }
+                spellings.add(text);
+                final int capitalizeType = StringUtils.getCapitalizationType(text);
+                if (StringUtils.CAPITALIZE_NONE == capitalizeType) continue;
+                final String lowerCaseText = text.toLowerCase(mLocale);
+                spellings.add(lowerCaseText);
+                if (StringUtils.CAPITALIZE_FIRST == capitalizeType) continue;
+                spellings.add(StringUtils.capitalizeFirstAndDowncaseRest(lowerCaseText, mLocale));
+            }
+            if (spellings.isEmpty()) {
+                return null;
+            }
+            final String[] words = spellings.toArray(new String[spellings.size()]);
+            final boolean[] isValid = mService.areValidWords(mLocale, words);
+            final HashMap<String, Boolean> validity = new HashMap<>();
+            for (int i = 0; i < words.length; i++) {
+                validity.put(words[i], isValid[i]);
+            }
+            return validity;
+        } catch (RuntimeException e) {
+            // Fall back to looking up words one by one
+            Log.e(TAG, "Exception while batch checking spellings", e);
+            return null;
+        }
     }
 
     // Note : this must be reentrant
@@ -270,23 +346,20 @@ public abstract class AndroidWordLevelSpellCheckerSession extends Session {
 
     protected SuggestionsInfo onGetSuggestionsInternal(
             final TextInfo textInfo, final NgramContext ngramContext, final int suggestionsLimit) {
+        return onGetSuggestionsInternal(textInfo, ngramContext, suggestionsLimit,
+                null /* knownValidity */);
+    }
+
+    /**
+     * @param knownValidity spellings already looked up by {@link #getValidityOfSpellings}, or
+     *        null to look up everything.
+     */
+    protected SuggestionsInfo onGetSuggestionsInternal(
+            final TextInfo textInfo, final NgramContext ngramContext, final int suggestionsLimit,
+            @Nullable final Map<String, Boolean> knownValidity) {
         try {
             updateLocale();
-            // It's good to keep this not local specific since the standard
-            // ones may show up in other languages also.
-            String text = textInfo.getText().
-                    replaceAll(AndroidSpellCheckerService.APOSTROPHE,
-                            AndroidSpellCheckerService.SINGLE_QUOTE).
-                    replaceAll("^" + quotesRegexp, "").
-                    replaceAll(quotesRegexp + "$", "");
-
-            final String localeRegex = scriptToPunctuationRegexMap.get(
-                    ScriptUtils.getScriptFromSpellCheckerLocale(mLocale)
-            );
-
-            if (localeRegex != null) {
-                text = text.replaceAll(localeRegex, "");
-            }
+            final String text = getTextToCheck(textInfo);
 
             if (!mService.hasMainDictionaryForLocale(mLocale)) {
                 return AndroidSpellCheckerService.getNotInDictEmptySuggestions(
@@ -300,7 +373,7 @@ public abstract class AndroidWordLevelSpellCheckerSession extends Session {
                     final String[] splitText = text.split(Constants.REGEXP_PERIOD);
                     boolean allWordsAreValid = true;
                     for (final String word : splitText) {
-                        if (!mService.isValidWord(mLocale, word)) {
+                        if (!isValidWord(word, knownValidity)) {
                             allWordsAreValid = false;
                             break;
                         }
@@ -312,7 +385,7 @@ public abstract class AndroidWordLevelSpellCheckerSession extends Session {
                                         TextUtils.join(Constants.STRING_SPACE, splitText) });
                     }
                 }
-                return mService.isValidWord(mLocale, text) ?
+                return isValidWord(text, knownValidity) ?
                         AndroidSpellCheckerService.getInDictEmptySuggestions() :
                         AndroidSpellCheckerService.getNotInDictEmptySuggestions(
                                 CHECKABILITY_CONTAINS_PERIOD == checkability /* reportAsTypo */);
@@ -321,7 +394,7 @@ public abstract class AndroidWordLevelSpellCheckerSession extends Session {
             // Handle normal words.
             final int capitalizeType = StringUtils.getCapitalizationType(text);
 
-            if (isInDictForAnyCapitalization(text, capitalizeType)) {
+            if (isInDictForAnyCapitalization(text, capitalizeType, knownValidity)) {
                 if (DebugFlags.DEBUG_ENABLED) {
                     Log.i(TAG, "onGetSuggestionsInternal() : [" + text + "] is a valid word");
                 }
@@ -21,6 +21,7 @@ import android.util.Log;
 import org.dslul.openboard.inputmethod.annotations.UsedForTesting;
 
 import java.lang.Thread.UncaughtExceptionHandler;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ThreadFactory;
@@ -43,6 +44,20 @@ public class ExecutorUtils {
         return Executors.newSingleThreadScheduledExecutor(new ExecutorFactory(name));
     }
 
+    // Per-keystroke dictionary lookups run in parallel on this small pool. One thread per
+    // dynamic dictionary type is enough, the caller itself does not wait for more than that.
+    private static final int DICTIONARY_QUERY_THREAD_COUNT = 3;
+    private static final ExecutorService sDictionaryQueryExecutorService =
+            Executors.newFixedThreadPool(DICTIONARY_QUERY_THREAD_COUNT,
+                    new ExecutorFactory("DictionaryQuery"));
+
+    // Read-only main dictionaries of the enabled locales are opened in parallel on this pool, so
+    // that neither each other nor the dynamic dictionaries loading on KEYBOARD hold them up.
+    private static final int DICTIONARY_LOAD_THREAD_COUNT = 2;
+    private static final ExecutorService sDictionaryLoadExecutorService =
+            Executors.newFixedThreadPool(DICTIONARY_LOAD_THREAD_COUNT,
+                    new ExecutorFactory("DictionaryLoad"));
+
     private static class ExecutorFactory implements ThreadFactory {
         private final String mName;
 
@@ -94,6 +109,26 @@ public class ExecutorUtils {
         }
     }
 
+    /**
+     * @return bounded executor used to query several dictionaries for the same keystroke
+     */
+    public static ExecutorService getDictionaryQueryExecutor() {
+        if (sExecutorServiceForTests != null) {
+            return sExecutorServiceForTests;
+        }
+        return sDictionaryQueryExecutorService;
+    }
+
+    /**
+     * @return bounded executor used to load main dictionaries in the background
+     */
+    public static ExecutorService getDictionaryLoadExecutor() {
+        if (sExecutorServiceForTests != null) {
+            return sExecutorServiceForTests;
+        }
+        return sDictionaryLoadExecutorService;
+    }
+
     public static void killTasks(final String name) {
         final ScheduledExecutorService executorService = getBackgroundExecutor(name);
         executorService.shutdownNow();
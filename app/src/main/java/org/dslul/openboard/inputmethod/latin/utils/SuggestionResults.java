@@ -16,19 +16,35 @@
 
 package org.dslul.openboard.inputmethod.latin.utils;
 
+import org.dslul.openboard.inputmethod.latin.Dictionary;
 import org.dslul.openboard.inputmethod.latin.SuggestedWords.SuggestedWordInfo;
+import org.dslul.openboard.inputmethod.latin.common.StringUtils;
+import org.dslul.openboard.inputmethod.latin.define.DecoderSpecificConstants;
 import org.dslul.openboard.inputmethod.latin.define.ProductionFlags;
 
+import java.util.AbstractCollection;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Comparator;
-import java.util.TreeSet;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
 
 /**
- * A TreeSet of SuggestedWordInfo that is bounded in size and throws everything that's smaller
- * than its limit
+ * The best suggestions out of all candidates offered, bounded in size.
+ *
+ * Candidates are kept in a min-heap of at most capacity slots whose fields live in parallel
+ * primitive arrays, the code points of slot i being at i * {@link #MAX_WORD_LENGTH} of a shared
+ * buffer. A candidate offered through {@link #addCandidate} that does not beat the worst kept one
+ * costs no allocation at all, and a {@link SuggestedWordInfo} is only created for the winners
+ * when the results are read. Candidates that rank the same as one already kept (same score and
+ * word) are dropped.
+ *
+ * The order is by descending score, then ascending length, then word. Adding is not thread
+ * safe; once filled, the results can be read from any thread.
  */
-public final class SuggestionResults extends TreeSet<SuggestedWordInfo> {
+public final class SuggestionResults extends AbstractCollection<SuggestedWordInfo> {
+    private static final int MAX_WORD_LENGTH = DecoderSpecificConstants.DICTIONARY_MAX_WORD_LENGTH;
+
     public final ArrayList<SuggestedWordInfo> mRawSuggestions;
     // TODO: Instead of a boolean , we may want to include the context of this suggestion results,
     // such as {@link NgramContext}.
@@ -36,17 +52,34 @@ public final class SuggestionResults extends TreeSet<SuggestedWordInfo> {
     public final boolean mFirstSuggestionExceedsConfidenceThreshold;
     private final int mCapacity;
 
-    public SuggestionResults(final int capacity, final boolean isBeginningOfSentence,
-            final boolean firstSuggestionExceedsConfidenceThreshold) {
-        this(sSuggestedWordInfoComparator, capacity, isBeginningOfSentence,
-                firstSuggestionExceedsConfidenceThreshold);
-    }
+    // Min-heap of slot indices, the worst kept candidate at 0.
+    private final int[] mHeap;
+    private final int[] mScores;
+    private final int[] mCodePointCounts;
+    private final int[] mCodePoints;
+    private final int[] mKindAndFlags;
+    private final int[] mIndicesOfTouchPointOfSecondWord;
+    private final int[] mAutoCommitFirstWordConfidences;
+    private final Dictionary[] mSourceDicts;
+    // Created on read, or given by add() for candidates that came as objects.
+    private final SuggestedWordInfo[] mInfos;
+    private int mSize;
+
+    // Kept candidates in order, built on read and dropped on every change.
+    private ArrayList<SuggestedWordInfo> mSorted;
 
-    private SuggestionResults(final Comparator<SuggestedWordInfo> comparator, final int capacity,
-            final boolean isBeginningOfSentence,
+    public SuggestionResults(final int capacity, final boolean isBeginningOfSentence,
             final boolean firstSuggestionExceedsConfidenceThreshold) {
-        super(comparator);
         mCapacity = capacity;
+        mHeap = new int[capacity];
+        mScores = new int[capacity];
+        mCodePointCounts = new int[capacity];
+        mCodePoints = new int[capacity * MAX_WORD_LENGTH];
+        mKindAndFlags = new int[capacity];
+        mIndicesOfTouchPointOfSecondWord = new int[capacity];
+        mAutoCommitFirstWordConfidences = new int[capacity];
+        mSourceDicts = new Dictionary[capacity];
+        mInfos = new SuggestedWordInfo[capacity];
         if (ProductionFlags.INCLUDE_RAW_SUGGESTIONS) {
             mRawSuggestions = new ArrayList<>();
         } else {
@@ -56,12 +89,62 @@ public final class SuggestionResults extends TreeSet<SuggestedWordInfo> {
         mFirstSuggestionExceedsConfidenceThreshold = firstSuggestionExceedsConfidenceThreshold;
     }
 
+    /**
+     * Offers the word in codePoints[start, start + length) without creating any object for it
+     * unless it makes it into the results.
+     *
+     * @return whether the candidate was kept.
+     */
+    public boolean addCandidate(final int[] codePoints, final int start, final int length,
+            final int score, final int kindAndFlags, final Dictionary sourceDict,
+            final int indexOfTouchPointOfSecondWord, final int autoCommitFirstWordConfidence) {
+        if (length <= 0 || length > MAX_WORD_LENGTH) {
+            return false;
+        }
+        if (null != mRawSuggestions) {
+            mRawSuggestions.add(new SuggestedWordInfo(new String(codePoints, start, length),
+                    "" /* prevWordsContext */, score, kindAndFlags, sourceDict,
+                    indexOfTouchPointOfSecondWord, autoCommitFirstWordConfidence));
+        }
+        final int slot = findSlotFor(score, length, codePoints, start, null /* word */);
+        if (slot < 0) {
+            return false;
+        }
+        mScores[slot] = score;
+        mCodePointCounts[slot] = length;
+        System.arraycopy(codePoints, start, mCodePoints, slot * MAX_WORD_LENGTH, length);
+        mKindAndFlags[slot] = kindAndFlags;
+        mIndicesOfTouchPointOfSecondWord[slot] = indexOfTouchPointOfSecondWord;
+        mAutoCommitFirstWordConfidences[slot] = autoCommitFirstWordConfidence;
+        mSourceDicts[slot] = sourceDict;
+        mInfos[slot] = null;
+        onSlotFilled(slot);
+        return true;
+    }
+
     @Override
     public boolean add(final SuggestedWordInfo e) {
-        if (size() < mCapacity) return super.add(e);
-        if (comparator().compare(e, last()) > 0) return false;
-        super.add(e);
-        pollLast(); // removes the last element
+        final int count = e.mCodePointCount;
+        final int[] codePoints;
+        if (count <= MAX_WORD_LENGTH) {
+            codePoints = StringUtils.toCodePointArray(e.mWord);
+        } else {
+            // Never compared by code points: only an equally long word would be, which has no
+            // room in the buffer either.
+            codePoints = null;
+        }
+        final int slot = findSlotFor(e.mScore, count, codePoints, 0, e.mWord);
+        if (slot < 0) {
+            return false;
+        }
+        mScores[slot] = e.mScore;
+        mCodePointCounts[slot] = count;
+        if (null != codePoints) {
+            System.arraycopy(codePoints, 0, mCodePoints, slot * MAX_WORD_LENGTH, count);
+        }
+        mSourceDicts[slot] = null;
+        mInfos[slot] = e;
+        onSlotFilled(slot);
         return true;
     }
 
@@ -71,19 +154,149 @@ public final class SuggestionResults extends TreeSet<SuggestedWordInfo> {
         return super.addAll(e);
     }
 
-    static final class SuggestedWordInfoComparator implements Comparator<SuggestedWordInfo> {
-        // This comparator ranks the word info with the higher frequency first. That's because
-        // that's the order we want our elements in.
-        @Override
-        public int compare(final SuggestedWordInfo o1, final SuggestedWordInfo o2) {
-            if (o1.mScore > o2.mScore) return -1;
-            if (o1.mScore < o2.mScore) return 1;
-            if (o1.mCodePointCount < o2.mCodePointCount) return -1;
-            if (o1.mCodePointCount > o2.mCodePointCount) return 1;
-            return o1.mWord.compareTo(o2.mWord);
+    public SuggestedWordInfo first() {
+        if (0 == mSize) {
+            throw new NoSuchElementException();
+        }
+        return getSorted().get(0);
+    }
+
+    @Override
+    public int size() {
+        return mSize;
+    }
+
+    @Override
+    public Iterator<SuggestedWordInfo> iterator() {
+        return Collections.unmodifiableList(getSorted()).iterator();
+    }
+
+    /**
+     * Returns the slot to write the candidate to, evicting the worst kept one if full, or -1 if
+     * the candidate does not make it.
+     */
+    private int findSlotFor(final int score, final int count, final int[] codePoints,
+            final int start, final String word) {
+        for (int i = 0; i < mSize; i++) {
+            final int slot = mHeap[i];
+            if (mScores[slot] == score && mCodePointCounts[slot] == count
+                    && compareWord(slot, count, codePoints, start, word) == 0) {
+                return -1;
+            }
+        }
+        if (mSize < mCapacity) {
+            return mSize;
+        }
+        final int worst = mHeap[0];
+        if (compare(worst, score, count, codePoints, start, word) <= 0) {
+            return -1;
+        }
+        // Take the root out; onSlotFilled() puts the slot back with its new content.
+        mSize--;
+        mHeap[0] = mHeap[mSize];
+        siftDown(0);
+        return worst;
+    }
+
+    private void onSlotFilled(final int slot) {
+        mHeap[mSize] = slot;
+        siftUp(mSize);
+        mSize++;
+        mSorted = null;
+    }
+
+    // Positive if slot a ranks after slot b.
+    private int compareSlots(final int a, final int b) {
+        final int count = mCodePointCounts[b];
+        return compare(a, mScores[b], count, count <= MAX_WORD_LENGTH ? mCodePoints : null,
+                b * MAX_WORD_LENGTH, null != mInfos[b] ? mInfos[b].mWord : null);
+    }
+
+    // Positive if the slot ranks after the candidate, negative if before.
+    private int compare(final int slot, final int score, final int count,
+            final int[] codePoints, final int start, final String word) {
+        if (mScores[slot] != score) return mScores[slot] > score ? -1 : 1;
+        if (mCodePointCounts[slot] != count) return mCodePointCounts[slot] < count ? -1 : 1;
+        return compareWord(slot, count, codePoints, start, word);
+    }
+
+    private int compareWord(final int slot, final int count, final int[] codePoints,
+            final int start, final String word) {
+        if (count > MAX_WORD_LENGTH || null == codePoints) {
+            // Both words are too long for the buffer, so both came as objects.
+            return mInfos[slot].mWord.compareTo(word);
+        }
+        final int slotStart = slot * MAX_WORD_LENGTH;
+        for (int i = 0; i < count; i++) {
+            final int diff = mCodePoints[slotStart + i] - codePoints[start + i];
+            if (diff != 0) return diff;
+        }
+        return 0;
+    }
+
+    private void siftUp(int index) {
+        final int slot = mHeap[index];
+        while (index > 0) {
+            final int parent = (index - 1) >>> 1;
+            // The worst candidate goes up.
+            if (compareSlots(slot, mHeap[parent]) <= 0) break;
+            mHeap[index] = mHeap[parent];
+            index = parent;
         }
+        mHeap[index] = slot;
     }
 
-    private static final SuggestedWordInfoComparator sSuggestedWordInfoComparator =
-            new SuggestedWordInfoComparator();
+    private void siftDown(int index) {
+        if (index >= mSize) return;
+        final int slot = mHeap[index];
+        final int half = mSize >>> 1;
+        while (index < half) {
+            int child = 2 * index + 1;
+            final int right = child + 1;
+            if (right < mSize && compareSlots(mHeap[right], mHeap[child]) > 0) {
+                child = right;
+            }
+            if (compareSlots(slot, mHeap[child]) >= 0) break;
+            mHeap[index] = mHeap[child];
+            index = child;
+        }
+        mHeap[index] = slot;
+    }
+
+    // Synchronized as cached results can be read from several threads.
+    private synchronized ArrayList<SuggestedWordInfo> getSorted() {
+        if (null != mSorted) {
+            return mSorted;
+        }
+        // Insertion sort: there are only a handful of slots.
+        final int[] order = new int[mSize];
+        for (int i = 0; i < mSize; i++) {
+            final int slot = mHeap[i];
+            int j = i;
+            while (j > 0 && compareSlots(order[j - 1], slot) > 0) {
+                order[j] = order[j - 1];
+                j--;
+            }
+            order[j] = slot;
+        }
+        final ArrayList<SuggestedWordInfo> sorted = new ArrayList<>(mSize);
+        for (final int slot : order) {
+            sorted.add(getInfo(slot));
+        }
+        mSorted = sorted;
+        return sorted;
+    }
+
+    private SuggestedWordInfo getInfo(final int slot) {
+        SuggestedWordInfo info = mInfos[slot];
+        if (null == info) {
+            info = new SuggestedWordInfo(
+                    new String(mCodePoints, slot * MAX_WORD_LENGTH, mCodePointCounts[slot]),
+                    "" /* prevWordsContext */, mScores[slot], mKindAndFlags[slot],
+                    mSourceDicts[slot], mIndicesOfTouchPointOfSecondWord[slot],
+                    mAutoCommitFirstWordConfidences[slot]);
+            mInfos[slot] = info;
+        }
+        return info;
+    }
 }
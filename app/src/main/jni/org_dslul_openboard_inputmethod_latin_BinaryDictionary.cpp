@@ -260,21 +260,70 @@ static void latinime_BinaryDictionary_getSuggestions(JNIEnv *env, jclass clazz,
             outAutoCommitFirstWordConfidenceArray, inOutWeightOfLangModelVsSpatialModel);
 }
 
+// The word is the first wordLength code points of the array, which may be a reused buffer.
 static jint latinime_BinaryDictionary_getProbability(JNIEnv *env, jclass clazz, jlong dict,
-        jintArray word) {
+        jintArray word, jint wordLength) {
     Dictionary *dictionary = reinterpret_cast<Dictionary *>(dict);
     if (!dictionary) return NOT_A_PROBABILITY;
-    const jsize codePointCount = env->GetArrayLength(word);
+    if (wordLength < 0 || wordLength > env->GetArrayLength(word)) {
+        AKLOGE("Invalid wordLength: %d", wordLength);
+        return NOT_A_PROBABILITY;
+    }
+    const jsize codePointCount = wordLength;
     int codePoints[codePointCount];
     env->GetIntArrayRegion(word, 0, codePointCount, codePoints);
     return dictionary->getProbability(CodePointArrayView(codePoints, codePointCount));
 }
 
+// Looks up wordCount words in one call. Word i is codePoints[wordStarts[i], wordStarts[i + 1]),
+// and its probability goes to outProbabilities[i].
+static void latinime_BinaryDictionary_getProbabilities(JNIEnv *env, jclass clazz, jlong dict,
+        jintArray codePoints, jintArray wordStarts, jint wordCount,
+        jintArray outProbabilities) {
+    Dictionary *dictionary = reinterpret_cast<Dictionary *>(dict);
+    if (!dictionary) return;
+    if (wordCount <= 0) return;
+    if (wordCount >= env->GetArrayLength(wordStarts)
+            || wordCount > env->GetArrayLength(outProbabilities)) {
+        AKLOGE("Invalid wordCount: %d", wordCount);
+        return;
+    }
+    std::vector<int> starts(wordCount + 1);
+    env->GetIntArrayRegion(wordStarts, 0, wordCount + 1, &starts[0]);
+    const jsize codePointArrayLength = env->GetArrayLength(codePoints);
+    const int totalCodePointCount = starts[wordCount];
+    if (starts[0] < 0 || totalCodePointCount < starts[0]
+            || totalCodePointCount > codePointArrayLength) {
+        AKLOGE("Invalid word starts: %d-%d", starts[0], totalCodePointCount);
+        return;
+    }
+    // One more so that the buffer is never empty.
+    std::vector<int> codePointBuffer(totalCodePointCount + 1);
+    env->GetIntArrayRegion(codePoints, 0, totalCodePointCount, &codePointBuffer[0]);
+    std::vector<int> probabilities(wordCount);
+    for (int i = 0; i < wordCount; ++i) {
+        const int start = starts[i];
+        const int length = starts[i + 1] - start;
+        if (start < 0 || length <= 0 || length > MAX_WORD_LENGTH
+                || start + length > totalCodePointCount) {
+            probabilities[i] = NOT_A_PROBABILITY;
+            continue;
+        }
+        probabilities[i] = dictionary->getProbability(
+                CodePointArrayView(&codePointBuffer[start], length));
+    }
+    env->SetIntArrayRegion(outProbabilities, 0, wordCount, &probabilities[0]);
+}
+
 static jint latinime_BinaryDictionary_getMaxProbabilityOfExactMatches(
-        JNIEnv *env, jclass clazz, jlong dict, jintArray word) {
+        JNIEnv *env, jclass clazz, jlong dict, jintArray word, jint wordLength) {
     Dictionary *dictionary = reinterpret_cast<Dictionary *>(dict);
     if (!dictionary) return NOT_A_PROBABILITY;
-    const jsize codePointCount = env->GetArrayLength(word);
+    if (wordLength < 0 || wordLength > env->GetArrayLength(word)) {
+        AKLOGE("Invalid wordLength: %d", wordLength);
+        return NOT_A_PROBABILITY;
+    }
+    const jsize codePointCount = wordLength;
     int codePoints[codePointCount];
     env->GetIntArrayRegion(word, 0, codePointCount, codePoints);
     return dictionary->getMaxProbabilityOfExactMatches(
@@ -283,15 +332,21 @@ static jint latinime_BinaryDictionary_getMaxProbabilityOfExactMatches(
 
 static jint latinime_BinaryDictionary_getNgramProbability(JNIEnv *env, jclass clazz,
         jlong dict, jobjectArray prevWordCodePointArrays, jbooleanArray isBeginningOfSentenceArray,
-        jintArray word) {
+        jint prevWordCount, jintArray word, jint wordLength) {
     Dictionary *dictionary = reinterpret_cast<Dictionary *>(dict);
     if (!dictionary) return JNI_FALSE;
-    const jsize wordLength = env->GetArrayLength(word);
+    if (wordLength < 0 || wordLength > env->GetArrayLength(word)) {
+        AKLOGE("Invalid wordLength: %d", wordLength);
+        return NOT_A_PROBABILITY;
+    }
+    if (prevWordCount < 0 || prevWordCount > env->GetArrayLength(prevWordCodePointArrays)) {
+        AKLOGE("Invalid prevWordCount: %d", prevWordCount);
+        return NOT_A_PROBABILITY;
+    }
     int wordCodePoints[wordLength];
     env->GetIntArrayRegion(word, 0, wordLength, wordCodePoints);
     const NgramContext ngramContext = JniDataUtils::constructNgramContext(env,
-            prevWordCodePointArrays, isBeginningOfSentenceArray,
-            env->GetArrayLength(prevWordCodePointArrays));
+            prevWordCodePointArrays, isBeginningOfSentenceArray, prevWordCount);
     return dictionary->getNgramProbability(&ngramContext,
             CodePointArrayView(wordCodePoints, wordLength));
 }
@@ -664,17 +719,22 @@ static const JNINativeMethod sMethods[] = {
     },
     {
         const_cast<char *>("getProbabilityNative"),
-        const_cast<char *>("(J[I)I"),
+        const_cast<char *>("(J[II)I"),
         reinterpret_cast<void *>(latinime_BinaryDictionary_getProbability)
     },
+    {
+        const_cast<char *>("getProbabilitiesNative"),
+        const_cast<char *>("(J[I[II[I)V"),
+        reinterpret_cast<void *>(latinime_BinaryDictionary_getProbabilities)
+    },
     {
         const_cast<char *>("getMaxProbabilityOfExactMatchesNative"),
-        const_cast<char *>("(J[I)I"),
+        const_cast<char *>("(J[II)I"),
         reinterpret_cast<void *>(latinime_BinaryDictionary_getMaxProbabilityOfExactMatches)
     },
     {
         const_cast<char *>("getNgramProbabilityNative"),
-        const_cast<char *>("(J[[I[Z[I)I"),
+        const_cast<char *>("(J[[I[ZI[II)I"),
         reinterpret_cast<void *>(latinime_BinaryDictionary_getNgramProbability)
     },
     {
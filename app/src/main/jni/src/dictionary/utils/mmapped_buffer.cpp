@@ -16,6 +16,7 @@
 
 #include "dictionary/utils/mmapped_buffer.h"
 
+#include <algorithm>
 #include <cerrno>
 #include <climits>
 #include <cstdio>
@@ -27,6 +28,11 @@
 
 namespace latinime {
 
+// The header and the nodes near the root, which dictionaries store first, are read by every
+// lookup. Asking for them to be paged in as soon as the file is mapped saves the first lookups
+// from waiting on the disk one page at a time.
+static const int PREFETCH_SIZE = 64 * 1024;
+
 /* static */ MmappedBuffer::MmappedBufferPtr MmappedBuffer::openBuffer(
         const char *const path, const int bufferOffset, const int bufferSize,
         const bool isUpdatable) {
@@ -53,6 +59,12 @@ namespace latinime {
         close(mmapFd);
         return nullptr;
     }
+    if (!isUpdatable) {
+        // Only a hint: failing to prefetch doesn't prevent from using the dictionary.
+        if (madvise(mmappedBuffer, std::min(alignedSize, PREFETCH_SIZE), MADV_WILLNEED) != 0) {
+            AKLOGI("DICT: madvise failed. errno=%d", errno);
+        }
+    }
     return MmappedBufferPtr(new MmappedBuffer(buffer, bufferSize, mmappedBuffer, alignedSize,
             mmapFd, isUpdatable));
 }
@@ -0,0 +1,257 @@
+package org.dslul.openboard.inputmethod.keyboard
+
+import org.dslul.openboard.inputmethod.keyboard.internal.KeyVisualAttributes
+import org.dslul.openboard.inputmethod.keyboard.internal.KeyboardIconsSet
+import org.dslul.openboard.inputmethod.keyboard.internal.KeyboardParams
+import org.dslul.openboard.inputmethod.latin.common.Constants
+import org.junit.After
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNotEquals
+import org.junit.Assert.assertNotSame
+import org.junit.Assert.assertSame
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.File
+import java.nio.file.Files
+
+class KeyboardLayoutCacheTest {
+    private lateinit var directory: File
+
+    @Before
+    fun setUp() {
+        directory = Files.createTempDirectory("keyboard_layouts").toFile()
+    }
+
+    @After
+    fun tearDown() {
+        directory.deleteRecursively()
+    }
+
+    // Shaped like KeyboardLayoutCache.getDescription(): format version, app version code, SDK...
+    private fun description(formatVersion: Int = KeyboardLayoutCache.FORMAT_VERSION,
+            versionCode: Int = 1234, elementId: Int = KeyboardId.ELEMENT_ALPHABET) =
+        "$formatVersion|$versionCode|33|fingerprint|420|1.0|1|411|891|17|0|en-US|0|0|false" +
+                "|true|false|qwerty|en_US|$elementId|0|1080|640|false|false|false|true|true|true" +
+                "|false|6|false|false|false|false|null"
+
+    private fun fileFor(description: String) =
+        File(directory, KeyboardLayoutCache.getFileName(description))
+
+    private fun store(description: String, params: KeyboardParams) {
+        fileFor(description).writeBytes(KeyboardLayoutCache.serialize(description, params))
+    }
+
+    private fun read(description: String): KeyboardParams? {
+        val params = KeyboardParams()
+        return if (KeyboardLayoutCache.readFile(fileFor(description), description, params)) params
+                else null
+    }
+
+    // Only the cache can give a key visual attributes without a TypedArray: see
+    // KeyVisualAttributes.writeTo() for the layout.
+    private fun visualAttributes(textColor: Int): KeyVisualAttributes {
+        val bytes = ByteArrayOutputStream()
+        DataOutputStream(bytes).run {
+            writeInt(-1) // No typeface.
+            writeFloat(0.5f)
+            writeInt(40)
+            writeFloat(0.4f)
+            writeInt(30)
+            repeat(5) { writeFloat(0.3f) }
+            repeat(9) { writeInt(textColor) }
+            repeat(3) { writeFloat(0.1f) }
+        }
+        return KeyVisualAttributes.readFrom(
+            DataInputStream(ByteArrayInputStream(bytes.toByteArray())))
+    }
+
+    private fun Key.withVisualAttributes(attrs: KeyVisualAttributes?): Key {
+        val bytes = ByteArrayOutputStream()
+        DataOutputStream(bytes).use { writeTo(it) }
+        return Key.readFrom(DataInputStream(ByteArrayInputStream(bytes.toByteArray())), attrs)
+    }
+
+    /** A phone keyboard with more keys, hint labels, output text, a spacer and styles. */
+    private fun buildParams(): KeyboardParams {
+        val params = KeyboardParams()
+        params.mThemeId = 3
+        params.mOccupiedWidth = 1080
+        params.mOccupiedHeight = 640
+        params.mBaseWidth = 1060
+        params.mBaseHeight = 620
+        params.mTopPadding = 10
+        params.mBottomPadding = 10
+        params.mLeftPadding = 10
+        params.mRightPadding = 10
+        params.mDefaultRowHeight = 155
+        params.mDefaultKeyWidth = 106
+        params.mHorizontalGap = 6
+        params.mVerticalGap = 8
+        params.mMoreKeysTemplate = 7
+        params.mMaxMoreKeysKeyboardColumn = 5
+        params.GRID_WIDTH = 32
+        params.GRID_HEIGHT = 16
+        params.mAllowRedundantMoreKeys = true
+        params.mProximityCharsCorrectionEnabled = true
+        params.mTouchPositionCorrection.load(arrayOf("0.1", "-0.2", "0.15", "0.0", "0.1", "0.12"))
+
+        val letters = visualAttributes(0xFFFFFF)
+        val functional = visualAttributes(0xCCCCCC)
+        params.mKeyVisualAttributes = letters
+        val keyWidth = 106
+        val rowHeight = 155
+        val moreKeys = mapOf('e' to "3,é,è,ê", 'a' to "à,á,â,ä,æ,ã,å",
+            'o' to "9,ó,ö")
+        listOf("qwertyuiop", "asdfghjkl", "zxcvbnm").forEachIndexed { row, letterRow ->
+            letterRow.forEachIndexed { i, c ->
+                val hintLabel = if (row == 0) ((i + 1) % 10).toString() else null
+                val key = Key(c.toString(), c.code, null, hintLabel, moreKeys[c],
+                    0, Key.BACKGROUND_TYPE_NORMAL, 10 + row * keyWidth / 2 + i * keyWidth,
+                    10 + row * rowHeight, keyWidth, rowHeight, params)
+                params.onAddKey(if (i % 2 == 0) key.withVisualAttributes(letters) else key)
+            }
+        }
+        val bottom = 10 + 3 * rowHeight
+        params.onAddKey(Key(null, KeyboardIconsSet.ICON_UNDEFINED, Constants.CODE_SHIFT, null, null,
+            0, Key.BACKGROUND_TYPE_STICKY_OFF, 10, 10 + 2 * rowHeight, keyWidth, rowHeight, 6, 8)
+            .withVisualAttributes(functional))
+        params.onAddKey(Key("?123", KeyboardIconsSet.ICON_UNDEFINED,
+            Constants.CODE_SWITCH_ALPHA_SYMBOL, null, null, 0, Key.BACKGROUND_TYPE_FUNCTIONAL, 10,
+            bottom, keyWidth, rowHeight, 6, 8).withVisualAttributes(functional))
+        params.onAddKey(Key(".com", Constants.CODE_OUTPUT_TEXT, ".com", null, ".net,.org", 0,
+            Key.BACKGROUND_TYPE_NORMAL, 10 + keyWidth, bottom, keyWidth, rowHeight, params))
+        params.onAddKey(Key.Spacer(params, 10 + 2 * keyWidth, bottom, keyWidth / 2, rowHeight))
+        params.onAddKey(Key(null, KeyboardIconsSet.ICON_UNDEFINED, Constants.CODE_SPACE, null, null,
+            0, Key.BACKGROUND_TYPE_SPACEBAR, 10 + 5 * keyWidth / 2, bottom, 5 * keyWidth, rowHeight,
+            6, 8))
+        params.onAddKey(Key(null, KeyboardIconsSet.ICON_UNDEFINED, Constants.CODE_ENTER, null, null,
+            0, Key.BACKGROUND_TYPE_ACTION, 10 + 15 * keyWidth / 2, bottom, 2 * keyWidth, rowHeight,
+            6, 8).withVisualAttributes(functional))
+        return params
+    }
+
+    private fun Key.describe() = listOf(code, label, hintLabel, outputText,
+        moreKeys?.map { "${it.mCode} ${it.mLabel} ${it.mOutputText} ${it.mIconId}" },
+        moreKeysColumnNumber, isMoreKeysFixedColumn, isMoreKeysFixedOrder, iconId, backgroundType,
+        x, y, width, height, horizontalGap, verticalGap, isSpacer, isEnabled, isLongPressEnabled,
+        noKeyPreview(), altCode).joinToString()
+
+    @Test
+    fun readBackKeyboardIsIdentical() {
+        val built = buildParams()
+        val description = description()
+        val bytes = KeyboardLayoutCache.serialize(description, built)
+        store(description, built)
+        val read = read(description)!!
+
+        assertArrayEquals(bytes, KeyboardLayoutCache.serialize(description, read))
+        assertEquals(built.mSortedKeys.map { it.describe() },
+            read.mSortedKeys.map { it.describe() })
+        assertEquals(built.mSortedKeys.size, read.mSortedKeys.size)
+        assertEquals(built.mOccupiedWidth, read.mOccupiedWidth)
+        assertEquals(built.mMostCommonKeyWidth, read.mMostCommonKeyWidth)
+        assertEquals(built.mMostCommonKeyHeight, read.mMostCommonKeyHeight)
+        assertEquals(built.GRID_WIDTH, read.GRID_WIDTH)
+        assertTrue(read.mProximityCharsCorrectionEnabled)
+        assertEquals(2, read.mTouchPositionCorrection.rows)
+        assertEquals(-0.2f, read.mTouchPositionCorrection.getY(0))
+        assertEquals(0.12f, read.mTouchPositionCorrection.getRadius(1))
+        // State that onAddKey() derives from the keys is derived again.
+        assertEquals(listOf(Constants.CODE_SHIFT), read.mShiftKeys.map { it.code })
+        assertEquals(built.mAltCodeKeysWhileTyping.size, read.mAltCodeKeysWhileTyping.size)
+
+        // Visual attributes stay shared, by the keys and by the keyboard.
+        val builtAttrs = built.mSortedKeys.map { it.visualAttributes }
+        val readAttrs = read.mSortedKeys.map { it.visualAttributes }
+        assertEquals(builtAttrs.map { it == null }, readAttrs.map { it == null })
+        for (i in builtAttrs.indices) {
+            for (j in builtAttrs.indices) {
+                assertEquals(builtAttrs[i] === builtAttrs[j], readAttrs[i] === readAttrs[j])
+            }
+        }
+        val keyboardAttrs = read.mKeyVisualAttributes!!
+        assertNotSame(built.mKeyVisualAttributes, keyboardAttrs)
+        assertSame(keyboardAttrs, read.mSortedKeys.first { it.code == 'q'.code }.visualAttributes)
+        assertEquals(0xFFFFFF, keyboardAttrs.mTextColor)
+    }
+
+    @Test
+    fun descriptionChangesMissTheCachedKeyboard() {
+        val params = buildParams()
+        val description = description()
+        store(description, params)
+        assertTrue(read(description) != null)
+
+        // An app update, a new file format or another keyboard has another file...
+        for (changed in listOf(description(versionCode = 1235),
+                description(formatVersion = KeyboardLayoutCache.FORMAT_VERSION + 1),
+                description(elementId = KeyboardId.ELEMENT_SYMBOLS))) {
+            assertNotEquals(KeyboardLayoutCache.getFileName(description),
+                KeyboardLayoutCache.getFileName(changed))
+            assertEquals(null, read(changed))
+        }
+        // ...and a file written for a description with the same hash code is not used either.
+        val collision = description(versionCode = 1235)
+        fileFor(description).copyTo(fileFor(collision))
+        val missed = KeyboardParams()
+        assertFalse(KeyboardLayoutCache.readFile(fileFor(collision), collision, missed))
+        assertTrue(missed.mSortedKeys.isEmpty())
+        assertTrue(read(description) != null)
+    }
+
+    @Test
+    fun unreadableFilesAreDeleted() {
+        val description = description()
+        val bytes = KeyboardLayoutCache.serialize(description, buildParams())
+        val file = fileFor(description)
+        for (broken in listOf(bytes.copyOf(bytes.size / 2), bytes.copyOf(bytes.size - 1),
+                ByteArray(0))) {
+            file.writeBytes(broken)
+            assertEquals(null, read(description))
+            assertFalse(file.exists())
+        }
+        assertEquals(null, read(description))
+    }
+
+    @Test
+    fun warmStartReadsWhatColdStartBuilt() {
+        val description = description()
+        val file = fileFor(description)
+        // Same flow as KeyboardLayoutSet: read the cache, else build the keyboard and save it.
+        fun load(): KeyboardParams {
+            read(description)?.let { return it }
+            val params = buildParams()
+            file.writeBytes(KeyboardLayoutCache.serialize(description, params))
+            return params
+        }
+        fun time(rounds: Int, cold: Boolean): Long {
+            val start = System.nanoTime()
+            repeat(rounds) {
+                if (cold) file.delete()
+                load()
+            }
+            return (System.nanoTime() - start) / rounds
+        }
+        val cold = load()
+        assertTrue(file.exists())
+        val warm = load()
+        assertArrayEquals(KeyboardLayoutCache.serialize(description, cold),
+            KeyboardLayoutCache.serialize(description, warm))
+
+        // Warm up, so that the measured rounds run compiled code.
+        time(200, true)
+        time(200, false)
+        val rounds = 200
+        val coldNanos = time(rounds, true)
+        val warmNanos = time(rounds, false)
+        println("Keyboard of ${cold.mSortedKeys.size} keys, ${file.length()} bytes: " +
+                "built and saved ${coldNanos / 1000}us, read from cache ${warmNanos / 1000}us")
+    }
+}
@@ -0,0 +1,274 @@
+package org.dslul.openboard.inputmethod.keyboard
+
+import org.dslul.openboard.inputmethod.keyboard.internal.KeyboardIconsSet
+import org.dslul.openboard.inputmethod.latin.common.Constants
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertSame
+import org.junit.Assert.assertTrue
+import org.junit.Assume.assumeTrue
+import org.junit.Test
+import java.lang.management.ManagementFactory
+import java.util.Random
+
+class ProximityGridTest {
+    private class Layout(val keys: Array<Key>, val width: Int, val height: Int) {
+        val cellWidth = (width + GRID_WIDTH - 1) / GRID_WIDTH
+        val cellHeight = (height + GRID_HEIGHT - 1) / GRID_HEIGHT
+        val threshold = (keys[0].width * 1.2f).toInt()
+
+        fun grid() = ProximityGrid(keys, GRID_WIDTH, GRID_HEIGHT, cellWidth, cellHeight, threshold)
+
+        // Same as ProximityInfo.getCellIndex().
+        fun cellIndex(x: Int, y: Int): Int {
+            if (x < 0 || x >= width || y < 0 || y >= height) return ProximityInfo.NOT_A_CELL
+            val index = (y / cellHeight) * GRID_WIDTH + x / cellWidth
+            return if (index < GRID_WIDTH * GRID_HEIGHT) index else ProximityInfo.NOT_A_CELL
+        }
+    }
+
+    private fun key(code: Int, x: Int, y: Int, width: Int, height: Int) = Key(
+        null, KeyboardIconsSet.ICON_UNDEFINED, code, null, null, 0, Key.BACKGROUND_TYPE_NORMAL,
+        x, y, width, height, HORIZONTAL_GAP, VERTICAL_GAP)
+
+    /** Four rows of a phone keyboard, with offset rows, wide keys and a space bar. */
+    private fun phoneLayout(width: Int, height: Int): Layout {
+        val keyWidth = width / 10
+        val rowHeight = height / 4
+        val keys = ArrayList<Key>()
+        "qwertyuiop".forEachIndexed { i, c ->
+            keys.add(key(c.code, i * keyWidth, 0, keyWidth, rowHeight))
+        }
+        "asdfghjkl".forEachIndexed { i, c ->
+            keys.add(key(c.code, keyWidth / 2 + i * keyWidth, rowHeight, keyWidth, rowHeight))
+        }
+        val wide = keyWidth * 3 / 2
+        keys.add(key(Constants.CODE_SHIFT, 0, 2 * rowHeight, wide, rowHeight))
+        "zxcvbnm".forEachIndexed { i, c ->
+            keys.add(key(c.code, wide + i * keyWidth, 2 * rowHeight, keyWidth, rowHeight))
+        }
+        keys.add(key(Constants.CODE_DELETE, wide + 7 * keyWidth, 2 * rowHeight,
+            width - wide - 7 * keyWidth, rowHeight))
+        keys.add(key(','.code, 0, 3 * rowHeight, wide, rowHeight))
+        keys.add(key(Constants.CODE_SPACE, wide, 3 * rowHeight, 5 * keyWidth, rowHeight))
+        keys.add(key('.'.code, wide + 5 * keyWidth, 3 * rowHeight, keyWidth, rowHeight))
+        keys.add(key(Constants.CODE_ENTER, wide + 6 * keyWidth, 3 * rowHeight,
+            width - wide - 6 * keyWidth, rowHeight))
+        return Layout(keys.toTypedArray(), width, height)
+    }
+
+    /**
+     * The per-cell key arrays the grid was built as before it was packed: a keys.size slot
+     * array per cell, copied to a list per cell.
+     */
+    private fun perCellNeighbors(layout: Layout): Array<List<Key>> {
+        val keys = layout.keys
+        val cellWidth = layout.cellWidth
+        val cellHeight = layout.cellHeight
+        val gridSize = GRID_WIDTH * GRID_HEIGHT
+        val threshold = layout.threshold
+        val thresholdSquared = threshold * threshold
+        val lastPixelXCoordinate = GRID_WIDTH * cellWidth - 1
+        val lastPixelYCoordinate = GRID_HEIGHT * cellHeight - 1
+        val halfCellWidth = cellWidth / 2
+        val halfCellHeight = cellHeight / 2
+        val keyCount = keys.size
+        val neighborsFlatBuffer = arrayOfNulls<Key>(gridSize * keyCount)
+        val neighborCountPerCell = IntArray(gridSize)
+        for (key in keys) {
+            if (key.isSpacer) continue
+            val topPixelWithinThreshold = key.y - threshold
+            val yDeltaToGrid = topPixelWithinThreshold % cellHeight
+            val yMiddleOfTopCell = topPixelWithinThreshold - yDeltaToGrid + halfCellHeight
+            val yStart = maxOf(halfCellHeight,
+                yMiddleOfTopCell + if (yDeltaToGrid <= halfCellHeight) 0 else cellHeight)
+            val yEnd = minOf(lastPixelYCoordinate, key.y + key.height + threshold)
+            val leftPixelWithinThreshold = key.x - threshold
+            val xDeltaToGrid = leftPixelWithinThreshold % cellWidth
+            val xMiddleOfLeftCell = leftPixelWithinThreshold - xDeltaToGrid + halfCellWidth
+            val xStart = maxOf(halfCellWidth,
+                xMiddleOfLeftCell + if (xDeltaToGrid <= halfCellWidth) 0 else cellWidth)
+            val xEnd = minOf(lastPixelXCoordinate, key.x + key.width + threshold)
+            var baseIndexOfCurrentRow = (yStart / cellHeight) * GRID_WIDTH + xStart / cellWidth
+            var centerY = yStart
+            while (centerY <= yEnd) {
+                var index = baseIndexOfCurrentRow
+                var centerX = xStart
+                while (centerX <= xEnd) {
+                    if (key.squaredDistanceToEdge(centerX, centerY) < thresholdSquared) {
+                        neighborsFlatBuffer[index * keyCount + neighborCountPerCell[index]] = key
+                        ++neighborCountPerCell[index]
+                    }
+                    ++index
+                    centerX += cellWidth
+                }
+                baseIndexOfCurrentRow += GRID_WIDTH
+                centerY += cellHeight
+            }
+        }
+        return Array(gridSize) { cell ->
+            List(neighborCountPerCell[cell]) { neighborsFlatBuffer[cell * keyCount + it]!! }
+        }
+    }
+
+    private fun cellKeys(layout: Layout, grid: ProximityGrid, cell: Int) =
+        (grid.mCellOffsets[cell] until grid.mCellOffsets[cell + 1]).map {
+            layout.keys[grid.mKeyIndices[it]]
+        }
+
+    @Test
+    fun packedGridHasTheNearestKeysOfThePerCellArrays() {
+        for ((width, height) in listOf(1080 to 640, 720 to 480, 1440 to 700, 333 to 101)) {
+            val layout = phoneLayout(width, height)
+            val grid = layout.grid()
+            val expected = perCellNeighbors(layout)
+            assertEquals(expected.sumOf { it.size }, grid.mKeyIndices.size)
+            for (cell in expected.indices) {
+                assertEquals("cell $cell of ${width}x$height", expected[cell],
+                    cellKeys(layout, grid, cell))
+            }
+        }
+    }
+
+    @Test
+    fun everyCellHasTheKeysCoveringItsCenter() {
+        val layout = phoneLayout(1080, 640)
+        val grid = layout.grid()
+        for (cell in 0 until GRID_WIDTH * GRID_HEIGHT) {
+            val centerX = (cell % GRID_WIDTH) * layout.cellWidth + layout.cellWidth / 2
+            val centerY = (cell / GRID_WIDTH) * layout.cellHeight + layout.cellHeight / 2
+            val keys = cellKeys(layout, grid, cell)
+            for (key in layout.keys) {
+                if (key.squaredDistanceToEdge(centerX, centerY) == 0) {
+                    assertTrue("$cell", keys.contains(key))
+                }
+            }
+        }
+    }
+
+    @Test
+    fun emptyLayoutHasEmptyCells() {
+        val grid = ProximityGrid(arrayOf(), GRID_WIDTH, GRID_HEIGHT, 10, 10, 12)
+        assertEquals(0, grid.mKeyIndices.size)
+        assertTrue(grid.mCellOffsets.all { it == 0 })
+    }
+
+    /** Nearest key as KeyDetector.detectHitKey() picks it, from the packed grid. */
+    private fun nearestInGrid(layout: Layout, grid: ProximityGrid, x: Int, y: Int): Key? {
+        val cell = layout.cellIndex(x, y)
+        if (cell == ProximityInfo.NOT_A_CELL) return null
+        var best: Key? = null
+        var bestDistance = Int.MAX_VALUE
+        for (i in grid.mCellOffsets[cell] until grid.mCellOffsets[cell + 1]) {
+            val key = layout.keys[grid.mKeyIndices[i]]
+            val distance = key.squaredDistanceToEdge(x, y)
+            if (distance < bestDistance) {
+                bestDistance = distance
+                best = key
+            }
+        }
+        return best
+    }
+
+    /** The same, from the per-cell lists. */
+    private fun nearestInLists(layout: Layout, cells: Array<List<Key>>, x: Int, y: Int): Key? {
+        val cell = layout.cellIndex(x, y)
+        if (cell == ProximityInfo.NOT_A_CELL) return null
+        var best: Key? = null
+        var bestDistance = Int.MAX_VALUE
+        for (key in cells[cell]) {
+            val distance = key.squaredDistanceToEdge(x, y)
+            if (distance < bestDistance) {
+                bestDistance = distance
+                best = key
+            }
+        }
+        return best
+    }
+
+    /** Gesture-like strokes between random points, sampled every few pixels. */
+    private fun touchTrace(layout: Layout, strokes: Int): IntArray {
+        val random = Random(42)
+        val points = ArrayList<Int>()
+        repeat(strokes) {
+            var x = random.nextInt(layout.width)
+            var y = random.nextInt(layout.height)
+            repeat(8) {
+                val toX = random.nextInt(layout.width)
+                val toY = random.nextInt(layout.height)
+                val steps = maxOf(1, maxOf(Math.abs(toX - x), Math.abs(toY - y)) / 6)
+                for (step in 0 until steps) {
+                    points.add(x + (toX - x) * step / steps)
+                    points.add(y + (toY - y) * step / steps)
+                }
+                x = toX
+                y = toY
+            }
+        }
+        return points.toIntArray()
+    }
+
+    @Test
+    fun touchTraceHitsTheSameKeysWithoutAllocating() {
+        val layout = phoneLayout(1080, 640)
+        val grid = layout.grid()
+        val cells = perCellNeighbors(layout)
+        val trace = touchTrace(layout, 200)
+        val points = trace.size / 2
+        for (i in 0 until points) {
+            assertSame(nearestInLists(layout, cells, trace[2 * i], trace[2 * i + 1]),
+                nearestInGrid(layout, grid, trace[2 * i], trace[2 * i + 1]))
+        }
+
+        fun runGrid(rounds: Int): Int {
+            var hits = 0
+            repeat(rounds) {
+                for (i in 0 until points) {
+                    val key = nearestInGrid(layout, grid, trace[2 * i], trace[2 * i + 1])
+                    if (key != null) hits++
+                }
+            }
+            return hits
+        }
+        fun runLists(rounds: Int): Int {
+            var hits = 0
+            repeat(rounds) {
+                for (i in 0 until points) {
+                    val key = nearestInLists(layout, cells, trace[2 * i], trace[2 * i + 1])
+                    if (key != null) hits++
+                }
+            }
+            return hits
+        }
+        // Warm up, so that the measured rounds run compiled code.
+        runGrid(20)
+        runLists(20)
+        val rounds = 20
+        var start = System.nanoTime()
+        val gridHits = runGrid(rounds)
+        val gridNanos = System.nanoTime() - start
+        start = System.nanoTime()
+        val listHits = runLists(rounds)
+        val listNanos = System.nanoTime() - start
+        assertEquals(listHits, gridHits)
+        println("Touch trace of $points points: packed grid ${gridNanos / (rounds * points)}ns, " +
+                "per-cell lists ${listNanos / (rounds * points)}ns per point")
+
+        val threads = ManagementFactory.getThreadMXBean() as? com.sun.management.ThreadMXBean
+        assumeTrue(threads != null && threads.isThreadAllocatedMemorySupported)
+        threads!!.isThreadAllocatedMemoryEnabled = true
+        val threadId = Thread.currentThread().id
+        val before = threads.getThreadAllocatedBytes(threadId)
+        runGrid(rounds)
+        val allocated = threads.getThreadAllocatedBytes(threadId) - before
+        val perPoint = allocated.toDouble() / (rounds * points)
+        assertTrue("$perPoint bytes allocated per point", perPoint < 1)
+    }
+
+    companion object {
+        // As in config-common.xml.
+        private const val GRID_WIDTH = 32
+        private const val GRID_HEIGHT = 16
+        private const val HORIZONTAL_GAP = 6
+        private const val VERTICAL_GAP = 10
+    }
+}
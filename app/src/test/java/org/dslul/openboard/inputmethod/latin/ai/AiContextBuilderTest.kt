@@ -0,0 +1,88 @@
+package org.dslul.openboard.inputmethod.latin.ai
+
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Test
+
+class AiContextBuilderTest {
+    private fun request(
+        action: AiProvider.Action = AiProvider.Action.GRAMMAR,
+        before: String = "",
+        after: String = "",
+        selected: String? = null,
+        budget: Int = 0
+    ) = AiProvider.Request(
+        action = action,
+        textBeforeCursor = before,
+        selectedText = selected,
+        textAfterCursor = after,
+        tokenBudget = budget
+    )
+
+    @Test
+    fun segmentsEndAfterLineBreaksAndSentences() {
+        assertArrayEquals(intArrayOf(0, 10, 22, 23, 28),
+            AiContextBuilder.segmentBounds("Hi there. How are you?\nFine!"))
+        assertArrayEquals(intArrayOf(0, 9, 17), AiContextBuilder.segmentBounds("line one\nline two"))
+        assertArrayEquals(intArrayOf(0, 2, 3, 4), AiContextBuilder.segmentBounds("a\n\nb"))
+        assertArrayEquals(intArrayOf(0, 8, 10), AiContextBuilder.segmentBounds("Wait... ok"))
+        assertArrayEquals(intArrayOf(0, 7), AiContextBuilder.segmentBounds("v1.2 ok"))
+        assertArrayEquals(intArrayOf(0, 0), AiContextBuilder.segmentBounds(""))
+    }
+
+    @Test
+    fun estimatesTokensPerWordChunkAndSymbol() {
+        assertEquals(2, AiContextBuilder.estimateTokens("hello"))
+        assertEquals(3, AiContextBuilder.estimateTokens("hi, you"))
+        assertEquals(2, AiContextBuilder.estimateTokens("日本"))
+        assertEquals(0, AiContextBuilder.estimateTokens(" \n\t"))
+        assertEquals(1, AiContextBuilder.estimateTokens("hello world", 6, 9))
+    }
+
+    @Test
+    fun beforeKeepsWholeSegmentsClosestToTheCursor() {
+        // 5 + 4 + 6 tokens; the text before the cursor gets 75% of 16.
+        val window = AiContextBuilder.build(request(
+            before = "One two three. Four five six. Seven eight nine.", budget = 16))
+        assertEquals("Four five six. Seven eight nine.", window.before)
+        assertNull(window.selected)
+    }
+
+    @Test
+    fun afterGetsWhatTheTextBeforeLeft() {
+        val window = AiContextBuilder.build(request(
+            before = "Hi.", after = "Next one. And more.", budget = 5))
+        assertEquals("Hi.", window.before)
+        // 2 of 5 tokens are used before the cursor; "Next one. " alone costs 3.
+        assertEquals("Next one. ", window.after)
+    }
+
+    @Test
+    fun overLongSegmentsAreCutAtWordBoundaries() {
+        val before = AiContextBuilder.build(request(before = "alpha beta gamma delta", budget = 4))
+        assertEquals("delta", before.before)
+        val after = AiContextBuilder.build(request(after = "alpha beta gamma", budget = 3))
+        assertEquals("alpha beta", after.after)
+    }
+
+    @Test
+    fun repliesDropQuotesAndRepeatsButKeepLineBreaks() {
+        val text = "> quoted line\nThanks for the update.\nthanks for the update.\nSee you"
+        val reply = AiContextBuilder.build(request(action = AiProvider.Action.REPLY, before = text))
+        assertEquals("\nthanks for the update.\nSee you", reply.before)
+        val after = AiContextBuilder.build(request(action = AiProvider.Action.REPLY,
+            after = "Sure.\n> old\nSure."))
+        assertEquals("Sure.\n", after.after)
+        val grammar = AiContextBuilder.build(request(before = text))
+        assertEquals(text, grammar.before)
+    }
+
+    @Test
+    fun selectionIsPassedThroughUnlessBlank() {
+        val selected = AiContextBuilder.build(request(before = "ignored", selected = "  raw text "))
+        assertEquals(AiContextBuilder.Window("", "  raw text ", ""), selected)
+        val blank = AiContextBuilder.build(request(before = "kept", selected = " "))
+        assertEquals(AiContextBuilder.Window("kept", null, ""), blank)
+    }
+}
@@ -0,0 +1,121 @@
+package org.dslul.openboard.inputmethod.latin.ai
+
+import kotlinx.coroutines.channels.awaitClose
+import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.callbackFlow
+import kotlinx.coroutines.flow.toList
+import kotlinx.coroutines.runBlocking
+import okhttp3.Request as OkRequest
+import okhttp3.sse.EventSource
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import java.io.File
+import java.nio.file.Files
+
+class CachingAiProviderTest {
+    private lateinit var dir: File
+    private lateinit var cache: AiResponseCache
+
+    private val request = AiProvider.Request(
+        action = AiProvider.Action.GRAMMAR,
+        textBeforeCursor = "this are a test",
+        selectedText = null,
+        textAfterCursor = ""
+    )
+
+    @Before
+    fun setUp() {
+        dir = Files.createTempDirectory("ai_responses").toFile()
+        cache = AiResponseCache(dir)
+    }
+
+    @After
+    fun tearDown() {
+        dir.deleteRecursively()
+    }
+
+    /** Replays [events] (SSE event type to data) through [AiProviderOpenAI.StreamListener]. */
+    private class ScriptedProvider(
+        private val events: List<Pair<String?, String>>,
+        private val closeCleanly: Boolean = true
+    ) : AiProvider {
+        var calls = 0
+
+        override fun stream(request: AiProvider.Request): Flow<AiProvider.StreamChunk> =
+            callbackFlow {
+                calls++
+                val listener = AiProviderOpenAI.StreamListener(this)
+                val eventSource = FakeEventSource()
+                for ((type, data) in events) {
+                    listener.onEvent(eventSource, null, type, data)
+                }
+                if (closeCleanly) {
+                    listener.onClosed(eventSource)
+                } else {
+                    listener.onFailure(eventSource, java.io.IOException("reset"), null)
+                }
+                awaitClose { }
+            }
+    }
+
+    private class FakeEventSource : EventSource {
+        override fun request(): OkRequest = OkRequest.Builder().url(AiHttpClient.BASE_URL).build()
+        override fun cancel() {}
+    }
+
+    private fun delta(text: String) =
+        "response.output_text.delta" to
+                "{\"type\":\"response.output_text.delta\",\"item_id\":\"msg_1\",\"delta\":\"$text\"}"
+
+    private val responsesEvents = listOf(
+        "response.created" to "{\"type\":\"response.created\",\"response\":{\"id\":\"resp_1\"}}",
+        delta("This is"),
+        delta(" a test"),
+        "response.output_text.done" to
+                "{\"type\":\"response.output_text.done\",\"text\":\"This is a test\"}",
+        "response.completed" to
+                "{\"type\":\"response.completed\",\"response\":{\"id\":\"resp_1\",\"status\":\"completed\"}}"
+    )
+
+    @Test
+    fun responsesStreamIsCachedAndReplayed() = runBlocking {
+        val delegate = ScriptedProvider(responsesEvents)
+        val provider = CachingAiProvider(delegate, cache, AiProviderOpenAI.MODEL)
+
+        val chunks = provider.stream(request).toList()
+        assertTrue(chunks.last().isDone)
+        assertEquals(1, chunks.count { it.isDone })
+        assertEquals("This is a test", cache.get(cache.keyFor(request, AiProviderOpenAI.MODEL)))
+
+        val replayed = provider.stream(request).toList()
+        assertEquals(1, delegate.calls)
+        assertTrue(replayed.last().isDone)
+        val text = StringBuilder()
+        replayed.forEach { StreamDeltaParser.appendDelta(it.content, text) }
+        assertEquals("This is a test", text.toString())
+    }
+
+    @Test
+    fun cleanCloseWithoutCompletedEventEndsTheStream() = runBlocking {
+        val delegate = ScriptedProvider(responsesEvents.dropLast(1))
+        val provider = CachingAiProvider(delegate, cache, AiProviderOpenAI.MODEL)
+
+        val chunks = provider.stream(request).toList()
+        assertTrue(chunks.last().isDone)
+        assertEquals("This is a test", cache.get(cache.keyFor(request, AiProviderOpenAI.MODEL)))
+    }
+
+    @Test
+    fun failedStreamIsNotCached() {
+        val delegate = ScriptedProvider(responsesEvents.dropLast(1), closeCleanly = false)
+        val provider = CachingAiProvider(delegate, cache, AiProviderOpenAI.MODEL)
+
+        val failed = runCatching { runBlocking { provider.stream(request).toList() } }
+        assertTrue(failed.isFailure)
+        assertNull(cache.get(cache.keyFor(request, AiProviderOpenAI.MODEL)))
+    }
+}
@@ -0,0 +1,172 @@
+package org.dslul.openboard.inputmethod.latin.ai
+
+import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.flowOf
+import kotlinx.coroutines.flow.toList
+import kotlinx.coroutines.runBlocking
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.io.DataOutputStream
+import java.nio.file.Files
+
+class RoutingAiProviderTest {
+    private val remote = object : AiProvider {
+        override fun stream(request: AiProvider.Request): Flow<AiProvider.StreamChunk> = flowOf(
+            AiProvider.StreamChunk(content = "{\"content\":\"remote\"}"),
+            AiProvider.StreamChunk(content = "", isDone = true)
+        )
+    }
+
+    private fun request(action: AiProvider.Action, before: String = "thsi is a tset") =
+        AiProvider.Request(
+            action = action,
+            textBeforeCursor = before,
+            selectedText = null,
+            textAfterCursor = ""
+        )
+
+    /** Knows "this is a test" and "it is a test". */
+    private fun tinyModel(): NGramModelRuntime {
+        val words = listOf(NGramModelRuntime.END_OF_SEQUENCE, NGramModelRuntime.START_OF_SEQUENCE,
+            "this", "is", "a", "test", "it")
+        val successors = listOf(
+            emptyList(), listOf(2 to 0.5f, 6 to 0.5f), listOf(3 to 1f), listOf(4 to 1f),
+            listOf(5 to 1f), listOf(0 to 1f), listOf(3 to 1f))
+        val bytes = ByteArrayOutputStream()
+        DataOutputStream(bytes).use { out ->
+            out.writeInt(NGramModelRuntime.MAGIC)
+            out.writeInt(NGramModelRuntime.FORMAT_VERSION)
+            out.writeInt(words.size)
+            words.forEach { out.writeUTF(it) }
+            for (next in successors) {
+                out.writeInt(next.size)
+                for ((index, probability) in next) {
+                    out.writeInt(index)
+                    out.writeFloat(probability)
+                }
+            }
+        }
+        return NGramModelRuntime.load(ByteArrayInputStream(bytes.toByteArray()))
+    }
+
+    private fun collectText(flow: Flow<AiProvider.StreamChunk>): String = runBlocking {
+        val chunks = flow.toList()
+        assertTrue(chunks.last().isDone)
+        val text = StringBuilder()
+        chunks.forEach { StreamDeltaParser.appendDelta(it.content, text) }
+        text.toString()
+    }
+
+    private fun corrected(before: String, selected: String? = null): String {
+        val local = AiProviderOnDevice(tinyModel())
+        return collectText(local.stream(AiProvider.Request(
+            action = AiProvider.Action.GRAMMAR,
+            textBeforeCursor = before,
+            selectedText = selected,
+            textAfterCursor = ""
+        )))
+    }
+
+    @Test
+    fun onDeviceProviderCorrectsMisspelledWords() {
+        assertEquals("This is a test.", corrected("Thsi is a tset."))
+        assertEquals("THIS IS A TEST", corrected("THIS IS A TEXT"))
+    }
+
+    @Test
+    fun onDeviceProviderCorrectsWordsThatDoNotFitTheContext() {
+        assertEquals("this is a test", corrected("this it a test"))
+        assertEquals("It is a test", corrected("It is a test"))
+    }
+
+    @Test
+    fun onDeviceProviderKeepsCorrectAndUnknownText() {
+        assertEquals("This is a test!\nIt is a test, 42.",
+            corrected("This is a test!\nIt is a test, 42."))
+        assertEquals("Zebra crossing", corrected("Zebra crossing"))
+        assertEquals("this is a test", corrected("ignored", "thsi is a test"))
+    }
+
+    @Test
+    fun onDeviceProviderStopsAtTheTokenLimit() {
+        val runtime = tinyModel()
+        val local = AiProviderOnDevice({ runtime }, 2)
+        assertEquals("this is", collectText(local.stream(request(AiProvider.Action.GRAMMAR))))
+    }
+
+    @Test
+    fun onlyActionsTheModelAnswersRunLocally() {
+        val local = AiProviderOnDevice(tinyModel())
+        assertTrue(local.canRun(AiProvider.Action.GRAMMAR))
+        for (action in AiProvider.Action.values()) {
+            if (action == AiProvider.Action.GRAMMAR) continue
+            assertFalse(local.canRun(action))
+            val provider = RoutingAiProvider(remote, local) { RoutingAiProvider.Link.OFFLINE }
+            assertEquals("remote", collectText(provider.stream(request(action))))
+        }
+    }
+
+    @Test
+    fun grammarRunsLocallyOnlyWhenTheRelayIsOfflineOrSlow() {
+        val local = AiProviderOnDevice(tinyModel())
+        val expected = mapOf(RoutingAiProvider.Link.OFFLINE to "this is a test",
+            RoutingAiProvider.Link.SLOW to "this is a test",
+            RoutingAiProvider.Link.FAST to "remote")
+        for ((link, text) in expected) {
+            val provider = RoutingAiProvider(remote, local) { link }
+            assertEquals(text, collectText(provider.stream(request(AiProvider.Action.GRAMMAR))))
+        }
+    }
+
+    @Test
+    fun everythingGoesRemoteWithoutAnInstalledModel() {
+        val local = AiProviderOnDevice({ null })
+        assertFalse(local.canRun(AiProvider.Action.GRAMMAR))
+        val provider = RoutingAiProvider(remote, local) { RoutingAiProvider.Link.OFFLINE }
+        assertEquals("remote", collectText(provider.stream(request(AiProvider.Action.GRAMMAR))))
+    }
+
+    @Test
+    fun closedRuntimeIsNotUsed() {
+        val runtime = tinyModel()
+        val provider = RoutingAiProvider(remote, AiProviderOnDevice({ runtime })) {
+            RoutingAiProvider.Link.OFFLINE
+        }
+        runtime.close()
+        assertEquals("remote", collectText(provider.stream(request(AiProvider.Action.GRAMMAR))))
+    }
+
+    @Test
+    fun longInputsOnlyRunLocallyWhenOffline() {
+        val long = request(AiProvider.Action.GRAMMAR, "word ".repeat(400))
+        assertTrue(RoutingAiProvider.shouldRunLocally(long, RoutingAiProvider.Link.OFFLINE))
+        assertFalse(RoutingAiProvider.shouldRunLocally(long, RoutingAiProvider.Link.SLOW))
+        assertFalse(RoutingAiProvider.shouldRunLocally(long, RoutingAiProvider.Link.FAST))
+        val short = request(AiProvider.Action.GRAMMAR)
+        assertTrue(RoutingAiProvider.shouldRunLocally(short, RoutingAiProvider.Link.SLOW))
+        assertFalse(RoutingAiProvider.shouldRunLocally(short, RoutingAiProvider.Link.FAST))
+    }
+
+    @Test
+    fun localRepliesAreCachedUnderTheLocalModel() {
+        val dir = Files.createTempDirectory("ai_responses").toFile()
+        try {
+            val cache = AiResponseCache(dir)
+            val runtime = tinyModel()
+            val provider = RoutingAiProvider(remote, AiProviderOnDevice(runtime), cache) {
+                RoutingAiProvider.Link.OFFLINE
+            }
+            val request = request(AiProvider.Action.GRAMMAR)
+            assertEquals("this is a test", collectText(provider.stream(request)))
+            assertEquals("this is a test", cache.get(cache.keyFor(request, runtime.modelId)))
+            assertNull(cache.get(cache.keyFor(request, AiProviderOpenAI.MODEL)))
+        } finally {
+            dir.deleteRecursively()
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package org.dslul.openboard.inputmethod.latin.ai
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Assume.assumeTrue
+import org.junit.Test
+import java.lang.management.ManagementFactory
+
+class StreamDeltaParserTest {
+    private fun parse(vararg events: String): String {
+        val text = StringBuilder()
+        for (event in events) StreamDeltaParser.appendDelta(event, text)
+        return text.toString()
+    }
+
+    private fun responsesDelta(delta: String) =
+        "{\"type\":\"response.output_text.delta\",\"item_id\":\"msg_1\",\"delta\":\"$delta\"}"
+
+    private fun chatDelta(content: String) =
+        "{\"id\":\"c1\",\"choices\":[{\"index\":0,\"delta\":{\"content\":\"$content\"}}]}"
+
+    @Test
+    fun deltasSplitAcrossEventsAreJoined() {
+        assertEquals("Hello, world", parse(responsesDelta("Hel"), responsesDelta("lo, "),
+            responsesDelta("world")))
+        assertEquals("Hello", parse(chatDelta("He"), chatDelta("l"), chatDelta("lo")))
+        assertEquals("on device", parse("{\"content\":\"on \"}", "{\"content\":\"device\"}"))
+    }
+
+    @Test
+    fun escapedCharactersAreDecoded() {
+        assertEquals("a \"quote\"\\ / \n\t\r\b\u000C é 😀",
+            parse(responsesDelta("a \\\"quote\\\"\\\\ \\/ \\n\\t\\r\\b\\f \\u00e9 \\ud83d\\ude00")))
+    }
+
+    @Test
+    fun onlyTextKeysAreRead() {
+        // "content" as a value, a nested delta object, and done events carrying the full text.
+        assertEquals("x", parse("{\"type\":\"content\",\"delta\":\"x\"}"))
+        assertEquals("", parse("{\"type\":\"response.output_text.done\",\"text\":\"whole reply\"}"))
+        assertEquals("", parse("{\"type\":\"response.completed\",\"response\":{\"output\":" +
+                "[{\"content\":[{\"type\":\"output_text\",\"text\":\"whole reply\"}]}]}}"))
+        assertEquals("spaced", parse("{ \"delta\" :\t\"spaced\" }"))
+        assertEquals("", parse("{\"delta\":\"\"}"))
+    }
+
+    @Test
+    fun doneMarkerCarriesNoText() {
+        val text = StringBuilder("kept")
+        assertEquals(0, StreamDeltaParser.appendDelta("[DONE]", text))
+        assertEquals("kept", text.toString())
+    }
+
+    @Test
+    fun malformedFramesAppendNothing() {
+        val malformed = listOf(
+            "{\"delta\":\"cut off",
+            "{\"delta\":\"dangling \\",
+            "{\"delta\":\"bad \\u12x4 escape\"}",
+            "{\"delta\":\"short \\u12",
+            "{\"del",
+            "{\"delta\": 42}",
+            "not json at all",
+            ""
+        )
+        for (event in malformed) {
+            val text = StringBuilder("kept")
+            assertEquals(event, 0, StreamDeltaParser.appendDelta(event, text))
+            assertEquals(event, "kept", text.toString())
+        }
+    }
+
+    @Test
+    fun parsingAllocatesNothingPerEvent() {
+        val threads = ManagementFactory.getThreadMXBean() as? com.sun.management.ThreadMXBean
+        assumeTrue(threads != null && threads.isThreadAllocatedMemorySupported)
+        threads!!.isThreadAllocatedMemoryEnabled = true
+        val events = Array(64) { responsesDelta("token $it \\u00e9 ") }
+        val text = StringBuilder(1 shl 20)
+        fun run(rounds: Int) {
+            repeat(rounds) {
+                text.setLength(0)
+                for (event in events) StreamDeltaParser.appendDelta(event, text)
+            }
+        }
+        // Warm up, so that the measured rounds run compiled code.
+        run(2000)
+        val threadId = Thread.currentThread().id
+        val before = threads.getThreadAllocatedBytes(threadId)
+        val rounds = 1000
+        run(rounds)
+        val allocated = threads.getThreadAllocatedBytes(threadId) - before
+        val perEvent = allocated.toDouble() / (rounds * events.size)
+        assertTrue("$perEvent bytes allocated per event", perEvent < 1)
+    }
+}
@@ -0,0 +1,117 @@
+package org.dslul.openboard.inputmethod.latin.ai
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicReference
+
+class TemplateTrieTest {
+    private fun trieOf(vararg keys: String) = TemplateTrie(keys.map { it to it })
+
+    @Test
+    fun matchesPrefixesIgnoringCaseInInsertionOrder() {
+        val trie = trieOf("brb", "Bye", "by", "omw")
+        assertEquals(listOf("brb", "Bye", "by"), trie.startingWith("B", 8))
+        assertEquals(listOf("Bye", "by"), trie.startingWith("by", 8))
+        assertEquals(listOf("brb"), trie.startingWith("b", 1))
+        assertEquals(emptyList<String>(), trie.startingWith("x", 8))
+        assertEquals(emptyList<String>(), trie.startingWith("", 8))
+    }
+
+    @Test
+    fun putReplacesTheValueOfAKeyInPlace() {
+        val trie = trieOf("ab", "ac")
+        trie.put("AB", "AB2")
+        assertEquals(listOf("AB2", "ac"), trie.startingWith("a", 8))
+    }
+
+    @Test
+    fun removalRefillsNodesFromTheirSubtree() {
+        val keys = (0 until TemplateTrie.MAX_RESULTS_PER_NODE + 3).map { "k$it" }
+        val trie = TemplateTrie(keys.map { it to it })
+        assertTrue(trie.remove("K0"))
+        assertTrue(trie.remove("k3"))
+        assertFalse(trie.remove("k3"))
+        val expected = keys - "k0" - "k3"
+        assertEquals(expected.take(TemplateTrie.MAX_RESULTS_PER_NODE), trie.startingWith("k", 100))
+        assertEquals(listOf("k1", "k10"), trie.startingWith("k1", 8))
+        assertTrue(trie.remove("k1"))
+        assertEquals(listOf("k10"), trie.startingWith("k1", 8))
+        assertTrue(trie.remove("k10"))
+        assertEquals(emptyList<String>(), trie.startingWith("k1", 8))
+    }
+
+    @Test
+    fun renameKeepsTheRank() {
+        val trie = trieOf("alpha", "beta", "alps")
+        trie.rename("beta", "alto", "alto")
+        assertEquals(listOf("alpha", "alto", "alps"), trie.startingWith("al", 8))
+        assertEquals(emptyList<String>(), trie.startingWith("b", 8))
+        trie.rename("missing", "bravo", "bravo")
+        assertEquals(listOf("bravo"), trie.startingWith("b", 8))
+        trie.rename("alto", "alps", "alps2")
+        assertEquals(listOf("alpha", "alps2"), trie.startingWith("al", 8))
+    }
+
+    @Test
+    fun everyChangeBumpsTheVersion() {
+        val trie = trieOf("a")
+        var version = trie.version
+        trie.put("b", "b")
+        assertTrue(trie.version > version)
+        version = trie.version
+        trie.remove("b")
+        assertTrue(trie.version > version)
+    }
+
+    @Test
+    fun queriesSeeAConsistentIndexWhileItChanges() {
+        val trie = TemplateTrie<String>(emptyList())
+        val count = 5000
+        val done = AtomicBoolean(false)
+        val failure = AtomicReference<Throwable?>(null)
+        val start = CountDownLatch(1)
+        val readers = (0 until 4).map { reader ->
+            Thread {
+                try {
+                    start.await()
+                    val prefixes = listOf("w", "w1", "w2$reader", "w3")
+                    while (!done.get()) {
+                        for (prefix in prefixes) {
+                            val matches = trie.startingWith(prefix, TemplateTrie.MAX_RESULTS_PER_NODE)
+                            var previous = -1
+                            for (match in matches) {
+                                assertTrue(match, match.startsWith(prefix))
+                                val n = match.substring(1).toInt()
+                                // Rank is insertion order, and odd entries are removed right away.
+                                assertTrue(matches.toString(), n > previous)
+                                previous = n
+                            }
+                        }
+                    }
+                } catch (t: Throwable) {
+                    failure.compareAndSet(null, t)
+                }
+            }
+        }
+        readers.forEach { it.start() }
+        start.countDown()
+        for (i in 0 until count) {
+            trie.put("w$i", "w$i")
+            if (i % 2 == 1) trie.remove("W$i")
+        }
+        done.set(true)
+        readers.forEach { it.join() }
+        failure.get()?.let { throw it }
+
+        val evens = (0 until count step 2).map { "w$it" }
+        assertEquals(evens.take(TemplateTrie.MAX_RESULTS_PER_NODE), trie.startingWith("w", 100))
+        assertEquals(evens.filter { it.startsWith("w12") }.take(TemplateTrie.MAX_RESULTS_PER_NODE),
+            trie.startingWith("w12", 100))
+        assertEquals(listOf("w4998"), trie.startingWith("w4998", 8))
+        assertEquals(emptyList<String>(), trie.startingWith("w4999", 8))
+    }
+}
@@ -0,0 +1,147 @@
+package org.dslul.openboard.inputmethod.latin.utils
+
+import org.dslul.openboard.inputmethod.latin.SuggestedWords.SuggestedWordInfo
+import org.dslul.openboard.inputmethod.latin.define.DecoderSpecificConstants.DICTIONARY_MAX_WORD_LENGTH
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Assume.assumeTrue
+import org.junit.Test
+import java.lang.management.ManagementFactory
+
+class SuggestionResultsTest {
+    private fun results(capacity: Int) = SuggestionResults(capacity, false, false)
+
+    private fun SuggestionResults.offer(word: String, score: Int): Boolean {
+        val codePoints = word.codePoints().toArray()
+        return addCandidate(codePoints, 0, codePoints.size, score,
+            SuggestedWordInfo.KIND_CORRECTION, null, SuggestedWordInfo.NOT_AN_INDEX,
+            SuggestedWordInfo.NOT_A_CONFIDENCE)
+    }
+
+    private fun info(word: String, score: Int) = SuggestedWordInfo(word, "", score,
+        SuggestedWordInfo.KIND_TYPED, null, SuggestedWordInfo.NOT_AN_INDEX,
+        SuggestedWordInfo.NOT_A_CONFIDENCE)
+
+    private fun SuggestionResults.words() = map { it.mWord }
+
+    @Test
+    fun fullResultsEvictTheWorstCandidate() {
+        val results = results(3)
+        assertTrue(results.offer("ten", 10))
+        assertTrue(results.offer("fifty", 50))
+        assertTrue(results.offer("thirty", 30))
+        // Evicts "ten", then "thirty".
+        assertTrue(results.offer("forty", 40))
+        assertFalse(results.offer("twenty", 20))
+        assertTrue(results.offer("sixty", 60))
+        assertFalse(results.offer("thirty", 30))
+        assertEquals(3, results.size)
+        assertEquals(listOf("sixty", "fifty", "forty"), results.words())
+        // Only a better candidate evicts one that ranks the same as the worst.
+        assertFalse(results.offer("forty", 40))
+        assertTrue(results.offer("fortx", 40))
+        assertEquals(listOf("sixty", "fifty", "fortx"), results.words())
+    }
+
+    @Test
+    fun tiesAreBrokenByLengthThenWord() {
+        val results = results(8)
+        results.offer("bb", 5)
+        results.offer("a", 5)
+        results.offer("ab", 5)
+        results.offer("ccc", 7)
+        results.offer("b", 5)
+        assertEquals(listOf("ccc", "a", "b", "ab", "bb"), results.words())
+        assertFalse(results.offer("ab", 5))
+        assertTrue(results.offer("ab", 6))
+        assertEquals(listOf("ccc", "ab", "a", "b", "ab", "bb"), results.words())
+    }
+
+    @Test
+    fun candidatesAreCopiedFromTheirRangeOfTheBuffer() {
+        val results = results(4)
+        val buffer = "xxhello😀yy".codePoints().toArray()
+        assertTrue(results.addCandidate(buffer, 2, 6, 42, SuggestedWordInfo.KIND_CORRECTION,
+            null, 3, 7))
+        // The results keep their own copy.
+        buffer.fill('z'.code)
+        val info = results.first()
+        assertEquals("hello😀", info.mWord)
+        assertEquals(6, info.mCodePointCount)
+        assertEquals(42, info.mScore)
+        assertEquals(SuggestedWordInfo.KIND_CORRECTION, info.mKindAndFlags)
+        assertNull(info.mSourceDict)
+        assertEquals(3, info.mIndexOfTouchPointOfSecondWord)
+        assertEquals(7, info.mAutoCommitFirstWordConfidence)
+
+        val tooLong = IntArray(DICTIONARY_MAX_WORD_LENGTH + 1) { 'a'.code }
+        assertFalse(results.addCandidate(tooLong, 0, tooLong.size, 100, 0, null, -1, -1))
+        assertFalse(results.addCandidate(tooLong, 0, 0, 100, 0, null, -1, -1))
+        assertTrue(results.addCandidate(tooLong, 1, DICTIONARY_MAX_WORD_LENGTH, 100, 0, null,
+            -1, -1))
+        assertEquals(listOf("a".repeat(DICTIONARY_MAX_WORD_LENGTH), "hello😀"), results.words())
+    }
+
+    @Test
+    fun iterationIsInRankOrderWhateverTheWayCandidatesCameIn() {
+        val results = results(5)
+        val typed = info("typed", 30)
+        results.add(typed)
+        results.offer("low", 10)
+        results.add(info("best", 90))
+        results.offer("mid", 50)
+        assertEquals(listOf("best", "mid", "typed", "low"), results.words())
+        // Objects given to add() are handed back as they are.
+        assertTrue(results.any { it === typed })
+        assertEquals("best", results.first().mWord)
+
+        // Reading again after a change sees it.
+        results.offer("top", 100)
+        results.add(info("worst", 1))
+        assertEquals(listOf("top", "best", "mid", "typed", "low"), results.words())
+        assertEquals(results.words(), results.words())
+    }
+
+    @Test
+    fun objectsTooLongForTheBufferAreStillRanked() {
+        val results = results(3)
+        val long = "b".repeat(DICTIONARY_MAX_WORD_LENGTH + 2)
+        assertTrue(results.add(info(long, 20)))
+        assertFalse(results.add(info(long, 20)))
+        assertTrue(results.add(info("a".repeat(DICTIONARY_MAX_WORD_LENGTH + 2), 20)))
+        results.offer("short", 20)
+        assertEquals(listOf("short", "a".repeat(DICTIONARY_MAX_WORD_LENGTH + 2), long),
+            results.words())
+    }
+
+    @Test
+    fun rejectedCandidatesAllocateNothing() {
+        val threads = ManagementFactory.getThreadMXBean() as? com.sun.management.ThreadMXBean
+        assumeTrue(threads != null && threads.isThreadAllocatedMemorySupported)
+        threads!!.isThreadAllocatedMemoryEnabled = true
+        val results = results(18)
+        val words = Array(64) { "word$it".codePoints().toArray() }
+        for (i in 0 until 18) {
+            results.addCandidate(words[i], 0, words[i].size, 1000 + i, 0, null, -1, -1)
+        }
+        fun run(rounds: Int) {
+            repeat(rounds) {
+                for (word in words) {
+                    results.addCandidate(word, 0, word.size, 100, 0, null, -1, -1)
+                }
+            }
+        }
+        // Warm up, so that the measured rounds run compiled code.
+        run(2000)
+        val threadId = Thread.currentThread().id
+        val before = threads.getThreadAllocatedBytes(threadId)
+        val rounds = 1000
+        run(rounds)
+        val allocated = threads.getThreadAllocatedBytes(threadId) - before
+        val perCandidate = allocated.toDouble() / (rounds * words.size)
+        assertTrue("$perCandidate bytes allocated per candidate", perCandidate < 1)
+        assertEquals(18, results.size)
+    }
+}